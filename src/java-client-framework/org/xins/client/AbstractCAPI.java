@@ -19,6 +19,7 @@ import org.xins.common.collections.MissingRequiredPropertyException;
 
 import org.xins.common.http.HTTPCallException;
 
+import org.xins.common.service.CircuitBreaker;
 import org.xins.common.service.Descriptor;
 import org.xins.common.service.DescriptorBuilder;
 import org.xins.common.service.GenericCallException;
@@ -144,6 +145,15 @@ public abstract class AbstractCAPI {
     *
     * <p>A default XINS call configuration will be used.
     *
+    * <p>If the property <code>capis.<em>apiName</em>.cache.size</code> is
+    * set, the results of the calls are cached, see
+    * {@link XINSCallResultCache}.
+    *
+    * <p>If a property starting with
+    * <code>capis.<em>apiName</em>.circuit-breaker.</code> is set, the
+    * targets are protected by a circuit breaker, see
+    * {@link CircuitBreaker#CircuitBreaker(Map,String)}.
+    *
     * <p><em>This constructor is considered internal to XINS. Do not use it
     * directly.</em>
     *
@@ -194,6 +204,16 @@ public abstract class AbstractCAPI {
       // Associate caller with this CAPI object
       _caller.setCAPI(this);
 
+      // Create the result cache if configured
+      if (XINSCallResultCache.isConfigured(properties, propName)) {
+         _caller.setResultCache(new XINSCallResultCache(properties, propName));
+      }
+
+      // Create the circuit breaker if configured
+      if (CircuitBreaker.isConfigured(properties, propName)) {
+         _caller.setCircuitBreaker(new CircuitBreaker(properties, propName));
+      }
+
       // Determine the API name
       _apiName = determineAPIName();
 
@@ -357,6 +377,31 @@ public abstract class AbstractCAPI {
       return _caller.getXINSCallConfig();
    }
 
+   /**
+    * Sets the cache for the results of the calls of this CAPI object.
+    *
+    * @param cache
+    *    the result cache, or <code>null</code> if the results should not be
+    *    cached.
+    *
+    * @since XINS 3.2
+    */
+   public final void setResultCache(XINSCallResultCache cache) {
+      _caller.setResultCache(cache);
+   }
+
+   /**
+    * Gets the cache for the results of the calls of this CAPI object.
+    *
+    * @return
+    *    the result cache, or <code>null</code> if the results are not cached.
+    *
+    * @since XINS 3.2
+    */
+   public final XINSCallResultCache getResultCache() {
+      return _caller.getResultCache();
+   }
+
    /**
     * Returns the XINS service caller to use.
     *
@@ -17,6 +17,9 @@ import java.util.List;
 import java.util.Map;
 
 import javax.servlet.ServletException;
+
+import org.w3c.dom.Element;
+
 import org.xins.common.FormattedParameters;
 
 import org.xins.common.MandatoryArgumentChecker;
@@ -197,7 +200,7 @@ class FileServiceCaller extends ServiceCaller {
       Map<String, String> parameters = ((HTTPCallRequest) request).getParameters();
 
       // Get the parameters for logging
-      FormattedParameters params = new FormattedParameters(parameters, null, "", "?", 160);
+      FormattedParameters params = new FormattedParameters(parameters, (Element) null, "", "?", 160);
 
       // Get URL value
       String url = target.getURL();
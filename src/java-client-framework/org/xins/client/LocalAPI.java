@@ -0,0 +1,140 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.client;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.w3c.dom.Element;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.xml.CompactElement;
+
+/**
+ * API running in the same Java Virtual Machine as the client. The
+ * {@link XINSServiceCaller} calls the API registered with the name
+ * <em>apiname</em> when the target descriptor is
+ * <code>local://<em>apiname</em></code>. The function is invoked in the
+ * thread of the caller, the request and the result are not serialized.
+ *
+ * <p>The XINS server framework registers each API when it is initialized
+ * and unregisters it when it is disposed. As the registry is kept in this
+ * class, the client and the API must be loaded by the same class loader.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+public abstract class LocalAPI {
+
+   /**
+    * The registered APIs. The key is the name of the API.
+    */
+   private static final ConcurrentHashMap<String, LocalAPI> APIS = new ConcurrentHashMap<String, LocalAPI>();
+
+   /**
+    * Registers an API so that it can be called with the
+    * <code>local</code> protocol. An API already registered with the same
+    * name is replaced.
+    *
+    * @param name
+    *    the name of the API, cannot be <code>null</code>.
+    *
+    * @param api
+    *    the API, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null || api == null</code>.
+    */
+   public static void register(String name, LocalAPI api) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("name", name, "api", api);
+      APIS.put(name, api);
+   }
+
+   /**
+    * Unregisters an API. Nothing is done if another API is registered with
+    * the specified name.
+    *
+    * @param name
+    *    the name of the API, cannot be <code>null</code>.
+    *
+    * @param api
+    *    the API to unregister, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null || api == null</code>.
+    */
+   public static void unregister(String name, LocalAPI api) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("name", name, "api", api);
+      APIS.remove(name, api);
+   }
+
+   /**
+    * Gets the API registered with the specified name.
+    *
+    * @param name
+    *    the name of the API, cannot be <code>null</code>.
+    *
+    * @return
+    *    the API or <code>null</code> if no API is registered with this name.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null</code>.
+    */
+   public static LocalAPI get(String name) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("name", name);
+      return APIS.get(name);
+   }
+
+   /**
+    * Creates the result of a call.
+    *
+    * @param errorCode
+    *    the error code returned by the function or <code>null</code> if the
+    *    call was successful.
+    *
+    * @param parameters
+    *    the output parameters, can be <code>null</code>.
+    *
+    * @param dataSection
+    *    the data section, can be <code>null</code>.
+    *
+    * @return
+    *    the result of the call, never <code>null</code>.
+    */
+   protected static XINSCallResultData createResult(String errorCode, Map<String, String> parameters, CompactElement dataSection) {
+      return new XINSCallResultParser.XINSCallResultDataImpl(errorCode, parameters, dataSection);
+   }
+
+   /**
+    * Calls a function of the API.
+    *
+    * @param functionName
+    *    the name of the function, never <code>null</code>.
+    *
+    * @param parameters
+    *    the input parameters, never <code>null</code>.
+    *
+    * @param dataSection
+    *    the input data section, or <code>null</code> if there is none.
+    *
+    * @param deadline
+    *    the time the result is expected before, as the number of
+    *    milliseconds since the UNIX Epoch, or <code>-1L</code> if there is
+    *    no deadline.
+    *
+    * @return
+    *    the result of the call, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the API cannot handle the call, for example because it is not
+    *    initialized.
+    */
+   protected abstract XINSCallResultData call(String functionName, Map<String, String> parameters, Element dataSection, long deadline)
+   throws IOException;
+}
@@ -5,6 +5,9 @@
  */
 package org.xins.client;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import org.apache.http.client.HttpClient;
 import org.apache.http.impl.client.DecompressingHttpClient;
 import org.apache.http.impl.client.SystemDefaultHttpClient;
@@ -33,6 +36,12 @@ public final class XINSCallConfig extends CallConfig {
     */
    private HTTPCallConfig _httpCallConfig;
 
+   /**
+    * The names of the functions whose concurrent identical calls share the
+    * same call to the API. Lazily initialized.
+    */
+   private Set<String> _coalescedFunctions;
+
    /**
     * Constructs a new <code>XINSCallConfig</code> object.
     */
@@ -144,6 +153,57 @@ public final class XINSCallConfig extends CallConfig {
       _httpCallConfig.setHttpClient(httpClient);
    }
 
+   /**
+    * Sets whether the concurrent identical calls to a function share the
+    * same call to the API. When enabled, a call with the same function,
+    * parameters and data section as a call in progress with the same
+    * service caller waits for the call in progress and gets the same
+    * result or the same exception, instead of calling the API again.
+    *
+    * <p>This should only be enabled for functions without side effect.
+    *
+    * @param functionName
+    *    the name of the function, cannot be <code>null</code>.
+    *
+    * @param coalescing
+    *    <code>true</code> if the identical calls should share the call in
+    *    progress, <code>false</code> if each call should call the API.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>functionName == null</code>.
+    *
+    * @since XINS 3.2
+    */
+   public void setCoalescing(String functionName, boolean coalescing)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("functionName", functionName);
+      if (coalescing) {
+         if (_coalescedFunctions == null) {
+            _coalescedFunctions = new HashSet<String>();
+         }
+         _coalescedFunctions.add(functionName);
+      } else if (_coalescedFunctions != null) {
+         _coalescedFunctions.remove(functionName);
+      }
+   }
+
+   /**
+    * Indicates whether the concurrent identical calls to a function share
+    * the same call to the API.
+    *
+    * @param functionName
+    *    the name of the function, can be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the identical calls share the call in progress,
+    *    <code>false</code> otherwise.
+    *
+    * @since XINS 3.2
+    */
+   public boolean isCoalescing(String functionName) {
+      return _coalescedFunctions != null && _coalescedFunctions.contains(functionName);
+   }
+
    /**
     * Describes this configuration.
     *
@@ -155,7 +215,17 @@ public final class XINSCallConfig extends CallConfig {
    public String describe() {
 
       String description = "XINS call config [failOverAllowed=" + isFailOverAllowed() + "; method=" +
-            TextUtils.quote(_httpCallConfig.getMethod().toString()) + ']';
+            TextUtils.quote(_httpCallConfig.getMethod().toString());
+      if (_httpCallConfig.getUserAgent() != null) {
+         description += "; userAgent=" + TextUtils.quote(_httpCallConfig.getUserAgent());
+      }
+      if (getHedgeDelay() > 0L) {
+         description += "; hedgeDelay=" + getHedgeDelay() + "; hedgePercentile=" + getHedgePercentile();
+      }
+      if (_coalescedFunctions != null && !_coalescedFunctions.isEmpty()) {
+         description += "; coalescing=" + _coalescedFunctions;
+      }
+      description += ']';
 
       return description;
    }
@@ -49,6 +49,12 @@ public final class XINSCallRequest extends CallRequest {
     */
    private static final String CONTEXT_ID_HTTP_PARAMETER_NAME = "_context";
 
+   /**
+    * The name of the HTTP parameter that specifies the time in milliseconds
+    * the caller is willing to wait for the result.
+    */
+   private static final String TIME_OUT_HTTP_PARAMETER_NAME = "_timeout";
+
    /**
     * Description of this XINS call request. This field cannot be
     * <code>null</code>, it is initialized during construction.
@@ -495,14 +501,26 @@ public final class XINSCallRequest extends CallRequest {
     * Returns an <code>HTTPCallRequest</code> that can be used to execute this
     * XINS request.
     *
+    * @param timeOut
+    *    the time in milliseconds the caller is willing to wait for the
+    *    result, sent to the API so that it can give up when this time is
+    *    elapsed, or <code>0</code> if there is no time limit.
+    *
     * @return
     *    this request converted to an {@link HTTPCallRequest}, never
     *    <code>null</code>.
     */
-   HTTPCallRequest getHTTPCallRequest() {
+   HTTPCallRequest getHTTPCallRequest(int timeOut) {
+
+      // Add the time-out to a copy of the parameters
+      Map<String, String> httpParams = _httpParams;
+      if (timeOut > 0) {
+         httpParams = new HashMap<String, String>(_httpParams);
+         httpParams.put(TIME_OUT_HTTP_PARAMETER_NAME, String.valueOf(timeOut));
+      }
 
       // Construct an HTTP call request
-      HTTPCallRequest httpRequest = new HTTPCallRequest(_httpParams,
+      HTTPCallRequest httpRequest = new HTTPCallRequest(httpParams,
                                                         HTTP_STATUS_CODE_VERIFIER);
 
       // If there is a XINS call config, create an HTTP call config
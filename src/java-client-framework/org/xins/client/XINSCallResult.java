@@ -171,4 +171,18 @@ public final class XINSCallResult extends CallResult implements XINSCallResultDa
    public boolean isNotModified() {
       return _data == null;
    }
+
+   /**
+    * Returns the number of seconds this result may be cached, as sent by the
+    * server in the <code>Cache-Control</code> header.
+    *
+    * @return
+    *    the maximum age in seconds, or -1 if not specified.
+    */
+   int getMaxAge() {
+      if (_data instanceof XINSCallResultParser.XINSCallResultDataImpl) {
+         return ((XINSCallResultParser.XINSCallResultDataImpl) _data).getMaxAge();
+      }
+      return -1;
+   }
 }
@@ -0,0 +1,535 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.client;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.w3c.dom.Element;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.collections.InvalidPropertyValueException;
+import org.xins.common.text.TextUtils;
+import org.xins.common.text.URLEncoding;
+import org.xins.common.xml.ElementFormatter;
+
+/**
+ * Cache for the successful results of the calls to a XINS API, used by the
+ * {@link XINSServiceCaller}.
+ *
+ * <p>The results are cached per function name, input parameters and input
+ * data section. The time a result stays in the cache is determined by, in
+ * order of precedence:
+ * <ol>
+ *    <li>the time-to-live set for the function with
+ *        {@link #setTimeToLive(String,long)};
+ *    <li>the <code>max-age</code> of the <code>Cache-Control</code> header
+ *        sent by the API, which is set by the <code>cache</code> attribute
+ *        of the function specification;
+ *    <li>the default time-to-live set with
+ *        {@link #setDefaultTimeToLive(long)}, which is 0 by default meaning
+ *        that the result is not cached.
+ * </ol>
+ *
+ * <p>When the time-to-live of a result expires, the result is kept in the
+ * cache and the API is called again. If the API returns a
+ * <em>not modified</em> result, the cached result is returned to the caller
+ * and stays in the cache for another time-to-live.
+ *
+ * <p>The cache contains a maximum number of results. When the cache is full,
+ * the least recently used result is removed.
+ *
+ * <p>The same {@link XINSCallResult} instance is returned to all callers
+ * that get it from the cache, so the data element of a cached result should
+ * not be modified.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+public final class XINSCallResultCache {
+
+   /**
+    * The suffix of the name of the property that defines the maximum number
+    * of results in the cache. The property name is prefixed with the
+    * property prefix passed to {@link #XINSCallResultCache(Map,String)}, for
+    * example <code>capis.<em>api</em>.cache.size</code>.
+    */
+   public static final String CACHE_SIZE_PROPERTY = "cache.size";
+
+   /**
+    * The suffix of the name of the property that defines the default
+    * time-to-live of the results in milliseconds. The suffix followed by a
+    * dot and a function name defines the time-to-live for that function,
+    * for example <code>capis.<em>api</em>.cache.ttl.GetCountries</code>.
+    */
+   public static final String CACHE_TTL_PROPERTY = "cache.ttl";
+
+   /**
+    * The default maximum number of results in the cache.
+    */
+   public static final int DEFAULT_MAX_SIZE = 1000;
+
+   /**
+    * The maximum number of results in the cache.
+    */
+   private final int _maxSize;
+
+   /**
+    * The cached results, in access order. The key is the cache key of the
+    * request. Never <code>null</code>.
+    */
+   private final LinkedHashMap<String, CacheEntry> _entries;
+
+   /**
+    * The time-to-live of the results per function name, in milliseconds.
+    * Never <code>null</code>.
+    */
+   private final Map<String, Long> _timeToLives = new HashMap<String, Long>();
+
+   /**
+    * The time-to-live of the results of the functions with no specific
+    * time-to-live and no cache hint from the server, in milliseconds.
+    */
+   private volatile long _defaultTimeToLive;
+
+   /**
+    * Number of times a result was found in the cache.
+    */
+   private final AtomicLong _hits = new AtomicLong();
+
+   /**
+    * Number of times the API had to be called.
+    */
+   private final AtomicLong _misses = new AtomicLong();
+
+   /**
+    * Number of times an expired result was returned because the API
+    * returned a <em>not modified</em> result.
+    */
+   private final AtomicLong _revalidations = new AtomicLong();
+
+   /**
+    * Number of results removed because the cache was full.
+    */
+   private final AtomicLong _evictions = new AtomicLong();
+
+   /**
+    * Creates a new <code>XINSCallResultCache</code>.
+    *
+    * @param maxSize
+    *    the maximum number of results in the cache, must be &gt; 0.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>maxSize &lt;= 0</code>.
+    */
+   public XINSCallResultCache(int maxSize)
+   throws IllegalArgumentException {
+      if (maxSize <= 0) {
+         throw new IllegalArgumentException("maxSize (" + maxSize + ") <= 0");
+      }
+      _maxSize = maxSize;
+      _entries = new LinkedHashMap<String, CacheEntry>(Math.min(maxSize, 89) + 1, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            if (size() > _maxSize) {
+               _evictions.incrementAndGet();
+               return true;
+            }
+            return false;
+         }
+      };
+   }
+
+   /**
+    * Creates a new <code>XINSCallResultCache</code> configured with the
+    * properties {@link #CACHE_SIZE_PROPERTY} and {@link #CACHE_TTL_PROPERTY}
+    * prefixed with the specified prefix.
+    *
+    * @param properties
+    *    the properties, cannot be <code>null</code>.
+    *
+    * @param propertyPrefix
+    *    the prefix of the property names, for example
+    *    <code>"capis.<em>api</em>"</code>, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>properties == null || propertyPrefix == null</code>.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value of one of the properties is incorrect.
+    */
+   public XINSCallResultCache(Map<String, String> properties, String propertyPrefix)
+   throws IllegalArgumentException, InvalidPropertyValueException {
+      this(getMaxSize(properties, propertyPrefix));
+
+      String ttlProperty = propertyPrefix + '.' + CACHE_TTL_PROPERTY;
+      for (Map.Entry<String, String> property : properties.entrySet()) {
+         String name = property.getKey();
+         if (name.equals(ttlProperty)) {
+            setDefaultTimeToLive(parseLong(name, property.getValue()));
+         } else if (name.startsWith(ttlProperty + '.')) {
+            String functionName = name.substring(ttlProperty.length() + 1);
+            setTimeToLive(functionName, parseLong(name, property.getValue()));
+         }
+      }
+   }
+
+   /**
+    * Determines whether the properties define a result cache for the
+    * specified prefix.
+    *
+    * @param properties
+    *    the properties, cannot be <code>null</code>.
+    *
+    * @param propertyPrefix
+    *    the prefix of the property names, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the property {@link #CACHE_SIZE_PROPERTY} is
+    *    set for the prefix, <code>false</code> otherwise.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>properties == null || propertyPrefix == null</code>.
+    */
+   public static boolean isConfigured(Map<String, String> properties, String propertyPrefix)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("properties", properties, "propertyPrefix", propertyPrefix);
+      return !TextUtils.isEmpty(properties.get(propertyPrefix + '.' + CACHE_SIZE_PROPERTY));
+   }
+
+   private static int getMaxSize(Map<String, String> properties, String propertyPrefix)
+   throws IllegalArgumentException, InvalidPropertyValueException {
+      MandatoryArgumentChecker.check("properties", properties, "propertyPrefix", propertyPrefix);
+      String propertyName = propertyPrefix + '.' + CACHE_SIZE_PROPERTY;
+      String value = properties.get(propertyName);
+      if (TextUtils.isEmpty(value)) {
+         return DEFAULT_MAX_SIZE;
+      }
+      try {
+         int maxSize = Integer.parseInt(value.trim());
+         if (maxSize > 0) {
+            return maxSize;
+         }
+      } catch (NumberFormatException nfe) {
+         // fall through
+      }
+      throw new InvalidPropertyValueException(propertyName, value, "Expected a positive integer.");
+   }
+
+   private static long parseLong(String propertyName, String value)
+   throws InvalidPropertyValueException {
+      try {
+         long ttl = Long.parseLong(value.trim());
+         if (ttl >= 0L) {
+            return ttl;
+         }
+      } catch (NumberFormatException nfe) {
+         // fall through
+      }
+      throw new InvalidPropertyValueException(propertyName, value, "Expected a non-negative integer.");
+   }
+
+   /**
+    * Sets the time-to-live of the results of the specified function. This
+    * time-to-live takes precedence over the cache hint sent by the server.
+    *
+    * @param functionName
+    *    the name of the function, cannot be <code>null</code>.
+    *
+    * @param timeToLive
+    *    the time-to-live in milliseconds, or 0 if the results of the
+    *    function should not be cached.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>functionName == null || timeToLive &lt; 0</code>.
+    */
+   public void setTimeToLive(String functionName, long timeToLive)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("functionName", functionName);
+      if (timeToLive < 0L) {
+         throw new IllegalArgumentException("timeToLive (" + timeToLive + ") < 0");
+      }
+      synchronized (_timeToLives) {
+         _timeToLives.put(functionName, timeToLive);
+      }
+   }
+
+   /**
+    * Sets the time-to-live of the results of the functions that have no
+    * time-to-live set and for which the server did not send any cache hint.
+    *
+    * @param timeToLive
+    *    the time-to-live in milliseconds, or 0 if these results should not
+    *    be cached.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>timeToLive &lt; 0</code>.
+    */
+   public void setDefaultTimeToLive(long timeToLive)
+   throws IllegalArgumentException {
+      if (timeToLive < 0L) {
+         throw new IllegalArgumentException("timeToLive (" + timeToLive + ") < 0");
+      }
+      _defaultTimeToLive = timeToLive;
+   }
+
+   /**
+    * Gets the time-to-live of the results of the specified function.
+    *
+    * @param functionName
+    *    the name of the function, cannot be <code>null</code>.
+    *
+    * @param result
+    *    the result of the call, cannot be <code>null</code>.
+    *
+    * @return
+    *    the time-to-live in milliseconds, or 0 if the result should not be
+    *    cached.
+    */
+   private long getTimeToLive(String functionName, XINSCallResult result) {
+      Long timeToLive;
+      synchronized (_timeToLives) {
+         timeToLive = _timeToLives.get(functionName);
+      }
+      if (timeToLive != null) {
+         return timeToLive.longValue();
+      }
+      int maxAge = result.getMaxAge();
+      if (maxAge >= 0) {
+         return maxAge * 1000L;
+      }
+      return _defaultTimeToLive;
+   }
+
+   /**
+    * Computes the cache key of the specified request. The key contains the
+    * function name, the input parameters sorted by name and the data section.
+    *
+    * @param request
+    *    the request, cannot be <code>null</code>.
+    *
+    * @return
+    *    the cache key, never <code>null</code>.
+    */
+   static String getKey(XINSCallRequest request) {
+      StringBuilder key = new StringBuilder(64);
+      key.append(request.getFunctionName());
+      Map<String, String> parameters = request.getParameters();
+      if (parameters != null && !parameters.isEmpty()) {
+         for (Map.Entry<String, String> parameter : new TreeMap<String, String>(parameters).entrySet()) {
+            key.append('&');
+            key.append(URLEncoding.encode(parameter.getKey()));
+            if (parameter.getValue() != null) {
+               key.append('=');
+               key.append(URLEncoding.encode(parameter.getValue()));
+            }
+         }
+      }
+      Element dataSection = request.getDataSection();
+      if (dataSection != null) {
+         key.append('\n');
+         key.append(ElementFormatter.format(dataSection));
+      }
+      return key.toString();
+   }
+
+   /**
+    * Gets the result cached for the specified key, if it has not expired.
+    *
+    * @param key
+    *    the cache key of the request, cannot be <code>null</code>.
+    *
+    * @return
+    *    the cached result or <code>null</code> if there is no result or if
+    *    it has expired.
+    */
+   XINSCallResult get(String key) {
+      CacheEntry entry;
+      synchronized (_entries) {
+         entry = _entries.get(key);
+      }
+      if (entry != null && entry._expiry > System.currentTimeMillis()) {
+         _hits.incrementAndGet();
+         return entry._result;
+      }
+      _misses.incrementAndGet();
+      return null;
+   }
+
+   /**
+    * Stores the result of a call in the cache.
+    *
+    * <p>If the result is a <em>not modified</em> result and an expired
+    * result is still in the cache for the same request, then the expired
+    * result is renewed and returned.
+    *
+    * @param key
+    *    the cache key of the request, cannot be <code>null</code>.
+    *
+    * @param functionName
+    *    the name of the called function, cannot be <code>null</code>.
+    *
+    * @param result
+    *    the result of the call, cannot be <code>null</code>.
+    *
+    * @return
+    *    the result to return to the caller, never <code>null</code>.
+    */
+   XINSCallResult put(String key, String functionName, XINSCallResult result) {
+      if (result.isNotModified()) {
+         CacheEntry entry;
+         synchronized (_entries) {
+            entry = _entries.get(key);
+         }
+         if (entry == null) {
+            return result;
+         }
+         long timeToLive = getTimeToLive(functionName, entry._result);
+         entry._expiry = System.currentTimeMillis() + timeToLive;
+         _revalidations.incrementAndGet();
+         return entry._result;
+      }
+
+      if (result.getErrorCode() == null) {
+         long timeToLive = getTimeToLive(functionName, result);
+         synchronized (_entries) {
+            if (timeToLive > 0L) {
+               _entries.put(key, new CacheEntry(result, System.currentTimeMillis() + timeToLive));
+            } else {
+               _entries.remove(key);
+            }
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Removes the cached results of the specified function.
+    *
+    * @param functionName
+    *    the name of the function, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>functionName == null</code>.
+    */
+   public void invalidate(String functionName)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("functionName", functionName);
+      synchronized (_entries) {
+         Iterator<String> keys = _entries.keySet().iterator();
+         while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.startsWith(functionName) && (key.length() == functionName.length()
+                  || key.charAt(functionName.length()) == '&' || key.charAt(functionName.length()) == '\n')) {
+               keys.remove();
+            }
+         }
+      }
+   }
+
+   /**
+    * Removes all results from the cache.
+    */
+   public void clear() {
+      synchronized (_entries) {
+         _entries.clear();
+      }
+   }
+
+   /**
+    * Gets the number of results in the cache, including the expired results.
+    *
+    * @return
+    *    the number of cached results.
+    */
+   public int getSize() {
+      synchronized (_entries) {
+         return _entries.size();
+      }
+   }
+
+   /**
+    * Gets the number of times a result was found in the cache.
+    *
+    * @return
+    *    the number of cache hits.
+    */
+   public long getHitCount() {
+      return _hits.get();
+   }
+
+   /**
+    * Gets the number of times the API had to be called.
+    *
+    * @return
+    *    the number of cache misses.
+    */
+   public long getMissCount() {
+      return _misses.get();
+   }
+
+   /**
+    * Gets the ratio of the calls that were answered from the cache.
+    *
+    * @return
+    *    the hit rate, between 0.0 and 1.0, or 0.0 if there were no calls.
+    */
+   public double getHitRate() {
+      long hits = _hits.get();
+      long total = hits + _misses.get();
+      return total == 0L ? 0.0 : (double) hits / total;
+   }
+
+   /**
+    * Gets the number of times an expired result was returned again because
+    * the API returned a <em>not modified</em> result.
+    *
+    * @return
+    *    the number of revalidated results.
+    */
+   public long getRevalidationCount() {
+      return _revalidations.get();
+   }
+
+   /**
+    * Gets the number of results removed from the cache because the cache
+    * was full.
+    *
+    * @return
+    *    the number of evicted results.
+    */
+   public long getEvictionCount() {
+      return _evictions.get();
+   }
+
+   /**
+    * Entry of the cache.
+    */
+   private static final class CacheEntry {
+
+      /**
+       * The cached result. Never <code>null</code>.
+       */
+      private final XINSCallResult _result;
+
+      /**
+       * The time when the result expires.
+       */
+      private volatile long _expiry;
+
+      private CacheEntry(XINSCallResult result, long expiry) {
+         _result = result;
+         _expiry = expiry;
+      }
+   }
+}
@@ -6,16 +6,27 @@
 package org.xins.client;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.Utils;
 import org.xins.common.text.ParseException;
 import org.xins.common.text.TextUtils;
-import org.xins.common.xml.ElementList;
-import org.xins.common.xml.ElementFormatter;
+import org.xins.common.xml.CompactElement;
+import org.xins.common.xml.CompactElementBuilder;
+import org.xins.common.xml.DocumentBuilderPool;
 
 /**
  * XINS call result parser. XML is parsed to produce a {@link XINSCallResult}
@@ -30,7 +41,11 @@ import org.xins.common.xml.ElementFormatter;
  * as the error code. If both these attributes are set and conflicting, then
  * this is considered a showstopper.
  *
- * <p>TODO: Describe rest of parse process.
+ * <p>The XML is read in one pass with a pull parser. The error code and the
+ * parameters are extracted while reading, the unknown elements are skipped
+ * and the data section is kept as a {@link CompactElement}. The DOM
+ * {@link Element} of the data section is only created when
+ * {@link XINSCallResultData#getDataElement()} is called.
  *
  * <p>Note: This parser is
  * <a href="http://www.w3.org/TR/REC-xml-names/">XML Namespaces</a>-aware.
@@ -44,6 +59,29 @@ import org.xins.common.xml.ElementFormatter;
  */
 public class XINSCallResultParser {
 
+   /**
+    * The factory for the pull parsers. Never <code>null</code>. The factory
+    * is thread-safe once configured.
+    */
+   private static final XMLInputFactory INPUT_FACTORY;
+
+   /**
+    * Initializes this class.
+    */
+   static {
+      INPUT_FACTORY = XMLInputFactory.newInstance();
+      INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+      INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+      INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+      // Resolve all external resources to empty content
+      INPUT_FACTORY.setXMLResolver(new XMLResolver() {
+         public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) {
+            return new ByteArrayInputStream(new byte[0]);
+         }
+      });
+   }
+
    /**
     * Constructs a new <code>XINSCallResultParser</code>.
     */
@@ -73,14 +111,40 @@ public class XINSCallResultParser {
       // Check preconditions
       MandatoryArgumentChecker.check("xml", xml);
 
-      ByteArrayInputStream stream = null;
-      try {
+      return parse(new ByteArrayInputStream(xml));
+   }
 
-         // Convert the byte array to an input stream
-         stream = new ByteArrayInputStream(xml);
-         Element resultElement = ElementFormatter.parse(stream);
+   /**
+    * Parses the XML read from the given stream to create a
+    * <code>XINSCallResultData</code> object. The stream is read until the
+    * end of the <code>result</code> element and is not closed.
+    *
+    * @param stream
+    *    the stream containing the XML to be parsed, not <code>null</code>.
+    *
+    * @return
+    *    the parsed result of the call, not <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>stream == null</code>.
+    *
+    * @throws ParseException
+    *    if the stream does not contain valid XML, if it is not a valid XINS
+    *    API function call result or if it cannot be read.
+    *
+    * @since XINS 3.2
+    */
+   public XINSCallResultData parse(InputStream stream)
+   throws IllegalArgumentException, ParseException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("stream", stream);
+
+      XMLStreamReader reader = null;
+      try {
+         reader = INPUT_FACTORY.createXMLStreamReader(stream);
 
-         return new XINSCallResultDataImpl(resultElement);
+         return new XINSCallResultDataImpl(reader);
 
       } catch (Exception exception) {
 
@@ -101,27 +165,156 @@ public class XINSCallResultParser {
          // Throw exception with message, and register cause exception
          throw new ParseException(message, exception, detail);
 
-      // Always dispose the ByteArrayInputStream
+      // Always dispose the parser
       } finally {
-         if (stream != null) {
+         if (reader != null) {
             try {
-               stream.close();
+               reader.close();
             } catch (Throwable exception) {
-               Utils.logProgrammingError(exception);
+               Utils.logIgnoredException(exception);
             }
          }
       }
    }
 
    /**
-    * SAX event handler that will parse the result from a call to a XINS
-    * service.
+    * Gets the qualified name of the current element or of an attribute of
+    * the current element.
+    *
+    * @param prefix
+    *    the namespace prefix, can be <code>null</code> or empty.
+    *
+    * @param localName
+    *    the local name, cannot be <code>null</code>.
+    *
+    * @return
+    *    the qualified name, never <code>null</code>.
+    */
+   private static String qualifiedName(String prefix, String localName) {
+      if (prefix == null || prefix.length() == 0) {
+         return localName;
+      }
+      return prefix + ':' + localName;
+   }
+
+   /**
+    * Reads the current element and its content. When this method returns,
+    * the parser is positioned on the end tag of the element.
+    *
+    * @param reader
+    *    the parser positioned on the start tag of the element, cannot be
+    *    <code>null</code>.
+    *
+    * @return
+    *    the element read, never <code>null</code>.
+    *
+    * @throws XMLStreamException
+    *    if the XML cannot be read.
+    */
+   private static CompactElement readElement(XMLStreamReader reader) throws XMLStreamException {
+      CompactElementBuilder builder = new CompactElementBuilder(qualifiedName(reader.getPrefix(), reader.getLocalName()));
+      for (int i = 0; i < reader.getNamespaceCount(); i++) {
+         String prefix = reader.getNamespacePrefix(i);
+         String name = prefix == null || prefix.length() == 0 ? "xmlns" : "xmlns:" + prefix;
+         builder.setAttribute(name, reader.getNamespaceURI(i));
+      }
+      for (int i = 0; i < reader.getAttributeCount(); i++) {
+         String name = qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+         builder.setAttribute(name, reader.getAttributeValue(i));
+      }
+      StringBuilder text = null;
+      for (int event = reader.next(); event != XMLStreamConstants.END_ELEMENT; event = reader.next()) {
+         if (event == XMLStreamConstants.START_ELEMENT) {
+            builder.addChild(readElement(reader));
+         } else if (isText(event) && builder.getChildCount() == 0) {
+            if (text == null) {
+               text = new StringBuilder(reader.getTextLength());
+            }
+            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+         }
+      }
+      if (text != null && text.length() > 0 && builder.getChildCount() == 0) {
+         builder.setText(text.toString());
+      }
+      return builder.build();
+   }
+
+   /**
+    * Reads the character content of the current element, including the
+    * content of its child elements. When this method returns, the parser is
+    * positioned on the end tag of the element.
+    *
+    * @param reader
+    *    the parser positioned on the start tag of the element, cannot be
+    *    <code>null</code>.
+    *
+    * @return
+    *    the character content, never <code>null</code>.
+    *
+    * @throws XMLStreamException
+    *    if the XML cannot be read.
+    */
+   private static String readText(XMLStreamReader reader) throws XMLStreamException {
+      StringBuilder text = new StringBuilder();
+      int depth = 1;
+      while (depth > 0) {
+         int event = reader.next();
+         if (event == XMLStreamConstants.START_ELEMENT) {
+            depth++;
+         } else if (event == XMLStreamConstants.END_ELEMENT) {
+            depth--;
+         } else if (isText(event)) {
+            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+         }
+      }
+      return text.toString();
+   }
+
+   /**
+    * Skips the current element and its content. When this method returns,
+    * the parser is positioned on the end tag of the element.
+    *
+    * @param reader
+    *    the parser positioned on the start tag of the element, cannot be
+    *    <code>null</code>.
+    *
+    * @throws XMLStreamException
+    *    if the XML cannot be read.
+    */
+   private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+      int depth = 1;
+      while (depth > 0) {
+         int event = reader.next();
+         if (event == XMLStreamConstants.START_ELEMENT) {
+            depth++;
+         } else if (event == XMLStreamConstants.END_ELEMENT) {
+            depth--;
+         }
+      }
+   }
+
+   /**
+    * Indicates whether a parser event is character content.
+    *
+    * @param event
+    *    the parser event.
+    *
+    * @return
+    *    <code>true</code> if the event is character content.
+    */
+   private static boolean isText(int event) {
+      return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+            || event == XMLStreamConstants.SPACE;
+   }
+
+   /**
+    * Result of a call to a XINS service, read from the XML.
     *
     * @version $Revision: 1.75 $ $Date: 2013/01/28 15:33:55 $
     * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
     * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
     */
-   private static class XINSCallResultDataImpl implements XINSCallResultData {
+   static class XINSCallResultDataImpl implements XINSCallResultData {
 
       /**
        * The error code returned by the function or <code>null</code>, if no
@@ -142,37 +335,50 @@ public class XINSCallResultParser {
       /**
        * The data section of the result, can be <code>null</code>.
        */
-      private Element _dataSection;
+      private CompactElement _dataSection;
+
+      /**
+       * The DOM element of the data section, lazily created. Can be
+       * <code>null</code>.
+       */
+      private Element _dataElement;
 
+      /**
+       * The number of seconds the result may be cached as sent by the server,
+       * or -1 if not specified.
+       */
+      private int _maxAge = -1;
 
       /**
        * Constructs a new <code>XINSCallResultDataImpl</code> instance.
        *
-       * @param resultElement
-       *    the parsed result, cannot be <code>null</code>.
+       * @param reader
+       *    the parser of the result, cannot be <code>null</code>.
        *
        * @throws ParseException
        *    if the parse XML does not match the XINS protocol.
+       *
+       * @throws XMLStreamException
+       *    if the XML cannot be read.
        */
-      private XINSCallResultDataImpl(Element resultElement) throws ParseException {
+      private XINSCallResultDataImpl(XMLStreamReader reader) throws ParseException, XMLStreamException {
 
-         if (!"result".equals(resultElement.getTagName())) {
-            String detail = "Incorrect root element '" + resultElement.getTagName() + "'. Expected 'result'.";
+         // Go to the root element
+         reader.nextTag();
+         String rootName = qualifiedName(reader.getPrefix(), reader.getLocalName());
+         if (!"result".equals(rootName)) {
+            String detail = "Incorrect root element '" + rootName + "'. Expected 'result'.";
             throw new ParseException(detail);
          }
-         if (resultElement.getNamespaceURI() != null) {
+         if (!TextUtils.isEmpty(reader.getNamespaceURI())) {
             String detail = "No namespace is allowed for the 'result' element. The namespace used is '" +
-                  resultElement.getNamespaceURI() + "'.";
+                  reader.getNamespaceURI() + "'.";
             throw new ParseException(detail);
          }
-         /*if (resultElement.getElementsByTagName("*").getLength() != resultElement.getChildNodes().getLength()) {
-            String detail = "Only elements are allowed for the 'result' element.";
-            throw new ParseException(detail);
-         }*/
 
          // Get and check the error code if any.
-         _errorCode = resultElement.getAttribute("errorcode");
-         String oldErrorCode = resultElement.getAttribute("code");
+         _errorCode = reader.getAttributeValue(null, "errorcode");
+         String oldErrorCode = reader.getAttributeValue(null, "code");
          if (TextUtils.isEmpty(_errorCode) && !TextUtils.isEmpty(oldErrorCode)) {
             _errorCode = oldErrorCode;
          }
@@ -188,34 +394,80 @@ public class XINSCallResultParser {
             _errorCode = null;
          }
 
-         // Get and check the parameters, if any.
-         ElementList paramElements = new ElementList(resultElement, "param");
-
-         for (Element nextParam : paramElements) {
-            String paramName = nextParam.getAttribute("name");
-            if (TextUtils.isEmpty(paramName)) {
-               throw new ParseException("No parameter name specified for a parameter: " + nextParam.toString());
-            }
-            String paramValue = nextParam.getTextContent();
-            if (_parameters != null && _parameters.get(paramName) != null &&
-                  !_parameters.get(paramName).equals(paramValue)) {
-               String detail = "Duplicate output parameter '" + paramName +
-                     "'with different values: '" + _parameters.get(paramName) +
-                     "' and '" + paramValue + "'.";
-               throw new ParseException(detail);
+         // Read the parameters and the data section. The character content
+         // and the unknown elements are ignored.
+         for (int event = reader.next(); event != XMLStreamConstants.END_ELEMENT; event = reader.next()) {
+            if (event != XMLStreamConstants.START_ELEMENT) {
+               continue;
             }
-            if (!TextUtils.isEmpty(paramValue) && nextParam.getNamespaceURI() == null) {
-               if (_parameters == null) {
-                  _parameters = new HashMap<String, String>();
+            boolean noNamespace = TextUtils.isEmpty(reader.getNamespaceURI()) && TextUtils.isEmpty(reader.getPrefix());
+            String elementName = reader.getLocalName();
+            if (noNamespace && "param".equals(elementName)) {
+               readParameter(reader);
+            } else if (noNamespace && "data".equals(elementName)) {
+               if (_dataSection != null) {
+                  throw new ParseException("More than one \"data\" children found in the \"result\" element.");
                }
-               _parameters.put(paramName, paramValue);
+               _dataSection = readElement(reader);
+            } else {
+               skipElement(reader);
             }
          }
+      }
+
+      /**
+       * Constructs a new <code>XINSCallResultDataImpl</code> instance from
+       * the result of a function called in the same Java Virtual Machine.
+       *
+       * @param errorCode
+       *    the error code or <code>null</code> if the call was successful.
+       *
+       * @param parameters
+       *    the output parameters, can be <code>null</code>.
+       *
+       * @param dataSection
+       *    the data section, can be <code>null</code>.
+       */
+      XINSCallResultDataImpl(String errorCode, Map<String, String> parameters, CompactElement dataSection) {
+         _errorCode = TextUtils.isEmpty(errorCode) ? null : errorCode;
+         if (parameters != null && !parameters.isEmpty()) {
+            _parameters = new HashMap<String, String>(parameters);
+         }
+         _dataSection = dataSection;
+      }
 
-         // Get the data section, if any.
-         ElementList dataList = new ElementList(resultElement, "data");
-         if (!dataList.isEmpty()) {
-             _dataSection = dataList.getUniqueChildElement();
+      /**
+       * Reads an output parameter.
+       *
+       * @param reader
+       *    the parser positioned on the start tag of the <code>param</code>
+       *    element, cannot be <code>null</code>.
+       *
+       * @throws ParseException
+       *    if the parameter has no name or if it conflicts with another
+       *    parameter.
+       *
+       * @throws XMLStreamException
+       *    if the XML cannot be read.
+       */
+      private void readParameter(XMLStreamReader reader) throws ParseException, XMLStreamException {
+         String paramName = reader.getAttributeValue(null, "name");
+         if (TextUtils.isEmpty(paramName)) {
+            throw new ParseException("No parameter name specified for a parameter.");
+         }
+         String paramValue = readText(reader);
+         if (_parameters != null && _parameters.get(paramName) != null &&
+               !_parameters.get(paramName).equals(paramValue)) {
+            String detail = "Duplicate output parameter '" + paramName +
+                  "'with different values: '" + _parameters.get(paramName) +
+                  "' and '" + paramValue + "'.";
+            throw new ParseException(detail);
+         }
+         if (!TextUtils.isEmpty(paramValue)) {
+            if (_parameters == null) {
+               _parameters = new HashMap<String, String>();
+            }
+            _parameters.put(paramName, paramValue);
          }
       }
 
@@ -250,15 +502,64 @@ public class XINSCallResultParser {
       }
 
       /**
-       * Get the data element returned by the function if any.
+       * Get the data element returned by the function if any. The DOM
+       * element is created at the first call.
        *
        * @return
        *    the data element, or <code>null</code> if the function did not
        *    return any data element.
        */
-      public Element getDataElement() {
+      public synchronized Element getDataElement() {
+
+         if (_dataElement == null && _dataSection != null) {
+            DocumentBuilder builder = DocumentBuilderPool.getInstance().getBuilder();
+            Document document;
+            try {
+               document = builder.newDocument();
+            } finally {
+               DocumentBuilderPool.getInstance().releaseBuilder(builder);
+            }
+            _dataElement = _dataSection.toDOM(document);
+            document.appendChild(_dataElement);
+         }
+         return _dataElement;
+      }
+
+      /**
+       * Get the data section returned by the function if any, without
+       * creating its DOM element.
+       *
+       * @return
+       *    the data section, or <code>null</code> if the function did not
+       *    return any data element.
+       */
+      CompactElement getCompactDataElement() {
 
          return _dataSection;
       }
+
+      /**
+       * Gets the number of seconds the result may be cached, as sent by the
+       * server.
+       *
+       * @return
+       *    the maximum age in seconds, or -1 if not specified.
+       */
+      int getMaxAge() {
+
+         return _maxAge;
+      }
+
+      /**
+       * Sets the number of seconds the result may be cached, as sent by the
+       * server.
+       *
+       * @param maxAge
+       *    the maximum age in seconds, or -1 if not specified.
+       */
+      void setMaxAge(int maxAge) {
+
+         _maxAge = maxAge;
+      }
    }
 }
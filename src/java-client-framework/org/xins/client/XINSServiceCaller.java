@@ -5,9 +5,15 @@
  */
 package org.xins.client;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xins.common.FormattedParameters;
 import org.xins.common.MandatoryArgumentChecker;
@@ -24,6 +30,7 @@ import org.xins.common.service.CallRequest;
 import org.xins.common.service.CallResult;
 import org.xins.common.service.ConnectionTimeOutCallException;
 import org.xins.common.service.ConnectionRefusedCallException;
+import org.xins.common.service.Deadline;
 import org.xins.common.service.Descriptor;
 import org.xins.common.service.GenericCallException;
 import org.xins.common.service.IOCallException;
@@ -37,6 +44,7 @@ import org.xins.common.service.UnsupportedProtocolException;
 import org.xins.common.spec.ErrorCodeSpec;
 import org.xins.common.text.ParseException;
 import org.xins.common.text.TextUtils;
+import org.xins.common.xml.CompactElement;
 import org.w3c.dom.Element;
 import org.xins.common.http.*;
 import org.znerd.util.ExceptionUtils;
@@ -86,6 +94,17 @@ import org.znerd.util.ExceptionUtils;
  * <p>If none of these conditions holds, then fail-over is not considered
  * acceptable and will not be performed.
  *
+ * <h2>Deadline</h2>
+ *
+ * <p>The time the caller is willing to wait for the result is sent to the
+ * API in the <em>_timeout</em> parameter. It is the total time-out of the
+ * target, reduced to the time remaining before the
+ * {@link org.xins.common.service.Deadline Deadline} of the current thread.
+ * When a XINS function calls another API, the remaining time of its own
+ * call is used, so that the deadline is propagated along the chain of
+ * calls. If the deadline is already passed, then the API is not called and
+ * a {@link TotalTimeOutCallException} is thrown.
+ *
  * <h2>Example code</h2>
  *
  * <p>The following example code snippet constructs a
@@ -147,6 +166,24 @@ public class XINSServiceCaller extends ServiceCaller {
     */
    private HashMap<TargetDescriptor, ServiceCaller> _serviceCallers;
 
+   /**
+    * The cache for the results of the calls, or <code>null</code> if the
+    * results are not cached.
+    */
+   private volatile XINSCallResultCache _resultCache;
+
+   /**
+    * The calls in progress that can be shared, per request key. Never
+    * <code>null</code>.
+    */
+   private final ConcurrentMap<String, SharedCall> _sharedCalls = new ConcurrentHashMap<String, SharedCall>();
+
+   /**
+    * The number of calls that waited for an identical call in progress
+    * instead of calling the API.
+    */
+   private final AtomicLong _coalescedCallCount = new AtomicLong();
+
    /**
     * Constructs a new <code>XINSServiceCaller</code> with the specified
     * descriptor and call configuration.
@@ -230,7 +267,7 @@ public class XINSServiceCaller extends ServiceCaller {
     * @since XINS 1.2.0
     */
    protected boolean isProtocolSupportedImpl(String protocol) {
-      return "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)  || "file".equalsIgnoreCase(protocol);
+      return "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)  || "file".equalsIgnoreCase(protocol) || "local".equalsIgnoreCase(protocol);
    }
 
    public void setDescriptor(Descriptor descriptor) {
@@ -256,6 +293,38 @@ public class XINSServiceCaller extends ServiceCaller {
       }
    }
 
+   protected int warmUp(TargetDescriptor target, int connections)
+   throws IOException {
+      String protocol = target.getProtocol();
+      if ("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)) {
+         HTTPCallConfig httpConfig = ((XINSCallConfig) getCallConfig()).getHTTPCallConfig();
+         return HTTPServiceCaller.openConnections(httpConfig, target, connections);
+      }
+      return 0;
+   }
+
+   protected String getFunctionName(CallRequest request) {
+      return ((XINSCallRequest) request).getFunctionName();
+   }
+
+   /**
+    * Gets the type of error of a failed call, used to record the metrics of
+    * the call. The type of error of an unsuccessful call is the error code
+    * returned by the API.
+    *
+    * @param exception
+    *    the exception thrown by the call, cannot be <code>null</code>.
+    *
+    * @return
+    *    the type of error, never <code>null</code>.
+    */
+   protected String getErrorType(Throwable exception) {
+      if (exception instanceof UnsuccessfulXINSCallException) {
+         return ((UnsuccessfulXINSCallException) exception).getErrorCode();
+      }
+      return super.getErrorType(exception);
+   }
+
    /**
     * Sets the associated <code>CAPI</code> instance.
     *
@@ -323,6 +392,45 @@ public class XINSServiceCaller extends ServiceCaller {
       return (XINSCallConfig) getCallConfig();
    }
 
+   /**
+    * Sets the cache for the results of the calls.
+    *
+    * @param cache
+    *    the result cache, or <code>null</code> if the results should not be
+    *    cached.
+    *
+    * @since XINS 3.2
+    */
+   public void setResultCache(XINSCallResultCache cache) {
+      _resultCache = cache;
+   }
+
+   /**
+    * Gets the cache for the results of the calls.
+    *
+    * @return
+    *    the result cache, or <code>null</code> if the results are not cached.
+    *
+    * @since XINS 3.2
+    */
+   public XINSCallResultCache getResultCache() {
+      return _resultCache;
+   }
+
+   /**
+    * Gets the number of calls that shared an identical call in progress
+    * instead of calling the API, see
+    * {@link XINSCallConfig#setCoalescing(String,boolean)}.
+    *
+    * @return
+    *    the number of coalesced calls.
+    *
+    * @since XINS 3.2
+    */
+   public long getCoalescedCallCount() {
+      return _coalescedCallCount.get();
+   }
+
    /**
     * Executes the specified XINS call request towards one of the associated
     * targets. If the call succeeds with one of these targets, then a
@@ -372,6 +480,163 @@ public class XINSServiceCaller extends ServiceCaller {
       // Determine when we started the call
       long start = System.currentTimeMillis();
 
+      // Check preconditions
+      MandatoryArgumentChecker.check("request", request);
+
+      // Get the result from the cache if possible
+      XINSCallResultCache cache = _resultCache;
+      String cacheKey = null;
+      if (cache != null) {
+         cacheKey = XINSCallResultCache.getKey(request);
+         XINSCallResult cached = cache.get(cacheKey);
+         if (cached != null) {
+            return cached;
+         }
+      }
+
+      // Share the identical call in progress, if enabled for the function
+      XINSCallConfig config = callConfig;
+      if (config == null) {
+         config = request.getXINSCallConfig();
+         if (config == null) {
+            config = getXINSCallConfig();
+         }
+      }
+      if (config.isCoalescing(request.getFunctionName())) {
+         return sharedCall(request, callConfig, config, start, cacheKey, cache);
+      }
+
+      return performCall(request, callConfig, start, cacheKey, cache);
+   }
+
+   /**
+    * Executes the specified XINS call request, sharing the call with the
+    * identical calls made at the same time.
+    *
+    * @param request
+    *    the call request, not <code>null</code>.
+    *
+    * @param callConfig
+    *    the call configuration, or <code>null</code>.
+    *
+    * @param effectiveConfig
+    *    the call configuration actually used for the call, not
+    *    <code>null</code>.
+    *
+    * @param start
+    *    the time the call started.
+    *
+    * @param cacheKey
+    *    the cache key of the request, or <code>null</code> if the results
+    *    are not cached.
+    *
+    * @param cache
+    *    the result cache, or <code>null</code> if the results are not cached.
+    *
+    * @return
+    *    the result of the call, cannot be <code>null</code>.
+    *
+    * @throws GenericCallException
+    *    if the first call attempt failed due to a generic reason and all the
+    *    other call attempts failed as well, if the total time-out or the
+    *    deadline is reached while waiting for the identical call or if the
+    *    thread is interrupted while waiting.
+    *
+    * @throws HTTPCallException
+    *    if the first call attempt failed due to an HTTP-related reason and
+    *    all the other call attempts failed as well.
+    *
+    * @throws XINSCallException
+    *    if the first call attempt failed due to a XINS-related reason and
+    *    all the other call attempts failed as well.
+    */
+   private XINSCallResult sharedCall(XINSCallRequest     request,
+                                     XINSCallConfig      callConfig,
+                                     XINSCallConfig      effectiveConfig,
+                                     long                start,
+                                     String              cacheKey,
+                                     XINSCallResultCache cache)
+   throws GenericCallException, HTTPCallException, XINSCallException {
+
+      Descriptor descriptor = getDescriptor();
+      if (descriptor == null) {
+         return performCall(request, callConfig, start, cacheKey, cache);
+      }
+
+      // Only the calls with the same configuration are shared
+      String requestKey = cacheKey == null ? XINSCallResultCache.getKey(request) : cacheKey;
+      String key = effectiveConfig.describe() + '\n' + requestKey;
+
+      // Wait for the identical call in progress to the same targets
+      SharedCall sharedCall = new SharedCall(descriptor);
+      SharedCall inProgress = _sharedCalls.putIfAbsent(key, sharedCall);
+      if (inProgress != null) {
+         if (inProgress._descriptor == descriptor) {
+            _coalescedCallCount.incrementAndGet();
+            return inProgress.get(request, start);
+         }
+
+         // The descriptor was changed since the call in progress started
+         return performCall(request, callConfig, start, cacheKey, cache);
+      }
+
+      // Perform the call and give the result to the waiting calls
+      try {
+         XINSCallResult result = performCall(request, callConfig, start, cacheKey, cache);
+         sharedCall.set(result, null);
+         return result;
+
+      // Give the exception to the waiting calls and throw it
+      } catch (Throwable exception) {
+         sharedCall.set(null, exception);
+         return sharedCall.get(request, start);
+      } finally {
+         _sharedCalls.remove(key, sharedCall);
+      }
+   }
+
+   /**
+    * Executes the specified XINS call request towards one of the associated
+    * targets and stores the result in the cache.
+    *
+    * @param request
+    *    the call request, not <code>null</code>.
+    *
+    * @param callConfig
+    *    the call configuration, or <code>null</code>.
+    *
+    * @param start
+    *    the time the call started.
+    *
+    * @param cacheKey
+    *    the cache key of the request, or <code>null</code> if the results
+    *    are not cached.
+    *
+    * @param cache
+    *    the result cache, or <code>null</code> if the results are not cached.
+    *
+    * @return
+    *    the result of the call, cannot be <code>null</code>.
+    *
+    * @throws GenericCallException
+    *    if the first call attempt failed due to a generic reason and all the
+    *    other call attempts failed as well.
+    *
+    * @throws HTTPCallException
+    *    if the first call attempt failed due to an HTTP-related reason and
+    *    all the other call attempts failed as well.
+    *
+    * @throws XINSCallException
+    *    if the first call attempt failed due to a XINS-related reason and
+    *    all the other call attempts failed as well.
+    */
+   private XINSCallResult performCall(XINSCallRequest     request,
+                                      XINSCallConfig      callConfig,
+                                      long                start,
+                                      String              cacheKey,
+                                      XINSCallResultCache cache)
+   throws GenericCallException, HTTPCallException, XINSCallException {
+
       // Perform the call
       XINSCallResult result;
       try {
@@ -417,6 +682,11 @@ public class XINSServiceCaller extends ServiceCaller {
          }
       }
 
+      // Store the result in the cache
+      if (cache != null) {
+         result = cache.put(cacheKey, request.getFunctionName(), result);
+      }
+
       return result;
    }
 
@@ -532,8 +802,17 @@ public class XINSServiceCaller extends ServiceCaller {
       // Log: Right before the call is performed
       Log.log_2100(url, function, params);
 
+      // Determine the time the API has to answer, limited by the deadline
+      // of the current call, if any
+      int timeOut = Deadline.limit(totalTimeOut);
+
+      // Call the API running in the same JVM without serializing the request
+      if ("local".equalsIgnoreCase(target.getProtocol())) {
+         return callLocalAPI(xinsRequest, target, timeOut, params);
+      }
+
       // Get the contained HTTP request from the XINS request
-      HTTPCallRequest httpRequest = xinsRequest.getHTTPCallRequest();
+      HTTPCallRequest httpRequest = xinsRequest.getHTTPCallRequest(timeOut);
 
       // Convert XINSCallConfig to HTTPCallConfig
       HTTPCallConfig httpConfig = xinsConfig.getHTTPCallConfig();
@@ -546,6 +825,11 @@ public class XINSServiceCaller extends ServiceCaller {
       HTTPCallResult httpResult;
       long duration;
       try {
+
+         // Do not call the API if the deadline is already passed
+         if (timeOut < 0) {
+            throw new TotalTimeOutCallException(httpRequest, target, 0L);
+         }
          ServiceCaller serviceCaller = (ServiceCaller) _serviceCallers.get(target);
          httpResult = (HTTPCallResult) serviceCaller.doCallImpl(httpRequest, httpConfig, target);
 
@@ -647,8 +931,150 @@ public class XINSServiceCaller extends ServiceCaller {
          throw InvalidResultXINSCallException.parseError(httpData, xinsRequest, target, duration, exception);
       }
 
-      // Convert the output parameters to a FormattedParameters object
-      FormattedParameters outParams = new FormattedParameters(resultData.getParameters(), resultData.getDataElement(), "(null)", "&", 160);
+      // Keep the cache hint of the server for the result cache
+      if (resultData instanceof XINSCallResultParser.XINSCallResultDataImpl) {
+         ((XINSCallResultParser.XINSCallResultDataImpl) resultData).setMaxAge(httpResult.getMaxAge());
+      }
+
+      // Convert the output parameters to a FormattedParameters object. The
+      // DOM element of the data section is not created for the logging.
+      FormattedParameters outParams;
+      if (resultData instanceof XINSCallResultParser.XINSCallResultDataImpl) {
+         CompactElement resultDataSection = ((XINSCallResultParser.XINSCallResultDataImpl) resultData).getCompactDataElement();
+         outParams = new FormattedParameters(resultData.getParameters(), resultDataSection, "(null)", "&", 160);
+      } else {
+         outParams = new FormattedParameters(resultData.getParameters(), resultData.getDataElement(), "(null)", "&", 160);
+      }
+
+      return checkResult(xinsRequest, target, resultData, start, duration, params, outParams);
+   }
+
+   /**
+    * Calls a function of an API running in the same Java Virtual Machine.
+    * The function is executed in the current thread.
+    *
+    * @param xinsRequest
+    *    the request, never <code>null</code>.
+    *
+    * @param target
+    *    the <code>local</code> target, never <code>null</code>.
+    *
+    * @param timeOut
+    *    the time the API has to answer in milliseconds, 0 if there is no
+    *    limit or a negative number if the deadline is already passed.
+    *
+    * @param params
+    *    the input parameters formatted for the logging, never
+    *    <code>null</code>.
+    *
+    * @return
+    *    the result of the call, never <code>null</code>.
+    *
+    * @throws GenericCallException
+    *    if the API is not registered, if the deadline is passed or if the
+    *    API cannot handle the call.
+    *
+    * @throws XINSCallException
+    *    if the function returned an error code.
+    */
+   private XINSCallResultData callLocalAPI(XINSCallRequest     xinsRequest,
+                                           TargetDescriptor    target,
+                                           int                 timeOut,
+                                           FormattedParameters params)
+   throws GenericCallException, XINSCallException {
+
+      String url = target.getURL();
+      String function = xinsRequest.getFunctionName();
+      String apiName = url.substring(url.indexOf("://") + 3);
+      int slashIndex = apiName.indexOf('/');
+      if (slashIndex != -1) {
+         apiName = apiName.substring(0, slashIndex);
+      }
+      long start = System.currentTimeMillis();
+
+      LocalAPI api = LocalAPI.get(apiName);
+      if (api == null) {
+         Log.log_2103(url, function, params, 0L);
+         ConnectionRefusedCallException exception = new ConnectionRefusedCallException(xinsRequest, target, 0L);
+         logTransaction(exception, start, url, function, 0L, null, params, null);
+         throw exception;
+      }
+      if (timeOut < 0) {
+         Log.log_2106(url, function, params, 0L, target.getTotalTimeOut());
+         TotalTimeOutCallException exception = new TotalTimeOutCallException(xinsRequest, target, 0L);
+         logTransaction(exception, start, url, function, 0L, null, params, null);
+         throw exception;
+      }
+
+      long deadline = timeOut > 0 ? start + timeOut : -1L;
+      XINSCallResultData resultData;
+      try {
+         resultData = api.call(function, xinsRequest.getParameters(), xinsRequest.getDataSection(), deadline);
+      } catch (IOException ioe) {
+         long duration = System.currentTimeMillis() - start;
+         IOCallException exception = new IOCallException(xinsRequest, target, duration, ioe);
+         Log.log_2109(exception, url, function, params, duration);
+         logTransaction(exception, start, url, function, duration, null, params, null);
+         throw exception;
+      }
+      long duration = System.currentTimeMillis() - start;
+
+      FormattedParameters outParams;
+      if (resultData instanceof XINSCallResultParser.XINSCallResultDataImpl) {
+         CompactElement resultDataSection = ((XINSCallResultParser.XINSCallResultDataImpl) resultData).getCompactDataElement();
+         outParams = new FormattedParameters(resultData.getParameters(), resultDataSection, "(null)", "&", 160);
+      } else {
+         outParams = new FormattedParameters(resultData.getParameters(), resultData.getDataElement(), "(null)", "&", 160);
+      }
+
+      return checkResult(xinsRequest, target, resultData, start, duration, params, outParams);
+   }
+
+   /**
+    * Checks the result of a call. If the result contains an error code,
+    * then the matching exception is thrown.
+    *
+    * @param xinsRequest
+    *    the request, never <code>null</code>.
+    *
+    * @param target
+    *    the called target, never <code>null</code>.
+    *
+    * @param resultData
+    *    the result of the call, never <code>null</code>.
+    *
+    * @param start
+    *    the start of the call as the number of milliseconds since the UNIX
+    *    Epoch.
+    *
+    * @param duration
+    *    the duration of the call in milliseconds.
+    *
+    * @param params
+    *    the input parameters formatted for the logging, never
+    *    <code>null</code>.
+    *
+    * @param outParams
+    *    the output parameters formatted for the logging, never
+    *    <code>null</code>.
+    *
+    * @return
+    *    the result of the call, never <code>null</code>.
+    *
+    * @throws XINSCallException
+    *    if the function returned an error code.
+    */
+   private XINSCallResultData checkResult(XINSCallRequest     xinsRequest,
+                                          TargetDescriptor    target,
+                                          XINSCallResultData  resultData,
+                                          long                start,
+                                          long                duration,
+                                          FormattedParameters params,
+                                          FormattedParameters outParams)
+   throws XINSCallException {
+
+      String url = target.getURL();
+      String function = xinsRequest.getFunctionName();
 
       // If the result is unsuccessful, then throw an exception
       String errorCode = resultData.getErrorCode();
@@ -878,4 +1304,139 @@ public class XINSServiceCaller extends ServiceCaller {
       Log.log_2300(exception, start, url, functionName, duration, errorCode, inParamsObject, outParamsObject);
       Log.log_2301(exception, start, url, functionName, duration, errorCode);
    }
+
+   /**
+    * Call in progress shared by the identical calls made at the same time.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    *
+    * @since XINS 3.2
+    */
+   private static final class SharedCall {
+
+      /**
+       * The descriptor of the targets called. Never <code>null</code>.
+       */
+      private final Descriptor _descriptor;
+
+      /**
+       * Latch released when the call is finished.
+       */
+      private final CountDownLatch _done = new CountDownLatch(1);
+
+      /**
+       * The result of the call, or <code>null</code> if the call failed or
+       * is not finished.
+       */
+      private XINSCallResult _result;
+
+      /**
+       * The exception thrown by the call, or <code>null</code> if the call
+       * succeeded or is not finished.
+       */
+      private Throwable _exception;
+
+      /**
+       * Creates a new <code>SharedCall</code>.
+       *
+       * @param descriptor
+       *    the descriptor of the targets called, cannot be <code>null</code>.
+       */
+      SharedCall(Descriptor descriptor) {
+         _descriptor = descriptor;
+      }
+
+      /**
+       * Sets the outcome of the call and releases the waiting calls.
+       *
+       * @param result
+       *    the result of the call, or <code>null</code> if the call failed.
+       *
+       * @param exception
+       *    the exception thrown by the call, or <code>null</code> if the
+       *    call succeeded.
+       */
+      void set(XINSCallResult result, Throwable exception) {
+         _result    = result;
+         _exception = exception;
+         _done.countDown();
+      }
+
+      /**
+       * Waits for the call to finish and returns its result. The wait is
+       * limited by the total time-outs of the targets and by the
+       * {@link Deadline} of the current thread.
+       *
+       * @param request
+       *    the request of the waiting call, cannot be <code>null</code>.
+       *
+       * @param start
+       *    the time the waiting call started.
+       *
+       * @return
+       *    the result of the call, never <code>null</code>.
+       *
+       * @throws GenericCallException
+       *    if the call failed due to a generic reason, if the time-out is
+       *    reached or if the current thread is interrupted while waiting.
+       *
+       * @throws HTTPCallException
+       *    if the call failed due to an HTTP-related reason.
+       *
+       * @throws XINSCallException
+       *    if the call failed due to a XINS-related reason.
+       */
+      XINSCallResult get(XINSCallRequest request, long start)
+      throws GenericCallException, HTTPCallException, XINSCallException {
+
+         // The call in progress may try all the targets
+         int totalTimeOut = 0;
+         for (TargetDescriptor target : _descriptor) {
+            if (target.getTotalTimeOut() < 1) {
+               totalTimeOut = 0;
+               break;
+            }
+            totalTimeOut = (int) Math.min((long) totalTimeOut + target.getTotalTimeOut(), Integer.MAX_VALUE);
+         }
+         int timeOut = Deadline.limit(totalTimeOut);
+
+         TargetDescriptor firstTarget = _descriptor.iterator().next();
+         try {
+            boolean done;
+            if (timeOut < 0) {
+               done = _done.getCount() == 0L;
+            } else if (timeOut == 0) {
+               _done.await();
+               done = true;
+            } else {
+               done = _done.await(timeOut, TimeUnit.MILLISECONDS);
+            }
+            if (!done) {
+               long duration = System.currentTimeMillis() - start;
+               throw new TotalTimeOutCallException(request, firstTarget, duration);
+            }
+         } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            long duration = System.currentTimeMillis() - start;
+            throw new UnexpectedExceptionCallException(request, firstTarget, duration, null, exception);
+         }
+
+         if (_exception == null) {
+            return _result;
+         } else if (_exception instanceof GenericCallException) {
+            throw (GenericCallException) _exception;
+         } else if (_exception instanceof HTTPCallException) {
+            throw (HTTPCallException) _exception;
+         } else if (_exception instanceof XINSCallException) {
+            throw (XINSCallException) _exception;
+         } else if (_exception instanceof RuntimeException) {
+            throw (RuntimeException) _exception;
+         } else if (_exception instanceof Error) {
+            throw (Error) _exception;
+         } else {
+            throw Utils.logProgrammingError(_exception);
+         }
+      }
+   }
 }
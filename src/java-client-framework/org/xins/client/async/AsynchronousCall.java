@@ -6,15 +6,42 @@
 package org.xins.client.async;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.xins.client.AbstractCAPI;
 import org.xins.client.AbstractCAPICallRequest;
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.Utils;
 
 /**
  * Class used to register the {@link CallListener}s and to call the API
  * asynchronously.
  *
+ * <p>The calls are executed by a call executor and the listeners are
+ * notified by a separate notification executor, so that a slow listener
+ * does not hold a call thread. By default, all <code>AsynchronousCall</code>
+ * objects share a call executor with at most {@link #DEFAULT_THREADS}
+ * threads and {@link #DEFAULT_QUEUE_SIZE} waiting calls, and a notification
+ * executor with one thread. When all threads are busy and the queue is full,
+ * the call is not executed and fails immediately with a
+ * {@link CallFailedEvent} holding a {@link RejectedExecutionException}.
+ *
  * @version $Revision: 1.16 $ $Date: 2011/04/16 15:48:02 $
  * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
  *
@@ -22,10 +49,130 @@ import org.xins.client.AbstractCAPICallRequest;
  */
 public class AsynchronousCall {
 
+   /**
+    * The maximum number of threads of the default call executor.
+    *
+    * @since XINS 3.2
+    */
+   public static final int DEFAULT_THREADS = 32;
+
+   /**
+    * The maximum number of waiting calls of the default call executor.
+    *
+    * @since XINS 3.2
+    */
+   public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+   /**
+    * The default call executor, lazily created.
+    */
+   private static ExecutorService DEFAULT_CALL_EXECUTOR;
+
+   /**
+    * The default notification executor, lazily created.
+    */
+   private static ExecutorService DEFAULT_NOTIFICATION_EXECUTOR;
+
    /**
     * List containing the registered {@link CallListener}.
     */
-   private List<CallListener> _listeners = new ArrayList<CallListener>();
+   private final List<CallListener> _listeners = new CopyOnWriteArrayList<CallListener>();
+
+   /**
+    * The executor of the calls. Never <code>null</code>.
+    */
+   private final Executor _callExecutor;
+
+   /**
+    * The executor of the notifications of the listeners. Never
+    * <code>null</code>.
+    */
+   private final Executor _notificationExecutor;
+
+   /**
+    * Creates a new <code>AsynchronousCall</code> using the default call and
+    * notification executors.
+    */
+   public AsynchronousCall() {
+      _callExecutor = getDefaultCallExecutor();
+      _notificationExecutor = getDefaultNotificationExecutor();
+   }
+
+   /**
+    * Creates a new <code>AsynchronousCall</code> using the specified
+    * executors.
+    *
+    * @param callExecutor
+    *    the executor of the calls, cannot be <code>null</code>. See
+    *    {@link #createExecutor(int,int)} to create a bounded executor.
+    *
+    * @param notificationExecutor
+    *    the executor of the notifications of the listeners, cannot be
+    *    <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>callExecutor == null || notificationExecutor == null</code>.
+    *
+    * @since XINS 3.2
+    */
+   public AsynchronousCall(Executor callExecutor, Executor notificationExecutor)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("callExecutor", callExecutor,
+                                     "notificationExecutor", notificationExecutor);
+      _callExecutor = callExecutor;
+      _notificationExecutor = notificationExecutor;
+   }
+
+   /**
+    * Creates a bounded executor for the calls. When all threads are busy
+    * and the queue is full, the executor rejects the submitted call with a
+    * {@link RejectedExecutionException}. The threads are daemon threads and
+    * stop after being idle for one minute.
+    *
+    * @param threads
+    *    the maximum number of threads, must be &gt; 0.
+    *
+    * @param queueSize
+    *    the maximum number of calls waiting for a thread, must be &gt; 0.
+    *
+    * @return
+    *    the executor, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>threads &lt;= 0 || queueSize &lt;= 0</code>.
+    *
+    * @since XINS 3.2
+    */
+   public static ExecutorService createExecutor(int threads, int queueSize)
+   throws IllegalArgumentException {
+      if (threads <= 0) {
+         throw new IllegalArgumentException("threads (" + threads + ") <= 0");
+      } else if (queueSize <= 0) {
+         throw new IllegalArgumentException("queueSize (" + queueSize + ") <= 0");
+      }
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory("XINS asynchronous call "),
+            new ThreadPoolExecutor.AbortPolicy());
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+   }
+
+   private static synchronized ExecutorService getDefaultCallExecutor() {
+      if (DEFAULT_CALL_EXECUTOR == null) {
+         DEFAULT_CALL_EXECUTOR = createExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+      }
+      return DEFAULT_CALL_EXECUTOR;
+   }
+
+   private static synchronized ExecutorService getDefaultNotificationExecutor() {
+      if (DEFAULT_NOTIFICATION_EXECUTOR == null) {
+         ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+               new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("XINS asynchronous notification "));
+         executor.allowCoreThreadTimeOut(true);
+         DEFAULT_NOTIFICATION_EXECUTOR = executor;
+      }
+      return DEFAULT_NOTIFICATION_EXECUTOR;
+   }
 
    /**
     * Adds a new listener for the call.
@@ -49,8 +196,8 @@ public class AsynchronousCall {
    }
 
    /**
-    * Calls a function asynchronously. This function does not return anything as
-    * the result and exception will be received by the registered {@link CallListener}.
+    * Calls a function asynchronously. The result and exception will be
+    * received by the registered {@link CallListener}s.
     *
     * @param capi
     *    the CAPI to use to call the function.
@@ -59,63 +206,256 @@ public class AsynchronousCall {
     *    the input parameters for this call.
     */
    public void call(AbstractCAPI capi, AbstractCAPICallRequest request) {
-      CallNotifyThread thread = new CallNotifyThread(capi, request, _listeners);
-      thread.start();
+      submit(capi, request);
+   }
+
+   /**
+    * Calls a function asynchronously and returns the pending call. The
+    * result and exception will be received by the registered
+    * {@link CallListener}s, unless the call is cancelled.
+    *
+    * <p>If the call executor rejects the call, the call is not executed and
+    * the returned call is already done with a {@link CallFailedEvent}
+    * holding the {@link RejectedExecutionException}.
+    *
+    * @param capi
+    *    the CAPI to use to call the function.
+    *
+    * @param request
+    *    the input parameters for this call.
+    *
+    * @return
+    *    the pending call, which returns a {@link CallSucceededEvent} or a
+    *    {@link CallFailedEvent} and can be used to wait for the result or
+    *    to cancel the call, never <code>null</code>.
+    *
+    * @since XINS 3.2
+    */
+   public Future<CallEvent> submit(AbstractCAPI capi, AbstractCAPICallRequest request) {
+      CallTask task = new CallTask(capi, request);
+      try {
+         _callExecutor.execute(task);
+      } catch (RejectedExecutionException exception) {
+         task.reject(exception);
+      }
+      return task;
    }
 
    /**
-    * Thread that executes the call to the function.
+    * Calls several functions in parallel and waits for their results. The
+    * registered listeners are notified of each result as for
+    * {@link #submit(AbstractCAPI,AbstractCAPICallRequest)}. The
+    * notification of a result is handed to the notification executor before
+    * the result is gathered, so with a notification executor running the
+    * tasks in the calling thread, the listeners have been called when this
+    * method returns.
+    *
+    * <p>The calls that did not finish within the time-out are cancelled and
+    * reported as a {@link CallFailedEvent} with a {@link TimeoutException}.
+    *
+    * @param capi
+    *    the CAPI to use to call the functions, cannot be <code>null</code>.
+    *
+    * @param requests
+    *    the input parameters of the calls, cannot be <code>null</code>.
+    *
+    * @param timeOut
+    *    the maximum time to wait for all the results, in milliseconds, or 0
+    *    to wait without time-out.
     *
-    * @version $Revision: 1.16 $ $Date: 2011/04/16 15:48:02 $
+    * @return
+    *    the events of the calls, in the same order as the requests, each
+    *    event is a {@link CallSucceededEvent} or a {@link CallFailedEvent},
+    *    never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>capi == null || requests == null || timeOut &lt; 0</code>.
+    *
+    * @throws InterruptedException
+    *    if the current thread is interrupted while waiting, in which case
+    *    the pending calls are cancelled.
+    *
+    * @since XINS 3.2
+    */
+   public List<CallEvent> callAll(AbstractCAPI capi, List<? extends AbstractCAPICallRequest> requests, long timeOut)
+   throws IllegalArgumentException, InterruptedException {
+      MandatoryArgumentChecker.check("capi", capi, "requests", requests);
+      if (timeOut < 0L) {
+         throw new IllegalArgumentException("timeOut (" + timeOut + ") < 0");
+      }
+
+      // Fan-out
+      long start = System.currentTimeMillis();
+      long deadline = timeOut == 0L ? Long.MAX_VALUE : start + timeOut;
+      List<Future<CallEvent>> futures = new ArrayList<Future<CallEvent>>(requests.size());
+      for (AbstractCAPICallRequest request : requests) {
+         futures.add(submit(capi, request));
+      }
+
+      // Gather
+      List<CallEvent> events = new ArrayList<CallEvent>(requests.size());
+      try {
+         for (int i = 0; i < futures.size(); i++) {
+            Future<CallEvent> future = futures.get(i);
+            AbstractCAPICallRequest request = requests.get(i);
+            CallEvent event;
+            try {
+               if (deadline == Long.MAX_VALUE) {
+                  event = future.get();
+               } else {
+                  event = future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+               }
+            } catch (TimeoutException toex) {
+               future.cancel(true);
+               long duration = System.currentTimeMillis() - start;
+               TimeoutException exception = new TimeoutException("Call not finished after " + timeOut + " ms.");
+               event = new CallFailedEvent(capi, request, duration, exception);
+            } catch (CancellationException cex) {
+               event = new CallFailedEvent(capi, request, -1L, cex);
+            } catch (ExecutionException eex) {
+               Throwable cause = eex.getCause();
+               Exception exception = cause instanceof Exception ? (Exception) cause : eex;
+               event = new CallFailedEvent(capi, request, -1L, exception);
+            }
+            events.add(event);
+         }
+      } catch (InterruptedException iex) {
+         for (Future<CallEvent> future : futures) {
+            future.cancel(true);
+         }
+         throw iex;
+      }
+      return events;
+   }
+
+   /**
+    * Call to a function executed by the call executor.
+    *
+    * @version $Revision$ $Date$
     * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
     */
-   private static class CallNotifyThread extends CallCAPIThread {
+   private final class CallTask extends FutureTask<CallEvent> {
 
       /**
        * The listeners to notify.
        */
-      private final List<CallListener> _listeners;
+      private final List<CallListener> _callListeners;
 
       /**
-       * Calls a CAPI function on a separate thread and notifies the listeners
-       * of the result.
+       * The CAPI to use to call the function.
+       */
+      private final AbstractCAPI _capi;
+
+      /**
+       * The input parameters for this call.
+       */
+      private final AbstractCAPICallRequest _request;
+
+      /**
+       * Creates a call to a CAPI function that notifies the listeners of
+       * the result.
        *
        * @param capi
        *    the CAPI to use to call the function.
        *
        * @param request
        *    the input parameters for this call.
-       *
-       * @param listeners
-       *    the listeners to notify of the result of the call.
        */
-      CallNotifyThread(AbstractCAPI capi, AbstractCAPICallRequest request, List<CallListener> listeners) {
-         super(capi, request);
+      CallTask(final AbstractCAPI capi, final AbstractCAPICallRequest request) {
+         super(new Callable<CallEvent>() {
+            public CallEvent call() {
+               return CallCAPIThread.execute(capi, request);
+            }
+         });
 
          // Notify the listeners registered at the moment of the call and not
          // when the result is received.
-         _listeners = Collections.unmodifiableList(listeners);
+         _callListeners = new ArrayList<CallListener>(_listeners);
+         _capi = capi;
+         _request = request;
       }
 
-      public void run() {
+      /**
+       * Ends this call without executing it, as the call executor rejected
+       * it.
+       *
+       * @param exception
+       *    the exception thrown by the call executor, cannot be
+       *    <code>null</code>.
+       */
+      void reject(RejectedExecutionException exception) {
+         set(new CallFailedEvent(_capi, _request, 0L, exception));
+      }
 
-         // Call the API
-         super.run();
+      /**
+       * Notifies the listeners of the result and then makes the result
+       * available. The notification is handed to the notification executor
+       * before the threads waiting for the result are released, so that
+       * with a direct notification executor the listeners have been called
+       * when {@link #get()} returns.
+       *
+       * @param event
+       *    the result of the call.
+       */
+      protected void set(CallEvent event) {
+         if (!isDone()) {
+            notifyListeners(event);
+         }
+         super.set(event);
+      }
 
-         // Get the result and notify the listeners
-         if (getException() == null) {
-            CallSucceededEvent event = new CallSucceededEvent(getCAPI(),
-                  getRequest(), getDuration(), getResult());
-            for (CallListener listener : _listeners) {
-               listener.callSucceeded(event);
-            }
-         } else {
-            CallFailedEvent event = new CallFailedEvent(getCAPI(),
-                  getRequest(), getDuration(), getException());
-            for (CallListener listener : _listeners) {
-               listener.callFailed(event);
-            }
+      /**
+       * Notifies the listeners of the result of the call using the
+       * notification executor.
+       *
+       * @param event
+       *    the result of the call.
+       */
+      private void notifyListeners(final CallEvent event) {
+         if (_callListeners.isEmpty()) {
+            return;
          }
+         _notificationExecutor.execute(new Runnable() {
+            public void run() {
+               for (CallListener listener : _callListeners) {
+                  try {
+                     if (event instanceof CallSucceededEvent) {
+                        listener.callSucceeded((CallSucceededEvent) event);
+                     } else {
+                        listener.callFailed((CallFailedEvent) event);
+                     }
+                  } catch (RuntimeException rex) {
+                     Utils.logIgnoredException(rex);
+                  }
+               }
+            }
+         });
+      }
+   }
+
+   /**
+    * Factory of daemon threads with a numbered name.
+    */
+   private static final class DaemonThreadFactory implements ThreadFactory {
+
+      /**
+       * The prefix of the name of the threads.
+       */
+      private final String _prefix;
+
+      /**
+       * The number of threads created.
+       */
+      private final AtomicInteger _threadCount = new AtomicInteger();
+
+      DaemonThreadFactory(String prefix) {
+         _prefix = prefix;
+      }
+
+      public Thread newThread(Runnable runnable) {
+         Thread thread = new Thread(runnable, _prefix + _threadCount.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
       }
    }
 }
@@ -64,29 +64,57 @@ public class CallCAPIThread extends Thread {
    }
    private Exception _exception;
    public void run() {
+      CallEvent event = execute(_capi, _request);
+      _duration = event.getDuration();
+      if (event instanceof CallSucceededEvent) {
+         _result = ((CallSucceededEvent) event).getResult();
+      } else {
+         _exception = ((CallFailedEvent) event).getException();
+      }
+   }
+
+   /**
+    * Calls a CAPI function in the current thread.
+    *
+    * @param capi
+    *    the CAPI to use to call the function.
+    *
+    * @param request
+    *    the input parameters for this call.
+    *
+    * @return
+    *    a {@link CallSucceededEvent} or a {@link CallFailedEvent}, never
+    *    <code>null</code>.
+    */
+   static CallEvent execute(AbstractCAPI capi, AbstractCAPICallRequest request) {
       long startTime = System.currentTimeMillis();
       try {
          // Execute the function
-         String functionName = "call" + _request.functionName();
-         Class[] callArgumentsClass = {_request.getClass()};
-         Object[] callArguments = {_request};
-         Method callMethod = _capi.getClass().getMethod(functionName, callArgumentsClass);
-         _result = (AbstractCAPICallResult) callMethod.invoke(_capi, callArguments);
-
-         // Get the result of the call and notify the listeners
-         _duration = _result.duration();
+         String functionName = "call" + request.functionName();
+         Class[] callArgumentsClass = {request.getClass()};
+         Object[] callArguments = {request};
+         Method callMethod = capi.getClass().getMethod(functionName, callArgumentsClass);
+         AbstractCAPICallResult result = (AbstractCAPICallResult) callMethod.invoke(capi, callArguments);
+
+         // Get the result of the call
+         return new CallSucceededEvent(capi, request, result.duration(), result);
       } catch (InvocationTargetException itex) {
-         _exception = (Exception) itex.getTargetException();
+         Throwable targetException = itex.getTargetException();
+         if (!(targetException instanceof Exception)) {
+            targetException = itex;
+         }
+         Exception exception = (Exception) targetException;
 
-         // Get the exception thrown by the call and notify the listeners
-         if (_exception instanceof CallException) {
-            _duration = ((CallException) _exception).getDuration();
+         // Get the exception thrown by the call
+         long duration;
+         if (exception instanceof CallException) {
+            duration = ((CallException) exception).getDuration();
          } else {
-            _duration = System.currentTimeMillis() - startTime;
+            duration = System.currentTimeMillis() - startTime;
          }
+         return new CallFailedEvent(capi, request, duration, exception);
       } catch (Exception ex) {
-         _exception = ex;
-         _duration = -1L;
+         return new CallFailedEvent(capi, request, -1L, ex);
       }
    }
 
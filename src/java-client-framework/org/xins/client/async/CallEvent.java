@@ -17,7 +17,7 @@ import org.xins.client.AbstractCAPICallRequest;
  *
  * @since XINS 1.4.0
  */
-class CallEvent extends EventObject {
+public class CallEvent extends EventObject {
 
    /**
     * Duration of the call.
@@ -9,6 +9,8 @@ import java.util.Iterator;
 import java.util.Map;
 
 import org.xins.common.text.URLEncoding;
+import org.xins.common.xml.CompactElement;
+import org.xins.common.xml.ElementFormatter;
 import org.w3c.dom.Element;
 
 /**
@@ -28,9 +30,10 @@ public class FormattedParameters {
    private final Map<String, String> _parameters;
 
    /**
-    * The data section.
+    * The data section, either a DOM {@link Element} or a
+    * {@link CompactElement}. This field can be <code>null</code>.
     */
-   private final Element _dataSection;
+   private final Object _dataSection;
 
    /**
     * The value if there is no parameters and data section.
@@ -59,7 +62,7 @@ public class FormattedParameters {
     *    the parameters, can be <code>null</code>.
     */
    public FormattedParameters(Map<String, String> parameters) {
-      this(parameters, null);
+      this(parameters, (Element) null);
    }
 
    /**
@@ -75,6 +78,21 @@ public class FormattedParameters {
       this(parameters, dataSection, "-", null, -1);
    }
 
+   /**
+    * Constructs a new <code>FormattedParameters</code> object.
+    *
+    * @param parameters
+    *    the parameters, can be <code>null</code>.
+    *
+    * @param dataSection
+    *    the data section, can be <code>null</code>.
+    *
+    * @since XINS 3.2
+    */
+   public FormattedParameters(Map<String, String> parameters, CompactElement dataSection) {
+      this(parameters, (Object) dataSection, "-", null, -1);
+   }
+
    /**
     * Constructs a new <code>FormattedParameters</code> object.
     *
@@ -97,6 +115,38 @@ public class FormattedParameters {
     */
    public FormattedParameters(Map<String, String> parameters, Element dataSection, String valueIfEmpty,
          String prefixIfNotEmpty, int maxValueLength) {
+      this(parameters, (Object) dataSection, valueIfEmpty, prefixIfNotEmpty, maxValueLength);
+   }
+
+   /**
+    * Constructs a new <code>FormattedParameters</code> object.
+    *
+    * @param parameters
+    *    the parameters, can be <code>null</code>.
+    *
+    * @param dataSection
+    *    the data section, can be <code>null</code>.
+    *
+    * @param valueIfEmpty
+    *    the value to return if there is no parameter and no data section, can be <code>null</code>.
+    *
+    * @param prefixIfNotEmpty
+    *    the prefix to add if there is a parameter or a data section, can be <code>null</code>.
+    *
+    * @param maxValueLength
+    *    the maximum of characters to set for the value, if the value is longer
+    *    than this limit '...' will be added after the limit.
+    *    If the value is -1, no limit will be set.
+    *
+    * @since XINS 3.2
+    */
+   public FormattedParameters(Map<String, String> parameters, CompactElement dataSection, String valueIfEmpty,
+         String prefixIfNotEmpty, int maxValueLength) {
+      this(parameters, (Object) dataSection, valueIfEmpty, prefixIfNotEmpty, maxValueLength);
+   }
+
+   private FormattedParameters(Map<String, String> parameters, Object dataSection, String valueIfEmpty,
+         String prefixIfNotEmpty, int maxValueLength) {
       _parameters = parameters;
       _dataSection = dataSection;
       _valueIfEmpty = valueIfEmpty;
@@ -166,7 +216,13 @@ public class FormattedParameters {
             buffer.append('&');
          }
          buffer.append("_data=");
-         buffer.append(URLEncoding.encode(_dataSection.toString()));
+         String dataSectionXML;
+         if (_dataSection instanceof Element) {
+            dataSectionXML = ElementFormatter.format((Element) _dataSection);
+         } else {
+            dataSectionXML = _dataSection.toString();
+         }
+         buffer.append(URLEncoding.encode(dataSectionXML));
       }
 
       _asString = buffer.toString();
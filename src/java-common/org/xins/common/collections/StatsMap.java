@@ -6,15 +6,25 @@
 package org.xins.common.collections;
 
 import java.util.AbstractMap;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Map that remembers which properties have not been accessed.
  *
+ * <p>Since XINS 3.2, views can be created with {@link #createView()} to know
+ * which properties a component consumed. If the properties change,
+ * {@link #getChangedKeys(Map)} and {@link #isAffectedBy(Collection)} indicate
+ * whether the component needs to read its properties again. If not, the view
+ * is moved to the new properties with {@link #rebase(StatsMap)}.
+ *
  * @version $Revision: 1.1 $ $Date: 2010/10/25 20:36:51 $
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
  * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
@@ -23,9 +33,20 @@ import java.util.Set;
  */
 public class StatsMap<K, V> extends AbstractMap<K, V> {
 
-   private Map<K, V> sourceMap;
+   private volatile Map<K, V> sourceMap;
+
+   private volatile Map<K, V> unused;
+
+   /**
+    * The keys queried using this map, including the keys not in the map.
+    * The value is always {@link Boolean#TRUE}.
+    */
+   private final ConcurrentMap<Object, Boolean> queriedKeys = new ConcurrentHashMap<Object, Boolean>();
 
-   private Map<K, V> unused;
+   /**
+    * Whether all the entries of this map were accessed.
+    */
+   private volatile boolean iterated;
 
    public StatsMap(Map<K, V> source) {
       sourceMap = source;
@@ -33,17 +54,44 @@ public class StatsMap<K, V> extends AbstractMap<K, V> {
       unused.putAll(source);
    }
 
+   /**
+    * Creates a view on a <code>StatsMap</code>.
+    *
+    * @param parent
+    *    the map containing the properties, cannot be <code>null</code>.
+    */
+   private StatsMap(StatsMap<K, V> parent) {
+      sourceMap = parent.sourceMap;
+      unused = parent.unused;
+   }
+
    @Override
    public Set<Entry<K, V>> entrySet() {
+      iterated = true;
       return sourceMap.entrySet();
    }
 
    @Override
    public V get(Object key) {
-      unused.remove(key);
+
+      // Only the first query of a key is recorded
+      if (key != null && queriedKeys.putIfAbsent(key, Boolean.TRUE) == null) {
+         Map<K, V> currentUnused = unused;
+         synchronized (currentUnused) {
+            currentUnused.remove(key);
+         }
+      }
       return sourceMap.get(key);
    }
 
+   @Override
+   public boolean containsKey(Object key) {
+      if (key != null) {
+         queriedKeys.putIfAbsent(key, Boolean.TRUE);
+      }
+      return sourceMap.containsKey(key);
+   }
+
    /**
     * Retrieves the set of unused entries.
     *
@@ -53,4 +101,98 @@ public class StatsMap<K, V> extends AbstractMap<K, V> {
    public Map<K, V> getUnused() {
       return Collections.unmodifiableMap(unused);
    }
+
+   /**
+    * Creates a view on this map. The view has the same entries as this map
+    * and the entries accessed using the view are also marked as used in this
+    * map, but the view keeps track of the keys accessed through it only.
+    *
+    * @return
+    *    the view, never <code>null</code>.
+    *
+    * @since XINS 3.2
+    */
+   public StatsMap<K, V> createView() {
+      return new StatsMap<K, V>(this);
+   }
+
+   /**
+    * Makes this view a view on another map. This method is used for a
+    * component that read its properties from a previous map and that is
+    * not affected by the changes. The keys queried so far using this view
+    * are marked as used in the new map.
+    *
+    * @param map
+    *    the new map containing the properties, cannot be <code>null</code>.
+    *
+    * @since XINS 3.2
+    */
+   public void rebase(StatsMap<K, V> map) {
+      Map<K, V> newUnused = map.unused;
+      synchronized (newUnused) {
+         for (Object key : queriedKeys.keySet()) {
+            newUnused.remove(key);
+         }
+      }
+      unused = newUnused;
+      sourceMap = map.sourceMap;
+   }
+
+   /**
+    * Indicates whether the component that accessed this map is affected by
+    * the change of some properties.
+    *
+    * @param changedKeys
+    *    the keys of the properties added, removed or modified, cannot be
+    *    <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if all the entries of this map were accessed or
+    *    if one of the given keys was queried, <code>false</code> otherwise.
+    *
+    * @since XINS 3.2
+    */
+   public boolean isAffectedBy(Collection<?> changedKeys) {
+      if (iterated) {
+         return true;
+      }
+      for (Object key : changedKeys) {
+         if (key != null && queriedKeys.containsKey(key)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Gets the keys of the properties that are different in this map and in
+    * the given map. The properties are not marked as used.
+    *
+    * @param previous
+    *    the previous properties, cannot be <code>null</code>.
+    *
+    * @return
+    *    the keys added, removed or with a different value, never
+    *    <code>null</code>.
+    *
+    * @since XINS 3.2
+    */
+   public Set<K> getChangedKeys(Map<K, V> previous) {
+      Map<K, V> previousSource = previous instanceof StatsMap ? ((StatsMap<K, V>) previous).sourceMap : previous;
+      Set<K> changedKeys = new HashSet<K>();
+      for (Entry<K, V> entry : sourceMap.entrySet()) {
+         K key = entry.getKey();
+         V value = entry.getValue();
+         V previousValue = previousSource.get(key);
+         if (previousValue == null ? value != null || !previousSource.containsKey(key) : !previousValue.equals(value)) {
+            changedKeys.add(key);
+         }
+      }
+      for (K key : previousSource.keySet()) {
+         if (!sourceMap.containsKey(key)) {
+            changedKeys.add(key);
+         }
+      }
+      return changedKeys;
+   }
 }
@@ -0,0 +1,42 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.collections.expiry;
+
+import java.util.Map;
+
+/**
+ * Listener that is also notified of the entries evicted from a bounded
+ * <code>ExpiryFolder</code>. The listeners that only implement
+ * {@link ExpiryListener} are not notified of the evicted entries.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @param <K>
+ *    the type of the keys of the folder.
+ *
+ * @param <V>
+ *    the type of the values of the folder.
+ *
+ * @since XINS 3.2
+ */
+public interface EvictionListener<K, V> extends ExpiryListener<K, V> {
+
+   /**
+    * Notification of the eviction of the specified set of objects because
+    * the folder reached its maximum number of entries or its maximum weight.
+    * This method is called by the thread that stored the entry that caused
+    * the eviction, after the entry was stored.
+    *
+    * @param folder
+    *    the folder that has evicted the entries, never <code>null</code>.
+    *
+    * @param evicted
+    *    the map containing the objects that have been evicted, indexed by
+    *    key; never <code>null</code>. This map cannot be modified.
+    */
+   void evicted(ExpiryFolder<K, V> folder, Map<K, V> evicted);
+}
@@ -0,0 +1,64 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.collections.expiry;
+
+/**
+ * Policy used by a bounded <code>ExpiryFolder</code> to choose the entries
+ * to evict. Possible values for variable of this class:
+ *
+ * <ul>
+ *    <li>{@link #LRU}
+ *    <li>{@link #TINY_LFU}
+ * </ul>
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+public final class EvictionPolicy {
+
+   /**
+    * Evicts the least recently used entries. The order of use is
+    * approximated with the CLOCK algorithm, so that the lookups do not lock.
+    */
+   public static final EvictionPolicy LRU = new EvictionPolicy("LRU");
+
+   /**
+    * Stores the new entries in a small window (1% of the capacity). An
+    * entry leaving the window only replaces the least recently used entry
+    * if its key was used more frequently. The frequencies are estimated
+    * with a count-min sketch that is halved periodically, so that one-time
+    * keys do not evict the frequently used entries.
+    */
+   public static final EvictionPolicy TINY_LFU = new EvictionPolicy("TinyLFU");
+
+   /**
+    * The name of this policy. Never <code>null</code>.
+    */
+   private final String _name;
+
+   /**
+    * Constructs a new <code>EvictionPolicy</code> object with the specified
+    * name.
+    *
+    * @param name
+    *    the name of the policy, should not be <code>null</code>.
+    */
+   private EvictionPolicy(String name) {
+      _name = name;
+   }
+
+   /**
+    * Returns a textual representation of this object.
+    *
+    * @return
+    *    the name of this policy, never <code>null</code>.
+    */
+   public String toString() {
+      return _name;
+   }
+}
@@ -5,11 +5,13 @@
  */
 package org.xins.common.collections.expiry;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xins.common.Log;
 import org.xins.common.MandatoryArgumentChecker;
@@ -26,17 +28,38 @@ import org.xins.common.text.TextUtils;
  * {@link #addListener(ExpiryListener)} method and removed using the
  * {@link #removeListener(ExpiryListener)} method. If a listener is registered
  * multiple times, it will receive the events multiple times as well. And it
- * will have to be removed multiple times as well.
+ * will have to be removed multiple times as well. The listeners are notified
+ * once per tick with all the entries expired during that tick.
  *
- * <p>This class is thread-safe.
+ * <p>This class is thread-safe. Since XINS 3.2, the lookups do not lock and
+ * the modifications only lock one of the stripes of the folder. The entries
+ * are scheduled in a hashed timing wheel with one bucket per tick, so that
+ * each tick only processes the entries that may expire during that tick.
+ * Extending the lifetime of an entry does not move it in the wheel: when
+ * its bucket is processed, the entry is rescheduled in the bucket matching
+ * its new expiry time.
+ *
+ * <p>Since XINS 3.2, the number of entries and the total weight of the
+ * entries, computed by a {@link Weigher}, can be limited. When a limit is
+ * reached, entries are evicted according to the {@link EvictionPolicy} and
+ * the {@link EvictionListener}s are notified. The limits are split between
+ * the stripes of the folder, so the eviction may start slightly before the
+ * limits are reached when the keys are not evenly distributed. The number
+ * of stripes is reduced for the folders with a small number of entries.
  *
  * @version $Revision: 1.64 $ $Date: 2012/03/15 21:07:39 $
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
  * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
  *
+ * @param <K>
+ *    the type of the keys.
+ *
+ * @param <V>
+ *    the type of the values.
+ *
  * @since XINS 1.0.0
  */
-public final class ExpiryFolder {
+public final class ExpiryFolder<K, V> {
 
    /**
     * The name of this class.
@@ -44,10 +67,44 @@ public final class ExpiryFolder {
    private static final String CLASSNAME = ExpiryFolder.class.getName();
 
    /**
-    * The initial size for the queue of threads waiting to obtain read or
-    * write access to a resource.
+    * The initial capacity of the map containing the entries.
+    */
+   private static final int INITIAL_CAPACITY = 89;
+
+   /**
+    * The number of stripes of each folder. This is a power of two.
+    */
+   private static final int STRIPE_COUNT;
+
+   /**
+    * The minimum number of entries per stripe of a folder with a limited
+    * number of entries.
+    */
+   private static final int MIN_STRIPE_ENTRIES = 64;
+
+   /**
+    * The queue of the entries that are not in an eviction queue.
+    */
+   private static final int NO_QUEUE = 0;
+
+   /**
+    * The queue of the new entries, used by {@link EvictionPolicy#TINY_LFU}.
     */
-   private static final int INITIAL_QUEUE_SIZE = 89;
+   private static final int WINDOW_QUEUE = 1;
+
+   /**
+    * The queue of the entries that can be evicted.
+    */
+   private static final int MAIN_QUEUE = 2;
+
+   static {
+      int stripeCount = 1;
+      int processors = Runtime.getRuntime().availableProcessors();
+      while (stripeCount < processors && stripeCount < 16) {
+         stripeCount <<= 1;
+      }
+      STRIPE_COUNT = stripeCount;
+   }
 
    /**
     * The number of instances of this class.
@@ -59,11 +116,6 @@ public final class ExpiryFolder {
     */
    private static final Object INSTANCE_COUNT_LOCK = new Object();
 
-   /**
-    * Lock object.
-    */
-   private final Object _lock;
-
    /**
     * The instance number of this instance.
     */
@@ -77,13 +129,23 @@ public final class ExpiryFolder {
    /**
     * The strategy used. This field cannot be <code>null</code>.
     */
-   private ExpiryStrategy _strategy;
+   private final ExpiryStrategy _strategy;
+
+   /**
+    * The time-out of the entries, in milliseconds.
+    */
+   private final long _timeOut;
+
+   /**
+    * The precision of the time-out, in milliseconds.
+    */
+   private final long _precision;
 
    /**
     * Flag that indicates whether the associated strategy has already stopped.
     * If it has, then this folder becomes invalid.
     */
-   private boolean _strategyStopped;
+   private volatile boolean _strategyStopped;
 
    /**
     * String representation. Cannot be <code>null</code>.
@@ -91,36 +153,56 @@ public final class ExpiryFolder {
    private final String _asString;
 
    /**
-    * The most recently accessed entries. This field cannot be
-    * <code>null</code>. The entries in this map will expire after
-    * {@link ExpiryStrategy#getTimeOut()} milliseconds, plus at maximum
-    * {@link ExpiryStrategy#getPrecision()} milliseconds.
+    * The entries indexed by key. This field cannot be <code>null</code>.
+    * The entries of a key are only added or removed while holding the lock
+    * of the stripe of the key.
     */
-   private HashMap _recentlyAccessed;
+   private final ConcurrentHashMap<K, Entry<K, V>> _entries;
 
    /**
-    * Number of active slots. Always equals
-    * {@link #_slots}<code>.length</code>.
+    * The number of ticks in the timing wheel. An entry is scheduled at most
+    * {@link ExpiryStrategy#getSlotCount()} ticks ahead, so the wheel has one
+    * more bucket than the number of slots.
     */
-   private final int _slotCount;
+   private final int _wheelSize;
 
    /**
-    * The index of the last slot. This is always
-    * {@link #_slotCount}<code> - 1</code>.
+    * The stripes of this folder. Each stripe has its own lock and its own
+    * timing wheel.
     */
-   private final int _lastSlot;
+   private final Stripe<K, V>[] _stripes;
 
    /**
-    * Slots to contain the maps with entries that are not the most recently
-    * accessed. The further back in the array, the sooner the entries will
-    * expire.
+    * The number of ticks processed. Only modified by the thread calling
+    * {@link #tick()}.
     */
-   private HashMap[] _slots;
+   private volatile long _tickCount;
 
    /**
     * The set of listeners. May be empty, but never is <code>null</code>.
     */
-   private ArrayList _listeners;
+   private final List<ExpiryListener<K, V>> _listeners;
+
+   /**
+    * Whether the number of entries or their weight is limited.
+    */
+   private final boolean _bounded;
+
+   /**
+    * The weigher of the entries, or <code>null</code> if the weight is not
+    * limited.
+    */
+   private final Weigher<? super K, ? super V> _weigher;
+
+   /**
+    * The eviction policy. Never <code>null</code>.
+    */
+   private final EvictionPolicy _policy;
+
+   /**
+    * The number of evicted entries.
+    */
+   private final AtomicLong _evictionCount;
 
    /**
     * Constructs a new <code>ExpiryFolder</code> with the specified name and
@@ -146,6 +228,97 @@ public final class ExpiryFolder {
    public ExpiryFolder(final String         name,
                        final ExpiryStrategy strategy)
    throws IllegalArgumentException, IllegalStateException {
+      this(name, strategy, 0, 0L, null, EvictionPolicy.LRU);
+   }
+
+   /**
+    * Constructs a new <code>ExpiryFolder</code> with a maximum number of
+    * entries.
+    *
+    * @param name
+    *    description of this folder, to be used in log and exception messages,
+    *    not <code>null</code>.
+    *
+    * @param strategy
+    *    the strategy that should be applied, not <code>null</code>.
+    *
+    * @param maxEntries
+    *    the maximum number of entries, or <code>0</code> if the number of
+    *    entries is not limited.
+    *
+    * @param policy
+    *    the policy used to evict the entries, not <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null || strategy == null || policy == null
+    *          || maxEntries &lt; 0</code>.
+    *
+    * @throws IllegalStateException
+    *    if the strategy is already stopped.
+    *
+    * @since XINS 3.2
+    */
+   public ExpiryFolder(final String         name,
+                       final ExpiryStrategy strategy,
+                       final int            maxEntries,
+                       final EvictionPolicy policy)
+   throws IllegalArgumentException, IllegalStateException {
+      this(name, strategy, maxEntries, 0L, null, policy);
+   }
+
+   /**
+    * Constructs a new <code>ExpiryFolder</code> with a maximum number of
+    * entries and a maximum total weight.
+    *
+    * @param name
+    *    description of this folder, to be used in log and exception messages,
+    *    not <code>null</code>.
+    *
+    * @param strategy
+    *    the strategy that should be applied, not <code>null</code>.
+    *
+    * @param maxEntries
+    *    the maximum number of entries, or <code>0</code> if the number of
+    *    entries is not limited.
+    *
+    * @param maxWeight
+    *    the maximum total weight of the entries, or <code>0L</code> if the
+    *    weight is not limited.
+    *
+    * @param weigher
+    *    the weigher of the entries, can be <code>null</code> if
+    *    <code>maxWeight == 0L</code>.
+    *
+    * @param policy
+    *    the policy used to evict the entries, not <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null || strategy == null || policy == null
+    *          || maxEntries &lt; 0 || maxWeight &lt; 0L
+    *          || (maxWeight &gt; 0L &amp;&amp; weigher == null)</code>.
+    *
+    * @throws IllegalStateException
+    *    if the strategy is already stopped.
+    *
+    * @since XINS 3.2
+    */
+   public ExpiryFolder(final String                       name,
+                       final ExpiryStrategy               strategy,
+                       final int                          maxEntries,
+                       final long                         maxWeight,
+                       final Weigher<? super K, ? super V> weigher,
+                       final EvictionPolicy               policy)
+   throws IllegalArgumentException, IllegalStateException {
+
+      // Check arguments
+      MandatoryArgumentChecker.check("name", name, "strategy", strategy, "policy", policy);
+      if (maxEntries < 0) {
+         throw new IllegalArgumentException("maxEntries (" + maxEntries + ") < 0");
+      } else if (maxWeight < 0L) {
+         throw new IllegalArgumentException("maxWeight (" + maxWeight + "L) < 0L");
+      } else if (maxWeight > 0L && weigher == null) {
+         throw new IllegalArgumentException("weigher == null while maxWeight (" + maxWeight + "L) > 0L");
+      }
 
       // Determine instance number
       synchronized (INSTANCE_COUNT_LOCK) {
@@ -155,24 +328,31 @@ public final class ExpiryFolder {
       String constructorDetail = "#" + _instanceNum + " [name=" + TextUtils.quote(name)
             + "; strategy=" + TextUtils.quote(strategy.toString()) + ']';
 
-      // Check arguments
-      MandatoryArgumentChecker.check("name", name, "strategy", strategy);
-
       // Initialize fields
-      _lock             = new Object();
       _name             = name;
       _strategy         = strategy;
-      _strategyStopped  = false;
+      _timeOut          = strategy.getTimeOut();
+      _precision        = strategy.getPrecision();
       _asString         = CLASSNAME + ' ' + constructorDetail;
-      _recentlyAccessed = new HashMap(INITIAL_QUEUE_SIZE);
-      _slotCount        = strategy.getSlotCount();
-      _slots            = new HashMap[_slotCount];
-      _lastSlot         = _slotCount - 1;
-      _listeners        = new ArrayList(5);
-
-      // Initialize all slots to a new HashMap
-      for (int i = 0; i < _slotCount; i++) {
-         _slots[i] = new HashMap(INITIAL_QUEUE_SIZE);
+      _entries          = new ConcurrentHashMap<K, Entry<K, V>>(INITIAL_CAPACITY, 0.75f, STRIPE_COUNT);
+      _wheelSize        = strategy.getSlotCount() + 1;
+      _listeners        = new CopyOnWriteArrayList<ExpiryListener<K, V>>();
+      _bounded          = maxEntries > 0 || maxWeight > 0L;
+      _weigher          = maxWeight > 0L ? weigher : null;
+      _policy           = policy;
+      _evictionCount    = new AtomicLong();
+
+      // Split the limits between the stripes
+      int stripeCount = STRIPE_COUNT;
+      while (maxEntries > 0 && stripeCount > 1 && maxEntries / stripeCount < MIN_STRIPE_ENTRIES) {
+         stripeCount >>= 1;
+      }
+      int  stripeMaxEntries = maxEntries > 0  ? Math.max(1, maxEntries / stripeCount) : Integer.MAX_VALUE;
+      long stripeMaxWeight  = maxWeight  > 0L ? Math.max(1L, maxWeight / stripeCount) : Long.MAX_VALUE;
+      boolean window = _bounded && policy == EvictionPolicy.TINY_LFU;
+      _stripes = new Stripe[stripeCount];
+      for (int i = 0; i < stripeCount; i++) {
+         _stripes[i] = new Stripe<K, V>(_wheelSize, stripeMaxEntries, stripeMaxWeight, window);
       }
 
       // Notify the strategy that we listen to it. If the strategy has already
@@ -203,13 +383,55 @@ public final class ExpiryFolder {
     * it was stopped.
     */
    void strategyStopped() {
-      synchronized (_lock) {
-         _strategyStopped = true;
-         _strategy         = null;
-         _recentlyAccessed = null;
-         _slots            = null;
-         _listeners        = null;
+      _strategyStopped = true;
+      for (Stripe<K, V> stripe : _stripes) {
+         synchronized (stripe) {
+            stripe.clear();
+         }
+      }
+      _entries.clear();
+      _listeners.clear();
+   }
+
+   /**
+    * Gets the stripe of a key.
+    *
+    * @param key
+    *    the key, cannot be <code>null</code>.
+    *
+    * @return
+    *    the stripe containing the entry of the key, never <code>null</code>.
+    */
+   private Stripe<K, V> stripeOf(Object key) {
+      int hash = key.hashCode();
+      hash ^= (hash >>> 16);
+      return _stripes[hash & (_stripes.length - 1)];
+   }
+
+   /**
+    * Determines the tick during which an entry should be checked again.
+    *
+    * @param expiryTime
+    *    the time at which the entry expires.
+    *
+    * @param now
+    *    the current time.
+    *
+    * @param tickCount
+    *    the number of ticks processed.
+    *
+    * @return
+    *    the index of the bucket of the wheel in which the entry should be
+    *    stored.
+    */
+   private int bucketOf(long expiryTime, long now, long tickCount) {
+      long ticksAhead = (expiryTime - now + _precision - 1L) / _precision;
+      if (ticksAhead < 1L) {
+         ticksAhead = 1L;
+      } else if (ticksAhead >= _wheelSize) {
+         ticksAhead = _wheelSize - 1;
       }
+      return (int) ((tickCount + ticksAhead) % _wheelSize);
    }
 
    /**
@@ -230,33 +452,14 @@ public final class ExpiryFolder {
 
       if (obj instanceof ExpiryFolder) {
          ExpiryFolder that = (ExpiryFolder) obj;
-
-         // Avoid a potential deadlock by always locking on the instance with
-         // the lowest instance number first
-         Object firstLock  = (_instanceNum < that._instanceNum) ? _lock : that._lock;
-         Object secondLock = (_instanceNum < that._instanceNum) ? that._lock : _lock;
-         synchronized (firstLock) {
-            synchronized (secondLock) {
-               if (_strategy.equals(that._strategy)) {
-                  if (_name.equals(that._name)) {
-                     if (_recentlyAccessed.equals(that._recentlyAccessed)) {
-                        equal = true;
-                        for (int i = 0; i < _slotCount && equal; i++) {
-                           if (! _slots[i].equals(that._slots[i])) {
-                              equal = false;
-                           }
-                        }
-                     }
-                  }
-               }
-            }
-         }
+         equal = _strategy.equals(that._strategy)
+              && _name.equals(that._name)
+              && getEntries().equals(that.getEntries());
       }
 
       return equal;
    }
 
-
    /**
     * Returns a hash code value for the object.
     *
@@ -296,7 +499,10 @@ public final class ExpiryFolder {
     * Notifies this map that the precision time frame has passed since the
     * last tick.
     *
-    * <p>Entries that are expirable may be removed from this folder.
+    * <p>The entries scheduled for this tick that are expired are removed
+    * from this folder and the listeners are notified. The other entries
+    * scheduled for this tick had their lifetime extended, they are
+    * rescheduled.
     *
     * @throws IllegalStateException
     *    if the associated {@link ExpiryStrategy} has stopped already.
@@ -306,98 +512,51 @@ public final class ExpiryFolder {
       // Check state
       assertStrategyNotStopped();
 
-      HashMap toBeExpired;
-      HashMap refMap = null;
-      synchronized (_lock) {
-
-         // Shift the slots
-         toBeExpired = _slots[_lastSlot];
-         for (int i = _lastSlot; i > 0; i--) {
-            _slots[i] = _slots[i - 1];
-         }
-         _slots[0] = _recentlyAccessed;
-
-         // Removed the entries expired in the last slot
-         if (!_slots[_lastSlot].isEmpty()) {
-            Iterator iterator = _slots[_lastSlot].entrySet().iterator();
-            while (iterator.hasNext()) {
-
-               // Get the next Map.Entry from the iterator
-               Map.Entry me = (Map.Entry) iterator.next();
-
-               // Determine key and entry object
-               Object key   = me.getKey();
-               Entry  entry = (Entry) me.getValue();
-               if (entry.isExpired()) {
-                  iterator.remove();
-                  if (refMap == null) {
-                     refMap = new HashMap();
+      long tickCount = _tickCount + 1L;
+      _tickCount = tickCount;
+      int bucket = (int) (tickCount % _wheelSize);
+      long now = System.currentTimeMillis();
+
+      Map<K, V> expired = null;
+      for (Stripe<K, V> stripe : _stripes) {
+         synchronized (stripe) {
+            Entry<K, V> entry = stripe.detach(bucket);
+            while (entry != null) {
+               Entry<K, V> next = entry._next;
+               entry._next = null;
+               if (now >= entry._expiryTime) {
+
+                  // The entry of the key is only replaced while holding the
+                  // lock of the stripe, so it is still this entry
+                  _entries.remove(entry._key);
+                  stripe._size--;
+                  stripe.dequeue(entry);
+                  if (expired == null) {
+                     expired = new HashMap<K, V>();
                   }
-                  refMap.put(key, entry.getReference());
-               }
-            }
-         }
-
-         // Copy all references from the wrapping Entry objects
-         if (!toBeExpired.isEmpty()) {
-            Iterator iterator = toBeExpired.entrySet().iterator();
-            while (iterator.hasNext()) {
-
-               // Get the next Map.Entry from the iterator
-               Map.Entry me = (Map.Entry) iterator.next();
-
-               // Get the key and the entry
-               Object key   = me.getKey();
-               Entry  entry = (Entry) me.getValue();
-
-               if (entry.isExpired()) {
-
-                  // Create a map for the object references, if necessary
-                  if (refMap == null) {
-                     refMap = new HashMap();
-                  }
-
-                  // Store the entry that needs expiring in the refMap
-                  refMap.put(key, entry.getReference());
+                  expired.put(entry._key, entry._value);
                } else {
-                  String detail = "Entry marked for expiry should "
-                        + "have expired. Key as string is \""
-                        + entry.getReference().toString() + "\".";
-                  Utils.logProgrammingError(detail);
+                  stripe.link(entry, bucketOf(entry._expiryTime, now, tickCount));
                }
+               entry = next;
             }
          }
-
-         // Recycle the old HashMap
-         toBeExpired.clear();
-         _recentlyAccessed = toBeExpired;
       }
 
       // Determine how may objects are to be sent to the listeners
-      int refMapSize       = refMap == null
-                           ? 0
-                           : refMap.size();
+      int expiredCount = expired == null ? 0 : expired.size();
 
       // Log this
-      Log.log_1400(_instanceNum, _name, refMapSize);
+      Log.log_1400(_instanceNum, _name, expiredCount);
 
-      // If set of objects for listeners is empty, then short-circuit
-      if (refMapSize < 1 || _listeners.size() < 1) {
-         return;
-      }
-
-      // XXX: Should we do this in separate thread(s) ?
-
-      // Get a copy of the list of listeners
-      synchronized (_listeners) {
-
-         // If appropriate, notify the listeners
-         if (refMap != null && !refMap.isEmpty()) {
-            Map unmodifiableExpired = Collections.unmodifiableMap(refMap);
-            int listenerCount = _listeners.size();
-            for (int i = 0; i < listenerCount; i++) {
-               ExpiryListener listener = (ExpiryListener) _listeners.get(i);
+      // Notify the listeners without holding any lock
+      if (expiredCount > 0 && !_listeners.isEmpty()) {
+         Map<K, V> unmodifiableExpired = Collections.unmodifiableMap(expired);
+         for (ExpiryListener<K, V> listener : _listeners) {
+            try {
                listener.expired(this, unmodifiableExpired);
+            } catch (Throwable exception) {
+               Utils.logIgnoredException(exception);
             }
          }
       }
@@ -415,7 +574,7 @@ public final class ExpiryFolder {
     * @throws IllegalArgumentException
     *    if <code>listener == null</code>.
     */
-   public void addListener(final ExpiryListener listener)
+   public void addListener(final ExpiryListener<K, V> listener)
    throws IllegalStateException, IllegalArgumentException {
 
       // Check state
@@ -424,9 +583,7 @@ public final class ExpiryFolder {
       // Check arguments
       MandatoryArgumentChecker.check("listener", listener);
 
-      synchronized (_listeners) {
-         _listeners.add(listener);
-      }
+      _listeners.add(listener);
    }
 
    /**
@@ -443,7 +600,7 @@ public final class ExpiryFolder {
     * @throws IllegalArgumentException
     *    if <code>listener == null</code>.
     */
-   public void removeListener(final ExpiryListener listener)
+   public void removeListener(final ExpiryListener<K, V> listener)
    throws IllegalStateException, IllegalArgumentException {
 
       // Check state
@@ -452,52 +609,15 @@ public final class ExpiryFolder {
       // Check arguments
       MandatoryArgumentChecker.check("listener", listener);
 
-      synchronized (_listeners) {
-         _listeners.remove(listener);
-      }
-   }
-
-   /**
-    * Determines the number of non-expired entries in the specified
-    * <code>HashMap</code>. If any entries are expired, they will be removed.
-    *
-    * @param map
-    *    the map in which the non-expired entries are counted.
-    *
-    * @return
-    *    the size of the specified map, always &gt;= 0.
-    *
-    * @throws IllegalStateException
-    *    if the associated {@link ExpiryStrategy} has stopped already.
-    */
-   private int sizeOf(final Map map) throws IllegalStateException {
-
-      // Check state
-      assertStrategyNotStopped();
-
-      int size = 0;
-
-      synchronized (_lock) {
-         Iterator iterator = map.entrySet().iterator();
-         while (iterator.hasNext()) {
-
-            // Get the next Map.Entry from the iterator
-            Map.Entry me = (Map.Entry) iterator.next();
-
-            // Get the entry
-            Entry  entry = (Entry) me.getValue();
-            if (!entry.isExpired()) {
-               size++;
-            }
-         }
-      }
-
-      return size;
+      _listeners.remove(listener);
    }
 
    /**
     * Gets the number of entries.
     *
+    * <p>Each stripe keeps its number of entries, so this method only goes
+    * through the entries of the bucket of the next tick.
+    *
     * @return
     *    the number of entries in this expiry folder, always &gt;= 0.
     *
@@ -510,23 +630,24 @@ public final class ExpiryFolder {
       // Check state
       assertStrategyNotStopped();
 
-      synchronized (_lock) {
-
-         int size = sizeOf(_recentlyAccessed);
-         for (int i = 0; i < _slotCount; i++) {
-            size += sizeOf(_slots[i]);
+      // The expired entries not removed yet are not counted. They can only
+      // be in the bucket of the next tick.
+      long now = System.currentTimeMillis();
+      int bucket = (int) ((_tickCount + 1L) % _wheelSize);
+      int size = 0;
+      for (Stripe<K, V> stripe : _stripes) {
+         synchronized (stripe) {
+            size += stripe._size - stripe.countExpired(bucket, now);
          }
-
-         return size;
       }
+      return size;
    }
 
    /**
     * Gets the value associated with a key and extends the lifetime of the
     * matching entry, if there was a match.
     *
-    * <p>The more recently the specified entry was accessed, the faster the
-    * lookup.
+    * <p>This method does not lock.
     *
     * @param key
     *    the key to lookup, cannot be <code>null</code>.
@@ -542,7 +663,7 @@ public final class ExpiryFolder {
     * @throws IllegalArgumentException
     *    if <code>key == null</code>.
     */
-   public Object get(final Object key)
+   public V get(final Object key)
    throws IllegalStateException, IllegalArgumentException {
 
       // Check state
@@ -551,60 +672,36 @@ public final class ExpiryFolder {
       // Check arguments
       MandatoryArgumentChecker.check("key", key);
 
-      // Search in the recently accessed map first
-      Entry entry;
-      synchronized (_lock) {
-         entry = (Entry) _recentlyAccessed.get(key);
-
-         // Entry found in recently accessed
-         if (entry != null) {
-
-            // Entry is already expired
-            if (entry.isExpired()) {
-               return null;
-
-            // Entry is not expired, touch it and return the reference
-            } else {
-               entry.touch();
-               return entry.getReference();
-            }
-
-         // Not found in recently accessed, look in slots
-         } else {
-
-            // Go through all slots
-            for (int i = 0; i < _slotCount; i++) {
-               entry = (Entry) _slots[i].remove(key);
-
-               if (entry != null) {
-
-                  // Entry is already expired, update the map and size and
-                  // return null
-                  if (entry.isExpired()) {
-                     return null;
+      Entry<K, V> entry = _entries.get(key);
+      if (entry == null) {
+         return null;
+      }
 
-                  // Entry is not expired, touch it, store in the recently
-                  // accessed and return the reference
-                  } else {
-                     entry.touch();
-                     _recentlyAccessed.put(key, entry);
-                     return entry.getReference();
-                  }
-               }
-            }
+      // Entry is already expired
+      long now = System.currentTimeMillis();
+      if (now >= entry._expiryTime) {
+         return null;
+      }
 
-            // Nothing found in any of the slots
-            return null;
+      // Entry is not expired, touch it and return the reference. The entry
+      // is rescheduled when the tick of its previous expiry time occurs.
+      entry._expiryTime = now + _timeOut;
+      if (_bounded) {
+         if (!entry._accessed) {
+            entry._accessed = true;
+         }
+         if (_policy == EvictionPolicy.TINY_LFU) {
+            stripeOf(key).recordAccess(key);
          }
       }
+      return entry._value;
    }
 
    /**
     * Finds the value associated with a key. The lifetime of the matching
     * entry is not extended.
     *
-    * <p>The more recently the specified entry was accessed, the faster the
-    * lookup.
+    * <p>This method does not lock.
     *
     * @param key
     *    the key to lookup, cannot be <code>null</code>.
@@ -620,7 +717,7 @@ public final class ExpiryFolder {
     * @throws IllegalArgumentException
     *    if <code>key == null</code>.
     */
-   public Object find(final Object key)
+   public V find(final Object key)
    throws IllegalStateException, IllegalArgumentException {
 
       // Check state
@@ -629,29 +726,11 @@ public final class ExpiryFolder {
       // Check arguments
       MandatoryArgumentChecker.check("key", key);
 
-      Object value;
-
-      // Search in the recently accessed map first
-      synchronized (_lock) {
-         value = _recentlyAccessed.get(key);
-
-         // If not found, then look in the slots
-         if (value == null) {
-            for (int i = 0; i < _slotCount && value == null; i++) {
-               value = _slots[i].get(key);
-            }
-         }
-      }
-
-      if (value == null) {
-         return null;
-      }
-
-      Entry entry = (Entry) value;
-      if (entry.isExpired()) {
+      Entry<K, V> entry = _entries.get(key);
+      if (entry == null || System.currentTimeMillis() >= entry._expiryTime) {
          return null;
       } else {
-         return entry.getReference();
+         return entry._value;
       }
    }
 
@@ -668,9 +747,10 @@ public final class ExpiryFolder {
     *    if the associated {@link ExpiryStrategy} has stopped already.
     *
     * @throws IllegalArgumentException
-    *    if <code>key == null || value == null</code>.
+    *    if <code>key == null || value == null</code> or if the weigher
+    *    returns a negative weight.
     */
-   public void put(final Object key, final Object value)
+   public void put(final K key, final V value)
    throws IllegalStateException, IllegalArgumentException {
 
       // Check state
@@ -679,11 +759,122 @@ public final class ExpiryFolder {
       // Check arguments
       MandatoryArgumentChecker.check("key", key, "value", value);
 
-      // Store the association in the set of recently accessed entries
-      synchronized (_lock) {
-         Entry entry = new Entry(value);
-         _recentlyAccessed.put(key, entry);
+      long now = System.currentTimeMillis();
+      put(key, value, now + _timeOut, now);
+   }
+
+   /**
+    * Stores an entry expiring at the specified time.
+    *
+    * @param key
+    *    they key for the entry, cannot be <code>null</code>.
+    *
+    * @param value
+    *    they value for the entry, cannot be <code>null</code>.
+    *
+    * @param expiryTime
+    *    the time at which the entry expires.
+    *
+    * @param now
+    *    the current time.
+    */
+   private void put(K key, V value, long expiryTime, long now) {
+      long weight = 0L;
+      if (_weigher != null) {
+         weight = _weigher.weigh(key, value);
+         if (weight < 0L) {
+            String detail = "Negative weight (" + weight + "L) for key " + key + '.';
+            Utils.logProgrammingError(detail);
+            throw new IllegalArgumentException(detail);
+         }
       }
+      Entry<K, V> entry = new Entry<K, V>(key, value, expiryTime, weight);
+      Stripe<K, V> stripe = stripeOf(key);
+      Map<K, V> evicted = null;
+      synchronized (stripe) {
+         Entry<K, V> previous = _entries.put(key, entry);
+         if (previous != null) {
+            stripe.unlink(previous);
+         } else {
+            stripe._size++;
+         }
+         stripe.link(entry, bucketOf(expiryTime, now, _tickCount));
+         if (_bounded) {
+            int queue = stripe.hasWindow() ? WINDOW_QUEUE : MAIN_QUEUE;
+            if (previous != null && previous._queue != NO_QUEUE) {
+               queue = previous._queue;
+               stripe.dequeue(previous);
+            }
+            stripe.enqueue(entry, queue);
+            stripe.recordAccess(key);
+            evicted = evict(stripe);
+         }
+      }
+
+      // Notify the listeners without holding any lock
+      if (evicted != null) {
+         _evictionCount.addAndGet(evicted.size());
+         Map<K, V> unmodifiableEvicted = Collections.unmodifiableMap(evicted);
+         for (ExpiryListener<K, V> listener : _listeners) {
+            if (listener instanceof EvictionListener) {
+               try {
+                  ((EvictionListener<K, V>) listener).evicted(this, unmodifiableEvicted);
+               } catch (Throwable exception) {
+                  Utils.logIgnoredException(exception);
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Evicts entries from a stripe until it is within its limits. This method
+    * must be called while holding the lock of the stripe.
+    *
+    * <p>With {@link EvictionPolicy#TINY_LFU}, the entries leaving the window
+    * become candidates. A candidate replaces the least recently used entry
+    * only if its key was used more frequently, otherwise the candidate is
+    * evicted.
+    *
+    * @param stripe
+    *    the stripe, cannot be <code>null</code>.
+    *
+    * @return
+    *    the evicted entries, or <code>null</code> if no entry was evicted.
+    */
+   private Map<K, V> evict(Stripe<K, V> stripe) {
+      Map<K, V> evicted = null;
+      Entry<K, V> candidate = null;
+      while (stripe.windowOverflows()) {
+         candidate = stripe.first(WINDOW_QUEUE);
+         stripe.dequeue(candidate);
+         stripe.enqueue(candidate, MAIN_QUEUE);
+      }
+      while (stripe.overflows()) {
+         Entry<K, V> victim = stripe.victim();
+         if (victim == null) {
+            victim = stripe.first(WINDOW_QUEUE);
+         } else if (candidate != null && candidate._queue == MAIN_QUEUE && victim != candidate) {
+            if (stripe.frequency(candidate._key) > stripe.frequency(victim._key)) {
+               candidate = null;
+            } else {
+               victim = candidate;
+               candidate = null;
+            }
+         }
+         if (victim == null) {
+            break;
+         }
+         _entries.remove(victim._key);
+         stripe._size--;
+         stripe.unlink(victim);
+         stripe.dequeue(victim);
+         if (evicted == null) {
+            evicted = new HashMap<K, V>();
+         }
+         evicted.put(victim._key, victim._value);
+      }
+      return evicted;
    }
 
    /**
@@ -703,7 +894,7 @@ public final class ExpiryFolder {
     * @throws IllegalArgumentException
     *    if <code>key == null</code>.
     */
-   public Object remove(final Object key)
+   public V remove(final Object key)
    throws IllegalStateException, IllegalArgumentException {
 
       // Check state
@@ -712,38 +903,77 @@ public final class ExpiryFolder {
       // Check arguments
       MandatoryArgumentChecker.check("key", key);
 
-      Object value;
-
-      // Remove the key in the set of recently accessed entries
-      synchronized (_recentlyAccessed) {
-         value = _recentlyAccessed.remove(key);
-      }
-
-      // If not found, then look in the slots
-      if (value == null) {
-         synchronized (_slots) {
-            for (int i = 0; i < _slotCount && value == null; i++) {
-               value = _slots[i].remove(key);
-            }
+      Entry<K, V> entry;
+      Stripe<K, V> stripe = stripeOf(key);
+      synchronized (stripe) {
+         entry = _entries.remove(key);
+         if (entry != null) {
+            stripe._size--;
+            stripe.unlink(entry);
+            stripe.dequeue(entry);
          }
       }
 
-      if (value == null) {
+      if (entry == null || System.currentTimeMillis() >= entry._expiryTime) {
          return null;
+      } else {
+         return entry._value;
       }
+   }
 
-      Entry entry = (Entry) value;
-      if (entry.isExpired()) {
-         return null;
-      } else {
-         return entry.getReference();
+   /**
+    * Returns the number of entries evicted because this folder reached its
+    * maximum number of entries or its maximum weight.
+    *
+    * @return
+    *    the number of evicted entries, always &gt;= 0.
+    *
+    * @since XINS 3.2
+    */
+   public long getEvictionCount() {
+      return _evictionCount.get();
+   }
+
+   /**
+    * Returns the total weight of the entries, including the expired entries
+    * that are not removed yet.
+    *
+    * @return
+    *    the total weight computed by the weigher, or <code>0L</code> if the
+    *    weight is not limited.
+    *
+    * @since XINS 3.2
+    */
+   public long getWeight() {
+      long weight = 0L;
+      for (Stripe<K, V> stripe : _stripes) {
+         weight += stripe._weight;
       }
+      return weight;
+   }
+
+   /**
+    * Gets the entries of this folder that are not expired. The lifetime of
+    * the entries is not extended.
+    *
+    * @return
+    *    a copy of the entries, never <code>null</code>.
+    */
+   private Map<K, V> getEntries() {
+      long now = System.currentTimeMillis();
+      Map<K, V> entries = new HashMap<K, V>();
+      for (Entry<K, V> entry : _entries.values()) {
+         if (now < entry._expiryTime) {
+            entries.put(entry._key, entry._value);
+         }
+      }
+      return entries;
    }
 
    /**
     * Copies the entries of this <code>ExpiryFolder</code> into another one.
-    * This method does not perform a deep copy, so if a key is added or
-    * removed, both folders will be modified.
+    * The entries keep their expiry time. This method does not perform a deep
+    * copy, the keys and the values are shared by both folders.
     *
     * @param newFolder
     *    the new folder where the entries should be copied into,
@@ -757,7 +987,7 @@ public final class ExpiryFolder {
     *    or if the precision of <code>newFolder</code> is not the same as for
     *    this <code>ExpiryFolder</code>.
     */
-   public void copy(final ExpiryFolder newFolder)
+   public void copy(final ExpiryFolder<K, V> newFolder)
    throws IllegalStateException, IllegalArgumentException {
 
       // Check arguments
@@ -767,26 +997,21 @@ public final class ExpiryFolder {
          Utils.logProgrammingError(detail);
          throw new IllegalArgumentException(detail);
       }
-      if (newFolder._strategy.getPrecision() != _strategy.getPrecision()) {
+      if (newFolder._precision != _precision) {
          String detail = "Folders must have the same precision.";
          Utils.logProgrammingError(detail);
          throw new IllegalArgumentException(detail);
       }
 
-      // Avoid a potential deadlock by always locking on the instance with the
-      // lowest instance number first
-      Object firstLock  = (_instanceNum < newFolder._instanceNum) ? _lock : newFolder._lock;
-      Object secondLock = (_instanceNum < newFolder._instanceNum) ? newFolder._lock : _lock;
-      synchronized (firstLock) {
-         synchronized (secondLock) {
-
-            // Copy the recentlyAccessed
-            newFolder._recentlyAccessed = new HashMap(_recentlyAccessed);
+      // Check state
+      assertStrategyNotStopped();
+      newFolder.assertStrategyNotStopped();
 
-            // Copy the slots
-            for (int i = 0; i < _slotCount && i < newFolder._slotCount; i++) {
-               newFolder._slots[i] = new HashMap(_slots[i]);
-            }
+      long now = System.currentTimeMillis();
+      for (Entry<K, V> entry : _entries.values()) {
+         long expiryTime = entry._expiryTime;
+         if (now < expiryTime) {
+            newFolder.put(entry._key, entry._value, expiryTime, now);
          }
       }
    }
@@ -821,100 +1046,457 @@ public final class ExpiryFolder {
    }
 
    /**
-    * Entry in an expiry folder. Combination of the referenced object and a
-    * timestamp. The timestamp indicates when the object should be expired.
+    * Entry in an expiry folder. Combination of the key, the referenced object
+    * and a timestamp. The timestamp indicates when the object should be
+    * expired.
     *
     * @version $Revision: 1.64 $ $Date: 2012/03/15 21:07:39 $
     * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
     */
-   private class Entry {
+   private static final class Entry<K, V> {
+
       /**
        * Constructs a new <code>Entry</code>.
        *
-       * @param reference
-       *    reference to the object, should not be <code>null</code> (although
-       *    it is not checked).
+       * @param key
+       *    the key of the entry, should not be <code>null</code>.
+       *
+       * @param value
+       *    reference to the object, should not be <code>null</code>.
+       *
+       * @param expiryTime
+       *    the time at which this entry should expire.
+       *
+       * @param weight
+       *    the weight of the entry.
        */
-      private Entry(final Object reference) {
-         _reference = reference;
-         touch();
+      private Entry(K key, V value, long expiryTime, long weight) {
+         _key        = key;
+         _value      = value;
+         _expiryTime = expiryTime;
+         _weight     = weight;
+         _bucket     = -1;
       }
 
+      /**
+       * The key of the entry. Should not be <code>null</code>.
+       */
+      private final K _key;
+
       /**
        * Reference to the object. Should not be <code>null</code>.
        */
-      private final Object _reference;
+      private final V _value;
 
       /**
        * The time at which this entry should expire.
        */
-      private long _expiryTime;
+      private volatile long _expiryTime;
+
+      /**
+       * The weight of the entry.
+       */
+      private final long _weight;
+
+      /**
+       * Whether the entry was used since it was last considered for
+       * eviction.
+       */
+      private volatile boolean _accessed;
+
+      /**
+       * The index of the bucket containing this entry, or <code>-1</code>
+       * if the entry is not scheduled. Protected by the lock of the stripe.
+       */
+      private int _bucket;
+
+      /**
+       * The eviction queue containing this entry. Protected by the lock of
+       * the stripe.
+       */
+      private int _queue;
+
+      /**
+       * The previous entry in the eviction queue. Protected by the lock of
+       * the stripe.
+       */
+      private Entry<K, V> _queuePrevious;
+
+      /**
+       * The next entry in the eviction queue. Protected by the lock of the
+       * stripe.
+       */
+      private Entry<K, V> _queueNext;
+
+      /**
+       * The previous entry in the bucket. Protected by the lock of the
+       * stripe.
+       */
+      private Entry<K, V> _previous;
+
+      /**
+       * The next entry in the bucket. Protected by the lock of the stripe.
+       */
+      private Entry<K, V> _next;
+   }
+
+   /**
+    * Part of the timing wheel containing the entries of the keys of one
+    * stripe. Each bucket is a doubly linked list of entries. If the folder is
+    * bounded, the stripe also contains the eviction queues of its entries.
+    * All the methods must be called while holding the lock of the stripe,
+    * except {@link #recordAccess(Object)}.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    */
+   private static final class Stripe<K, V> {
+
+      /**
+       * The first entry of each bucket.
+       */
+      private final Entry<K, V>[] _buckets;
 
       /**
-       * Returns a hash code value for the object.
+       * The maximum number of entries in the eviction queues.
+       */
+      private final int _maxEntries;
+
+      /**
+       * The maximum weight of the entries in the eviction queues.
+       */
+      private final long _maxWeight;
+
+      /**
+       * The maximum number of entries in the window queue.
+       */
+      private final int _windowMaxEntries;
+
+      /**
+       * The maximum weight of the entries in the window queue.
+       */
+      private final long _windowMaxWeight;
+
+      /**
+       * The frequencies of the keys, or <code>null</code> if the stripe has
+       * no window queue.
+       */
+      private final FrequencySketch _sketch;
+
+      /**
+       * The first entry of each eviction queue, indexed by queue.
+       */
+      private final Entry<K, V>[] _heads;
+
+      /**
+       * The last entry of each eviction queue, indexed by queue.
+       */
+      private final Entry<K, V>[] _tails;
+
+      /**
+       * The number of entries of each eviction queue, indexed by queue.
+       */
+      private final int[] _counts;
+
+      /**
+       * The weight of the entries of each eviction queue, indexed by queue.
+       */
+      private final long[] _weights;
+
+      /**
+       * The total weight of the entries of the eviction queues.
+       */
+      private volatile long _weight;
+
+      /**
+       * The number of entries of this stripe, including the expired entries
+       * not removed yet. Only modified while holding the lock of the stripe.
+       */
+      private volatile int _size;
+
+      /**
+       * Creates a new <code>Stripe</code>.
+       *
+       * @param wheelSize
+       *    the number of buckets.
+       *
+       * @param maxEntries
+       *    the maximum number of entries.
+       *
+       * @param maxWeight
+       *    the maximum total weight of the entries.
+       *
+       * @param window
+       *    whether the new entries are stored in a window queue.
+       */
+      private Stripe(int wheelSize, int maxEntries, long maxWeight, boolean window) {
+         _buckets    = new Entry[wheelSize];
+         _maxEntries = maxEntries;
+         _maxWeight  = maxWeight;
+         _heads      = new Entry[MAIN_QUEUE + 1];
+         _tails      = new Entry[MAIN_QUEUE + 1];
+         _counts     = new int[MAIN_QUEUE + 1];
+         _weights    = new long[MAIN_QUEUE + 1];
+         if (window) {
+            _windowMaxEntries = maxEntries == Integer.MAX_VALUE ? Integer.MAX_VALUE : Math.max(1, maxEntries / 100);
+            _windowMaxWeight  = maxWeight  == Long.MAX_VALUE    ? Long.MAX_VALUE    : Math.max(1L, maxWeight / 100L);
+            _sketch = new FrequencySketch(maxEntries == Integer.MAX_VALUE ? 1024 : maxEntries);
+         } else {
+            _windowMaxEntries = 0;
+            _windowMaxWeight  = 0L;
+            _sketch = null;
+         }
+      }
+
+      /**
+       * Indicates whether the new entries are stored in the window queue.
        *
        * @return
-       *    a hash code value for this object.
+       *    <code>true</code> if the stripe has a window queue.
+       */
+      private boolean hasWindow() {
+         return _sketch != null;
+      }
+
+      /**
+       * Records the use of a key. This method does not need the lock of the
+       * stripe.
        *
-       * @see Object#hashCode()
-       * @see #equals(Object)
+       * @param key
+       *    the key, cannot be <code>null</code>.
        */
-      public int hashCode() {
-         return _reference.hashCode();
+      private void recordAccess(Object key) {
+         if (_sketch != null) {
+            _sketch.increment(key.hashCode());
+         }
       }
 
       /**
-       * Checks whether this object is considered equal to the argument.
+       * Estimates how often a key was used.
        *
-       * @param obj
-       *    the object to compare with.
+       * @param key
+       *    the key, cannot be <code>null</code>.
        *
        * @return
-       *    <code>true</code> if this object is considered equal to
-       *    <code>obj</code>, or <code>false</code> otherwise.
-       *
-       * @see Object#equals(Object)
+       *    the estimated frequency of the key.
        */
-      public boolean equals(final Object obj) {
+      private int frequency(Object key) {
+         return _sketch == null ? 0 : _sketch.frequency(key.hashCode());
+      }
 
-         boolean equal;
+      /**
+       * Adds an entry at the end of an eviction queue.
+       *
+       * @param entry
+       *    the entry, cannot be <code>null</code>.
+       *
+       * @param queue
+       *    the queue, either {@link #WINDOW_QUEUE} or {@link #MAIN_QUEUE}.
+       */
+      private void enqueue(Entry<K, V> entry, int queue) {
+         Entry<K, V> last = _tails[queue];
+         entry._queue         = queue;
+         entry._queuePrevious = last;
+         entry._queueNext     = null;
+         if (last == null) {
+            _heads[queue] = entry;
+         } else {
+            last._queueNext = entry;
+         }
+         _tails[queue] = entry;
+         _counts[queue]++;
+         _weights[queue] += entry._weight;
+         _weight += entry._weight;
+      }
 
-         if (obj instanceof Entry) {
-            Entry that = (Entry) obj;
-            equal = _reference.equals(that._reference);
+      /**
+       * Removes an entry from its eviction queue, if any.
+       *
+       * @param entry
+       *    the entry, cannot be <code>null</code>.
+       */
+      private void dequeue(Entry<K, V> entry) {
+         int queue = entry._queue;
+         if (queue == NO_QUEUE) {
+            return;
+         }
+         if (entry._queuePrevious != null) {
+            entry._queuePrevious._queueNext = entry._queueNext;
          } else {
-            equal = false;
+            _heads[queue] = entry._queueNext;
          }
+         if (entry._queueNext != null) {
+            entry._queueNext._queuePrevious = entry._queuePrevious;
+         } else {
+            _tails[queue] = entry._queuePrevious;
+         }
+         _counts[queue]--;
+         _weights[queue] -= entry._weight;
+         _weight -= entry._weight;
+         entry._queue         = NO_QUEUE;
+         entry._queuePrevious = null;
+         entry._queueNext     = null;
+      }
 
-         return equal;
+      /**
+       * Gets the oldest entry of an eviction queue.
+       *
+       * @param queue
+       *    the queue, either {@link #WINDOW_QUEUE} or {@link #MAIN_QUEUE}.
+       *
+       * @return
+       *    the first entry of the queue, or <code>null</code> if the queue
+       *    is empty.
+       */
+      private Entry<K, V> first(int queue) {
+         return _heads[queue];
+      }
+
+      /**
+       * Indicates whether the window queue contains too many entries.
+       *
+       * @return
+       *    <code>true</code> if the oldest entry should leave the window.
+       */
+      private boolean windowOverflows() {
+         return _counts[WINDOW_QUEUE] > _windowMaxEntries || _weights[WINDOW_QUEUE] > _windowMaxWeight;
       }
 
       /**
-       * Retrieves the reference to the object.
+       * Indicates whether the stripe contains too many entries.
        *
        * @return
-       *    the reference to the object, should not be <code>null</code>.
+       *    <code>true</code> if an entry should be evicted.
        */
-      public Object getReference() {
-         return _reference;
+      private boolean overflows() {
+         return _counts[WINDOW_QUEUE] + _counts[MAIN_QUEUE] > _maxEntries || _weight > _maxWeight;
       }
 
       /**
-       * Checks if this entry is expired.
+       * Chooses the entry of the main queue to evict with the CLOCK
+       * algorithm: the entries used since they were last considered are
+       * moved to the end of the queue.
        *
        * @return
-       *    <code>true</code> if this entry is expired, <code>false</code>
-       *    otherwise.
+       *    the least recently used entry, or <code>null</code> if the main
+       *    queue is empty.
        */
-      public boolean isExpired() {
-         return System.currentTimeMillis() >= _expiryTime;
+      private Entry<K, V> victim() {
+         for (int i = _counts[MAIN_QUEUE]; i > 0; i--) {
+            Entry<K, V> entry = _heads[MAIN_QUEUE];
+            if (!entry._accessed) {
+               return entry;
+            }
+            entry._accessed = false;
+            dequeue(entry);
+            enqueue(entry, MAIN_QUEUE);
+         }
+         return _heads[MAIN_QUEUE];
       }
 
       /**
-       * Touches this entry, resetting the expiry time.
+       * Adds an entry to a bucket.
+       *
+       * @param entry
+       *    the entry, cannot be <code>null</code>.
+       *
+       * @param bucket
+       *    the index of the bucket.
        */
-      public void touch() {
-         _expiryTime = System.currentTimeMillis() + _strategy.getTimeOut();
+      private void link(Entry<K, V> entry, int bucket) {
+         Entry<K, V> first = _buckets[bucket];
+         entry._bucket   = bucket;
+         entry._previous = null;
+         entry._next     = first;
+         if (first != null) {
+            first._previous = entry;
+         }
+         _buckets[bucket] = entry;
+      }
+
+      /**
+       * Removes an entry from its bucket.
+       *
+       * @param entry
+       *    the entry, cannot be <code>null</code>.
+       */
+      private void unlink(Entry<K, V> entry) {
+         if (entry._bucket < 0) {
+            return;
+         }
+         if (entry._previous != null) {
+            entry._previous._next = entry._next;
+         } else {
+            _buckets[entry._bucket] = entry._next;
+         }
+         if (entry._next != null) {
+            entry._next._previous = entry._previous;
+         }
+         entry._bucket   = -1;
+         entry._previous = null;
+         entry._next     = null;
+      }
+
+      /**
+       * Removes all the entries of a bucket. The entries are still linked
+       * together with their <code>_next</code> field but are no longer
+       * scheduled.
+       *
+       * @param bucket
+       *    the index of the bucket.
+       *
+       * @return
+       *    the first entry of the bucket, or <code>null</code> if the bucket
+       *    was empty.
+       */
+      private Entry<K, V> detach(int bucket) {
+         Entry<K, V> first = _buckets[bucket];
+         _buckets[bucket] = null;
+         for (Entry<K, V> entry = first; entry != null; entry = entry._next) {
+            entry._bucket   = -1;
+            entry._previous = null;
+         }
+         return first;
+      }
+
+      /**
+       * Counts the expired entries of a bucket.
+       *
+       * @param bucket
+       *    the index of the bucket.
+       *
+       * @param now
+       *    the current time.
+       *
+       * @return
+       *    the number of entries of the bucket that expired at
+       *    <code>now</code>.
+       */
+      private int countExpired(int bucket, long now) {
+         int count = 0;
+         for (Entry<K, V> entry = _buckets[bucket]; entry != null; entry = entry._next) {
+            if (now >= entry._expiryTime) {
+               count++;
+            }
+         }
+         return count;
+      }
+
+      /**
+       * Removes all the entries.
+       */
+      private void clear() {
+         for (int i = 0; i < _buckets.length; i++) {
+            _buckets[i] = null;
+         }
+         for (int i = 0; i < _heads.length; i++) {
+            _heads[i]   = null;
+            _tails[i]   = null;
+            _counts[i]  = 0;
+            _weights[i] = 0L;
+         }
+         _weight = 0L;
+         _size   = 0;
       }
    }
 }
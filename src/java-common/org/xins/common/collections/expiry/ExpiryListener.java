@@ -14,9 +14,15 @@ import java.util.Map;
  * @version $Revision: 1.12 $ $Date: 2010/09/29 17:21:48 $
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
  *
+ * @param <K>
+ *    the type of the keys of the folder.
+ *
+ * @param <V>
+ *    the type of the values of the folder.
+ *
  * @since XINS 1.0.0
  */
-public interface ExpiryListener {
+public interface ExpiryListener<K, V> {
 
    /**
     * Notification of the expiry of the specified set of objects.
@@ -26,7 +32,8 @@ public interface ExpiryListener {
     *
     * @param expired
     *    the map containing the objects that have expired, indexed by key;
-    *    never <code>null</code>.
+    *    never <code>null</code>. This map cannot be modified and contains
+    *    all the entries expired during the same tick of the folder.
     */
-   void expired(ExpiryFolder folder, Map expired);
+   void expired(ExpiryFolder<K, V> folder, Map<K, V> expired);
 }
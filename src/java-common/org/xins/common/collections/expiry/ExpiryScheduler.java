@@ -0,0 +1,230 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.collections.expiry;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.xins.common.Log;
+import org.xins.common.Utils;
+
+/**
+ * Daemon thread shared by all the started {@link ExpiryStrategy} instances.
+ *
+ * <p>The ticks of a strategy occur at the multiples of its precision, so the
+ * strategies with the same precision, or with a precision that is a multiple
+ * of another one, are ticked during the same wake-up of the thread. If the
+ * thread is late, the missed ticks are executed at once, but never more
+ * ticks than needed to go once through all the slots of the strategy.
+ *
+ * <p>The strategies are referenced weakly, so a strategy that is not used
+ * anymore stops ticking even if {@link ExpiryStrategy#stop()} was not
+ * called. The thread stops when no strategy is registered anymore.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+final class ExpiryScheduler implements Runnable {
+
+   /**
+    * The only instance of this class.
+    */
+   private static final ExpiryScheduler INSTANCE = new ExpiryScheduler();
+
+   /**
+    * The schedules of the registered strategies. Never <code>null</code>.
+    */
+   private final List<Schedule> _schedules = new ArrayList<Schedule>();
+
+   /**
+    * The thread ticking the strategies, or <code>null</code> if no strategy
+    * is registered.
+    */
+   private Thread _thread;
+
+   /**
+    * Creates the <code>ExpiryScheduler</code>.
+    */
+   private ExpiryScheduler() {
+   }
+
+   /**
+    * Gets the shared <code>ExpiryScheduler</code>.
+    *
+    * @return
+    *    the expiry scheduler, never <code>null</code>.
+    */
+   static ExpiryScheduler getInstance() {
+      return INSTANCE;
+   }
+
+   /**
+    * Registers a strategy. Its first tick occurs at the next multiple of its
+    * precision.
+    *
+    * @param strategy
+    *    the strategy, cannot be <code>null</code>.
+    */
+   synchronized void add(ExpiryStrategy strategy) {
+      _schedules.add(new Schedule(strategy));
+      if (_thread == null) {
+         _thread = new Thread(this, getClass().getName());
+         _thread.setDaemon(true);
+         _thread.start();
+      } else {
+         notifyAll();
+      }
+   }
+
+   /**
+    * Unregisters a strategy.
+    *
+    * @param strategy
+    *    the strategy, cannot be <code>null</code>.
+    */
+   synchronized void remove(ExpiryStrategy strategy) {
+      for (Iterator<Schedule> it = _schedules.iterator(); it.hasNext(); ) {
+         if (it.next()._strategy.get() == strategy) {
+            it.remove();
+         }
+      }
+      notifyAll();
+   }
+
+   /**
+    * Ticks the strategies when their ticks are due. This method should not
+    * be called directly.
+    */
+   public void run() {
+      Log.log_1410();
+      List<Tick> dueTicks = new ArrayList<Tick>();
+      while (true) {
+         synchronized (this) {
+            long now = System.currentTimeMillis();
+            long nextTick = Long.MAX_VALUE;
+            for (Iterator<Schedule> it = _schedules.iterator(); it.hasNext(); ) {
+               Schedule schedule = it.next();
+               ExpiryStrategy strategy = schedule._strategy.get();
+               if (strategy == null) {
+                  it.remove();
+                  continue;
+               }
+               if (schedule._nextTick <= now) {
+                  long lag = now - schedule._nextTick;
+                  long tickCount = lag / schedule._precision + 1L;
+                  schedule._nextTick += tickCount * schedule._precision;
+                  dueTicks.add(new Tick(strategy, (int) Math.min(tickCount, strategy.getSlotCount() + 1L), lag));
+               }
+               nextTick = Math.min(nextTick, schedule._nextTick);
+            }
+            if (dueTicks.isEmpty()) {
+               if (_schedules.isEmpty()) {
+                  _thread = null;
+                  Log.log_1411();
+                  return;
+               }
+               try {
+                  wait(nextTick - now);
+               } catch (InterruptedException iex) {
+                  // Check the schedules again
+               }
+               continue;
+            }
+         }
+
+         // The folders are ticked without holding the lock
+         for (Tick tick : dueTicks) {
+            try {
+               tick._strategy.doTicks(tick._count, tick._lag);
+            } catch (Throwable exception) {
+               Utils.logIgnoredException(exception);
+            }
+         }
+         dueTicks.clear();
+      }
+   }
+
+   /**
+    * When the next tick of a strategy should occur.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    */
+   private static final class Schedule {
+
+      /**
+       * The strategy. Never <code>null</code>.
+       */
+      private final WeakReference<ExpiryStrategy> _strategy;
+
+      /**
+       * The precision of the strategy in milliseconds.
+       */
+      private final long _precision;
+
+      /**
+       * The time of the next tick.
+       */
+      private long _nextTick;
+
+      /**
+       * Creates a new <code>Schedule</code>.
+       *
+       * @param strategy
+       *    the strategy, cannot be <code>null</code>.
+       */
+      private Schedule(ExpiryStrategy strategy) {
+         _strategy = new WeakReference<ExpiryStrategy>(strategy);
+         _precision = strategy.getPrecision();
+         _nextTick = (System.currentTimeMillis() / _precision + 1L) * _precision;
+      }
+   }
+
+   /**
+    * Ticks to execute for a strategy.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    */
+   private static final class Tick {
+
+      /**
+       * The strategy. Never <code>null</code>.
+       */
+      private final ExpiryStrategy _strategy;
+
+      /**
+       * The number of ticks to execute, at least 1.
+       */
+      private final int _count;
+
+      /**
+       * The time in milliseconds between the time the first tick was due
+       * and the time it was detected.
+       */
+      private final long _lag;
+
+      /**
+       * Creates a new <code>Tick</code>.
+       *
+       * @param strategy
+       *    the strategy, cannot be <code>null</code>.
+       *
+       * @param count
+       *    the number of ticks to execute.
+       *
+       * @param lag
+       *    the lag of the first tick in milliseconds.
+       */
+      private Tick(ExpiryStrategy strategy, int count, long lag) {
+         _strategy = strategy;
+         _count = count;
+         _lag = lag;
+      }
+   }
+}
@@ -5,6 +5,7 @@
  */
 package org.xins.common.collections.expiry;
 
+import java.io.Closeable;
 import java.lang.ref.WeakReference;
 
 import java.util.ArrayList;
@@ -15,17 +16,25 @@ import org.xins.common.Utils;
 /**
  * Expiry strategy. A strategy maintains a time-out and a time-out precision.
  *
- * <p>When an <code>ExpiryStrategy</code> is constructed, then an associated
- * thread is immediately constructed and started. This thread <em>must</em>
- * be stopped manually by calling {@link #stop()} as soon as the strategy is
- * no longer used.
+ * <p>When an <code>ExpiryStrategy</code> is constructed, then it is
+ * immediately scheduled in the daemon thread shared by all the strategies.
+ * The strategy should be stopped by calling {@link #stop()} as soon as it is
+ * no longer used. A {@link org.xins.common.manageable.Manageable} can stop it
+ * when it is deinitialized, see
+ * {@link org.xins.common.manageable.Manageable#closeOnDeinit(Closeable)}.
+ *
+ * <p>Since XINS 3.2, the ticks of all the strategies are executed by the
+ * same thread. A slow {@link ExpiryListener} delays the ticks of the other
+ * strategies, the delay is reported by {@link #getLastTickLag()} and
+ * {@link #getMaxTickLag()}.
  *
  * @version $Revision: 1.46 $ $Date: 2010/09/29 17:21:48 $
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
  *
  * @since XINS 1.0.0
  */
-public final class ExpiryStrategy {
+public final class ExpiryStrategy implements Closeable {
 
    /**
     * The fully-qualified name of this class.
@@ -72,12 +81,7 @@ public final class ExpiryStrategy {
    /**
     * The list of folders associated with this strategy.
     */
-   private final ArrayList _folders;
-
-   /**
-    * The timer thread. Not <code>null</code>.
-    */
-   private final TimerThread _timerThread;
+   private final ArrayList<WeakReference<ExpiryFolder<?, ?>>> _folders;
 
    /**
     * Hash code for this object. The hash code is a constant.
@@ -85,14 +89,28 @@ public final class ExpiryStrategy {
    private final int _hashCode;
 
    /**
-    * Flag that indicates if the time thread should stop or not. Initially
+    * Flag that indicates if the strategy should stop or not. Initially
     * <code>false</code>, ofcourse.
     */
-   private boolean _stop;
+   private volatile boolean _stop;
+
+   /**
+    * The number of ticks executed.
+    */
+   private volatile long _tickCount;
+
+   /**
+    * The delay of the last tick, in milliseconds.
+    */
+   private volatile long _lastTickLag;
 
    /**
-    * Constructs a new <code>ExpiryStrategy</code> and starts the
-    * corresponding thread.
+    * The maximum delay of the ticks, in milliseconds.
+    */
+   private volatile long _maxTickLag;
+
+   /**
+    * Constructs a new <code>ExpiryStrategy</code> and schedules its ticks.
     *
     * @param timeOut
     *    the time-out, in milliseconds.
@@ -142,7 +160,7 @@ public final class ExpiryStrategy {
       _timeOut   = timeOut;
       _precision = precision;
       _slotCount = (int) slotCount;
-      _folders   = new ArrayList();
+      _folders   = new ArrayList<WeakReference<ExpiryFolder<?, ?>>>();
       String constructorDetail = "#" + _instanceNum + " [timeOut=" + timeOut
             + "L; precision=" + precision + "L]";
       _asString  = CLASSNAME + ' ' + constructorDetail;
@@ -153,12 +171,9 @@ public final class ExpiryStrategy {
       // Constructed an ExpiryStrategy instance
       Log.log_1409(_instanceNum, _timeOut, _precision);
 
-      // Create and start the timer thread. If no other threads are active,
-      // then neither should this timer thread, so do not mark as a daemon
-      // thread.
-      _timerThread = new TimerThread();
-      _timerThread.setDaemon(false);
-      _timerThread.start();
+      // Schedule the ticks in the shared daemon thread
+      ExpiryScheduler.getInstance().add(this);
+      Log.log_1402(_instanceNum);
    }
 
    /**
@@ -235,6 +250,45 @@ public final class ExpiryStrategy {
       return _slotCount;
    }
 
+   /**
+    * Returns the number of ticks executed since this strategy was created.
+    *
+    * @return
+    *    the tick count, always &gt;= 0.
+    *
+    * @since XINS 3.2
+    */
+   public long getTickCount() {
+      return _tickCount;
+   }
+
+   /**
+    * Returns the delay between the time the last tick was due and the time
+    * it was executed. This delay increases when the expiry listeners are
+    * slow or when the system is overloaded.
+    *
+    * @return
+    *    the lag of the last tick, in milliseconds, always &gt;= 0.
+    *
+    * @since XINS 3.2
+    */
+   public long getLastTickLag() {
+      return _lastTickLag;
+   }
+
+   /**
+    * Returns the maximum delay between the time a tick was due and the time
+    * it was executed.
+    *
+    * @return
+    *    the maximum lag of the ticks, in milliseconds, always &gt;= 0.
+    *
+    * @since XINS 3.2
+    */
+   public long getMaxTickLag() {
+      return _maxTickLag;
+   }
+
    /**
     * Callback method indicating an <code>ExpiryFolder</code> is now
     * associated with this strategy.
@@ -246,7 +300,7 @@ public final class ExpiryStrategy {
     * @throws IllegalStateException
     *    if this strategy was already stopped.
     */
-   void folderAdded(final ExpiryFolder folder) throws IllegalStateException {
+   void folderAdded(final ExpiryFolder<?, ?> folder) throws IllegalStateException {
 
       // Check state
       if (_stop) {
@@ -257,13 +311,12 @@ public final class ExpiryStrategy {
       Log.log_1401(folder.getInstanceNum(), folder.getName(), _instanceNum);
 
       synchronized (_folders) {
-         _folders.add(new WeakReference(folder));
+         _folders.add(new WeakReference<ExpiryFolder<?, ?>>(folder));
       }
    }
 
    /**
-    * Stops the thread that generates ticks that are passed to the registered
-    * expiry folders.
+    * Stops the ticks that are passed to the registered expiry folders.
     *
     * @throws IllegalStateException
     *    if this strategy was already stopped.
@@ -279,37 +332,72 @@ public final class ExpiryStrategy {
       // Set the stop flag
       _stop = true;
 
-      // Notify the timer thread
-      _timerThread.interrupt();
+      // Remove the ticks from the scheduler
+      ExpiryScheduler.getInstance().remove(this);
+      Log.log_1403(_instanceNum);
 
       // Notify all the associated ExpiryFolder instances that we are stopping
-      for (int i = 0; i < _folders.size(); i++) {
-         WeakReference ref = (WeakReference) _folders.get(i);
-         ExpiryFolder folder = (ExpiryFolder) ref.get();
-         if (folder != null) {
-            folder.strategyStopped();
+      synchronized (_folders) {
+         for (int i = 0; i < _folders.size(); i++) {
+            ExpiryFolder<?, ?> folder = _folders.get(i).get();
+            if (folder != null) {
+               folder.strategyStopped();
+            }
          }
       }
    }
 
    /**
-    * Callback method indicating the next tick has taken place. This method is
-    * called from (and on) the timer thread.
+    * Stops this strategy if it is not stopped yet.
+    *
+    * @since XINS 3.2
     */
-   private void doTick() {
+   public void close() {
+      synchronized (_folders) {
+         if (_stop) {
+            return;
+         }
+         stop();
+      }
+   }
 
-      // Do nothing if this strategy was already stopped
-      if (_stop) {
-         return;
+   /**
+    * Callback method called by the {@link ExpiryScheduler} when ticks are
+    * due.
+    *
+    * @param count
+    *    the number of ticks to execute, at least 1.
+    *
+    * @param lag
+    *    the delay of the first tick, in milliseconds.
+    */
+   void doTicks(int count, long lag) {
+      _lastTickLag = lag;
+      if (lag > _maxTickLag) {
+         _maxTickLag = lag;
+      }
+      if (lag >= _precision) {
+         Log.log_1412(_instanceNum, lag, _precision);
+      }
+      for (int i = 0; i < count && !_stop; i++) {
+         Log.log_1407(_instanceNum);
+         doTick();
+         _tickCount++;
       }
+   }
+
+   /**
+    * Executes one tick in all the folders associated with this strategy.
+    * This method is called from (and on) the expiry scheduler thread.
+    */
+   private void doTick() {
 
       int emptyRefIndex = -1;
 
       synchronized (_folders) {
          int count = _folders.size();
          for (int i = 0; i < count; i++) {
-            WeakReference ref = (WeakReference) _folders.get(i);
-            ExpiryFolder folder = (ExpiryFolder) ref.get();
+            ExpiryFolder<?, ?> folder = _folders.get(i).get();
             if (folder != null) {
                folder.tick();
             } else {
@@ -333,88 +421,4 @@ public final class ExpiryStrategy {
    public String toString() {
       return _asString;
    }
-
-   /**
-    * Timer thread for an expiry strategy. It calls back the expiry strategy
-    * at each so-called 'tick'. The interval between ticks is the precision of
-    * the strategy.
-    *
-    * @version $Revision: 1.46 $ $Date: 2010/09/29 17:21:48 $
-    * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
-    *
-    * @since XINS 1.0.0
-    */
-   private final class TimerThread extends Thread {
-
-      /**
-       * Constructs a new <code>TimerThread</code>.
-       */
-      public TimerThread() {
-         super(ExpiryStrategy.this.toString() + " timer thread");
-      }
-
-      /**
-       * Runs this thread. The thread keeps running until the expiry strategy
-       * is stopped.
-       */
-      public void run() {
-
-         Log.log_1402(_instanceNum);
-
-         long now  = System.currentTimeMillis();
-         long next = now + _precision;
-
-         while (! _stop) {
-            boolean interrupted;
-            long sleep = next - now;
-            if (sleep > 0) {
-               Log.log_1404(_instanceNum, sleep);
-               try {
-                  Thread.sleep(sleep);
-                  interrupted = false;
-
-               // Sleep was interrupted
-               } catch (InterruptedException exception) {
-                  interrupted = true;
-               }
-
-               // Determine how much time we spent since we started sleeping
-               long after = System.currentTimeMillis();
-               long slept = after - now;
-               now        = after;
-
-               // Perform logging
-               if (interrupted) {
-                  Log.log_1405(_instanceNum, slept);
-               } else {
-                  Log.log_1406(_instanceNum, slept);
-               }
-            }
-
-            // If we should stop, then exit the loop
-            if (_stop) {
-               break;
-            }
-
-            while (next <= now) {
-               Log.log_1407(_instanceNum);
-               doTick();
-               now = System.currentTimeMillis();
-               next += _precision;
-            }
-         }
-
-         Log.log_1403(_instanceNum);
-      }
-
-      /**
-       * Returns a textual representation of this timer thread object.
-       *
-       * @return
-       *    a textual representation of this object, never <code>null</code>.
-       */
-      public String toString() {
-         return getName();
-      }
-   }
 }
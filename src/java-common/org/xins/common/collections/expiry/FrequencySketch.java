@@ -0,0 +1,143 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.collections.expiry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-min sketch estimating how often a key was used. Each key increments
+ * one counter in each of the 4 rows, the estimation is the smallest of
+ * these counters. The counters are limited to 15 and are all halved after
+ * a number of increments equal to 10 times the width, so that the old
+ * usages are progressively forgotten.
+ *
+ * <p>This class is thread-safe and does not lock, except when halving the
+ * counters.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+final class FrequencySketch {
+
+   /**
+    * The number of rows.
+    */
+   private static final int DEPTH = 4;
+
+   /**
+    * The maximum value of a counter.
+    */
+   private static final int MAX_COUNT = 15;
+
+   /**
+    * The seeds of the hash function of each row.
+    */
+   private static final int[] SEEDS = { 0x97cb3127, 0xc3a5c85c, 0x5bd1e995, 0x9e3779b9 };
+
+   /**
+    * The counters of all the rows. Never <code>null</code>.
+    */
+   private final AtomicIntegerArray _counters;
+
+   /**
+    * The number of counters per row, a power of two.
+    */
+   private final int _width;
+
+   /**
+    * The number of increments after which the counters are halved.
+    */
+   private final int _sampleSize;
+
+   /**
+    * The number of increments since the counters were halved.
+    */
+   private final AtomicInteger _samples = new AtomicInteger();
+
+   /**
+    * Creates a new <code>FrequencySketch</code>.
+    *
+    * @param expectedKeys
+    *    the expected number of distinct keys, at least 1.
+    */
+   FrequencySketch(int expectedKeys) {
+      int width = 16;
+      while (width < expectedKeys && width < (1 << 24)) {
+         width <<= 1;
+      }
+      _width = width;
+      _sampleSize = width * 10;
+      _counters = new AtomicIntegerArray(width * DEPTH);
+   }
+
+   /**
+    * Computes the index of the counter of a hash in a row.
+    *
+    * @param hash
+    *    the hash of the key.
+    *
+    * @param row
+    *    the row, between 0 and 3.
+    *
+    * @return
+    *    the index of the counter in <code>_counters</code>.
+    */
+   private int indexOf(int hash, int row) {
+      int h = hash * SEEDS[row];
+      h ^= h >>> 17;
+      return row * _width + (h & (_width - 1));
+   }
+
+   /**
+    * Records a use of a key.
+    *
+    * @param hash
+    *    the hash of the key.
+    */
+   void increment(int hash) {
+      for (int row = 0; row < DEPTH; row++) {
+         int index = indexOf(hash, row);
+         int count = _counters.get(index);
+         while (count < MAX_COUNT && !_counters.compareAndSet(index, count, count + 1)) {
+            count = _counters.get(index);
+         }
+      }
+      if (_samples.incrementAndGet() >= _sampleSize) {
+         halve();
+      }
+   }
+
+   /**
+    * Estimates how often a key was used.
+    *
+    * @param hash
+    *    the hash of the key.
+    *
+    * @return
+    *    the estimated frequency, between 0 and 15.
+    */
+   int frequency(int hash) {
+      int frequency = MAX_COUNT;
+      for (int row = 0; row < DEPTH; row++) {
+         frequency = Math.min(frequency, _counters.get(indexOf(hash, row)));
+      }
+      return frequency;
+   }
+
+   /**
+    * Halves all the counters.
+    */
+   private synchronized void halve() {
+      if (_samples.get() < _sampleSize) {
+         return;
+      }
+      for (int i = 0; i < _counters.length(); i++) {
+         _counters.set(i, _counters.get(i) >>> 1);
+      }
+      _samples.set(_sampleSize / 2);
+   }
+}
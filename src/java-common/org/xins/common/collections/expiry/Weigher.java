@@ -0,0 +1,39 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.collections.expiry;
+
+/**
+ * Computes the approximate weight of an entry of an {@link ExpiryFolder}.
+ * The weight is typically the number of bytes used by the value.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @param <K>
+ *    the type of the keys.
+ *
+ * @param <V>
+ *    the type of the values.
+ *
+ * @since XINS 3.2
+ */
+public interface Weigher<K, V> {
+
+   /**
+    * Computes the weight of an entry. This method is called once when the
+    * entry is stored.
+    *
+    * @param key
+    *    the key of the entry, never <code>null</code>.
+    *
+    * @param value
+    *    the value of the entry, never <code>null</code>.
+    *
+    * @return
+    *    the weight of the entry, must be &gt;= 0.
+    */
+   long weigh(K key, V value);
+}
@@ -0,0 +1,364 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.conn.DnsResolver;
+
+import org.xins.common.Log;
+import org.xins.common.MandatoryArgumentChecker;
+
+/**
+ * Cache of the addresses of the host names. This cache is used by the
+ * connections opened by the default <code>HttpClient</code> of the
+ * {@link HTTPCallConfig} so that the host names of the targets are not
+ * resolved again for each new connection.
+ *
+ * <p>The addresses of a host are kept for the time-to-live. When the
+ * addresses of a host are requested after the time-to-live, the cached
+ * addresses are still returned and the host name is resolved again in the
+ * background. If the resolution fails, the previous addresses are kept. The
+ * addresses that have not been requested for twice the time-to-live are
+ * resolved again before being returned.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+public final class DNSCache implements DnsResolver {
+
+   /**
+    * The default time-to-live of the addresses, in milliseconds.
+    */
+   public static final long DEFAULT_TIME_TO_LIVE = 60000L;
+
+   /**
+    * The cache used by the default <code>HttpClient</code>.
+    */
+   private static final DNSCache DEFAULT = new DNSCache(DEFAULT_TIME_TO_LIVE);
+
+   /**
+    * The executor that resolves the host names in the background, shared by
+    * all caches. Lazily initialized.
+    */
+   private static ExecutorService REFRESH_EXECUTOR;
+
+   /**
+    * The cached addresses per lower case host name. Never <code>null</code>.
+    */
+   private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+
+   /**
+    * The time-to-live of the addresses, in milliseconds.
+    */
+   private volatile long _timeToLive;
+
+   /**
+    * The number of resolutions answered with cached addresses.
+    */
+   private final AtomicLong _hitCount = new AtomicLong();
+
+   /**
+    * The number of resolutions that needed a lookup before answering.
+    */
+   private final AtomicLong _missCount = new AtomicLong();
+
+   /**
+    * The number of lookups done in the background.
+    */
+   private final AtomicLong _refreshCount = new AtomicLong();
+
+   /**
+    * Creates a new <code>DNSCache</code>.
+    *
+    * @param timeToLive
+    *    the time-to-live of the addresses in milliseconds, must be
+    *    &gt;= 0. A time-to-live of 0 disables the cache.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>timeToLive &lt; 0</code>.
+    */
+   public DNSCache(long timeToLive) throws IllegalArgumentException {
+      setTimeToLive(timeToLive);
+   }
+
+   /**
+    * Gets the cache used by the default <code>HttpClient</code> of the
+    * {@link HTTPCallConfig}.
+    *
+    * @return
+    *    the default cache, never <code>null</code>.
+    */
+   public static DNSCache getDefault() {
+      return DEFAULT;
+   }
+
+   /**
+    * Sets the time-to-live of the addresses.
+    *
+    * @param timeToLive
+    *    the time-to-live of the addresses in milliseconds, must be
+    *    &gt;= 0. A time-to-live of 0 disables the cache.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>timeToLive &lt; 0</code>.
+    */
+   public void setTimeToLive(long timeToLive) throws IllegalArgumentException {
+      if (timeToLive < 0L) {
+         throw new IllegalArgumentException("timeToLive (" + timeToLive + ") < 0");
+      }
+      _timeToLive = timeToLive;
+   }
+
+   /**
+    * Gets the time-to-live of the addresses.
+    *
+    * @return
+    *    the time-to-live of the addresses in milliseconds.
+    */
+   public long getTimeToLive() {
+      return _timeToLive;
+   }
+
+   /**
+    * Gets the addresses of a host.
+    *
+    * @param host
+    *    the host name or the textual representation of the IP address,
+    *    cannot be <code>null</code>.
+    *
+    * @return
+    *    the addresses of the host, never <code>null</code> and never empty.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>host == null</code>.
+    *
+    * @throws UnknownHostException
+    *    if the host has no cached addresses and cannot be resolved.
+    */
+   public InetAddress[] resolve(String host)
+   throws IllegalArgumentException, UnknownHostException {
+      MandatoryArgumentChecker.check("host", host);
+
+      long timeToLive = _timeToLive;
+      if (timeToLive == 0L) {
+         _missCount.incrementAndGet();
+         return InetAddress.getAllByName(host);
+      }
+
+      String key = host.toLowerCase(Locale.ENGLISH);
+      Entry entry = _entries.get(key);
+      long age = entry == null ? Long.MAX_VALUE : System.currentTimeMillis() - entry._resolved;
+
+      // Up to date or refreshed in the background
+      if (age < timeToLive * 2) {
+         _hitCount.incrementAndGet();
+         if (age >= timeToLive && entry._refreshing.compareAndSet(false, true)) {
+            getRefreshExecutor().execute(new Refresh(key, host, entry));
+         }
+         return entry._addresses.clone();
+      }
+
+      // Not cached or not used for a long time
+      _missCount.incrementAndGet();
+      InetAddress[] addresses = InetAddress.getAllByName(host);
+      _entries.put(key, new Entry(addresses));
+      return addresses.clone();
+   }
+
+   /**
+    * Removes the cached addresses of a host.
+    *
+    * @param host
+    *    the host name, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>host == null</code>.
+    */
+   public void invalidate(String host) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("host", host);
+      _entries.remove(host.toLowerCase(Locale.ENGLISH));
+   }
+
+   /**
+    * Removes all cached addresses.
+    */
+   public void clear() {
+      _entries.clear();
+   }
+
+   /**
+    * Gets the number of hosts in the cache.
+    *
+    * @return
+    *    the number of hosts with cached addresses.
+    */
+   public int getSize() {
+      return _entries.size();
+   }
+
+   /**
+    * Gets the number of resolutions answered with cached addresses.
+    *
+    * @return
+    *    the number of cache hits.
+    */
+   public long getHitCount() {
+      return _hitCount.get();
+   }
+
+   /**
+    * Gets the number of resolutions that needed a lookup before answering.
+    *
+    * @return
+    *    the number of cache misses.
+    */
+   public long getMissCount() {
+      return _missCount.get();
+   }
+
+   /**
+    * Gets the number of lookups done in the background, successful or not.
+    *
+    * @return
+    *    the number of background lookups.
+    */
+   public long getRefreshCount() {
+      return _refreshCount.get();
+   }
+
+   /**
+    * Returns the executor of the background lookups. It uses one daemon
+    * thread that is stopped after one minute without lookup.
+    *
+    * @return
+    *    the executor, never <code>null</code>.
+    */
+   private static synchronized ExecutorService getRefreshExecutor() {
+      if (REFRESH_EXECUTOR == null) {
+         ThreadFactory threadFactory = new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+               Thread thread = new Thread(runnable, "XINS DNS refresh");
+               thread.setDaemon(true);
+               return thread;
+            }
+         };
+         ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+               new LinkedBlockingQueue<Runnable>(), threadFactory);
+         executor.allowCoreThreadTimeOut(true);
+         REFRESH_EXECUTOR = executor;
+      }
+      return REFRESH_EXECUTOR;
+   }
+
+   /**
+    * The cached addresses of a host.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    *
+    * @since XINS 3.2
+    */
+   private static final class Entry {
+
+      /**
+       * The addresses of the host. Never <code>null</code>.
+       */
+      private final InetAddress[] _addresses;
+
+      /**
+       * The time the addresses were resolved.
+       */
+      private final long _resolved = System.currentTimeMillis();
+
+      /**
+       * Whether the addresses are being resolved again in the background.
+       */
+      private final AtomicBoolean _refreshing = new AtomicBoolean();
+
+      /**
+       * Creates a new <code>Entry</code>.
+       *
+       * @param addresses
+       *    the addresses of the host, cannot be <code>null</code>.
+       */
+      Entry(InetAddress[] addresses) {
+         _addresses = addresses;
+      }
+   }
+
+   /**
+    * Resolution of a host name in the background.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    *
+    * @since XINS 3.2
+    */
+   private final class Refresh implements Runnable {
+
+      /**
+       * The key of the host in the cache. Never <code>null</code>.
+       */
+      private final String _key;
+
+      /**
+       * The host name to resolve. Never <code>null</code>.
+       */
+      private final String _host;
+
+      /**
+       * The entry to replace. Never <code>null</code>.
+       */
+      private final Entry _entry;
+
+      /**
+       * Creates a new <code>Refresh</code>.
+       *
+       * @param key
+       *    the key of the host in the cache, cannot be <code>null</code>.
+       *
+       * @param host
+       *    the host name to resolve, cannot be <code>null</code>.
+       *
+       * @param entry
+       *    the entry to replace, cannot be <code>null</code>.
+       */
+      Refresh(String key, String host, Entry entry) {
+         _key   = key;
+         _host  = host;
+         _entry = entry;
+      }
+
+      public void run() {
+         _refreshCount.incrementAndGet();
+         try {
+            InetAddress[] addresses = InetAddress.getAllByName(_host);
+            _entries.replace(_key, _entry, new Entry(addresses));
+         } catch (UnknownHostException exception) {
+            Log.log_1315(exception, _host);
+
+            // Keep the previous addresses for another time-to-live
+            _entries.replace(_key, _entry, new Entry(_entry._addresses));
+         }
+      }
+   }
+}
@@ -6,8 +6,11 @@
 package org.xins.common.http;
 
 import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.impl.client.DecompressingHttpClient;
 import org.apache.http.impl.client.SystemDefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
 import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.service.CallConfig;
 import org.xins.common.text.TextUtils;
@@ -141,6 +144,8 @@ public final class HTTPCallConfig extends CallConfig {
    /**
     * Gets the HttpClient to use to call the URL.
     * If no HttpClient has been set or created, a default one is created and returned.
+    * Since XINS 3.2, the default HttpClient resolves the host names with the
+    * default {@link DNSCache}.
     *
     * @return the http client, cannot be <code>null</null>.
     *
@@ -148,7 +153,7 @@ public final class HTTPCallConfig extends CallConfig {
     */
    public HttpClient getHttpClient() {
       if (_httpClient == null) {
-         _httpClient = new DecompressingHttpClient(new SystemDefaultHttpClient());
+         _httpClient = new DecompressingHttpClient(new CachingDNSHttpClient());
       }
       return _httpClient;
    }
@@ -179,4 +184,29 @@ public final class HTTPCallConfig extends CallConfig {
 
       return description;
    }
+
+   /**
+    * <code>SystemDefaultHttpClient</code> that resolves the host names with
+    * the default {@link DNSCache}.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    *
+    * @since XINS 3.2
+    */
+   private static final class CachingDNSHttpClient extends SystemDefaultHttpClient {
+
+      protected ClientConnectionManager createClientConnectionManager() {
+         PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager(
+               SchemeRegistryFactory.createSystemDefault(), DNSCache.getDefault());
+
+         // Same settings as SystemDefaultHttpClient
+         if ("true".equalsIgnoreCase(System.getProperty("http.keepAlive", "true"))) {
+            int maxConnections = Integer.parseInt(System.getProperty("http.maxConnections", "5"));
+            connectionManager.setDefaultMaxPerRoute(maxConnections);
+            connectionManager.setMaxTotal(2 * maxConnections);
+         }
+         return connectionManager;
+      }
+   }
 }
@@ -183,4 +183,21 @@ public final class HTTPCallResult extends CallResult implements HTTPCallResultDa
    public InputStream getStream() {
       return new ByteArrayInputStream(getData());
    }
+
+   /**
+    * Returns the <code>max-age</code> directive of the
+    * <code>Cache-Control</code> header sent by the server.
+    *
+    * @return
+    *    the number of seconds the result may be cached, or -1 if the server
+    *    did not specify it or if the result should not be cached.
+    *
+    * @since XINS 3.2
+    */
+   public int getMaxAge() {
+      if (_data instanceof HTTPServiceCaller.HTTPCallResultDataHandler) {
+         return ((HTTPServiceCaller.HTTPCallResultDataHandler) _data).getMaxAge();
+      }
+      return -1;
+   }
 }
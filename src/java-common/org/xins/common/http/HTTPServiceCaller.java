@@ -8,17 +8,24 @@ package org.xins.common.http;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.ConnectException;
 import java.net.NoRouteToHostException;
 import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
@@ -34,16 +41,25 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpTrace;
 import org.apache.http.client.params.ClientPNames;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.impl.client.AbstractHttpClient;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
 
 import org.apache.log4j.NDC;
 
+import org.w3c.dom.Element;
+
 import org.xins.common.FormattedParameters;
 import org.xins.common.Log;
 import org.xins.common.MandatoryArgumentChecker;
@@ -174,6 +190,12 @@ public class HTTPServiceCaller extends ServiceCaller {
     */
    private static final String EXECUTOR_CLASSNAME = HTTPServiceCaller.CallExecutor.class.getName();
 
+   /**
+    * The maximum number of bytes allocated for a response body before it is
+    * read, whatever the content length announced by the server.
+    */
+   private static final int MAX_PREALLOCATED_BODY = 64 * 1024;
+
    /**
     * The number of constructed call executors.
     */
@@ -384,6 +406,103 @@ public class HTTPServiceCaller extends ServiceCaller {
       return "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol);
    }
 
+   protected int warmUp(TargetDescriptor target, int connections)
+   throws IOException {
+      return openConnections((HTTPCallConfig) getCallConfig(), target, connections);
+   }
+
+   /**
+    * Aborts a call that is still waiting for the answer of the target,
+    * closing its connection.
+    *
+    * @param task
+    *    the task to abort, never <code>null</code>.
+    */
+   protected void abortTask(Runnable task) {
+      if (task instanceof CallExecutor) {
+         ((CallExecutor) task).abort();
+      }
+   }
+
+   /**
+    * Opens connections to a target in advance and keeps them in the
+    * connection pool of the <code>HttpClient</code> of the call
+    * configuration, so that the next calls to the target do not have to
+    * establish a connection. The number of connections is limited to the
+    * maximum number of connections per route of the pool.
+    *
+    * <p>Only the direct connections of the default connection pool are
+    * opened. If the target is reached through a proxy or if the
+    * <code>HttpClient</code> does not use a pooling connection manager, no
+    * connection is opened.
+    *
+    * @param config
+    *    the call configuration whose <code>HttpClient</code> is used,
+    *    cannot be <code>null</code>.
+    *
+    * @param target
+    *    the target to connect to, cannot be <code>null</code>.
+    *
+    * @param connections
+    *    the number of connections that should be available in the pool.
+    *
+    * @return
+    *    the number of connections opened.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>config == null || target == null</code>.
+    *
+    * @throws IOException
+    *    if a connection cannot be opened.
+    *
+    * @since XINS 3.2
+    */
+   public static int openConnections(HTTPCallConfig   config,
+                                     TargetDescriptor target,
+                                     int              connections)
+   throws IllegalArgumentException, IOException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("config", config, "target", target);
+
+      HttpClient client = getHttpClient(config, target);
+      ClientConnectionManager manager = client.getConnectionManager();
+      if (!(manager instanceof PoolingClientConnectionManager)) {
+         return 0;
+      }
+
+      // Determine the route like the HttpClient does for a direct connection
+      HttpHost host = URIUtils.extractHost(URI.create(target.getURL()));
+      Scheme scheme = manager.getSchemeRegistry().getScheme(host.getSchemeName());
+      HttpRoute route = new HttpRoute(host, null, scheme.isLayered());
+      connections = Math.min(connections, ((PoolingClientConnectionManager) manager).getMaxPerRoute(route));
+
+      // Lease all connections before releasing them, otherwise the same
+      // connection would be leased again
+      List<ManagedClientConnection> leased = new ArrayList<ManagedClientConnection>(connections);
+      int opened = 0;
+      try {
+         for (int i = 0; i < connections; i++) {
+            ManagedClientConnection connection = manager.requestConnection(route, null).getConnection(
+                  target.getConnectionTimeOut(), TimeUnit.MILLISECONDS);
+            leased.add(connection);
+            if (!connection.isOpen()) {
+               connection.open(route, new BasicHttpContext(), client.getParams());
+               opened++;
+            }
+            connection.markReusable();
+         }
+      } catch (InterruptedException exception) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while opening the connections.");
+      } finally {
+         for (ManagedClientConnection connection : leased) {
+            manager.releaseConnection(connection, -1L, TimeUnit.MILLISECONDS);
+         }
+      }
+      return opened;
+   }
+
    /**
     * Returns a default <code>CallConfig</code> object. This method is called
     * by the <code>ServiceCaller</code> constructor if no
@@ -606,7 +725,7 @@ public class HTTPServiceCaller extends ServiceCaller {
 
       // Get the parameters for logging
       Map<String, String> p = request.getParameters();
-      FormattedParameters params = new FormattedParameters(p, null, "", "?", 160);
+      FormattedParameters params = new FormattedParameters(p, (Element) null, "", "?", 160);
 
       // Prepare a thread for execution of the call
       // NOTE: Preconditions are checked by the CallExecutor constructor
@@ -632,6 +751,7 @@ public class HTTPServiceCaller extends ServiceCaller {
       } catch (TimeOutException exception) {
          duration = System.currentTimeMillis() - start;
          Log.log_1106(url, params, duration, totalTimeOut);
+         executor.abort();
          executor.dispose();
          throw new TotalTimeOutCallException(request, target, duration);
 
@@ -835,6 +955,38 @@ public class HTTPServiceCaller extends ServiceCaller {
       }
    }
 
+   /**
+    * Gets the <code>max-age</code> directive of the
+    * <code>Cache-Control</code> header of the response.
+    *
+    * @param response
+    *    the HTTP response, cannot be <code>null</code>.
+    *
+    * @return
+    *    the maximum age in seconds, or -1 if the response does not specify
+    *    any or if the response should not be cached.
+    */
+   private static int getMaxAge(HttpResponse response) {
+      Header header = response.getFirstHeader("Cache-Control");
+      if (header == null) {
+         return -1;
+      }
+      int maxAge = -1;
+      for (HeaderElement element : header.getElements()) {
+         String name = element.getName();
+         if ("no-cache".equalsIgnoreCase(name) || "no-store".equalsIgnoreCase(name)) {
+            return -1;
+         } else if ("max-age".equalsIgnoreCase(name) && element.getValue() != null) {
+            try {
+               maxAge = Integer.parseInt(element.getValue().trim());
+            } catch (NumberFormatException nfe) {
+               Utils.logIgnoredException(nfe);
+            }
+         }
+      }
+      return maxAge < 0 ? -1 : maxAge;
+   }
+
    /**
     * Executor of calls to an API.
     *
@@ -906,6 +1058,17 @@ public class HTTPServiceCaller extends ServiceCaller {
        */
       private String _context;
 
+      /**
+       * The HTTP method executed, or <code>null</code> if the call is not
+       * started yet.
+       */
+      private volatile HttpRequestBase _method;
+
+      /**
+       * Indicates whether the call was aborted.
+       */
+      private volatile boolean _aborted;
+
       /**
        * The exception caught while executing the call. If there was no
        * exception, then this field is <code>null</code>.
@@ -955,6 +1118,10 @@ public class HTTPServiceCaller extends ServiceCaller {
 
          // Construct the method object
          HttpRequestBase method = createMethod(url, _request, _callConfig);
+         _method = method;
+         if (_aborted) {
+            method.abort();
+         }
 
          // Set the user agent, if specified.
          String userAgent = _callConfig.getUserAgent();
@@ -981,39 +1148,75 @@ public class HTTPServiceCaller extends ServiceCaller {
 
                if (in != null) {
                   _throwingMethod    = "getResponseContentLength()";
-                  int contentLength = (int) response.getEntity().getContentLength();
-
-                  // Create byte array output stream
-                  int size = contentLength > 0 ? contentLength : 4096;
-                  ByteArrayOutputStream out = new ByteArrayOutputStream(size);
-                  byte[] buffer = new byte[4096];
+                  long contentLength = response.getEntity().getContentLength();
 
-                  // Copy from the input stream to the byte array
+                  // If the length is known, read directly in the result
+                  // array, otherwise use a byte array output stream. The
+                  // array allocated in advance is limited as the length
+                  // announced may not match the actual body.
                   String inClass  = in.getClass().getName();
-                  String outClass = "java.io.ByteArrayOutputStream";
-                  _throwingClass  = inClass;
-                  _throwingMethod = "read(byte[])";
-                  for (int len = in.read(buffer); len > 0; ) {
-
-                     _throwingClass  = outClass;
-                     _throwingMethod = "write(byte[],int,int)";
-                     out.write(buffer, 0, len);
-
+                  if (contentLength > 0L && contentLength <= Integer.MAX_VALUE) {
+                     _throwingClass  = inClass;
+                     _throwingMethod = "read(byte[],int,int)";
+                     int length = (int) contentLength;
+                     body = new byte[Math.min(length, MAX_PREALLOCATED_BODY)];
+                     int offset = 0;
+                     while (offset < length) {
+                        if (offset == body.length) {
+                           body = Arrays.copyOf(body, (int) Math.min(body.length * 2L, length));
+                        }
+                        int len = in.read(body, offset, body.length - offset);
+                        if (len < 0) {
+                           break;
+                        }
+                        offset += len;
+                     }
+                     if (offset < body.length) {
+                        body = Arrays.copyOf(body, offset);
+                     }
+
+                     // Reach the end of the stream so that the connection
+                     // is released
+                     if (offset == length) {
+                        in.read();
+                     }
+                  } else {
+                     ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+                     byte[] buffer = new byte[4096];
+
+                     // Copy from the input stream to the byte array
+                     String outClass = "java.io.ByteArrayOutputStream";
                      _throwingClass  = inClass;
                      _throwingMethod = "read(byte[])";
-                     len             = in.read(buffer);
+                     for (int len = in.read(buffer); len > 0; ) {
+
+                        _throwingClass  = outClass;
+                        _throwingMethod = "write(byte[],int,int)";
+                        out.write(buffer, 0, len);
+
+                        _throwingClass  = inClass;
+                        _throwingMethod = "read(byte[])";
+                        len             = in.read(buffer);
+                     }
+
+                     _throwingClass  = outClass;
+                     _throwingMethod = "toByteArray()";
+                     body            = out.toByteArray();
                   }
 
-                  _throwingClass  = outClass;
-                  _throwingMethod = "toByteArray()";
-                  body            = out.toByteArray();
+                  // Close the stream so that the connection is also released
+                  // for compressed content, as the decompressed stream does
+                  // not reach the end of the underlying stream
+                  _throwingClass  = inClass;
+                  _throwingMethod = "close()";
+                  in.close();
                }
             }
 
             // Store the result
             _throwingClass  = HTTPCallResultDataHandler.class.getName();
-            _throwingMethod = "<init>(int,byte[])";
-            _result         = new HTTPCallResultDataHandler(statusCode, body);
+            _throwingMethod = "<init>(int,byte[],int)";
+            _result         = new HTTPCallResultDataHandler(statusCode, body, getMaxAge(response));
 
             // No exception thrown, reset _throwingXXXX fields
             _throwingClass  = null;
@@ -1090,6 +1293,18 @@ public class HTTPServiceCaller extends ServiceCaller {
        * Disposes the result variables, so that the variables could be
        * garbage collected.
        */
+      /**
+       * Aborts the call, closing its connection. This method can be called
+       * from another thread while the call is in progress.
+       */
+      private void abort() {
+         _aborted = true;
+         HttpRequestBase method = _method;
+         if (method != null) {
+            method.abort();
+         }
+      }
+
       private void dispose() {
          _exception = null;
          _throwingClass = null;
@@ -1106,7 +1321,7 @@ public class HTTPServiceCaller extends ServiceCaller {
     *
     * @since XINS 1.0.0
     */
-   private static final class HTTPCallResultDataHandler
+   static final class HTTPCallResultDataHandler
    implements HTTPCallResultData {
       /**
        * Constructs a new <code>HTTPCallResultDataHandler</code> object.
@@ -1116,10 +1331,15 @@ public class HTTPServiceCaller extends ServiceCaller {
        *
        * @param data
        *    the data returned from the call, as a set of bytes.
+       *
+       * @param maxAge
+       *    the <code>max-age</code> of the <code>Cache-Control</code> header
+       *    in seconds, or -1 if not specified.
        */
-      HTTPCallResultDataHandler(int code, byte[] data) {
-         _code = code;
-         _data = data;
+      HTTPCallResultDataHandler(int code, byte[] data, int maxAge) {
+         _code   = code;
+         _data   = data;
+         _maxAge = maxAge;
       }
 
       /**
@@ -1132,6 +1352,12 @@ public class HTTPServiceCaller extends ServiceCaller {
        */
       private final byte[] _data;
 
+      /**
+       * The <code>max-age</code> of the <code>Cache-Control</code> header in
+       * seconds, or -1 if not specified.
+       */
+      private final int _maxAge;
+
       /**
        * Returns the HTTP status code.
        *
@@ -1153,6 +1379,17 @@ public class HTTPServiceCaller extends ServiceCaller {
       public byte[] getData() {
          return _data;
       }
+
+      /**
+       * Returns the <code>max-age</code> of the <code>Cache-Control</code>
+       * header.
+       *
+       * @return
+       *    the maximum age in seconds, or -1 if not specified.
+       */
+      int getMaxAge() {
+         return _maxAge;
+      }
    }
 
    /**
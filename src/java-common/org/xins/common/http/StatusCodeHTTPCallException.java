@@ -67,4 +67,18 @@ public final class StatusCodeHTTPCallException extends HTTPCallException {
    public int getStatusCode() {
       return _code;
    }
+
+   /**
+    * Indicates whether this call exception means that the target itself
+    * failed, which is the case for a 5xx HTTP status code.
+    *
+    * @return
+    *    <code>true</code> if the HTTP status code is a 5xx code,
+    *    <code>false</code> otherwise.
+    *
+    * @since XINS 3.2
+    */
+   public boolean isTargetFailure() {
+      return _code >= 500 && _code <= 599;
+   }
 }
@@ -0,0 +1,366 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xins.common.Utils;
+
+/**
+ * Thread shared by all the started {@link FileWatcher}s. The files are
+ * checked at the interval of their watcher and the listeners are all
+ * notified from this thread.
+ *
+ * <p>If the Java runtime provides a <code>java.nio.file.WatchService</code>,
+ * the directories of the watched files are also registered with it. A
+ * change reported by the file system triggers the check of the watchers of
+ * the file once no other change was reported for {@link #CHANGE_DELAY}
+ * milliseconds, so that a file written in several steps is only reloaded
+ * once. The periodic check is kept as a fallback for the file systems that
+ * do not report the changes and for the URLs.
+ *
+ * <p>The thread stops when no watcher is registered anymore.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+final class FileWatchService implements Runnable {
+
+   /**
+    * The name of the system property to set to <code>false</code> to only
+    * check the files periodically.
+    */
+   static final String WATCH_SERVICE_PROPERTY = "org.xins.common.io.watchService";
+
+   /**
+    * The time in milliseconds to wait after a change reported by the file
+    * system before checking the file.
+    */
+   static final long CHANGE_DELAY = 200L;
+
+   /**
+    * The only instance of this class.
+    */
+   private static final FileWatchService INSTANCE = new FileWatchService();
+
+   /**
+    * The schedule of the registered file watchers. Never <code>null</code>.
+    */
+   private final Map<FileWatcher, Schedule> _watchers = new HashMap<FileWatcher, Schedule>();
+
+   /**
+    * The thread checking the files, or <code>null</code> if no watcher is
+    * registered.
+    */
+   private Thread _thread;
+
+   /**
+    * The notifier of the changes reported by the file system, or
+    * <code>null</code> if no directory is registered.
+    */
+   private WatchServiceNotifier _notifier;
+
+   /**
+    * Whether the <code>WatchService</code> can be used.
+    */
+   private boolean _watchServiceAvailable;
+
+   /**
+    * Creates the <code>FileWatchService</code>.
+    */
+   private FileWatchService() {
+      _watchServiceAvailable = !"false".equals(System.getProperty(WATCH_SERVICE_PROPERTY));
+      if (_watchServiceAvailable) {
+         try {
+            Class.forName("java.nio.file.WatchService");
+         } catch (ClassNotFoundException cnfex) {
+            _watchServiceAvailable = false;
+         }
+      }
+   }
+
+   /**
+    * Gets the shared <code>FileWatchService</code>.
+    *
+    * @return
+    *    the file watch service, never <code>null</code>.
+    */
+   static FileWatchService getInstance() {
+      return INSTANCE;
+   }
+
+   /**
+    * Registers a file watcher.
+    *
+    * @param watcher
+    *    the file watcher, cannot be <code>null</code>.
+    *
+    * @param interval
+    *    the interval between two checks in seconds, at least 1.
+    */
+   synchronized void add(FileWatcher watcher, int interval) {
+      File[] files = watcher.getFiles();
+      Schedule schedule = new Schedule(files, interval);
+      _watchers.put(watcher, schedule);
+      if (files != null) {
+         for (int i = 0; i < files.length; i++) {
+            registerDirectory(schedule, files[i].getParentFile());
+         }
+      }
+
+      if (_thread == null) {
+         _thread = new Thread(this, getClass().getName());
+         _thread.setDaemon(true);
+         _thread.start();
+      } else {
+         notifyAll();
+      }
+   }
+
+   /**
+    * Changes the interval of a registered file watcher.
+    *
+    * @param watcher
+    *    the file watcher, cannot be <code>null</code>.
+    *
+    * @param interval
+    *    the new interval in seconds, at least 1.
+    */
+   synchronized void setInterval(FileWatcher watcher, int interval) {
+      Schedule schedule = _watchers.get(watcher);
+      if (schedule != null) {
+         schedule._interval = interval * 1000L;
+         schedule._nextCheck = System.currentTimeMillis() + schedule._interval;
+         notifyAll();
+      }
+   }
+
+   /**
+    * Checks the files of a registered watcher as soon as possible.
+    *
+    * @param watcher
+    *    the file watcher, cannot be <code>null</code>.
+    */
+   synchronized void checkSoon(FileWatcher watcher) {
+      Schedule schedule = _watchers.get(watcher);
+      if (schedule != null) {
+         schedule._changeCheck = System.currentTimeMillis();
+         notifyAll();
+      }
+   }
+
+   /**
+    * Unregisters a file watcher.
+    *
+    * @param watcher
+    *    the file watcher, cannot be <code>null</code>.
+    */
+   synchronized void remove(FileWatcher watcher) {
+      Schedule schedule = _watchers.remove(watcher);
+      if (schedule == null) {
+         return;
+      }
+      if (_notifier != null) {
+         for (File directory : schedule._directories) {
+            _notifier.unregister(directory);
+         }
+         if (_notifier.isEmpty()) {
+            _notifier.close();
+            _notifier = null;
+         }
+      }
+      notifyAll();
+   }
+
+   /**
+    * Registers the directory of a watched file with the
+    * <code>WatchService</code>. If it fails, the file is only checked
+    * periodically.
+    *
+    * @param schedule
+    *    the schedule of the watcher, cannot be <code>null</code>.
+    *
+    * @param directory
+    *    the directory, can be <code>null</code>.
+    */
+   private void registerDirectory(Schedule schedule, File directory) {
+      if (!_watchServiceAvailable || directory == null || !directory.isDirectory() || schedule._directories.contains(directory)) {
+         return;
+      }
+      try {
+         if (_notifier == null) {
+            _notifier = new WatchServiceNotifier(this);
+         }
+         _notifier.register(directory);
+         schedule._directories.add(directory);
+      } catch (IOException ioe) {
+         Utils.logIgnoredException(ioe);
+      } catch (Throwable exception) {
+
+         // The WatchService is not supported by this runtime
+         Utils.logIgnoredException(exception);
+         _watchServiceAvailable = false;
+      }
+   }
+
+   /**
+    * Callback method called by the {@link WatchServiceNotifier} when files
+    * were created, modified or deleted.
+    *
+    * @param changedFiles
+    *    the changed files, cannot be <code>null</code>.
+    */
+   synchronized void filesChanged(Collection<File> changedFiles) {
+      long checkTime = System.currentTimeMillis() + CHANGE_DELAY;
+      for (Schedule schedule : _watchers.values()) {
+         if (schedule.watches(changedFiles)) {
+            schedule._changeCheck = checkTime;
+         }
+      }
+      notifyAll();
+   }
+
+   /**
+    * Callback method called by the {@link WatchServiceNotifier} when some
+    * changes in a directory were lost.
+    *
+    * @param directory
+    *    the directory, cannot be <code>null</code>.
+    */
+   synchronized void directoryChanged(File directory) {
+      long checkTime = System.currentTimeMillis() + CHANGE_DELAY;
+      for (Schedule schedule : _watchers.values()) {
+         if (schedule._directories.contains(directory)) {
+            schedule._changeCheck = checkTime;
+         }
+      }
+      notifyAll();
+   }
+
+   /**
+    * Checks the files of the watchers when their interval is elapsed or
+    * when their files changed. This method should not be called directly.
+    */
+   public void run() {
+      List<FileWatcher> dueWatchers = new ArrayList<FileWatcher>();
+      while (true) {
+         synchronized (this) {
+            long now = System.currentTimeMillis();
+            long nextCheck = Long.MAX_VALUE;
+            for (Map.Entry<FileWatcher, Schedule> entry : _watchers.entrySet()) {
+               Schedule schedule = entry.getValue();
+               long checkTime = Math.min(schedule._nextCheck, schedule._changeCheck);
+               if (checkTime <= now) {
+                  dueWatchers.add(entry.getKey());
+                  schedule._nextCheck = now + schedule._interval;
+                  schedule._changeCheck = Long.MAX_VALUE;
+                  checkTime = schedule._nextCheck;
+               }
+               nextCheck = Math.min(nextCheck, checkTime);
+            }
+            if (dueWatchers.isEmpty()) {
+               if (_watchers.isEmpty()) {
+                  _thread = null;
+                  return;
+               }
+               try {
+                  wait(nextCheck - now);
+               } catch (InterruptedException iex) {
+                  // Check the schedules again
+               }
+               continue;
+            }
+         }
+
+         // The listeners are notified without holding the lock
+         for (FileWatcher watcher : dueWatchers) {
+            try {
+               watcher.check();
+            } catch (Throwable exception) {
+               Utils.logIgnoredException(exception);
+            }
+         }
+         dueWatchers.clear();
+      }
+   }
+
+   /**
+    * When the files of a watcher should be checked.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    */
+   private static final class Schedule {
+
+      /**
+       * The watched files, or <code>null</code> if the watcher does not
+       * watch local files.
+       */
+      private final File[] _files;
+
+      /**
+       * The directories registered with the <code>WatchService</code>.
+       */
+      private final List<File> _directories = new ArrayList<File>();
+
+      /**
+       * The interval between two checks in milliseconds.
+       */
+      private long _interval;
+
+      /**
+       * The time of the next periodic check.
+       */
+      private long _nextCheck;
+
+      /**
+       * The time of the check following a change of the files, or
+       * <code>Long.MAX_VALUE</code> if no change was reported.
+       */
+      private long _changeCheck = Long.MAX_VALUE;
+
+      /**
+       * Creates a new <code>Schedule</code>.
+       *
+       * @param files
+       *    the watched files, can be <code>null</code>.
+       *
+       * @param interval
+       *    the interval between two checks in seconds.
+       */
+      private Schedule(File[] files, int interval) {
+         _files = files;
+         _interval = interval * 1000L;
+         _nextCheck = System.currentTimeMillis() + _interval;
+      }
+
+      /**
+       * Indicates whether one of the changed files is watched.
+       *
+       * @param changedFiles
+       *    the changed files, cannot be <code>null</code>.
+       *
+       * @return
+       *    <code>true</code> if at least one of the files is watched.
+       */
+      private boolean watches(Collection<File> changedFiles) {
+         if (_files != null) {
+            for (int i = 0; i < _files.length; i++) {
+               if (changedFiles.contains(_files[i])) {
+                  return true;
+               }
+            }
+         }
+         return false;
+      }
+   }
+}
@@ -12,17 +12,24 @@ import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.Utils;
 
 /**
- * File watcher thread.
+ * File watcher.
  *
- * <p>This thread monitors one or more files, checking them at preset
+ * <p>This watcher monitors one or more files, checking them at preset
  * intervals. A listener is notified of the findings.
  *
  * <p>The check is performed every <em>n</em> seconds,
  * where the interval <em>n</em> can be configured
  * (see {@link #setInterval(int)} and {@link #getInterval()}).
  *
- * <p>Initially this thread will be a daemon thread. This can be changed by
- * calling {@link #setDaemon(boolean)}.
+ * <p>Since XINS 3.2, this class no longer runs its own thread although it
+ * still extends <code>Thread</code> for compatibility. Calling
+ * {@link #start()} registers the watcher with a thread shared by all the
+ * file watchers, from which all the listeners are notified. When the Java
+ * runtime supports it, the changes reported by the file system also trigger
+ * a check shortly after the file is written, without waiting for the
+ * interval. Set the system property
+ * <code>org.xins.common.io.watchService</code> to <code>false</code> to
+ * only check the files at the interval.
  *
  * @version $Revision: 1.56 $ $Date: 2013/01/04 10:11:15 $
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
@@ -43,22 +50,16 @@ public class FileWatcher extends Thread {
    private static final Object INSTANCE_COUNT_LOCK = new Object();
 
    /**
-    * State in which this file watcher thread is not running.
+    * State in which this file watcher is not started.
     */
    private static final int NOT_RUNNING = 1;
 
    /**
-    * State in which this file watcher thread is currently running and has not
-    * been told to stop.
+    * State in which this file watcher is registered with the shared file
+    * watch thread.
     */
    private static final int RUNNING = 2;
 
-   /**
-    * State in which this file watcher thread is currently running, but has
-    * been told to stop.
-    */
-   private static final int SHOULD_STOP = 3;
-
    /**
     * Fully-qualified name of this class.
     */
@@ -106,10 +107,9 @@ public class FileWatcher extends Thread {
     * <ul>
     *    <li>{@link #NOT_RUNNING}
     *    <li>{@link #RUNNING}
-    *    <li>{@link #SHOULD_STOP}
     * </ul>
     *
-    * Once the thread is stopped, the state will be changed to
+    * Once the watcher is stopped, the state will be changed to
     * {@link #NOT_RUNNING} again.
     */
    private int _state;
@@ -237,6 +237,24 @@ public class FileWatcher extends Thread {
       }
    }
 
+   /**
+    * Gets the files to watch.
+    *
+    * @return
+    *    the absolute files or <code>null</code> if this watcher does not
+    *    watch local files.
+    */
+   File[] getFiles() {
+      if (_files == null) {
+         return null;
+      }
+      File[] files = new File[_files.length];
+      for (int i = 0; i < _files.length; i++) {
+         files[i] = _files[i].getAbsoluteFile();
+      }
+      return files;
+   }
+
    /**
     * Configures the name of this thread.
     */
@@ -269,67 +287,34 @@ public class FileWatcher extends Thread {
    }
 
    /**
-    * Runs this thread. This method should not be called directly, call
-    * {@link #start()} instead. That method will call this method.
+    * Starts watching the files. The files are checked by the thread shared
+    * by all the file watchers.
     *
     * @throws IllegalStateException
-    *    if <code>{@link Thread#currentThread()} != this</code>, if the thread
-    *    is already running or should stop, or if the interval was not set
+    *    if the watcher is already started or if the interval was not set
     *    yet.
     */
-   public void run() throws IllegalStateException {
-
-      int interval;
-      int state;
-
-      synchronized (this) {
-         interval = _interval;
-         state    = _state;
-      }
+   public synchronized void start() throws IllegalStateException {
 
       // Check preconditions
-      if (Thread.currentThread() != this) {
-         throw new IllegalStateException("Thread.currentThread() != this");
-      } else if (state == RUNNING) {
+      if (_state == RUNNING) {
          throw new IllegalStateException("Thread already running.");
-      } else if (state == SHOULD_STOP) {
-         throw new IllegalStateException("Thread should stop running.");
-      } else if (interval < 1) {
+      } else if (_interval < 1) {
          throw new IllegalStateException("Interval has not been set yet.");
       }
 
-      Log.log_1200(_instanceID, _filePaths, interval);
-
-      // Move to the RUNNING state
-      synchronized (this) {
-         _state = RUNNING;
-      }
-
-      // Loop while we should keep running
-      boolean shouldStop = false;
-      while (! shouldStop) {
-         synchronized (this) {
-            try {
-
-               // Wait for the designated amount of time
-               wait(((long) interval) * 1000L);
+      Log.log_1200(_instanceID, _filePaths, _interval);
 
-            } catch (InterruptedException exception) {
-               // The thread has been notified
-            }
-
-            // Should we stop?
-            shouldStop = (_state != RUNNING);
-         }
-
-         // If we do not have to stop yet, check if the file changed
-         if (! shouldStop) {
-            check();
-         }
-      }
+      _state = RUNNING;
+      FileWatchService.getInstance().add(this, _interval);
+   }
 
-      // Thread stopped
-      Log.log_1203(_instanceID, _filePaths);
+   /**
+    * Checks the files once. Since XINS 3.2, this method is not called by
+    * {@link #start()} anymore.
+    */
+   public void run() {
+      check();
    }
 
    /**
@@ -366,6 +351,9 @@ public class FileWatcher extends Thread {
       if (newInterval != _interval) {
          Log.log_1201(_instanceID, _filePaths, _interval, newInterval);
          _interval = newInterval;
+         if (_state == RUNNING) {
+            FileWatchService.getInstance().setInterval(this, newInterval);
+         }
       }
 
       // Update the thread name
@@ -374,25 +362,37 @@ public class FileWatcher extends Thread {
    }
 
    /**
-    * Stops this thread.
+    * Stops watching the files.
     *
     * @throws IllegalStateException
-    *    if the thread is currently not running or already stopping.
+    *    if the watcher is currently not running.
     */
    public synchronized void end() throws IllegalStateException {
 
       // Check state
       if (_state == NOT_RUNNING) {
          throw new IllegalStateException("Thread currently not running.");
-      } else if (_state == SHOULD_STOP) {
-         throw new IllegalStateException("Thread already stopping.");
       }
 
       Log.log_1202(_instanceID, _filePaths);
 
-      // Change the state and interrupt the thread
-      _state = SHOULD_STOP;
-      this.interrupt();
+      FileWatchService.getInstance().remove(this);
+      _state = NOT_RUNNING;
+
+      Log.log_1203(_instanceID, _filePaths);
+   }
+
+   /**
+    * Checks the files as soon as possible in the shared file watch thread,
+    * without waiting for the interval. Nothing is done if the watcher is
+    * not started.
+    *
+    * @since XINS 3.2
+    */
+   public synchronized void checkSoon() {
+      if (_state == RUNNING) {
+         FileWatchService.getInstance().checkSoon(this);
+      }
    }
 
    /**
@@ -6,6 +6,7 @@
 package org.xins.common.io;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -14,12 +15,13 @@ import org.xins.common.Log;
 import org.xins.common.Utils;
 
 /**
- * File watcher thread. This thread checks if a URL or a set of URLs
+ * File watcher for URLs. This watcher checks if a URL or a set of URLs
  * changed and if it has, it notifies the listener.
  * The check is performed every <em>n</em> seconds, where <em>n</em> can be configured.
  *
- * <p>Initially this thread will be a daemon thread. This can be changed by
- * calling {@link #setDaemon(boolean)}.
+ * <p>The URLs are requested with the <code>If-Modified-Since</code> and,
+ * if the server sent an <code>ETag</code>, the <code>If-None-Match</code>
+ * headers, so that the content is only sent by the server when it changed.
  *
  * @version $Revision: 1.5 $ $Date: 2010/09/29 17:21:48 $
  * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
@@ -33,6 +35,20 @@ public class HTTPFileWatcher extends FileWatcher {
     */
    private URL[] _urls;
 
+   /**
+    * The last modification date of each URL as sent by the server, or
+    * <code>0L</code> if unknown. This field is initialized in
+    * {@link #storeFiles(String[])} as it is called from the constructor of
+    * the super class.
+    */
+   private long[] _urlLastModified;
+
+   /**
+    * The entity tag of each URL as sent by the server, or <code>null</code>
+    * if unknown.
+    */
+   private String[] _etags;
+
    /**
     * Creates a new <code>HTTPFileWatcher</code> for the specified URL.
     *
@@ -104,6 +120,8 @@ public class HTTPFileWatcher extends FileWatcher {
    protected void storeFiles(String[] files) {
       try {
          _urls = new URL[files.length];
+         _urlLastModified = new long[files.length];
+         _etags = new String[files.length];
          _urls[0] = new URL(files[0]);
          _filePaths = files[0];
          for (int i = 1; i < files.length; i++) {
@@ -118,12 +136,9 @@ public class HTTPFileWatcher extends FileWatcher {
    protected void firstCheck() {
 
       for (int i = 0; i < _urls.length; i++) {
-         URL url = _urls[i];
          try {
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.connect();
-            if (connection.getResponseCode() < 400) {
-               _lastModified = Math.max(_lastModified, connection.getHeaderFieldDate("Last-Modified", 0L));
+            if (request(i) >= 0L) {
+               _lastModified = Math.max(_lastModified, _urlLastModified[i]);
             }
 
          // Ignore a IOException
@@ -140,20 +155,14 @@ public class HTTPFileWatcher extends FileWatcher {
    protected long getLastModified() throws SecurityException {
       long lastModified = 0L;
       for (int i = 0; i < _urls.length; i++) {
-         URL url = _urls[i];
          try {
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setIfModifiedSince(_lastModified);
-            connection.connect();
-            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
-            } else if (connection.getResponseCode() < 400) {
-               lastModified = Math.max(lastModified, connection.getHeaderFieldDate("Last-Modified", 0L));
-            } else {
+            if (request(i) == -1L) {
                return -1L;
             }
          } catch (IOException ioe) {
             Log.log_1204(ioe);
          }
+         lastModified = Math.max(lastModified, _urlLastModified[i]);
       }
       if (lastModified == 0L) {
          return _lastModified;
@@ -161,4 +170,58 @@ public class HTTPFileWatcher extends FileWatcher {
          return lastModified;
       }
    }
+
+   /**
+    * Sends a conditional request for a URL and stores its modification date
+    * and its entity tag. If the server does not send the modification date
+    * but the entity tag changed, then the current time is stored as
+    * modification date.
+    *
+    * @param index
+    *    the index of the URL.
+    *
+    * @return
+    *    the modification date of the URL or <code>-1L</code> if the server
+    *    returned an error.
+    *
+    * @throws IOException
+    *    if the URL cannot be requested.
+    */
+   private long request(int index) throws IOException {
+      HttpURLConnection connection = (HttpURLConnection) _urls[index].openConnection();
+      if (_urlLastModified[index] > 0L) {
+         connection.setIfModifiedSince(_urlLastModified[index]);
+      }
+      if (_etags[index] != null) {
+         connection.setRequestProperty("If-None-Match", _etags[index]);
+      }
+      connection.connect();
+      int statusCode = connection.getResponseCode();
+
+      // Read the content so that the connection can be reused
+      InputStream content = statusCode < 400 ? connection.getInputStream() : connection.getErrorStream();
+      if (content != null) {
+         byte[] buffer = new byte[4096];
+         while (content.read(buffer) != -1) {
+            // skip
+         }
+         content.close();
+      }
+
+      if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+         return _urlLastModified[index];
+      } else if (statusCode >= 400) {
+         return -1L;
+      }
+      long lastModified = connection.getHeaderFieldDate("Last-Modified", 0L);
+      String etag = connection.getHeaderField("ETag");
+      if (lastModified == 0L && etag != null && _etags[index] != null && !etag.equals(_etags[index])) {
+         lastModified = System.currentTimeMillis();
+      } else if (lastModified == 0L) {
+         lastModified = _urlLastModified[index];
+      }
+      _urlLastModified[index] = lastModified;
+      _etags[index] = etag;
+      return lastModified;
+   }
 }
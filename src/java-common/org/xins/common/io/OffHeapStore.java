@@ -0,0 +1,846 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.collections.expiry.EvictionListener;
+import org.xins.common.collections.expiry.ExpiryFolder;
+import org.xins.common.collections.expiry.Weigher;
+
+/**
+ * Store of byte arrays outside of the Java heap, for example serialized
+ * results kept in a cache. The bytes are copied in direct
+ * <code>ByteBuffer</code> slabs, so that a large number of large values does
+ * not increase the duration of the garbage collections.
+ *
+ * <p>The slabs are allocated when needed, up to the maximum number of slabs.
+ * The space of a slab is allocated by blocks that are a multiple of
+ * {@link #ALIGNMENT} bytes. The free space is allocated with a best fit
+ * strategy and the adjacent free blocks are merged when a block is freed. A
+ * value larger than the size of a slab cannot be stored.
+ *
+ * <p>A stored value is represented by a {@link Block}. The block is freed
+ * either explicitly with {@link Block#free()} or when the
+ * <code>Block</code> object is garbage collected. A block that is being
+ * read is only freed once the read is finished.
+ *
+ * <p>To use this store as the storage of the values of an
+ * {@link ExpiryFolder}, create the folder with the {@link #WEIGHER} and
+ * register the listener returned by {@link #createListener()}, so that the
+ * expired and evicted values are freed. As the limits of a folder are split
+ * between its stripes and as the values are stored before the folder evicts
+ * entries, the maximum weight of the folder should be lower than the
+ * capacity of the store. If {@link #store(byte[])} returns
+ * <code>null</code>, the value is just not cached.
+ *
+ * <blockquote><code>ExpiryFolder&lt;String, OffHeapStore.Block&gt; folder =
+ * new ExpiryFolder&lt;String, OffHeapStore.Block&gt;("results", strategy,
+ * 0, store.getCapacity() / 2, OffHeapStore.WEIGHER, EvictionPolicy.LRU);
+ * <br>folder.addListener(store.&lt;String&gt;createListener());</code></blockquote>
+ *
+ * <p>This class is thread-safe. The bytes are copied without holding the
+ * lock of the store.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+public final class OffHeapStore implements Closeable {
+
+   /**
+    * The size of the allocation unit, in bytes.
+    */
+   public static final int ALIGNMENT = 64;
+
+   /**
+    * The weigher of the blocks, returns the number of allocated bytes.
+    */
+   public static final Weigher<Object, Block> WEIGHER = new Weigher<Object, Block>() {
+      public long weigh(Object key, Block value) {
+         return value._allocatedLength;
+      }
+   };
+
+   /**
+    * The size of the buffer used to copy the bytes to an output stream.
+    */
+   private static final int COPY_BUFFER_SIZE = 8192;
+
+   /**
+    * The size of a slab, in bytes.
+    */
+   private final int _slabSize;
+
+   /**
+    * The maximum number of slabs.
+    */
+   private final int _maxSlabs;
+
+   /**
+    * The allocated slabs. Protected by the lock of this object.
+    */
+   private final List<ByteBuffer> _slabs;
+
+   /**
+    * The free extents of each allocated slab indexed by offset. The values
+    * are the lengths. Protected by the lock of this object.
+    */
+   private final List<TreeMap<Integer, Integer>> _freeByOffset;
+
+   /**
+    * The free extents of all slabs ordered by length. Protected by the lock
+    * of this object.
+    */
+   private final TreeSet<Extent> _freeBySize;
+
+   /**
+    * The references to the blocks not freed yet. Protected by the lock of
+    * this object.
+    */
+   private final Set<BlockReference> _references;
+
+   /**
+    * The queue of the references to the blocks garbage collected.
+    */
+   private final ReferenceQueue<Block> _collected;
+
+   /**
+    * The number of allocated bytes. Protected by the lock of this object.
+    */
+   private long _usedBytes;
+
+   /**
+    * The number of bytes of the stored values. Protected by the lock of
+    * this object.
+    */
+   private long _storedBytes;
+
+   /**
+    * The number of values that could not be stored because there was not
+    * enough space. Protected by the lock of this object.
+    */
+   private long _allocationFailures;
+
+   /**
+    * Whether this store is closed. Protected by the lock of this object.
+    */
+   private boolean _closed;
+
+   /**
+    * Creates a new <code>OffHeapStore</code>.
+    *
+    * @param slabSize
+    *    the size of each slab in bytes, which is also the maximum size of a
+    *    value; must be a multiple of {@link #ALIGNMENT}.
+    *
+    * @param maxSlabs
+    *    the maximum number of slabs, at least 1.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>slabSize &lt;= 0 || slabSize % ALIGNMENT != 0
+    *          || maxSlabs &lt; 1</code>.
+    */
+   public OffHeapStore(int slabSize, int maxSlabs) throws IllegalArgumentException {
+      if (slabSize <= 0 || slabSize % ALIGNMENT != 0) {
+         throw new IllegalArgumentException("slabSize (" + slabSize + ") is not a positive multiple of " + ALIGNMENT + '.');
+      } else if (maxSlabs < 1) {
+         throw new IllegalArgumentException("maxSlabs (" + maxSlabs + ") < 1");
+      }
+      _slabSize     = slabSize;
+      _maxSlabs     = maxSlabs;
+      _slabs        = new ArrayList<ByteBuffer>();
+      _freeByOffset = new ArrayList<TreeMap<Integer, Integer>>();
+      _freeBySize   = new TreeSet<Extent>();
+      _references   = new HashSet<BlockReference>();
+      _collected    = new ReferenceQueue<Block>();
+   }
+
+   /**
+    * Stores a copy of bytes.
+    *
+    * @param bytes
+    *    the bytes to store, cannot be <code>null</code>.
+    *
+    * @return
+    *    the block containing the bytes, or <code>null</code> if there is not
+    *    enough space in this store.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>bytes == null</code>.
+    *
+    * @throws IllegalStateException
+    *    if this store is closed.
+    */
+   public Block store(byte[] bytes) throws IllegalArgumentException, IllegalStateException {
+      MandatoryArgumentChecker.check("bytes", bytes);
+      return store(bytes, 0, bytes.length);
+   }
+
+   /**
+    * Stores a copy of a part of a byte array.
+    *
+    * @param bytes
+    *    the byte array, cannot be <code>null</code>.
+    *
+    * @param offset
+    *    the offset of the first byte to store.
+    *
+    * @param length
+    *    the number of bytes to store.
+    *
+    * @return
+    *    the block containing the bytes, or <code>null</code> if there is not
+    *    enough space in this store.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>bytes == null</code> or if <code>offset</code> and
+    *    <code>length</code> do not designate a part of the array.
+    *
+    * @throws IllegalStateException
+    *    if this store is closed.
+    */
+   public Block store(byte[] bytes, int offset, int length)
+   throws IllegalArgumentException, IllegalStateException {
+      MandatoryArgumentChecker.check("bytes", bytes);
+      if (offset < 0 || length < 0 || offset + length > bytes.length || offset + length < 0) {
+         throw new IllegalArgumentException("Invalid offset (" + offset + ") or length (" + length
+               + ") for an array of " + bytes.length + " bytes.");
+      }
+
+      int allocatedLength = Math.max(ALIGNMENT, (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+      Extent extent;
+      Block block;
+      synchronized (this) {
+         if (_closed) {
+            throw new IllegalStateException("The store is closed.");
+         }
+         extent = allocate(allocatedLength);
+         if (extent == null) {
+            _allocationFailures++;
+            return null;
+         }
+         _usedBytes += allocatedLength;
+         _storedBytes += length;
+         block = new Block(_slabs.get(extent._slab), extent._slab, extent._offset, length, allocatedLength);
+         _references.add(block._reference);
+      }
+
+      // Copy the bytes without holding the lock
+      ByteBuffer buffer = block._slab.duplicate();
+      buffer.position(block._offset);
+      buffer.put(bytes, offset, length);
+      return block;
+   }
+
+   /**
+    * Allocates space. This method must be called while holding the lock of
+    * this object.
+    *
+    * @param length
+    *    the number of bytes to allocate, a multiple of {@link #ALIGNMENT}.
+    *
+    * @return
+    *    the allocated space, or <code>null</code> if there is not enough
+    *    space.
+    */
+   private Extent allocate(int length) {
+      if (length > _slabSize) {
+         return null;
+      }
+      reclaimCollectedBlocks();
+      Extent extent = _freeBySize.ceiling(new Extent(-1, -1, length));
+      if (extent == null && _slabs.size() < _maxSlabs) {
+         int slab = _slabs.size();
+         _slabs.add(ByteBuffer.allocateDirect(_slabSize));
+         _freeByOffset.add(new TreeMap<Integer, Integer>());
+         addFreeExtent(slab, 0, _slabSize);
+         extent = _freeBySize.ceiling(new Extent(-1, -1, length));
+      }
+      if (extent == null) {
+         return null;
+      }
+      removeFreeExtent(extent);
+      if (extent._length > length) {
+         addFreeExtent(extent._slab, extent._offset + length, extent._length - length);
+      }
+      return new Extent(extent._slab, extent._offset, length);
+   }
+
+   /**
+    * Releases the space of a block and merges it with the adjacent free
+    * space. This method must be called while holding the lock of this
+    * object.
+    *
+    * @param reference
+    *    the reference to the block, cannot be <code>null</code>.
+    */
+   private void release(BlockReference reference) {
+      if (!_references.remove(reference) || _closed) {
+         return;
+      }
+      _usedBytes -= reference._allocatedLength;
+      _storedBytes -= reference._length;
+
+      int slab = reference._slab;
+      int offset = reference._offset;
+      int length = reference._allocatedLength;
+      TreeMap<Integer, Integer> freeExtents = _freeByOffset.get(slab);
+      Map.Entry<Integer, Integer> previous = freeExtents.lowerEntry(offset);
+      if (previous != null && previous.getKey() + previous.getValue() == offset) {
+         removeFreeExtent(new Extent(slab, previous.getKey(), previous.getValue()));
+         offset = previous.getKey();
+         length += previous.getValue();
+      }
+      Integer nextLength = freeExtents.get(offset + length);
+      if (nextLength != null) {
+         removeFreeExtent(new Extent(slab, offset + length, nextLength));
+         length += nextLength;
+      }
+      addFreeExtent(slab, offset, length);
+   }
+
+   /**
+    * Releases the space of the blocks that were garbage collected without
+    * being freed. This method must be called while holding the lock of this
+    * object.
+    */
+   private void reclaimCollectedBlocks() {
+      BlockReference reference;
+      while ((reference = (BlockReference) _collected.poll()) != null) {
+         release(reference);
+      }
+   }
+
+   /**
+    * Adds a free extent.
+    *
+    * @param slab
+    *    the index of the slab.
+    *
+    * @param offset
+    *    the offset of the extent in the slab.
+    *
+    * @param length
+    *    the length of the extent.
+    */
+   private void addFreeExtent(int slab, int offset, int length) {
+      _freeByOffset.get(slab).put(offset, length);
+      _freeBySize.add(new Extent(slab, offset, length));
+   }
+
+   /**
+    * Removes a free extent.
+    *
+    * @param extent
+    *    the extent, cannot be <code>null</code>.
+    */
+   private void removeFreeExtent(Extent extent) {
+      _freeByOffset.get(extent._slab).remove(extent._offset);
+      _freeBySize.remove(extent);
+   }
+
+   /**
+    * Creates a listener that frees the blocks expired or evicted from an
+    * {@link ExpiryFolder}. The blocks removed or replaced in the folder are
+    * freed when they are garbage collected.
+    *
+    * @return
+    *    the listener, never <code>null</code>.
+    */
+   public <K> EvictionListener<K, Block> createListener() {
+      return new EvictionListener<K, Block>() {
+         public void expired(ExpiryFolder<K, Block> folder, Map<K, Block> expired) {
+            for (Block block : expired.values()) {
+               block.free();
+            }
+         }
+
+         public void evicted(ExpiryFolder<K, Block> folder, Map<K, Block> evicted) {
+            for (Block block : evicted.values()) {
+               block.free();
+            }
+         }
+      };
+   }
+
+   /**
+    * Returns the maximum number of bytes that can be allocated.
+    *
+    * @return
+    *    the size of a slab multiplied by the maximum number of slabs.
+    */
+   public long getCapacity() {
+      return (long) _slabSize * _maxSlabs;
+   }
+
+   /**
+    * Returns the number of bytes allocated by the blocks. This includes the
+    * alignment of the blocks.
+    *
+    * @return
+    *    the number of allocated bytes.
+    */
+   public synchronized long getUsedBytes() {
+      reclaimCollectedBlocks();
+      return _usedBytes;
+   }
+
+   /**
+    * Returns the number of bytes of the values stored.
+    *
+    * @return
+    *    the total length of the blocks not freed yet.
+    */
+   public synchronized long getStoredBytes() {
+      reclaimCollectedBlocks();
+      return _storedBytes;
+   }
+
+   /**
+    * Returns the number of blocks not freed yet.
+    *
+    * @return
+    *    the number of blocks.
+    */
+   public synchronized int getBlockCount() {
+      reclaimCollectedBlocks();
+      return _references.size();
+   }
+
+   /**
+    * Returns the number of allocated slabs.
+    *
+    * @return
+    *    the number of slabs, between 0 and the maximum number of slabs.
+    */
+   public synchronized int getSlabCount() {
+      return _slabs.size();
+   }
+
+   /**
+    * Returns the ratio of allocated bytes to the capacity.
+    *
+    * @return
+    *    the occupancy, between <code>0.0</code> and <code>1.0</code>.
+    */
+   public double getOccupancy() {
+      return (double) getUsedBytes() / getCapacity();
+   }
+
+   /**
+    * Returns the fragmentation of the free space of the allocated slabs.
+    * The fragmentation is <code>0.0</code> if the free space of each slab is
+    * contiguous and gets close to <code>1.0</code> when the free space is
+    * split in many small extents.
+    *
+    * @return
+    *    <code>1.0</code> minus the ratio of the sum of the largest free
+    *    extent of each slab to the free space of the allocated slabs, or
+    *    <code>0.0</code> if there is no free space.
+    */
+   public synchronized double getFragmentation() {
+      reclaimCollectedBlocks();
+      long freeBytes = 0L;
+      long largestExtents = 0L;
+      for (TreeMap<Integer, Integer> freeExtents : _freeByOffset) {
+         int largestExtent = 0;
+         for (Integer length : freeExtents.values()) {
+            freeBytes += length;
+            largestExtent = Math.max(largestExtent, length);
+         }
+         largestExtents += largestExtent;
+      }
+      if (freeBytes == 0L) {
+         return 0.0;
+      }
+      return 1.0 - (double) largestExtents / freeBytes;
+   }
+
+   /**
+    * Returns the number of values that could not be stored because there was
+    * not enough contiguous space.
+    *
+    * @return
+    *    the number of allocation failures.
+    */
+   public synchronized long getAllocationFailures() {
+      return _allocationFailures;
+   }
+
+   /**
+    * Closes this store. The slabs are released when the blocks still
+    * referencing them are garbage collected. The blocks can still be read
+    * after the store is closed.
+    */
+   public synchronized void close() {
+      _closed = true;
+      _slabs.clear();
+      _freeByOffset.clear();
+      _freeBySize.clear();
+      _references.clear();
+      _usedBytes = 0L;
+      _storedBytes = 0L;
+   }
+
+   /**
+    * Value stored in an {@link OffHeapStore}.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    *
+    * @since XINS 3.2
+    */
+   public final class Block {
+
+      /**
+       * The state indicating that the space was released.
+       */
+      private static final int RELEASED = -1;
+
+      /**
+       * The bit of the state indicating that the block should be released
+       * once it is not read anymore.
+       */
+      private static final int FREE_REQUESTED = 1;
+
+      /**
+       * The increment of the state for each thread reading the block.
+       */
+      private static final int READER = 2;
+
+      /**
+       * The slab containing the bytes. Never <code>null</code>.
+       */
+      private final ByteBuffer _slab;
+
+      /**
+       * The offset of the bytes in the slab.
+       */
+      private final int _offset;
+
+      /**
+       * The number of bytes of the value.
+       */
+      private final int _length;
+
+      /**
+       * The number of bytes allocated in the slab.
+       */
+      private final int _allocatedLength;
+
+      /**
+       * The reference used to release the space when this block is garbage
+       * collected. Never <code>null</code>.
+       */
+      private final BlockReference _reference;
+
+      /**
+       * The number of readers multiplied by {@link #READER}, plus
+       * {@link #FREE_REQUESTED} if the block should be freed, or
+       * {@link #RELEASED}.
+       */
+      private final AtomicInteger _state = new AtomicInteger();
+
+      /**
+       * Creates a new <code>Block</code>.
+       *
+       * @param slab
+       *    the slab containing the bytes, cannot be <code>null</code>.
+       *
+       * @param slabIndex
+       *    the index of the slab.
+       *
+       * @param offset
+       *    the offset of the bytes in the slab.
+       *
+       * @param length
+       *    the number of bytes.
+       *
+       * @param allocatedLength
+       *    the number of bytes allocated.
+       */
+      private Block(ByteBuffer slab, int slabIndex, int offset, int length, int allocatedLength) {
+         _slab            = slab;
+         _offset          = offset;
+         _length          = length;
+         _allocatedLength = allocatedLength;
+         _reference       = new BlockReference(this, _collected, slabIndex, offset, length, allocatedLength);
+      }
+
+      /**
+       * Returns the number of bytes of the value.
+       *
+       * @return
+       *    the length of the value.
+       */
+      public int getLength() {
+         return _length;
+      }
+
+      /**
+       * Indicates whether this block has been freed.
+       *
+       * @return
+       *    <code>true</code> if {@link #free()} has been called.
+       */
+      public boolean isFreed() {
+         return _state.get() < 0 || (_state.get() & FREE_REQUESTED) != 0;
+      }
+
+      /**
+       * Writes the bytes of the value to an output stream.
+       *
+       * @param out
+       *    the output stream, cannot be <code>null</code>.
+       *
+       * @return
+       *    <code>true</code> if the bytes were written, <code>false</code> if
+       *    this block has been freed, in which case nothing is written.
+       *
+       * @throws IllegalArgumentException
+       *    if <code>out == null</code>.
+       *
+       * @throws IOException
+       *    if the bytes cannot be written.
+       */
+      public boolean writeTo(OutputStream out) throws IllegalArgumentException, IOException {
+         MandatoryArgumentChecker.check("out", out);
+         if (!acquire()) {
+            return false;
+         }
+         try {
+            ByteBuffer buffer = _slab.duplicate();
+            buffer.position(_offset);
+            byte[] copyBuffer = new byte[Math.min(_length, COPY_BUFFER_SIZE)];
+            int remaining = _length;
+            while (remaining > 0) {
+               int chunk = Math.min(remaining, copyBuffer.length);
+               buffer.get(copyBuffer, 0, chunk);
+               out.write(copyBuffer, 0, chunk);
+               remaining -= chunk;
+            }
+            return true;
+         } finally {
+            releaseReader();
+         }
+      }
+
+      /**
+       * Copies the bytes of the value on the heap.
+       *
+       * @return
+       *    the bytes, or <code>null</code> if this block has been freed.
+       */
+      public byte[] toByteArray() {
+         if (!acquire()) {
+            return null;
+         }
+         try {
+            byte[] bytes = new byte[_length];
+            ByteBuffer buffer = _slab.duplicate();
+            buffer.position(_offset);
+            buffer.get(bytes);
+            return bytes;
+         } finally {
+            releaseReader();
+         }
+      }
+
+      /**
+       * Frees the space of this block. If other threads are reading the
+       * block, the space is released when they are finished. Calling this
+       * method more than once has no effect.
+       */
+      public void free() {
+         while (true) {
+            int state = _state.get();
+            if (state < 0 || (state & FREE_REQUESTED) != 0) {
+               return;
+            } else if (_state.compareAndSet(state, state | FREE_REQUESTED)) {
+               break;
+            }
+         }
+         if (_state.compareAndSet(FREE_REQUESTED, RELEASED)) {
+            releaseSpace();
+         }
+      }
+
+      /**
+       * Registers a reader of this block.
+       *
+       * @return
+       *    <code>true</code> if the block can be read, <code>false</code> if
+       *    it has been freed.
+       */
+      private boolean acquire() {
+         while (true) {
+            int state = _state.get();
+            if (state < 0 || (state & FREE_REQUESTED) != 0) {
+               return false;
+            } else if (_state.compareAndSet(state, state + READER)) {
+               return true;
+            }
+         }
+      }
+
+      /**
+       * Unregisters a reader of this block and releases the space if the
+       * block was freed during the read.
+       */
+      private void releaseReader() {
+         if (_state.addAndGet(-READER) == FREE_REQUESTED && _state.compareAndSet(FREE_REQUESTED, RELEASED)) {
+            releaseSpace();
+         }
+      }
+
+      /**
+       * Releases the space of this block in the store.
+       */
+      private void releaseSpace() {
+         synchronized (OffHeapStore.this) {
+            release(_reference);
+            _reference.clear();
+         }
+      }
+   }
+
+   /**
+    * Reference to a block used to release its space when the block is
+    * garbage collected without being freed.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    */
+   private static final class BlockReference extends WeakReference<Block> {
+
+      /**
+       * The index of the slab.
+       */
+      private final int _slab;
+
+      /**
+       * The offset of the block in the slab.
+       */
+      private final int _offset;
+
+      /**
+       * The number of bytes of the value.
+       */
+      private final int _length;
+
+      /**
+       * The number of bytes allocated.
+       */
+      private final int _allocatedLength;
+
+      /**
+       * Creates a new <code>BlockReference</code>.
+       *
+       * @param block
+       *    the block, cannot be <code>null</code>.
+       *
+       * @param queue
+       *    the queue notified when the block is garbage collected.
+       *
+       * @param slab
+       *    the index of the slab.
+       *
+       * @param offset
+       *    the offset of the block in the slab.
+       *
+       * @param length
+       *    the number of bytes of the value.
+       *
+       * @param allocatedLength
+       *    the number of bytes allocated.
+       */
+      private BlockReference(Block block, ReferenceQueue<Block> queue, int slab, int offset, int length, int allocatedLength) {
+         super(block, queue);
+         _slab            = slab;
+         _offset          = offset;
+         _length          = length;
+         _allocatedLength = allocatedLength;
+      }
+   }
+
+   /**
+    * Contiguous free space in a slab. The extents are ordered by length,
+    * then by slab and offset.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    */
+   private static final class Extent implements Comparable<Extent> {
+
+      /**
+       * The index of the slab.
+       */
+      private final int _slab;
+
+      /**
+       * The offset in the slab.
+       */
+      private final int _offset;
+
+      /**
+       * The length in bytes.
+       */
+      private final int _length;
+
+      /**
+       * Creates a new <code>Extent</code>.
+       *
+       * @param slab
+       *    the index of the slab.
+       *
+       * @param offset
+       *    the offset in the slab.
+       *
+       * @param length
+       *    the length in bytes.
+       */
+      private Extent(int slab, int offset, int length) {
+         _slab   = slab;
+         _offset = offset;
+         _length = length;
+      }
+
+      public int compareTo(Extent other) {
+         if (_length != other._length) {
+            return _length < other._length ? -1 : 1;
+         } else if (_slab != other._slab) {
+            return _slab < other._slab ? -1 : 1;
+         } else if (_offset != other._offset) {
+            return _offset < other._offset ? -1 : 1;
+         }
+         return 0;
+      }
+
+      public boolean equals(Object obj) {
+         return obj instanceof Extent && compareTo((Extent) obj) == 0;
+      }
+
+      public int hashCode() {
+         return _length * 31 + _slab * 17 + _offset;
+      }
+   }
+}
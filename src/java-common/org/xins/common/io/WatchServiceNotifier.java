@@ -0,0 +1,180 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.io;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xins.common.Utils;
+
+/**
+ * Thread waiting for the changes reported by the file system in the
+ * directories of the watched files. The changes are passed to the
+ * {@link FileWatchService}.
+ *
+ * <p>This class is only loaded if the Java runtime provides the
+ * <code>java.nio.file</code> package.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+final class WatchServiceNotifier implements Runnable {
+
+   /**
+    * The service notified of the changes. Never <code>null</code>.
+    */
+   private final FileWatchService _service;
+
+   /**
+    * The watch service of the file system. Never <code>null</code>.
+    */
+   private final WatchService _watchService;
+
+   /**
+    * The registered directories per watch key. Never <code>null</code>.
+    */
+   private final Map<WatchKey, File> _directories = new HashMap<WatchKey, File>();
+
+   /**
+    * The watch keys per registered directory. Never <code>null</code>.
+    */
+   private final Map<File, WatchKey> _keys = new HashMap<File, WatchKey>();
+
+   /**
+    * The number of watchers per registered directory. Never
+    * <code>null</code>.
+    */
+   private final Map<File, Integer> _counts = new HashMap<File, Integer>();
+
+   /**
+    * Creates a new <code>WatchServiceNotifier</code> and starts its thread.
+    *
+    * @param service
+    *    the service to notify of the changes, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the watch service cannot be created.
+    */
+   WatchServiceNotifier(FileWatchService service) throws IOException {
+      _service = service;
+      _watchService = FileSystems.getDefault().newWatchService();
+      Thread thread = new Thread(this, getClass().getName());
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /**
+    * Watches the changes in a directory.
+    *
+    * @param directory
+    *    the directory, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the directory cannot be registered.
+    */
+   synchronized void register(File directory) throws IOException {
+      Integer count = _counts.get(directory);
+      if (count == null) {
+         WatchKey key = directory.toPath().register(_watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+         _directories.put(key, directory);
+         _keys.put(directory, key);
+         count = 0;
+      }
+      _counts.put(directory, count + 1);
+   }
+
+   /**
+    * Stops watching a directory if no other watcher uses it.
+    *
+    * @param directory
+    *    the directory, cannot be <code>null</code>.
+    */
+   synchronized void unregister(File directory) {
+      Integer count = _counts.get(directory);
+      if (count == null) {
+         return;
+      } else if (count > 1) {
+         _counts.put(directory, count - 1);
+      } else {
+         _counts.remove(directory);
+         WatchKey key = _keys.remove(directory);
+         _directories.remove(key);
+         key.cancel();
+      }
+   }
+
+   /**
+    * Indicates whether no directory is watched.
+    *
+    * @return
+    *    <code>true</code> if no directory is registered.
+    */
+   synchronized boolean isEmpty() {
+      return _counts.isEmpty();
+   }
+
+   /**
+    * Closes the watch service. The thread stops.
+    */
+   void close() {
+      try {
+         _watchService.close();
+      } catch (IOException ioe) {
+         Utils.logIgnoredException(ioe);
+      }
+   }
+
+   /**
+    * Waits for the changes until the watch service is closed. This method
+    * should not be called directly.
+    */
+   public void run() {
+      while (true) {
+         WatchKey key;
+         try {
+            key = _watchService.take();
+         } catch (InterruptedException iex) {
+            continue;
+         } catch (ClosedWatchServiceException cwsex) {
+            return;
+         }
+
+         File directory;
+         synchronized (this) {
+            directory = _directories.get(key);
+         }
+         boolean overflow = false;
+         List<File> changedFiles = new ArrayList<File>();
+         for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+               overflow = true;
+            } else if (directory != null) {
+               changedFiles.add(new File(directory, ((Path) event.context()).toString()));
+            }
+         }
+         key.reset();
+
+         // Notify without holding the lock of this object
+         if (directory != null && overflow) {
+            _service.directoryChanged(directory);
+         } else if (!changedFiles.isEmpty()) {
+            _service.filesChanged(changedFiles);
+         }
+      }
+   }
+}
@@ -5,10 +5,15 @@
  */
 package org.xins.common.manageable;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.Utils;
 import org.xins.common.collections.InvalidPropertyValueException;
 import org.xins.common.collections.MissingRequiredPropertyException;
 
@@ -37,7 +42,9 @@ import org.xins.common.collections.MissingRequiredPropertyException;
  *
  * <p>The {@link #deinit()} method is called when this object is no
  * longer needed. That changes the state back to {@link #UNUSABLE}. After
- * that, {@link #bootstrap(Map)} could be called again, though.
+ * that, {@link #bootstrap(Map)} could be called again, though. The
+ * resources registered with {@link #closeOnDeinit(Closeable)} are closed
+ * at that moment.
  *
  * @version $Revision: 1.37 $ $Date: 2012/02/28 18:10:54 $
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
@@ -86,12 +93,25 @@ public abstract class Manageable {
     */
    private Object _stateLock;
 
+   /**
+    * Whether {@link #reinit(Map)} is running. Protected by
+    * <code>_stateLock</code>.
+    */
+   private boolean _reinitializing;
+
+   /**
+    * The resources to close when this object is deinitialized. Never
+    * <code>null</code>.
+    */
+   private final List<Closeable> _deinitResources;
+
    /**
     * Constructs a new <code>Manageable</code>.
     */
    protected Manageable() {
       _state     = UNUSABLE;
       _stateLock = new Object();
+      _deinitResources = new ArrayList<Closeable>();
    }
 
    /**
@@ -255,7 +275,7 @@ public abstract class Manageable {
 
       // Get the current state and change to INITIALIZING if it is valid
       synchronized (_stateLock) {
-         if (_state != BOOTSTRAPPED && _state != USABLE) {
+         if ((_state != BOOTSTRAPPED && _state != USABLE) || _reinitializing) {
             erroneousState = _state;
          } else {
             _state = INITIALIZING;
@@ -305,6 +325,89 @@ public abstract class Manageable {
       }
    }
 
+   /**
+    * Performs the initialization procedure again while this object stays
+    * {@link #USABLE}. This method calls {@link #initImpl(Map)} without
+    * changing the state, so that this object can still be used while the
+    * new properties are applied. The subclass is responsible for making
+    * the new settings visible atomically, for example by building them
+    * aside and publishing them through a <code>volatile</code> field. If
+    * {@link #initImpl(Map)} fails, this object will be left in the
+    * {@link #BOOTSTRAPPED} state.
+    *
+    * <p>If {@link #initImpl(Map)} throws any exception (even
+    * {@link Error}s), it is wrapped in an {@link InitializationException} and
+    * then the latter is thrown instead.
+    *
+    * @param properties
+    *    the initialization properties, can be <code>null</code>.
+    *
+    * @throws IllegalStateException
+    *    if the current state is not {@link #USABLE}.
+    *
+    * @throws MissingRequiredPropertyException
+    *    if a required property is not given.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value of a certain property is invalid.
+    *
+    * @throws InitializationException
+    *    if the initialization failed for any other reason.
+    *
+    * @since XINS 3.2
+    */
+   public final void reinit(Map<String, String> properties)
+   throws IllegalStateException,
+          MissingRequiredPropertyException,
+          InvalidPropertyValueException,
+          InitializationException {
+
+      // Check the state
+      synchronized (_stateLock) {
+         if (_state != USABLE || _reinitializing) {
+            String message = "The current state is "
+                           + _state
+                           + (_reinitializing ? " and the object is already reinitializing" : "")
+                           + " instead of "
+                           + USABLE
+                           + '.';
+            throw new IllegalStateException(message);
+         }
+         _reinitializing = true;
+      }
+
+      // If no properties are passed, then use an empty set
+      if (properties == null) {
+         properties = Collections.EMPTY_MAP;
+      }
+
+      // Delegate to subclass
+      State newState = BOOTSTRAPPED;
+      try {
+         initImpl(properties);
+         newState = USABLE;
+
+      // Catch expected exceptions
+      } catch (MissingRequiredPropertyException exception) {
+         throw exception;
+      } catch (InvalidPropertyValueException exception) {
+         throw exception;
+      } catch (InitializationException exception) {
+         throw exception;
+
+      // Wrap other exceptions in an InitializationException
+      } catch (Throwable exception) {
+         throw new InitializationException(exception);
+
+      // Always set the state before returning
+      } finally {
+         synchronized (_stateLock) {
+            _state = newState;
+            _reinitializing = false;
+         }
+      }
+   }
+
    /**
     * Performs the initialization procedure (actual implementation). When this
     * method is called from {@link #init(Map)}, the state and the
@@ -342,6 +445,8 @@ public abstract class Manageable {
     *
     * <p>When this method returns, the state has been set to
     * {@link #UNUSABLE}, even if {@link #deinitImpl()} threw an exception.
+    * The resources registered with {@link #closeOnDeinit(Closeable)} are
+    * closed after {@link #deinitImpl()}, even if it threw an exception.
     *
     * <p>If {@link #deinitImpl()} throws any exception, it is wrapped in a
     * {@link DeinitializationException} and
@@ -390,14 +495,68 @@ public abstract class Manageable {
       } catch (Throwable exception) {
          throw new DeinitializationException(exception);
 
-      // Always set the state before returning
+      // Always close the resources and set the state before returning
       } finally {
+         closeResources();
          synchronized (_stateLock) {
             _state = newState;
          }
       }
    }
 
+   /**
+    * Registers a resource to close when this object is deinitialized. This
+    * method is typically called from {@link #initImpl(Map)} for the
+    * resources that would otherwise keep running, such as an
+    * {@link org.xins.common.collections.expiry.ExpiryStrategy}.
+    *
+    * <p>The resources are closed in the reverse order of their registration
+    * and the exceptions thrown while closing them are ignored. A resource
+    * registered during a re-initialization is only closed when this object
+    * is deinitialized, so a resource replaced by {@link #reinit(Map)} should
+    * be closed by the subclass.
+    *
+    * @param resource
+    *    the resource to close, cannot be <code>null</code>.
+    *
+    * @return
+    *    the resource, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>resource == null</code>.
+    *
+    * @since XINS 3.2
+    */
+   protected final <T extends Closeable> T closeOnDeinit(T resource)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("resource", resource);
+      synchronized (_deinitResources) {
+         _deinitResources.add(resource);
+      }
+      return resource;
+   }
+
+   /**
+    * Closes the resources registered with {@link #closeOnDeinit(Closeable)}.
+    */
+   private void closeResources() {
+      List<Closeable> resources;
+      synchronized (_deinitResources) {
+         resources = new ArrayList<Closeable>(_deinitResources);
+         _deinitResources.clear();
+      }
+      Collections.reverse(resources);
+      for (Closeable resource : resources) {
+         try {
+            resource.close();
+         } catch (IOException ioe) {
+            Utils.logIgnoredException(ioe);
+         } catch (RuntimeException exception) {
+            Utils.logIgnoredException(exception);
+         }
+      }
+   }
+
    /**
     * Deinitializes this instance (actual implementation). This method will be
     * called from {@link #deinit()} each time the latter is called and it
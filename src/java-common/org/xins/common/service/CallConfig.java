@@ -17,6 +17,12 @@ import java.io.Serializable;
  * which indicates whether fail-over is unconditionally allowed, even if the
  * request was already received or even processed by the other end.
  *
+ * <p>Since XINS 3.2, it also specifies whether the calls are
+ * <em>hedged</em>: if the target called has not answered after the hedge
+ * delay, the same request is also sent to the next target and the first
+ * successful answer is used. Hedging should only be enabled for requests
+ * that can safely be executed more than once.
+ *
  * <p>This class is not thread safe</p>
  *
  * @version $Revision: 1.30 $ $Date: 2010/09/29 17:21:48 $
@@ -35,6 +41,18 @@ public class CallConfig implements Serializable {
     */
    private boolean _failOverAllowed;
 
+   /**
+    * The delay after which a hedged call is sent to the next target, in
+    * milliseconds, or 0 if the calls are not hedged.
+    */
+   private long _hedgeDelay;
+
+   /**
+    * The percentile of the call durations of the target used as hedge
+    * delay, or 0 if only the fixed hedge delay is used.
+    */
+   private int _hedgePercentile;
+
    /**
     * Describes this configuration.
     *
@@ -50,7 +68,14 @@ public class CallConfig implements Serializable {
       if (!_failOverAllowed) {
          description += "not ";
       }
-      description += "allowed.";
+      description += "allowed";
+      if (_hedgeDelay > 0L) {
+         description += " and hedge delay of " + _hedgeDelay + " ms";
+         if (_hedgePercentile > 0) {
+            description += " or p" + _hedgePercentile;
+         }
+      }
+      description += '.';
 
       return description;
    }
@@ -92,4 +117,64 @@ public class CallConfig implements Serializable {
    public final void setFailOverAllowed(boolean allowed) {
      _failOverAllowed = allowed;
    }
+
+   /**
+    * Configures the hedging of the calls. When hedging is enabled and the
+    * target called has not answered after the hedge delay, the same request
+    * is also sent to the next target. The first successful answer is used
+    * and the other calls are cancelled.
+    *
+    * <p>If a percentile is specified, the hedge delay is this percentile of
+    * the durations of the last successful calls to the target (see
+    * {@link TargetDescriptor#getLatencyPercentile(int)}), but at least the
+    * specified delay.
+    *
+    * @param delay
+    *    the minimum delay before sending the request to the next target, in
+    *    milliseconds, or 0 to disable hedging.
+    *
+    * @param percentile
+    *    the percentile of the call durations to use as delay, for example
+    *    95, or 0 to always use the specified delay.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>delay &lt; 0 || percentile &lt; 0 || percentile &gt; 100</code>.
+    *
+    * @since XINS 3.2
+    */
+   public final void setHedgeDelay(long delay, int percentile)
+   throws IllegalArgumentException {
+      if (delay < 0L) {
+         throw new IllegalArgumentException("delay (" + delay + ") < 0");
+      } else if (percentile < 0 || percentile > 100) {
+         throw new IllegalArgumentException("percentile (" + percentile + ") should be between 0 and 100.");
+      }
+      _hedgeDelay = delay;
+      _hedgePercentile = percentile;
+   }
+
+   /**
+    * Returns the minimum delay before sending a hedged call to the next
+    * target.
+    *
+    * @return
+    *    the hedge delay in milliseconds, or 0 if the calls are not hedged.
+    *
+    * @since XINS 3.2
+    */
+   public final long getHedgeDelay() {
+      return _hedgeDelay;
+   }
+
+   /**
+    * Returns the percentile of the call durations used as hedge delay.
+    *
+    * @return
+    *    the percentile, or 0 if only the fixed hedge delay is used.
+    *
+    * @since XINS 3.2
+    */
+   public final int getHedgePercentile() {
+      return _hedgePercentile;
+   }
 }
@@ -253,4 +253,21 @@ public abstract class CallException extends Exception {
    public boolean isFailOverAllowed() {
       return false;
    }
+
+   /**
+    * Indicates whether this call exception means that the target itself
+    * failed, for example because it could not be reached or did not answer
+    * in time, rather than that it processed the request.
+    *
+    * <p>The implementation of this method in class
+    * <code>CallException</code> returns <code>false</code>.
+    *
+    * @return
+    *    <code>true</code> if the target failed, <code>false</code> otherwise.
+    *
+    * @since XINS 3.2
+    */
+   public boolean isTargetFailure() {
+      return false;
+   }
 }
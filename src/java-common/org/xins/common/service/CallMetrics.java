@@ -0,0 +1,541 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.Utils;
+
+/**
+ * Metrics of the calls made by the service callers, per function and per
+ * target. For each function and target, the durations of the calls are
+ * kept in a histogram, the failed calls are counted per error type and the
+ * fail-overs to the next target are counted.
+ *
+ * <p>The metrics are recorded by {@link ServiceCaller} for each call to a
+ * target. The error type is the name of the {@link CallException} class,
+ * for example <code>ConnectionRefusedCallException</code>, or the error code
+ * returned by a XINS API. By default, all service callers record their calls
+ * in the {@link #getDefault() default} metrics.
+ *
+ * <p>The metrics can be read with {@link #getMetrics()}, for example to
+ * return them from a function of an API, or with JMX after
+ * {@link #registerMBean(MBeanServer)} is called.
+ *
+ * <p>This class is thread-safe. Recording a call does not lock.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ *
+ * @see ServiceCaller#setCallMetrics(CallMetrics)
+ */
+public final class CallMetrics implements CallMetricsMBean {
+
+   /**
+    * The name of the default metrics MBean.
+    */
+   public static final String MBEAN_NAME = "org.xins.common.service:type=CallMetrics";
+
+   /**
+    * The upper limits in milliseconds of the buckets of the duration
+    * histograms. The last bucket contains the longer durations.
+    */
+   private static final long[] BUCKET_LIMITS = {
+      1L, 2L, 5L, 10L, 20L, 50L, 100L, 200L, 500L, 1000L, 2000L, 5000L, 10000L, 20000L, 60000L
+   };
+
+   /**
+    * The metrics used by default by the service callers.
+    */
+   private static final CallMetrics DEFAULT = new CallMetrics();
+
+   /**
+    * The metrics per function and target. Never <code>null</code>.
+    */
+   private final ConcurrentMap<String, Metric> _metrics = new ConcurrentHashMap<String, Metric>();
+
+   /**
+    * Creates a new <code>CallMetrics</code> without any recorded call.
+    */
+   public CallMetrics() {
+      // empty
+   }
+
+   /**
+    * Gets the metrics used by default by the service callers.
+    *
+    * @return
+    *    the default metrics, never <code>null</code>.
+    */
+   public static CallMetrics getDefault() {
+      return DEFAULT;
+   }
+
+   /**
+    * Registers the default metrics as an MBean with the name
+    * {@link #MBEAN_NAME}. Nothing is done if the MBean is already
+    * registered.
+    *
+    * @param server
+    *    the MBean server, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>server == null</code>.
+    *
+    * @throws JMException
+    *    if the MBean cannot be registered.
+    */
+   public static void registerMBean(MBeanServer server)
+   throws IllegalArgumentException, JMException {
+      MandatoryArgumentChecker.check("server", server);
+      ObjectName name = new ObjectName(MBEAN_NAME);
+      if (!server.isRegistered(name)) {
+         try {
+            server.registerMBean(DEFAULT, name);
+         } catch (InstanceAlreadyExistsException exception) {
+            // Registered in the meantime
+         }
+      }
+   }
+
+   /**
+    * Gets the upper limits of the buckets of the duration histograms.
+    *
+    * @return
+    *    the upper limits in milliseconds, in increasing order, never
+    *    <code>null</code>. The histograms have one more bucket for the
+    *    longer durations.
+    */
+   public static long[] getBucketLimits() {
+      return BUCKET_LIMITS.clone();
+   }
+
+   /**
+    * Records a successful call.
+    *
+    * @param functionName
+    *    the name of the function called, or <code>null</code> if unknown.
+    *
+    * @param target
+    *    the target called, cannot be <code>null</code>.
+    *
+    * @param duration
+    *    the duration of the call in milliseconds.
+    */
+   public void recordSuccess(String functionName, TargetDescriptor target, long duration) {
+      getMetric(functionName, target).record(duration, null);
+   }
+
+   /**
+    * Records a failed call.
+    *
+    * @param functionName
+    *    the name of the function called, or <code>null</code> if unknown.
+    *
+    * @param target
+    *    the target called, cannot be <code>null</code>.
+    *
+    * @param duration
+    *    the duration of the call in milliseconds.
+    *
+    * @param errorType
+    *    the type of error, cannot be <code>null</code>.
+    */
+   public void recordFailure(String functionName, TargetDescriptor target, long duration, String errorType) {
+      getMetric(functionName, target).record(duration, errorType);
+   }
+
+   /**
+    * Records that a failed call to a target is retried on the next target.
+    *
+    * @param functionName
+    *    the name of the function called, or <code>null</code> if unknown.
+    *
+    * @param target
+    *    the target that failed, cannot be <code>null</code>.
+    */
+   public void recordFailOver(String functionName, TargetDescriptor target) {
+      getMetric(functionName, target)._failOverCount.incrementAndGet();
+   }
+
+   /**
+    * Gets the metrics of the calls to a function on a target.
+    *
+    * @param functionName
+    *    the name of the function, or <code>null</code> for the calls
+    *    without function name.
+    *
+    * @param url
+    *    the URL of the target, cannot be <code>null</code>.
+    *
+    * @return
+    *    the metrics or <code>null</code> if no call was recorded.
+    */
+   public Metric getMetric(String functionName, String url) {
+      return _metrics.get(getKey(functionName, url));
+   }
+
+   /**
+    * Gets all metrics, sorted by function name and target URL.
+    *
+    * @return
+    *    the metrics, never <code>null</code>.
+    */
+   public List<Metric> getMetrics() {
+      return new ArrayList<Metric>(new TreeMap<String, Metric>(_metrics).values());
+   }
+
+   public void reset() {
+      _metrics.clear();
+   }
+
+   public TabularDataSupport getStatistics() {
+      String[] names = {"Function", "URL", "Calls", "Failures", "Fail-overs", "Average",
+            "Max Duration", "50th Percentile", "95th Percentile", "99th Percentile", "Errors"};
+      OpenType[] types = {SimpleType.STRING, SimpleType.STRING, SimpleType.LONG, SimpleType.LONG,
+            SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+            SimpleType.LONG, SimpleType.STRING};
+      try {
+         CompositeType rowType = new CompositeType("Call metric",
+               "The metrics of the calls to a function on a target", names, names, types);
+         TabularType tableType = new TabularType("Call metrics",
+               "The metrics of the calls per function and target", rowType, new String[] {"Function", "URL"});
+         TabularDataSupport table = new TabularDataSupport(tableType);
+         for (Metric metric : getMetrics()) {
+            Map<String, Object> row = new HashMap<String, Object>();
+            row.put("Function", metric.getFunctionName());
+            row.put("URL", metric.getURL());
+            row.put("Calls", metric.getCallCount());
+            row.put("Failures", metric.getFailureCount());
+            row.put("Fail-overs", metric.getFailOverCount());
+            row.put("Average", metric.getAverageDuration());
+            row.put("Max Duration", metric.getMaxDuration());
+            row.put("50th Percentile", metric.getPercentile(50));
+            row.put("95th Percentile", metric.getPercentile(95));
+            row.put("99th Percentile", metric.getPercentile(99));
+            row.put("Errors", metric.getErrorCounts().toString());
+            table.put(new CompositeDataSupport(rowType, row));
+         }
+         return table;
+      } catch (OpenDataException exception) {
+         throw Utils.logProgrammingError(exception);
+      }
+   }
+
+   /**
+    * Gets or creates the metrics of the calls to a function on a target.
+    *
+    * @param functionName
+    *    the name of the function, or <code>null</code>.
+    *
+    * @param target
+    *    the target, cannot be <code>null</code>.
+    *
+    * @return
+    *    the metrics, never <code>null</code>.
+    */
+   private Metric getMetric(String functionName, TargetDescriptor target) {
+      String key = getKey(functionName, target.getURL());
+      Metric metric = _metrics.get(key);
+      if (metric == null) {
+         Metric newMetric = new Metric(functionName == null ? "" : functionName, target.getURL());
+         metric = _metrics.putIfAbsent(key, newMetric);
+         if (metric == null) {
+            metric = newMetric;
+         }
+      }
+      return metric;
+   }
+
+   /**
+    * Gets the key of the metrics of a function on a target.
+    *
+    * @param functionName
+    *    the name of the function, or <code>null</code>.
+    *
+    * @param url
+    *    the URL of the target, cannot be <code>null</code>.
+    *
+    * @return
+    *    the key, never <code>null</code>.
+    */
+   private static String getKey(String functionName, String url) {
+      return (functionName == null ? "" : functionName) + ' ' + url;
+   }
+
+   /**
+    * Metrics of the calls to a function on a target.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    *
+    * @since XINS 3.2
+    */
+   public static final class Metric {
+
+      /**
+       * The name of the function, never <code>null</code>.
+       */
+      private final String _functionName;
+
+      /**
+       * The URL of the target, never <code>null</code>.
+       */
+      private final String _url;
+
+      /**
+       * The number of calls per duration bucket.
+       */
+      private final AtomicLongArray _histogram = new AtomicLongArray(BUCKET_LIMITS.length + 1);
+
+      /**
+       * The total duration of the calls.
+       */
+      private final AtomicLong _totalDuration = new AtomicLong();
+
+      /**
+       * The longest duration of the calls.
+       */
+      private final AtomicLong _maxDuration = new AtomicLong();
+
+      /**
+       * The number of failed calls.
+       */
+      private final AtomicLong _failureCount = new AtomicLong();
+
+      /**
+       * The number of fail-overs to the next target.
+       */
+      private final AtomicLong _failOverCount = new AtomicLong();
+
+      /**
+       * The number of failed calls per error type.
+       */
+      private final ConcurrentMap<String, AtomicLong> _errorCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+      /**
+       * Creates a new <code>Metric</code>.
+       *
+       * @param functionName
+       *    the name of the function, cannot be <code>null</code>.
+       *
+       * @param url
+       *    the URL of the target, cannot be <code>null</code>.
+       */
+      private Metric(String functionName, String url) {
+         _functionName = functionName;
+         _url          = url;
+      }
+
+      /**
+       * Records a call.
+       *
+       * @param duration
+       *    the duration of the call in milliseconds.
+       *
+       * @param errorType
+       *    the type of error, or <code>null</code> if the call succeeded.
+       */
+      private void record(long duration, String errorType) {
+         duration = Math.max(0L, duration);
+         int bucket = 0;
+         while (bucket < BUCKET_LIMITS.length && duration > BUCKET_LIMITS[bucket]) {
+            bucket++;
+         }
+         _histogram.incrementAndGet(bucket);
+         _totalDuration.addAndGet(duration);
+         long max = _maxDuration.get();
+         while (duration > max && !_maxDuration.compareAndSet(max, duration)) {
+            max = _maxDuration.get();
+         }
+
+         if (errorType != null) {
+            _failureCount.incrementAndGet();
+            AtomicLong count = _errorCounts.get(errorType);
+            if (count == null) {
+               AtomicLong newCount = new AtomicLong();
+               count = _errorCounts.putIfAbsent(errorType, newCount);
+               if (count == null) {
+                  count = newCount;
+               }
+            }
+            count.incrementAndGet();
+         }
+      }
+
+      /**
+       * Gets the name of the function called.
+       *
+       * @return
+       *    the name of the function, or an empty string if the calls have
+       *    no function name.
+       */
+      public String getFunctionName() {
+         return _functionName;
+      }
+
+      /**
+       * Gets the URL of the target called.
+       *
+       * @return
+       *    the URL of the target, never <code>null</code>.
+       */
+      public String getURL() {
+         return _url;
+      }
+
+      /**
+       * Gets the number of calls, successful or not.
+       *
+       * @return
+       *    the number of calls.
+       */
+      public long getCallCount() {
+         long count = 0L;
+         for (int i = 0; i < _histogram.length(); i++) {
+            count += _histogram.get(i);
+         }
+         return count;
+      }
+
+      /**
+       * Gets the number of failed calls.
+       *
+       * @return
+       *    the number of failed calls.
+       */
+      public long getFailureCount() {
+         return _failureCount.get();
+      }
+
+      /**
+       * Gets the number of failed calls that were retried on the next
+       * target.
+       *
+       * @return
+       *    the number of fail-overs.
+       */
+      public long getFailOverCount() {
+         return _failOverCount.get();
+      }
+
+      /**
+       * Gets the number of failed calls per error type.
+       *
+       * @return
+       *    the number of failed calls per error type, sorted by error type,
+       *    never <code>null</code>.
+       */
+      public Map<String, Long> getErrorCounts() {
+         Map<String, Long> errorCounts = new TreeMap<String, Long>();
+         for (Map.Entry<String, AtomicLong> errorCount : _errorCounts.entrySet()) {
+            errorCounts.put(errorCount.getKey(), errorCount.getValue().get());
+         }
+         return Collections.unmodifiableMap(errorCounts);
+      }
+
+      /**
+       * Gets the average duration of the calls.
+       *
+       * @return
+       *    the average duration in milliseconds, or <code>0L</code> if
+       *    there was no call.
+       */
+      public long getAverageDuration() {
+         long count = getCallCount();
+         return count == 0L ? 0L : _totalDuration.get() / count;
+      }
+
+      /**
+       * Gets the longest duration of the calls.
+       *
+       * @return
+       *    the longest duration in milliseconds.
+       */
+      public long getMaxDuration() {
+         return _maxDuration.get();
+      }
+
+      /**
+       * Gets the number of calls per duration bucket. The limits of the
+       * buckets are returned by {@link CallMetrics#getBucketLimits()}.
+       *
+       * @return
+       *    the number of calls per bucket, never <code>null</code>.
+       */
+      public long[] getHistogram() {
+         long[] histogram = new long[_histogram.length()];
+         for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = _histogram.get(i);
+         }
+         return histogram;
+      }
+
+      /**
+       * Gets an estimate of a percentile of the call durations. The
+       * estimate is the upper limit of the histogram bucket that contains
+       * the percentile, or the longest duration for the last bucket.
+       *
+       * @param percentile
+       *    the percentile, between 1 and 100.
+       *
+       * @return
+       *    the estimated duration in milliseconds, or <code>0L</code> if
+       *    there was no call.
+       *
+       * @throws IllegalArgumentException
+       *    if <code>percentile &lt; 1 || percentile &gt; 100</code>.
+       */
+      public long getPercentile(int percentile) throws IllegalArgumentException {
+         if (percentile < 1 || percentile > 100) {
+            throw new IllegalArgumentException("percentile (" + percentile + ") is not between 1 and 100");
+         }
+         long[] histogram = getHistogram();
+         long count = 0L;
+         for (int i = 0; i < histogram.length; i++) {
+            count += histogram[i];
+         }
+         long rank = (count * percentile + 99L) / 100L;
+         long seen = 0L;
+         for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank && seen > 0L) {
+               return Math.min(BUCKET_LIMITS[i], getMaxDuration());
+            }
+         }
+         return getMaxDuration();
+      }
+
+      public String toString() {
+         return _functionName + " on " + _url + ": " + getCallCount() + " calls, "
+               + getFailureCount() + " failures, " + getFailOverCount() + " fail-overs";
+      }
+   }
+}
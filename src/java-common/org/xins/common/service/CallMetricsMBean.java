@@ -0,0 +1,32 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.service;
+
+import javax.management.openmbean.TabularDataSupport;
+
+/**
+ * Management bean for the metrics of the calls made by the service callers.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+public interface CallMetricsMBean {
+
+   /**
+    * Gets the metrics of the calls, one row per function and target.
+    *
+    * @return
+    *    the metrics of the calls, never <code>null</code>.
+    */
+   TabularDataSupport getStatistics();
+
+   /**
+    * Removes all the metrics.
+    */
+   void reset();
+}
@@ -0,0 +1,737 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.service;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xins.common.Log;
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.collections.InvalidPropertyValueException;
+import org.xins.common.text.TextUtils;
+
+/**
+ * Circuit breaker for the targets called by a {@link ServiceCaller}. The
+ * state of each target is kept separately, identified by the CRC-32 checksum
+ * of the target.
+ *
+ * <p>A target starts in the <em>closed</em> state: all calls are made. The
+ * outcome of the last calls is kept. When the rate of failed calls or the
+ * rate of slow calls reaches its threshold, the circuit is <em>opened</em>:
+ * the service caller skips the target without attempting a connection. After
+ * the open duration, the circuit is <em>half-open</em>: a limited number of
+ * probe calls are made. If they all succeed, the circuit is closed again,
+ * otherwise it is opened again.
+ *
+ * <p>A call is considered as failed if
+ * {@link ServiceCaller#isTargetFailure(Throwable)} returns
+ * <code>true</code>. A call is considered as slow if it lasted at least the
+ * slow call duration.
+ *
+ * <p>The settings can also be read from runtime properties, see
+ * {@link #CircuitBreaker(Map,String)}.
+ *
+ * <p>This class is thread-safe. The settings can be changed at any time.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ *
+ * @see ServiceCaller#setCircuitBreaker(CircuitBreaker)
+ */
+public final class CircuitBreaker {
+
+   /**
+    * The <em>closed</em> state: the calls to the target are made.
+    */
+   public static final State CLOSED = new State("closed");
+
+   /**
+    * The <em>open</em> state: the target is skipped.
+    */
+   public static final State OPEN = new State("open");
+
+   /**
+    * The <em>half-open</em> state: a limited number of probe calls are made
+    * to the target.
+    */
+   public static final State HALF_OPEN = new State("half-open");
+
+   /**
+    * The suffix of the name of the properties that configure the circuit
+    * breaker. The property name is prefixed with the property prefix passed
+    * to {@link #CircuitBreaker(Map,String)}, for example
+    * <code>capis.<em>api</em>.circuit-breaker.failure-rate</code>.
+    */
+   public static final String CIRCUIT_BREAKER_PROPERTY = "circuit-breaker";
+
+   /**
+    * The suffix of the property that defines the failure rate threshold,
+    * see {@link #setFailureRateThreshold(double)}.
+    */
+   public static final String FAILURE_RATE_PROPERTY = "failure-rate";
+
+   /**
+    * The suffix of the property that defines the slow call duration in
+    * milliseconds, see {@link #setSlowCallThreshold(long,double)}.
+    */
+   public static final String SLOW_CALL_DURATION_PROPERTY = "slow-call.duration";
+
+   /**
+    * The suffix of the property that defines the slow call rate threshold,
+    * see {@link #setSlowCallThreshold(long,double)}.
+    */
+   public static final String SLOW_CALL_RATE_PROPERTY = "slow-call.rate";
+
+   /**
+    * The suffix of the property that defines the window size, see
+    * {@link #setWindow(int,int)}.
+    */
+   public static final String WINDOW_SIZE_PROPERTY = "window";
+
+   /**
+    * The suffix of the property that defines the minimum number of calls,
+    * see {@link #setWindow(int,int)}.
+    */
+   public static final String MINIMUM_CALLS_PROPERTY = "minimum-calls";
+
+   /**
+    * The suffix of the property that defines the open duration in
+    * milliseconds, see {@link #setOpenDuration(long,int)}.
+    */
+   public static final String OPEN_DURATION_PROPERTY = "open-duration";
+
+   /**
+    * The suffix of the property that defines the number of probe calls,
+    * see {@link #setOpenDuration(long,int)}.
+    */
+   public static final String HALF_OPEN_CALLS_PROPERTY = "half-open-calls";
+
+   /**
+    * The state of the targets, by CRC-32 checksum. Never <code>null</code>.
+    */
+   private final ConcurrentMap<Integer, Circuit> _circuits = new ConcurrentHashMap<Integer, Circuit>();
+
+   /**
+    * The failure rate at which the circuit is opened, between 0 and 1.
+    */
+   private volatile double _failureRateThreshold = 0.5;
+
+   /**
+    * The duration from which a call is considered as slow, in milliseconds,
+    * or 0 if the calls are never considered as slow.
+    */
+   private volatile long _slowCallDuration;
+
+   /**
+    * The slow call rate at which the circuit is opened, between 0 and 1.
+    */
+   private volatile double _slowCallRateThreshold = 1.0;
+
+   /**
+    * The number of last calls used to compute the rates.
+    */
+   private volatile int _windowSize = 20;
+
+   /**
+    * The minimum number of calls before the rates are checked.
+    */
+   private volatile int _minimumCalls = 10;
+
+   /**
+    * The time a circuit stays open before probe calls are made, in
+    * milliseconds.
+    */
+   private volatile long _openDuration = 10000L;
+
+   /**
+    * The number of successful probe calls needed to close the circuit.
+    */
+   private volatile int _halfOpenCalls = 1;
+
+   /**
+    * The number of times a circuit was opened.
+    */
+   private final AtomicLong _openCount = new AtomicLong();
+
+   /**
+    * The number of times a target was skipped because its circuit was open.
+    */
+   private final AtomicLong _rejectedCount = new AtomicLong();
+
+   /**
+    * Creates a new <code>CircuitBreaker</code> with the default settings.
+    */
+   public CircuitBreaker() {
+   }
+
+   /**
+    * Creates a new <code>CircuitBreaker</code> configured with the
+    * properties prefixed with the specified prefix followed by
+    * <code>"." + {@link #CIRCUIT_BREAKER_PROPERTY} + "."</code>. The
+    * settings that are not set in the properties keep their default value.
+    *
+    * @param properties
+    *    the properties, cannot be <code>null</code>.
+    *
+    * @param propertyPrefix
+    *    the prefix of the property names, for example
+    *    <code>"capis.<em>api</em>"</code>, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>properties == null || propertyPrefix == null</code>.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value of one of the properties is incorrect.
+    */
+   public CircuitBreaker(Map<String, String> properties, String propertyPrefix)
+   throws IllegalArgumentException, InvalidPropertyValueException {
+      MandatoryArgumentChecker.check("properties", properties, "propertyPrefix", propertyPrefix);
+      String prefix = propertyPrefix + '.' + CIRCUIT_BREAKER_PROPERTY + '.';
+
+      String name = prefix + FAILURE_RATE_PROPERTY;
+      String value = properties.get(name);
+      if (!TextUtils.isEmpty(value)) {
+         try {
+            setFailureRateThreshold(parseDouble(name, value));
+         } catch (IllegalArgumentException iae) {
+            throw new InvalidPropertyValueException(name, value, iae.getMessage());
+         }
+      }
+
+      name = prefix + SLOW_CALL_DURATION_PROPERTY;
+      long slowCallDuration = parseLong(properties, name, _slowCallDuration);
+      String rateName = prefix + SLOW_CALL_RATE_PROPERTY;
+      value = properties.get(rateName);
+      double slowCallRate = TextUtils.isEmpty(value) ? _slowCallRateThreshold : parseDouble(rateName, value);
+      try {
+         setSlowCallThreshold(slowCallDuration, slowCallRate);
+      } catch (IllegalArgumentException iae) {
+         throw new InvalidPropertyValueException(rateName, value, iae.getMessage());
+      }
+
+      name = prefix + MINIMUM_CALLS_PROPERTY;
+      int windowSize = (int) parseLong(properties, prefix + WINDOW_SIZE_PROPERTY, _windowSize);
+      int minimumCalls = (int) parseLong(properties, name, Math.min(_minimumCalls, windowSize));
+      try {
+         setWindow(windowSize, minimumCalls);
+      } catch (IllegalArgumentException iae) {
+         throw new InvalidPropertyValueException(name, String.valueOf(minimumCalls), iae.getMessage());
+      }
+
+      name = prefix + HALF_OPEN_CALLS_PROPERTY;
+      long openDuration = parseLong(properties, prefix + OPEN_DURATION_PROPERTY, _openDuration);
+      int halfOpenCalls = (int) parseLong(properties, name, _halfOpenCalls);
+      try {
+         setOpenDuration(openDuration, halfOpenCalls);
+      } catch (IllegalArgumentException iae) {
+         throw new InvalidPropertyValueException(name, String.valueOf(halfOpenCalls), iae.getMessage());
+      }
+   }
+
+   /**
+    * Determines whether the properties define a circuit breaker for the
+    * specified prefix.
+    *
+    * @param properties
+    *    the properties, cannot be <code>null</code>.
+    *
+    * @param propertyPrefix
+    *    the prefix of the property names, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if at least one property starts with the prefix
+    *    followed by <code>"." + {@link #CIRCUIT_BREAKER_PROPERTY} + "."</code>,
+    *    <code>false</code> otherwise.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>properties == null || propertyPrefix == null</code>.
+    */
+   public static boolean isConfigured(Map<String, String> properties, String propertyPrefix)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("properties", properties, "propertyPrefix", propertyPrefix);
+      String prefix = propertyPrefix + '.' + CIRCUIT_BREAKER_PROPERTY + '.';
+      for (String name : properties.keySet()) {
+         if (name.startsWith(prefix)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private static long parseLong(Map<String, String> properties, String propertyName, long defaultValue)
+   throws InvalidPropertyValueException {
+      String value = properties.get(propertyName);
+      if (TextUtils.isEmpty(value)) {
+         return defaultValue;
+      }
+      try {
+         long number = Long.parseLong(value.trim());
+         if (number >= 0L && number <= Integer.MAX_VALUE) {
+            return number;
+         }
+      } catch (NumberFormatException nfe) {
+         // fall through
+      }
+      throw new InvalidPropertyValueException(propertyName, value, "Expected a non-negative integer.");
+   }
+
+   private static double parseDouble(String propertyName, String value)
+   throws InvalidPropertyValueException {
+      try {
+         return Double.parseDouble(value.trim());
+      } catch (NumberFormatException nfe) {
+         throw new InvalidPropertyValueException(propertyName, value, "Expected a number between 0 and 1.");
+      }
+   }
+
+   /**
+    * Sets the failure rate at which the circuit of a target is opened.
+    * The default is <code>0.5</code>.
+    *
+    * @param threshold
+    *    the failure rate, greater than 0 and lower than or equal to 1.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>threshold &lt;= 0 || threshold &gt; 1</code>.
+    */
+   public void setFailureRateThreshold(double threshold) throws IllegalArgumentException {
+      checkRate("threshold", threshold);
+      _failureRateThreshold = threshold;
+   }
+
+   /**
+    * Gets the failure rate at which the circuit of a target is opened.
+    *
+    * @return
+    *    the failure rate, between 0 and 1.
+    */
+   public double getFailureRateThreshold() {
+      return _failureRateThreshold;
+   }
+
+   /**
+    * Sets the slow call settings. By default the calls are never
+    * considered as slow.
+    *
+    * @param duration
+    *    the duration from which a call is considered as slow, in
+    *    milliseconds, or 0 if the calls should never be considered as slow.
+    *
+    * @param threshold
+    *    the slow call rate at which the circuit is opened, greater than 0
+    *    and lower than or equal to 1.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>duration &lt; 0 || threshold &lt;= 0 || threshold &gt; 1</code>.
+    */
+   public void setSlowCallThreshold(long duration, double threshold)
+   throws IllegalArgumentException {
+      if (duration < 0L) {
+         throw new IllegalArgumentException("duration (" + duration + ") < 0");
+      }
+      checkRate("threshold", threshold);
+      _slowCallDuration = duration;
+      _slowCallRateThreshold = threshold;
+   }
+
+   /**
+    * Gets the duration from which a call is considered as slow.
+    *
+    * @return
+    *    the duration in milliseconds, or 0 if the calls are never considered
+    *    as slow.
+    */
+   public long getSlowCallDuration() {
+      return _slowCallDuration;
+   }
+
+   /**
+    * Gets the slow call rate at which the circuit of a target is opened.
+    *
+    * @return
+    *    the slow call rate, between 0 and 1.
+    */
+   public double getSlowCallRateThreshold() {
+      return _slowCallRateThreshold;
+   }
+
+   /**
+    * Sets the number of calls used to compute the failure and slow call
+    * rates. The defaults are 20 calls, with at least 10 calls.
+    *
+    * @param windowSize
+    *    the number of last calls used to compute the rates, must be &gt; 0.
+    *
+    * @param minimumCalls
+    *    the minimum number of calls before the rates are checked, must be
+    *    &gt; 0 and &lt;= <code>windowSize</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>minimumCalls &lt; 1 || minimumCalls &gt; windowSize</code>.
+    */
+   public void setWindow(int windowSize, int minimumCalls) throws IllegalArgumentException {
+      if (minimumCalls < 1 || minimumCalls > windowSize) {
+         throw new IllegalArgumentException("minimumCalls (" + minimumCalls + ") should be between 1 and windowSize (" + windowSize + ").");
+      }
+      _windowSize = windowSize;
+      _minimumCalls = minimumCalls;
+   }
+
+   /**
+    * Sets the open state settings. The defaults are 10 seconds and 1 probe
+    * call.
+    *
+    * @param openDuration
+    *    the time a circuit stays open before probe calls are made, in
+    *    milliseconds, must be &gt;= 0.
+    *
+    * @param halfOpenCalls
+    *    the number of successful probe calls needed to close the circuit,
+    *    must be &gt; 0.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>openDuration &lt; 0 || halfOpenCalls &lt; 1</code>.
+    */
+   public void setOpenDuration(long openDuration, int halfOpenCalls) throws IllegalArgumentException {
+      if (openDuration < 0L) {
+         throw new IllegalArgumentException("openDuration (" + openDuration + ") < 0");
+      } else if (halfOpenCalls < 1) {
+         throw new IllegalArgumentException("halfOpenCalls (" + halfOpenCalls + ") < 1");
+      }
+      _openDuration = openDuration;
+      _halfOpenCalls = halfOpenCalls;
+   }
+
+   /**
+    * Checks that a rate is greater than 0 and lower than or equal to 1.
+    *
+    * @param name
+    *    the name of the argument.
+    *
+    * @param rate
+    *    the rate to check.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>rate &lt;= 0 || rate &gt; 1</code>.
+    */
+   private static void checkRate(String name, double rate) throws IllegalArgumentException {
+      if (!(rate > 0.0 && rate <= 1.0)) {
+         throw new IllegalArgumentException(name + " (" + rate + ") should be greater than 0 and lower than or equal to 1.");
+      }
+   }
+
+   /**
+    * Gets the state of the circuit of the specified target.
+    *
+    * @param target
+    *    the target, cannot be <code>null</code>.
+    *
+    * @return
+    *    the state of the circuit, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>target == null</code>.
+    */
+   public State getState(TargetDescriptor target) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("target", target);
+      Circuit circuit = _circuits.get(target.getCRC());
+      return circuit == null ? CLOSED : circuit.getState();
+   }
+
+   /**
+    * Gets the number of times the circuit of a target was opened.
+    *
+    * @return
+    *    the number of times a circuit was opened.
+    */
+   public long getOpenCount() {
+      return _openCount.get();
+   }
+
+   /**
+    * Gets the number of times a target was skipped because its circuit was
+    * open.
+    *
+    * @return
+    *    the number of calls not made.
+    */
+   public long getRejectedCount() {
+      return _rejectedCount.get();
+   }
+
+   /**
+    * Closes the circuits of all targets.
+    */
+   public void reset() {
+      _circuits.clear();
+   }
+
+   /**
+    * Determines whether the specified target can be called.
+    *
+    * @param target
+    *    the target, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the target can be called, <code>false</code> if
+    *    the target should be skipped.
+    */
+   boolean allowCall(TargetDescriptor target) {
+      Circuit circuit = _circuits.get(target.getCRC());
+      if (circuit == null || circuit.allowCall(target, System.currentTimeMillis())) {
+         return true;
+      }
+      _rejectedCount.incrementAndGet();
+      return false;
+   }
+
+   /**
+    * Indicates that a call allowed by {@link #allowCall(TargetDescriptor)}
+    * was cancelled before it ended. If it was a probe call, another probe
+    * call is allowed.
+    *
+    * @param target
+    *    the target of the cancelled call, cannot be <code>null</code>.
+    */
+   void releaseCall(TargetDescriptor target) {
+      Circuit circuit = _circuits.get(target.getCRC());
+      if (circuit != null) {
+         circuit.releaseCall();
+      }
+   }
+
+   /**
+    * Records the outcome of a call to the specified target.
+    *
+    * @param target
+    *    the target called, cannot be <code>null</code>.
+    *
+    * @param duration
+    *    the duration of the call, in milliseconds.
+    *
+    * @param failed
+    *    <code>true</code> if the call failed because of the target.
+    */
+   void recordCall(TargetDescriptor target, long duration, boolean failed) {
+      long slowCallDuration = _slowCallDuration;
+      boolean slow = slowCallDuration > 0L && duration >= slowCallDuration;
+      Integer crc = target.getCRC();
+      Circuit circuit = _circuits.get(crc);
+      if (circuit == null) {
+
+         // Nothing to record for a target that never failed
+         if (!failed && !slow) {
+            return;
+         }
+         circuit = new Circuit();
+         Circuit existing = _circuits.putIfAbsent(crc, circuit);
+         if (existing != null) {
+            circuit = existing;
+         }
+      }
+      circuit.recordCall(target, failed, slow, System.currentTimeMillis());
+   }
+
+   /**
+    * State of the circuit of a target.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    *
+    * @since XINS 3.2
+    */
+   public static final class State implements Serializable {
+
+      /**
+       * The name of this state. Never <code>null</code>.
+       */
+      private final String _name;
+
+      /**
+       * Constructs a new <code>State</code>.
+       *
+       * @param name
+       *    the name of the state.
+       */
+      private State(String name) {
+         _name = name;
+      }
+
+      /**
+       * Returns the name of this state.
+       *
+       * @return
+       *    the name of the state, never <code>null</code>.
+       */
+      public String toString() {
+         return _name;
+      }
+   }
+
+   /**
+    * The circuit of one target. The outcome of the last calls is kept in a
+    * circular buffer.
+    */
+   private final class Circuit {
+
+      /**
+       * The current state. Never <code>null</code>.
+       */
+      private State _state = CLOSED;
+
+      /**
+       * The outcome of the last calls: bit 0 is set for a failure and bit 1
+       * for a slow call.
+       */
+      private byte[] _outcomes = new byte[_windowSize];
+
+      /**
+       * The position in {@link #_outcomes} of the next call.
+       */
+      private int _position;
+
+      /**
+       * The number of calls in {@link #_outcomes}.
+       */
+      private int _callCount;
+
+      /**
+       * The number of failed calls in {@link #_outcomes}.
+       */
+      private int _failureCount;
+
+      /**
+       * The number of slow calls in {@link #_outcomes}.
+       */
+      private int _slowCount;
+
+      /**
+       * The time the circuit was opened.
+       */
+      private long _openTime;
+
+      /**
+       * The number of probe calls allowed in the half-open state.
+       */
+      private int _probeCount;
+
+      /**
+       * The number of successful probe calls in the half-open state.
+       */
+      private int _probeSuccessCount;
+
+      synchronized State getState() {
+         return _state;
+      }
+
+      synchronized boolean allowCall(TargetDescriptor target, long now) {
+         if (_state == CLOSED) {
+            return true;
+         } else if (_state == OPEN) {
+            if (now - _openTime < _openDuration) {
+               return false;
+            }
+            _state = HALF_OPEN;
+            _probeCount = 0;
+            _probeSuccessCount = 0;
+            Log.log_1311(target.getURL());
+         }
+         if (_probeCount < _halfOpenCalls) {
+            _probeCount++;
+            return true;
+         }
+         return false;
+      }
+
+      synchronized void releaseCall() {
+         if (_state == HALF_OPEN && _probeCount > 0) {
+            _probeCount--;
+         }
+      }
+
+      synchronized void recordCall(TargetDescriptor target, boolean failed, boolean slow, long now) {
+         if (_state == HALF_OPEN) {
+            if (failed || slow) {
+               open(target, now);
+            } else if (++_probeSuccessCount >= _halfOpenCalls) {
+               close();
+               Log.log_1312(target.getURL());
+            }
+         } else if (_state == CLOSED) {
+            addOutcome(failed, slow);
+            if (_callCount >= _minimumCalls) {
+               double failureRate = (double) _failureCount / _callCount;
+               double slowRate = (double) _slowCount / _callCount;
+               if (failureRate >= _failureRateThreshold || (_slowCallDuration > 0L && slowRate >= _slowCallRateThreshold)) {
+                  open(target, now);
+               }
+            }
+         }
+
+         // Calls ending while the circuit is open are ignored
+      }
+
+      /**
+       * Adds the outcome of a call in the closed state.
+       *
+       * @param failed
+       *    <code>true</code> if the call failed.
+       *
+       * @param slow
+       *    <code>true</code> if the call was slow.
+       */
+      private void addOutcome(boolean failed, boolean slow) {
+         if (_outcomes.length != _windowSize) {
+            close();
+         }
+         if (_callCount == _outcomes.length) {
+            byte oldest = _outcomes[_position];
+            _failureCount -= oldest & 1;
+            _slowCount -= (oldest >> 1) & 1;
+         } else {
+            _callCount++;
+         }
+         byte outcome = (byte) ((failed ? 1 : 0) | (slow ? 2 : 0));
+         _outcomes[_position] = outcome;
+         _failureCount += outcome & 1;
+         _slowCount += (outcome >> 1) & 1;
+         _position = (_position + 1) % _outcomes.length;
+      }
+
+      /**
+       * Opens the circuit.
+       *
+       * @param target
+       *    the target of this circuit.
+       *
+       * @param now
+       *    the current time.
+       */
+      private void open(TargetDescriptor target, long now) {
+         _state = OPEN;
+         _openTime = now;
+         _openCount.incrementAndGet();
+         Log.log_1310(target.getURL(), _failureCount, _slowCount, _callCount);
+      }
+
+      /**
+       * Closes the circuit and forgets the outcome of the previous calls.
+       */
+      private void close() {
+         _state = CLOSED;
+         _outcomes = new byte[_windowSize];
+         _position = 0;
+         _callCount = 0;
+         _failureCount = 0;
+         _slowCount = 0;
+      }
+   }
+}
@@ -0,0 +1,43 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.service;
+
+/**
+ * Exception that indicates that a target was not called because its circuit
+ * is open.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ *
+ * @see CircuitBreaker
+ */
+public final class CircuitOpenCallException extends GenericCallException {
+
+   /**
+    * Constructs a new <code>CircuitOpenCallException</code>.
+    *
+    * @param request
+    *    the original request, cannot be <code>null</code>.
+    *
+    * @param target
+    *    descriptor for the target that was skipped, cannot be
+    *    <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>request == null || target == null</code>.
+    */
+   public CircuitOpenCallException(CallRequest      request,
+                                   TargetDescriptor target)
+   throws IllegalArgumentException {
+      super("Circuit open", request, target, 0L, null, null);
+   }
+
+   public boolean isFailOverAllowed() {
+      return true;
+   }
+}
@@ -0,0 +1,115 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.service;
+
+/**
+ * Deadline of the call being executed by the current thread. The deadline
+ * is the time after which the result of the call is not useful anymore
+ * because the caller stopped waiting for it.
+ *
+ * <p>The XINS server framework sets the deadline sent by the caller of a
+ * function while the function is executed. The {@link ServiceCaller}
+ * reduces the total time-out of the calls to the remaining time and the
+ * XINS service caller sends the remaining time to the called API, so that
+ * the deadline is propagated along the chain of calls.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+public final class Deadline {
+
+   /**
+    * The deadline of the current thread, in milliseconds since the UNIX
+    * Epoch. Never <code>null</code>.
+    */
+   private static final ThreadLocal<Long> CURRENT = new ThreadLocal<Long>();
+
+   /**
+    * Constructs a new <code>Deadline</code>. This constructor is private
+    * since this class only contains static methods.
+    */
+   private Deadline() {
+      // empty
+   }
+
+   /**
+    * Sets the deadline of the current thread.
+    *
+    * @param deadline
+    *    the deadline in milliseconds since the UNIX Epoch, or a value
+    *    lower than 1 to remove the deadline of the current thread.
+    */
+   public static void set(long deadline) {
+      if (deadline < 1L) {
+         CURRENT.remove();
+      } else {
+         CURRENT.set(deadline);
+      }
+   }
+
+   /**
+    * Removes the deadline of the current thread.
+    */
+   public static void clear() {
+      CURRENT.remove();
+   }
+
+   /**
+    * Gets the deadline of the current thread.
+    *
+    * @return
+    *    the deadline in milliseconds since the UNIX Epoch or
+    *    <code>-1L</code> if the current thread has no deadline.
+    */
+   public static long get() {
+      Long deadline = CURRENT.get();
+      return deadline == null ? -1L : deadline.longValue();
+   }
+
+   /**
+    * Gets the time remaining before the deadline of the current thread.
+    *
+    * @return
+    *    the remaining time in milliseconds, <code>0L</code> if the deadline
+    *    is already passed or <code>-1L</code> if the current thread has no
+    *    deadline.
+    */
+   public static long getRemainingTime() {
+      Long deadline = CURRENT.get();
+      if (deadline == null) {
+         return -1L;
+      }
+      return Math.max(0L, deadline.longValue() - System.currentTimeMillis());
+   }
+
+   /**
+    * Limits a time-out to the time remaining before the deadline of the
+    * current thread.
+    *
+    * @param timeOut
+    *    the time-out in milliseconds, or <code>0</code> if there is no
+    *    time-out.
+    *
+    * @return
+    *    the smallest value of the time-out and the remaining time,
+    *    <code>-1</code> if the deadline is already passed or
+    *    <code>timeOut</code> if the current thread has no deadline.
+    */
+   public static int limit(int timeOut) {
+      long remaining = getRemainingTime();
+      if (remaining < 0L) {
+         return timeOut;
+      } else if (remaining == 0L) {
+         return -1;
+      } else if (timeOut < 1 || remaining < timeOut) {
+         return (int) Math.min(remaining, Integer.MAX_VALUE);
+      } else {
+         return timeOut;
+      }
+   }
+}
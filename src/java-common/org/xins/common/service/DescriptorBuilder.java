@@ -53,7 +53,7 @@ import org.xins.common.collections.MissingRequiredPropertyException;
  * <br>capi.sso.target4=service, http://othrhost:2002/, 0, 0,
  * 2000</code></blockquote>
  *
- * <p>The last example defines 2 back-ends at a more preferred location and 1
+ * <p>The next example defines 2 back-ends at a more preferred location and 1
  * at a less-preferred location. Normally one of the 2 back-ends at the
  * preferred location will be chosen randomly, but if none is available, then
  * the back-end at the less preferred location will be tried. The time-out for
@@ -65,6 +65,16 @@ import org.xins.common.collections.MissingRequiredPropertyException;
  * <br>ldap.host1b=service, ldap://host1b/, 8000
  * <br>ldap.host2a=service, ldap://host2a/, 8000</code></blockquote>
  *
+ * <p>The following example defines 3 back-ends of which the one with the
+ * lowest load is preferred. The load of a back-end depends on the duration
+ * of its last calls and on the number of calls in progress, so that the
+ * calls are moved away from a back-end that becomes slow or fails:
+ *
+ * <blockquote><code>search=group, least-latency, s1, s2, s3
+ * <br>search.s1=service, http://search1/, 5000
+ * <br>search.s2=service, http://search2/, 5000
+ * <br>search.s3=service, http://search3/, 5000</code></blockquote>
+ *
  * @version $Revision: 1.33 $ $Date: 2012/05/12 15:14:47 $
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
  *
@@ -57,4 +57,20 @@ public abstract class GenericCallException extends CallException {
       // Trace and then call constructor of superclass
       super(shortReason, request, target, duration, detail, cause);
    }
+
+   /**
+    * Indicates whether this call exception means that the target itself
+    * failed.
+    *
+    * <p>The implementation of this method in class
+    * <code>GenericCallException</code> returns <code>true</code>.
+    *
+    * @return
+    *    <code>true</code>.
+    *
+    * @since XINS 3.2
+    */
+   public boolean isTargetFailure() {
+      return true;
+   }
 }
@@ -6,10 +6,8 @@
 package org.xins.common.service;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Random;
@@ -21,6 +19,25 @@ import org.xins.common.Utils;
  * Descriptor for a group of services. Each <code>GroupDescriptor</code> has
  * at least 2 members.
  *
+ * <p>The type of the group determines the order in which the members are
+ * iterated:
+ *
+ * <dl>
+ *    <dt><em>random</em></dt>
+ *    <dd>the members are iterated in a random order.</dd>
+ *
+ *    <dt><em>ordered</em></dt>
+ *    <dd>the members are iterated in the order they were specified.</dd>
+ *
+ *    <dt><em>least-latency</em></dt>
+ *    <dd>for each step, two of the remaining members are picked randomly and
+ *    the one with the lowest load is returned first. The load of a target
+ *    depends on the average duration of its last calls and on the number of
+ *    its calls in progress (see {@link TargetDescriptor#getAverageLatency()}
+ *    and {@link TargetDescriptor#getInFlightCount()}). The load of a group
+ *    member is the lowest load of its targets.</dd>
+ * </dl>
+ *
  * @version $Revision: 1.34 $ $Date: 2012/03/03 10:41:19 $
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
  *
@@ -38,6 +55,13 @@ public final class GroupDescriptor extends Descriptor {
     */
    public static final String ORDERED_TYPE_ID = "ordered";
 
+   /**
+    * The identifier of the <em>least-latency</em> group type.
+    *
+    * @since XINS 3.2
+    */
+   public static final String LEAST_LATENCY_TYPE_ID = "least-latency";
+
    /**
     * The <em>random</em> group type.
     */
@@ -48,6 +72,13 @@ public final class GroupDescriptor extends Descriptor {
     */
    public static final Type ORDERED_TYPE = new Type(ORDERED_TYPE_ID);
 
+   /**
+    * The <em>least-latency</em> group type.
+    *
+    * @since XINS 3.2
+    */
+   public static final Type LEAST_LATENCY_TYPE = new Type(LEAST_LATENCY_TYPE_ID);
+
    /**
     * Pseudo-random number generator.
     */
@@ -140,6 +171,8 @@ public final class GroupDescriptor extends Descriptor {
          return RANDOM_TYPE;
       } else if (ORDERED_TYPE_ID.equals(identifier)) {
          return ORDERED_TYPE;
+      } else if (LEAST_LATENCY_TYPE_ID.equals(identifier)) {
+         return LEAST_LATENCY_TYPE;
       } else {
          return null;
       }
@@ -239,6 +272,8 @@ public final class GroupDescriptor extends Descriptor {
          return new RandomIterator();
       } else if (_type == ORDERED_TYPE) {
          return new OrderedIterator();
+      } else if (_type == LEAST_LATENCY_TYPE) {
+         return new LeastLatencyIterator();
       } else {
          throw Utils.logProgrammingError("Unknown type: " + _type + '.');
       }
@@ -292,6 +327,32 @@ public final class GroupDescriptor extends Descriptor {
       return (TargetDescriptor) _targetsByCRC.get(new Integer(crc));
    }
 
+   /**
+    * Returns the expected cost of a new call to the specified descriptor.
+    * For a group, this is the lowest cost of its targets.
+    *
+    * @param descriptor
+    *    the descriptor, cannot be <code>null</code>.
+    *
+    * @param now
+    *    the current time, in milliseconds since the
+    *    <a href="http://en.wikipedia.org/wiki/Unix_Epoch">UNIX Epoch</a>.
+    *
+    * @return
+    *    the cost of a new call.
+    */
+   private static double getLoadCost(Descriptor descriptor, long now) {
+      if (descriptor instanceof TargetDescriptor) {
+         return ((TargetDescriptor) descriptor).getLoadCost(now);
+      }
+      Descriptor[] members = ((GroupDescriptor) descriptor)._members;
+      double cost = getLoadCost(members[0], now);
+      for (int i = 1; i < members.length; i++) {
+         cost = Math.min(cost, getLoadCost(members[i], now));
+      }
+      return cost;
+   }
+
    /**
     * Type of a group.
     *
@@ -332,53 +393,81 @@ public final class GroupDescriptor extends Descriptor {
    }
 
    /**
-    * Random iterator over the leaf target descriptors contained in this
-    * group descriptor. Needed for the implementation of
-    * {@link #iterateTargets()}.
+    * Iterator over the leaf target descriptors contained in this group
+    * descriptor that selects the members in any order. The members already
+    * selected are kept in a bit mask, so that the iteration does not need to
+    * copy the members.
     *
-    * @version $Revision: 1.34 $ $Date: 2012/03/03 10:41:19 $
-    * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
     *
-    * @since XINS 1.0.0
+    * @since XINS 3.2
     */
-   private final class RandomIterator implements Iterator<TargetDescriptor>, Serializable {
+   private abstract class MemberIterator implements Iterator<TargetDescriptor>, Serializable {
+
       /**
-       * Constructs a new <code>RandomIterator</code>.
+       * The members already selected, if there are at most 64 members.
        */
-      RandomIterator() {
+      private long _selectedMask;
 
-         // Copy all members to _remaining
-         int size = _members.length;
-         _remaining = new ArrayList(size);
-         for (int i = 0; i < size; i++) {
-            _remaining.add(_members[i]);
-         }
+      /**
+       * The members already selected, if there are more than 64 members,
+       * otherwise <code>null</code>.
+       */
+      private final boolean[] _selected;
 
-         // Pick a member randomly
-         int index = Math.abs(RANDOM.nextInt() % size);
-         Descriptor member = (Descriptor) _remaining.remove(index);
+      /**
+       * The number of members not selected yet.
+       */
+      private int _remainingCount;
 
-         // Initialize the current iterator to link to that member's services
-         _currentIterator = member.iterator();
+      /**
+       * Iterator of the group member currently selected, or
+       * <code>null</code> if the selected member is a target.
+       */
+      private Iterator<TargetDescriptor> _currentIterator;
+
+      /**
+       * Constructs a new <code>MemberIterator</code>.
+       */
+      MemberIterator() {
+         _remainingCount = _members.length;
+         _selected = _members.length > 64 ? new boolean[_members.length] : null;
       }
 
       /**
-       * The set of remaining descriptors. One is removed from a random index
-       * each time {@link #next()} is called.
+       * Selects the next member to iterate.
        *
-       * <p>This field will be set to <code>null</code> as soon as there are
-       * no more remaining members. Still {@link #_currentIterator} could have
-       * more elements.
+       * @param remainingCount
+       *    the number of members not selected yet, always &gt;= 1.
+       *
+       * @return
+       *    the position of the member not selected yet, between 0 and
+       *    <code>remainingCount - 1</code>.
        */
-      private List _remaining;
+      abstract int selectRemaining(int remainingCount);
 
       /**
-       * Current iterator of one of the members.
+       * Gets the index in the members of a member not selected yet.
        *
-       * <p>This field will be set to <code>null</code> as soon as there are
-       * no more remaining services to be iterated over.
+       * @param position
+       *    the position of the member among the members not selected yet.
+       *
+       * @return
+       *    the index of the member in {@link GroupDescriptor#_members}.
        */
-      private Iterator<TargetDescriptor> _currentIterator;
+      final int getRemainingIndex(int position) {
+         for (int i = 0; i < _members.length; i++) {
+            boolean selected = _selected == null ? (_selectedMask & (1L << i)) != 0L : _selected[i];
+            if (!selected) {
+               if (position == 0) {
+                  return i;
+               }
+               position--;
+            }
+         }
+         throw new NoSuchElementException();
+      }
 
       /**
        * Checks if there is a next element.
@@ -388,7 +477,7 @@ public final class GroupDescriptor extends Descriptor {
        *    if there is not.
        */
       public boolean hasNext() {
-         return _currentIterator != null;
+         return _remainingCount > 0 || (_currentIterator != null && _currentIterator.hasNext());
       }
 
       /**
@@ -402,37 +491,29 @@ public final class GroupDescriptor extends Descriptor {
        */
       public TargetDescriptor next() throws NoSuchElementException {
 
-         // Check preconditions
-         if (_currentIterator == null) {
+         // Continue with the targets of the current member
+         if (_currentIterator != null && _currentIterator.hasNext()) {
+            return _currentIterator.next();
+         }
+         if (_remainingCount == 0) {
             throw new NoSuchElementException();
          }
 
-         // Get the next service
-         TargetDescriptor o = _currentIterator.next();
-
-         // Check if this member/iterator has any more
-         if (! _currentIterator.hasNext()) {
-
-            // If there are no remaining members, set _currentIterator to null
-            if (_remaining == null) {
-               _currentIterator = null;
-
-            } else {
-               // Pick one of the remaining members
-               int size = _remaining.size();
-               int index = (size == 1) ? 0 : Math.abs(RANDOM.nextInt() % size);
-               Descriptor member = (Descriptor) _remaining.remove(index);
-               _currentIterator = member.iterateTargets();
-
-               // If there are now no additional remaining members, set
-               // _remaining to null
-               if (size == 1) {
-                  _remaining = null;
-               }
-            }
+         // Select the next member
+         int index = getRemainingIndex(selectRemaining(_remainingCount));
+         if (_selected == null) {
+            _selectedMask |= 1L << index;
+         } else {
+            _selected[index] = true;
          }
-
-         return o;
+         _remainingCount--;
+         Descriptor member = _members[index];
+         if (member instanceof TargetDescriptor) {
+            _currentIterator = null;
+            return (TargetDescriptor) member;
+         }
+         _currentIterator = member.iterator();
+         return _currentIterator.next();
       }
 
       /**
@@ -447,6 +528,52 @@ public final class GroupDescriptor extends Descriptor {
       }
    }
 
+   /**
+    * Random iterator over the leaf target descriptors contained in this
+    * group descriptor. Needed for the implementation of
+    * {@link #iterateTargets()}.
+    *
+    * @version $Revision: 1.34 $ $Date: 2012/03/03 10:41:19 $
+    * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
+    *
+    * @since XINS 1.0.0
+    */
+   private final class RandomIterator extends MemberIterator {
+
+      int selectRemaining(int remainingCount) {
+         return remainingCount == 1 ? 0 : RANDOM.nextInt(remainingCount);
+      }
+   }
+
+   /**
+    * Least-latency iterator over the leaf target descriptors contained in
+    * this group descriptor. For each member, two of the remaining members are
+    * picked randomly and the one with the lowest load is selected (the
+    * <em>power of two choices</em>).
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    *
+    * @since XINS 3.2
+    */
+   private final class LeastLatencyIterator extends MemberIterator {
+
+      int selectRemaining(int remainingCount) {
+         if (remainingCount == 1) {
+            return 0;
+         }
+         int first = RANDOM.nextInt(remainingCount);
+         int second = RANDOM.nextInt(remainingCount - 1);
+         if (second >= first) {
+            second++;
+         }
+         long now = System.currentTimeMillis();
+         double firstCost = getLoadCost(_members[getRemainingIndex(first)], now);
+         double secondCost = getLoadCost(_members[getRemainingIndex(second)], now);
+         return secondCost < firstCost ? second : first;
+      }
+   }
+
    /**
     * Ordered iterator over the leaf target descriptors contained in this
     * group descriptor. Needed for the implementation of
@@ -8,6 +8,17 @@ package org.xins.common.service;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.NDC;
 
 import org.xins.common.Log;
 import org.xins.common.MandatoryArgumentChecker;
@@ -63,7 +74,9 @@ import org.xins.common.Utils;
  * Service callers can help in evenly distributing processing across
  * available resources. This load-balancing is achieved by using a group
  * descriptor which iterates over the underlying descriptors in a
- * <em>random</em> order.
+ * <em>random</em> order. A <em>least-latency</em> group descriptor prefers
+ * the back-ends that answered fastest and have the fewest calls in progress,
+ * based on the statistics recorded by this class for each target.
  *
  * <p>Unlike load-balancing, fail-over allows the detection of a failure and
  * the migration of the processing to a similar, redundant back-end. This can
@@ -76,6 +89,13 @@ import org.xins.common.Utils;
  * The {@link #shouldFailOver(CallRequest,CallConfig,CallExceptionList)
  * shouldFailOver} method determines whether a failed call will be retried.
  *
+ * <p>A {@link CircuitBreaker} can be set to skip the back-ends that keep
+ * failing, without attempting a connection. When the call configuration
+ * enables hedging (see {@link CallConfig#setHedgeDelay(long,int)}), a back-end
+ * that does not answer within the hedge delay does not block the call: the
+ * same request is also sent to the next back-end and the first successful
+ * answer is used.
+ *
  * <p>Consider the following hypothetical scenario. A company has two data
  * centers, a primary site and a secondary backup site. The primary site has
  * 3 back-ends running an <em>eshop</em> service, while the hot backup site
@@ -197,6 +217,60 @@ public abstract class ServiceCaller {
     */
    private CallConfig _callConfig;
 
+   /**
+    * The circuit breaker for the targets of this service caller, or
+    * <code>null</code> if the targets are always called.
+    */
+   private volatile CircuitBreaker _circuitBreaker;
+
+   /**
+    * The number of connections opened in advance to each target when the
+    * descriptor is set.
+    */
+   private volatile int _warmUpConnections;
+
+   /**
+    * The metrics in which the calls are recorded, or <code>null</code> if
+    * the calls are not recorded.
+    */
+   private volatile CallMetrics _callMetrics = CallMetrics.getDefault();
+
+   /**
+    * The number of hedged calls sent by this service caller.
+    */
+   private final AtomicLong _hedgeCount = new AtomicLong();
+
+   /**
+    * The number of hedged calls that answered first.
+    */
+   private final AtomicLong _hedgeWonCount = new AtomicLong();
+
+   /**
+    * The number of threads of the hedge executor that are kept when idle
+    * for less than one minute.
+    */
+   private static final int HEDGE_CORE_THREADS = 8;
+
+   /**
+    * The maximum number of threads of the hedge executor. When all threads
+    * are busy, the hedged calls are skipped.
+    */
+   private static final int HEDGE_MAX_THREADS = 256;
+
+   /**
+    * The executor of the hedged calls, shared by all service callers. Lazily
+    * initialized.
+    */
+   private static ExecutorService HEDGE_EXECUTOR;
+
+   /**
+    * The call to a target of a hedged call executed by the current thread,
+    * or <code>null</code> if there is none. Used to abort the task passed to
+    * {@link #controlTimeOut(Runnable,TargetDescriptor)} when the call is
+    * cancelled.
+    */
+   private static final ThreadLocal<HedgedCall.TargetCall> HEDGED_CALL = new ThreadLocal<HedgedCall.TargetCall>();
+
    /**
     * Constructs a new <code>ServiceCaller</code> with the specified
     * <code>CallConfig</code>.
@@ -378,6 +452,9 @@ public abstract class ServiceCaller {
 
       // Store it
       _descriptor = descriptor;
+
+      // Open connections to the new targets in advance
+      startWarmUp(descriptor);
    }
 
    /**
@@ -432,6 +509,230 @@ public abstract class ServiceCaller {
       return _callConfig;
    }
 
+   /**
+    * Sets the circuit breaker used for the targets of this service caller.
+    * The targets whose circuit is open are skipped without being called.
+    *
+    * @param circuitBreaker
+    *    the circuit breaker, or <code>null</code> if the targets should
+    *    always be called. A circuit breaker can be shared between several
+    *    service callers.
+    *
+    * @since XINS 3.2
+    */
+   public final void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+      _circuitBreaker = circuitBreaker;
+   }
+
+   /**
+    * Returns the circuit breaker used for the targets of this service caller.
+    *
+    * @return
+    *    the circuit breaker, or <code>null</code> if the targets are always
+    *    called.
+    *
+    * @since XINS 3.2
+    */
+   public final CircuitBreaker getCircuitBreaker() {
+      return _circuitBreaker;
+   }
+
+   /**
+    * Sets the metrics in which the calls to the targets are recorded. By
+    * default, the calls are recorded in the {@link CallMetrics#getDefault()
+    * default} metrics.
+    *
+    * @param callMetrics
+    *    the metrics in which the calls are recorded, or <code>null</code> if
+    *    the calls should not be recorded.
+    *
+    * @since XINS 3.2
+    */
+   public final void setCallMetrics(CallMetrics callMetrics) {
+      _callMetrics = callMetrics;
+   }
+
+   /**
+    * Returns the metrics in which the calls to the targets are recorded.
+    *
+    * @return
+    *    the metrics, or <code>null</code> if the calls are not recorded.
+    *
+    * @since XINS 3.2
+    */
+   public final CallMetrics getCallMetrics() {
+      return _callMetrics;
+   }
+
+   /**
+    * Sets the number of connections opened in advance to each target, so
+    * that the first calls do not have to wait for the connections to be
+    * established. The connections are opened in the background when this
+    * method is called and each time the descriptor is set.
+    *
+    * @param connections
+    *    the number of connections to open to each target, or <code>0</code>
+    *    if no connection should be opened in advance.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>connections &lt; 0</code>.
+    *
+    * @since XINS 3.2
+    */
+   public final void setWarmUpConnections(int connections)
+   throws IllegalArgumentException {
+      if (connections < 0) {
+         throw new IllegalArgumentException("connections (" + connections + ") < 0");
+      }
+      _warmUpConnections = connections;
+      startWarmUp(_descriptor);
+   }
+
+   /**
+    * Returns the number of connections opened in advance to each target.
+    *
+    * @return
+    *    the number of connections, or <code>0</code> if no connection is
+    *    opened in advance.
+    *
+    * @since XINS 3.2
+    */
+   public final int getWarmUpConnections() {
+      return _warmUpConnections;
+   }
+
+   /**
+    * Opens connections in advance to a target. This method is called in the
+    * background when the descriptor is set and connections should be opened
+    * in advance, see {@link #setWarmUpConnections(int)}.
+    *
+    * <p>The implementation of this method in class
+    * <code>ServiceCaller</code> does nothing and returns <code>0</code>.
+    * Subclasses for connection-oriented protocols can override this method.
+    *
+    * @param target
+    *    the target to connect to, never <code>null</code>.
+    *
+    * @param connections
+    *    the number of connections to open, always &gt; 0.
+    *
+    * @return
+    *    the number of connections opened.
+    *
+    * @throws Exception
+    *    if the connections cannot be opened.
+    *
+    * @since XINS 3.2
+    */
+   protected int warmUp(TargetDescriptor target, int connections)
+   throws Exception {
+      return 0;
+   }
+
+   /**
+    * Opens connections to the targets of a descriptor in the background, if
+    * connections should be opened in advance.
+    *
+    * @param descriptor
+    *    the descriptor, can be <code>null</code>.
+    */
+   private void startWarmUp(Descriptor descriptor) {
+      final int connections = _warmUpConnections;
+      if (descriptor == null || connections < 1) {
+         return;
+      }
+      for (final TargetDescriptor target : descriptor) {
+         try {
+            getHedgeExecutor().execute(new Runnable() {
+               public void run() {
+                  try {
+                     int opened = warmUp(target, connections);
+                     Log.log_1317(target.getURL(), opened);
+                  } catch (Throwable exception) {
+                     Log.log_1316(exception, target.getURL());
+                  }
+               }
+            });
+
+         // All threads are busy, the connections will be opened by the calls
+         } catch (RejectedExecutionException exception) {
+            Log.log_1316(exception, target.getURL());
+         }
+      }
+   }
+
+   /**
+    * Returns the number of hedged calls sent by this service caller. A hedged
+    * call is sent to the next target when the target called has not answered
+    * within the hedge delay.
+    *
+    * @return
+    *    the number of hedged calls sent.
+    *
+    * @since XINS 3.2
+    */
+   public final long getHedgeCount() {
+      return _hedgeCount.get();
+   }
+
+   /**
+    * Returns the number of hedged calls that answered successfully before the
+    * calls they were hedging.
+    *
+    * @return
+    *    the number of hedged calls that won.
+    *
+    * @since XINS 3.2
+    */
+   public final long getHedgeWonCount() {
+      return _hedgeWonCount.get();
+   }
+
+   /**
+    * Returns the executor of the hedged calls, also used to open connections
+    * in advance. The threads are daemon threads that are stopped after one
+    * minute without call. The executor has at most
+    * {@link #HEDGE_MAX_THREADS} threads and rejects the tasks submitted
+    * when they are all busy.
+    *
+    * @return
+    *    the executor, never <code>null</code>.
+    */
+   private static synchronized ExecutorService getHedgeExecutor() {
+      if (HEDGE_EXECUTOR == null) {
+         ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger _threadCount = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+               Thread thread = new Thread(runnable, "XINS hedged call " + _threadCount.incrementAndGet());
+               thread.setDaemon(true);
+               return thread;
+            }
+         };
+         ThreadPoolExecutor executor = new ThreadPoolExecutor(HEDGE_CORE_THREADS, HEDGE_MAX_THREADS,
+               60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), threadFactory,
+               new ThreadPoolExecutor.AbortPolicy());
+         executor.allowCoreThreadTimeOut(true);
+         HEDGE_EXECUTOR = executor;
+      }
+      return HEDGE_EXECUTOR;
+   }
+
+   /**
+    * Stops the executor shared by all service callers for the hedged calls
+    * and for opening connections in advance. The calls in progress are not
+    * interrupted. A new executor is created if a hedged call is executed
+    * afterwards.
+    *
+    * @since XINS 3.2
+    */
+   public static synchronized void shutdownHedgeExecutor() {
+      if (HEDGE_EXECUTOR != null) {
+         HEDGE_EXECUTOR.shutdown();
+         HEDGE_EXECUTOR = null;
+      }
+   }
+
    /**
     * Returns a default <code>CallConfig</code> object. This method is called
     * by the <code>ServiceCaller</code> constructor if no
@@ -518,11 +819,6 @@ public abstract class ServiceCaller {
          }
       }
 
-      // Keep a reference to the most recent CallException since
-      // setNext(CallException) needs to be called on it to make it link to
-      // the next one (if there is one)
-      CallException lastException = null;
-
       // Maintain the list of CallExceptions
       //
       // This is needed if a successful result (a CallResult object) is
@@ -540,6 +836,12 @@ public abstract class ServiceCaller {
          throw Utils.logProgrammingError("Descriptor returns no target descriptors.");
       }
 
+      // The hedged calls are executed on other threads
+      CircuitBreaker circuitBreaker = _circuitBreaker;
+      if (callConfig.getHedgeDelay() > 0L) {
+         return new HedgedCall(request, callConfig, iterator, circuitBreaker).execute();
+      }
+
       // Loop over all TargetDescriptors
       boolean shouldContinue = true;
       while (shouldContinue) {
@@ -547,85 +849,34 @@ public abstract class ServiceCaller {
          // Get a reference to the next TargetDescriptor
          TargetDescriptor target = iterator.next();
 
+         // Skip the target without calling it if its circuit is open
+         if (circuitBreaker != null && !circuitBreaker.allowCall(target)) {
+            Log.log_1313(target.getURL());
+            exceptions = addException(exceptions, new CircuitOpenCallException(request, target));
+            shouldContinue = iterator.hasNext();
+            continue;
+         }
+
          // Call using this target
          Log.log_1309(target.getURL());
-         Object result = null;
-         boolean succeeded = false;
+         Object result;
          long start = System.currentTimeMillis();
          try {
-
-            // Attempt the call
+            target.callStarted();
             result = doCallImpl(request, callConfig, target);
-            succeeded = true;
-            Log.log_1301(target.getURL());
 
          // If the call to the target fails, store the exception and try the next
          } catch (Throwable exception) {
-
-            Log.log_1302(target.getURL());
-
             long duration = System.currentTimeMillis() - start;
-
-            // If the caught exception is not a CallException, then
-            // encapsulate it in one
-            CallException currentException;
-            if (exception instanceof CallException) {
-               currentException = (CallException) exception;
-            } else {
-               currentException = new UnexpectedExceptionCallException(request, target, duration, null, exception);
-            }
-
-            // Link the previous exception (if there is one) to this one
-            if (lastException != null) {
-               lastException.setNext(currentException);
-            }
-
-            // Now set this exception as the most recent CallException
-            lastException = currentException;
-
-            // If this is the first exception being caught, then lazily
-            // initialize the CallExceptionList and keep a reference to the
-            // first exception
-            if (exceptions == null) {
-               exceptions = new ArrayList<CallException>();
-            }
-
-            // Store the failure
-            exceptions.add(currentException);
-
-            // Determine whether fail-over is allowed and whether we have
-            // another target to fail-over to
-            boolean failOver = shouldFailOver(request, callConfig, exceptions);
-            boolean haveNext = iterator.hasNext();
-
-            // No more targets and no fail-over
-            if (!haveNext && !failOver) {
-               Log.log_1304();
-               shouldContinue = false;
-
-            // No more targets but fail-over would be allowed
-            } else if (!haveNext) {
-               Log.log_1305();
-               shouldContinue = false;
-
-            // More targets available but fail-over is not allowed
-            } else if (!failOver) {
-               Log.log_1306();
-               shouldContinue = false;
-
-            // More targets available and fail-over is allowed
-            } else {
-               Log.log_1307();
-               shouldContinue = true;
-            }
+            exceptions = addException(exceptions, callFailed(request, target, duration, exception, circuitBreaker));
+            shouldContinue = shouldCallNext(request, callConfig, exceptions, iterator.hasNext());
+            continue;
          }
 
          // The call succeeded
-         if (succeeded) {
-            long duration = System.currentTimeMillis() - start;
-
-            return createCallResult(request, target, duration, exceptions, result);
-         }
+         long duration = System.currentTimeMillis() - start;
+         callSucceeded(request, target, duration, circuitBreaker);
+         return createCallResult(request, target, duration, exceptions, result);
       }
 
       // Loop ended, call failed completely
@@ -637,6 +888,203 @@ public abstract class ServiceCaller {
       throw first;
    }
 
+   /**
+    * Adds an exception to the list of exceptions of a call and links the
+    * previous exception to it.
+    *
+    * @param exceptions
+    *    the exceptions of the call, or <code>null</code> if this is the
+    *    first exception.
+    *
+    * @param exception
+    *    the exception to add, cannot be <code>null</code>.
+    *
+    * @return
+    *    the list of exceptions, never <code>null</code>.
+    */
+   private static List<CallException> addException(List<CallException> exceptions,
+                                                   CallException       exception) {
+
+      // If this is the first exception being caught, then lazily initialize
+      // the list, otherwise link the previous exception to this one
+      if (exceptions == null) {
+         exceptions = new ArrayList<CallException>();
+      } else {
+         exceptions.get(exceptions.size() - 1).setNext(exception);
+      }
+      exceptions.add(exception);
+      return exceptions;
+   }
+
+   /**
+    * Records a successful call to a target.
+    *
+    * @param request
+    *    the call request, cannot be <code>null</code>.
+    *
+    * @param target
+    *    the target called, cannot be <code>null</code>.
+    *
+    * @param duration
+    *    the duration of the call, in milliseconds.
+    *
+    * @param circuitBreaker
+    *    the circuit breaker, or <code>null</code> if there is none.
+    */
+   private void callSucceeded(CallRequest      request,
+                              TargetDescriptor target,
+                              long             duration,
+                              CircuitBreaker   circuitBreaker) {
+      Log.log_1301(target.getURL());
+      target.callEnded(duration, true);
+      if (circuitBreaker != null) {
+         circuitBreaker.recordCall(target, duration, false);
+      }
+      CallMetrics callMetrics = _callMetrics;
+      if (callMetrics != null) {
+         callMetrics.recordSuccess(getFunctionName(request), target, duration);
+      }
+   }
+
+   /**
+    * Records a failed call to a target.
+    *
+    * @param request
+    *    the call request, cannot be <code>null</code>.
+    *
+    * @param target
+    *    the target called, cannot be <code>null</code>.
+    *
+    * @param duration
+    *    the duration of the call, in milliseconds.
+    *
+    * @param exception
+    *    the exception thrown by the call, cannot be <code>null</code>.
+    *
+    * @param circuitBreaker
+    *    the circuit breaker, or <code>null</code> if there is none.
+    *
+    * @return
+    *    the exception as a {@link CallException}, never <code>null</code>.
+    */
+   private CallException callFailed(CallRequest      request,
+                                    TargetDescriptor target,
+                                    long             duration,
+                                    Throwable        exception,
+                                    CircuitBreaker   circuitBreaker) {
+
+      Log.log_1302(target.getURL());
+
+      // Record the latency and the failure for the target
+      boolean targetFailure = isTargetFailure(exception);
+      target.callEnded(duration, !targetFailure);
+      if (circuitBreaker != null) {
+         circuitBreaker.recordCall(target, duration, targetFailure);
+      }
+
+      CallMetrics callMetrics = _callMetrics;
+      if (callMetrics != null) {
+         callMetrics.recordFailure(getFunctionName(request), target, duration, getErrorType(exception));
+      }
+
+      // If the caught exception is not a CallException, then encapsulate it
+      // in one
+      if (exception instanceof CallException) {
+         return (CallException) exception;
+      } else {
+         return new UnexpectedExceptionCallException(request, target, duration, null, exception);
+      }
+   }
+
+   /**
+    * Determines whether another target should be called after a failed call.
+    *
+    * @param request
+    *    the call request, cannot be <code>null</code>.
+    *
+    * @param callConfig
+    *    the call config in use, cannot be <code>null</code>.
+    *
+    * @param exceptions
+    *    the exceptions of the call, the last one being the failure of the
+    *    last target called, cannot be <code>null</code>.
+    *
+    * @param haveNext
+    *    <code>true</code> if another target is available.
+    *
+    * @return
+    *    <code>true</code> if another target should be called,
+    *    <code>false</code> if the call failed.
+    */
+   private boolean shouldCallNext(CallRequest         request,
+                                  CallConfig          callConfig,
+                                  List<CallException> exceptions,
+                                  boolean             haveNext) {
+
+      // Determine whether fail-over is allowed
+      boolean failOver = shouldFailOver(request, callConfig, exceptions);
+
+      // No more targets and no fail-over
+      if (!haveNext && !failOver) {
+         Log.log_1304();
+         return false;
+
+      // No more targets but fail-over would be allowed
+      } else if (!haveNext) {
+         Log.log_1305();
+         return false;
+
+      // More targets available but fail-over is not allowed
+      } else if (!failOver) {
+         Log.log_1306();
+         return false;
+
+      // More targets available and fail-over is allowed
+      } else {
+         Log.log_1307();
+         CallMetrics callMetrics = _callMetrics;
+         if (callMetrics != null) {
+            TargetDescriptor target = exceptions.get(exceptions.size() - 1).getTarget();
+            callMetrics.recordFailOver(getFunctionName(request), target);
+         }
+         return true;
+      }
+   }
+
+   /**
+    * Gets the name of the function called by a request, used to record the
+    * metrics of the call. This implementation returns <code>null</code>.
+    * Subclasses that call named functions should override this method.
+    *
+    * @param request
+    *    the call request, cannot be <code>null</code>.
+    *
+    * @return
+    *    the name of the function called, or <code>null</code> if unknown.
+    *
+    * @since XINS 3.2
+    */
+   protected String getFunctionName(CallRequest request) {
+      return null;
+   }
+
+   /**
+    * Gets the type of error of a failed call, used to record the metrics of
+    * the call. This implementation returns the name of the class of the
+    * exception, without the package name.
+    *
+    * @param exception
+    *    the exception thrown by the call, cannot be <code>null</code>.
+    *
+    * @return
+    *    the type of error, never <code>null</code>.
+    *
+    * @since XINS 3.2
+    */
+   protected String getErrorType(Throwable exception) {
+      return exception.getClass().getSimpleName();
+   }
+
    /**
     * Calls the specified target using the specified subject. This method must
     * be implemented by subclasses. It is called as soon as a target is
@@ -725,7 +1173,11 @@ public abstract class ServiceCaller {
     * Runs the specified task. If the task does not finish within the total
     * time-out period, then the thread executing it is interrupted using the
     * {@link Thread#interrupt()} method and a {@link TimeOutException} is
-    * thrown.
+    * thrown. The total time-out is reduced to the time remaining before the
+    * {@link Deadline} of the current thread, if any. If there is no total
+    * time-out, the task is run on the current thread. If the call is part of
+    * a hedged call that is cancelled, the task is aborted with
+    * {@link #abortTask(Runnable)}.
     *
     * @param task
     *    the task to run, cannot be <code>null</code>.
@@ -748,7 +1200,8 @@ public abstract class ServiceCaller {
     *
     * @throws TimeOutException
     *    if the task did not finish within the total time-out period and was
-    *    interrupted.
+    *    interrupted, or if the {@link Deadline} of the current thread is
+    *    already passed.
     */
    protected final void controlTimeOut(Runnable         task,
                                        TargetDescriptor descriptor)
@@ -761,12 +1214,21 @@ public abstract class ServiceCaller {
       MandatoryArgumentChecker.check("task",       task,
                                      "descriptor", descriptor);
 
-      // Determine the total time-out
-      int totalTimeOut = descriptor.getTotalTimeOut();
+      // Determine the total time-out, limited by the deadline of the call
+      int totalTimeOut = Deadline.limit(descriptor.getTotalTimeOut());
+
+      // Do not execute the task if the deadline is already passed
+      if (totalTimeOut < 0) {
+         throw new TimeOutException();
 
       // If there is no total time-out, then execute the task on this thread
-      if (totalTimeOut < 1) {
-         task.run();
+      } else if (totalTimeOut == 0) {
+         HedgedCall.TargetCall call = HEDGED_CALL.get();
+         if (call == null) {
+            task.run();
+         } else {
+            call.runTask(this, task);
+         }
 
       // Otherwise a time-out controller will be used
       } else {
@@ -774,6 +1236,52 @@ public abstract class ServiceCaller {
       }
    }
 
+   /**
+    * Aborts a task passed to {@link #controlTimeOut(Runnable,TargetDescriptor)}
+    * that is still running, because the hedged call it belongs to is
+    * cancelled. This method is called by another thread than the one running
+    * the task. The thread running the task is also interrupted.
+    *
+    * <p>The implementation of this method in class
+    * <code>ServiceCaller</code> does nothing. Subclasses whose tasks do not
+    * stop when their thread is interrupted, for example because they wait
+    * for an answer on a socket, should override this method.
+    *
+    * @param task
+    *    the task to abort, never <code>null</code>.
+    *
+    * @since XINS 3.2
+    */
+   protected void abortTask(Runnable task) {
+      // empty
+   }
+
+   /**
+    * Determines whether an exception thrown by
+    * {@link #doCallImpl(CallRequest,CallConfig,TargetDescriptor)} indicates
+    * that the target itself failed, for example because it could not be
+    * reached or did not answer in time. Such failures are used by the
+    * {@link CircuitBreaker} and by the <em>least-latency</em> groups.
+    *
+    * <p>The implementation of this method in class
+    * <code>ServiceCaller</code> returns <code>true</code> for exceptions
+    * that are not a {@link CallException} and for the call exceptions whose
+    * {@link CallException#isTargetFailure()} method returns
+    * <code>true</code>. Subclasses can override this method.
+    *
+    * @param exception
+    *    the exception thrown by the call, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the target failed, <code>false</code> if the
+    *    target processed the request.
+    *
+    * @since XINS 3.2
+    */
+   protected boolean isTargetFailure(Throwable exception) {
+      return !(exception instanceof CallException) || ((CallException) exception).isTargetFailure();
+   }
+
    /**
     * Determines whether a call should fail-over to the next selected target
     * based on a request, call configuration and exception list.
@@ -824,4 +1332,507 @@ public abstract class ServiceCaller {
 
       return should;
    }
+
+   /**
+    * Hedged execution of a call request. The first target is called on the
+    * current thread. If the last target called has not answered within the
+    * hedge delay, the request is also sent to the next target on a thread of
+    * the hedge executor. The first successful answer is returned and the
+    * calls still in progress are cancelled.
+    *
+    * <p>The state of the call is shared by the calling thread and the
+    * threads of the hedge executor and is guarded by the lock of this
+    * object.
+    *
+    * @version $Revision$ $Date$
+    * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+    *
+    * @since XINS 3.2
+    */
+   private final class HedgedCall {
+
+      /**
+       * The call request. Never <code>null</code>.
+       */
+      private final CallRequest _request;
+
+      /**
+       * The call config. Never <code>null</code>.
+       */
+      private final CallConfig _callConfig;
+
+      /**
+       * The iterator over the targets. Never <code>null</code>.
+       */
+      private final Iterator<TargetDescriptor> _iterator;
+
+      /**
+       * The circuit breaker, or <code>null</code> if there is none.
+       */
+      private final CircuitBreaker _circuitBreaker;
+
+      /**
+       * The calls in progress. Never <code>null</code>.
+       */
+      private final List<TargetCall> _running = new ArrayList<TargetCall>();
+
+      /**
+       * The exceptions of the call, or <code>null</code> if there is none.
+       */
+      private List<CallException> _exceptions;
+
+      /**
+       * The last call started, or <code>null</code> if none is started yet.
+       */
+      private TargetCall _lastCall;
+
+      /**
+       * Indicates whether the next target can still be called. Becomes
+       * <code>false</code> when a failed call should not fail over.
+       */
+      private boolean _failOver = true;
+
+      /**
+       * Indicates whether the hedge executor rejected a hedged call. If so,
+       * no other hedged call is sent for this request.
+       */
+      private boolean _hedgeRejected;
+
+      /**
+       * Indicates whether the call is finished, either with a result or
+       * because no other target should be called.
+       */
+      private boolean _done;
+
+      /**
+       * The result of the first successful call, or <code>null</code> if
+       * there is none yet.
+       */
+      private CallResult _result;
+
+      /**
+       * Creates a new <code>HedgedCall</code>.
+       *
+       * @param request
+       *    the call request, cannot be <code>null</code>.
+       *
+       * @param callConfig
+       *    the call config, cannot be <code>null</code>.
+       *
+       * @param iterator
+       *    the iterator over the targets, cannot be <code>null</code>.
+       *
+       * @param circuitBreaker
+       *    the circuit breaker, or <code>null</code> if there is none.
+       */
+      HedgedCall(CallRequest                request,
+                 CallConfig                 callConfig,
+                 Iterator<TargetDescriptor> iterator,
+                 CircuitBreaker             circuitBreaker) {
+         _request        = request;
+         _callConfig     = callConfig;
+         _iterator       = iterator;
+         _circuitBreaker = circuitBreaker;
+      }
+
+      /**
+       * Executes the call.
+       *
+       * @return
+       *    the result of the first successful call, never <code>null</code>.
+       *
+       * @throws CallException
+       *    if all call attempts failed.
+       */
+      CallResult execute() throws CallException {
+         TargetCall call = startNext(false);
+         try {
+            while (call != null) {
+
+               // Call the target on this thread, the next target is called
+               // by the hedge executor if this call is too slow
+               scheduleHedge(call);
+               call.run();
+
+               // Wait for the hedged calls still in progress. If they all
+               // failed and fail-over is allowed, call the next target.
+               synchronized (this) {
+                  while (!_done && !_running.isEmpty()) {
+                     wait();
+                  }
+                  if (_result != null) {
+                     return _result;
+                  }
+                  call = _done ? null : startNext(false);
+               }
+            }
+         } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            synchronized (this) {
+               long duration = System.currentTimeMillis() - _lastCall._start;
+               _exceptions = addException(_exceptions, new UnexpectedExceptionCallException(_request, _lastCall._target, duration, null, exception));
+               _done = true;
+               cancelRunning();
+            }
+         }
+
+         // Call failed completely
+         Log.log_1303();
+         throw _exceptions.get(0);
+      }
+
+      /**
+       * Starts the call to the next target whose circuit is not open.
+       *
+       * @param hedge
+       *    <code>true</code> if the call is a hedged call, <code>false</code>
+       *    if it is the first call or a fail-over call.
+       *
+       * @return
+       *    the call started, or <code>null</code> if no target is left.
+       */
+      private synchronized TargetCall startNext(boolean hedge) {
+         while (_iterator.hasNext()) {
+            TargetDescriptor target = _iterator.next();
+
+            // Skip the target without calling it if its circuit is open
+            if (_circuitBreaker != null && !_circuitBreaker.allowCall(target)) {
+               Log.log_1313(target.getURL());
+               _exceptions = addException(_exceptions, new CircuitOpenCallException(_request, target));
+               continue;
+            }
+
+            Log.log_1309(target.getURL());
+            if (hedge) {
+               _hedgeCount.incrementAndGet();
+            }
+            TargetCall call = new TargetCall(target, hedge);
+            target.callStarted();
+            _running.add(call);
+            _lastCall = call;
+            notifyAll();
+            return call;
+         }
+         return null;
+      }
+
+      /**
+       * Submits to the hedge executor the hedged call of the specified call,
+       * if there is a target left. If the hedge executor is busy, no hedged
+       * call is sent for this request.
+       *
+       * @param call
+       *    the call to hedge, cannot be <code>null</code>.
+       */
+      private void scheduleHedge(TargetCall call) {
+         synchronized (this) {
+            if (_hedgeRejected || !_iterator.hasNext()) {
+               return;
+            }
+         }
+         try {
+            getHedgeExecutor().execute(new HedgeTask(call));
+
+         // All threads of the hedge executor are busy
+         } catch (RejectedExecutionException exception) {
+            Utils.logIgnoredException(exception);
+            synchronized (this) {
+               _hedgeRejected = true;
+            }
+         }
+      }
+
+      /**
+       * Records the end of a call. The result is ignored if the call was
+       * cancelled.
+       *
+       * @param call
+       *    the call that ended, cannot be <code>null</code>.
+       *
+       * @param result
+       *    the result of the call, or <code>null</code> if the call failed.
+       *
+       * @param exception
+       *    the exception thrown by the call, or <code>null</code> if the call
+       *    succeeded.
+       */
+      private synchronized void callEnded(TargetCall call, Object result, Throwable exception) {
+         if (!_running.remove(call)) {
+            return;
+         }
+         long duration = System.currentTimeMillis() - call._start;
+
+         // The call succeeded
+         if (exception == null) {
+            callSucceeded(_request, call._target, duration, _circuitBreaker);
+            if (call._hedge) {
+               _hedgeWonCount.incrementAndGet();
+            }
+            _result = createCallResult(_request, call._target, duration, _exceptions, result);
+            _done = true;
+            cancelRunning();
+
+         // The call failed, continue with the calls in progress or with the
+         // next target if fail-over is allowed
+         } else {
+            CallException callException = callFailed(_request, call._target, duration, exception, _circuitBreaker);
+            _exceptions = addException(_exceptions, callException);
+            boolean haveNext = _iterator.hasNext() || !_running.isEmpty();
+            _failOver = shouldCallNext(_request, _callConfig, _exceptions, haveNext);
+            if (!_failOver) {
+               _done = true;
+               cancelRunning();
+            }
+         }
+         notifyAll();
+      }
+
+      /**
+       * Cancels the calls still in progress. Should be called with the lock
+       * of this object held.
+       */
+      private void cancelRunning() {
+         for (TargetCall call : _running) {
+            call.cancel();
+            call._target.callCancelled();
+            if (_circuitBreaker != null) {
+               _circuitBreaker.releaseCall(call._target);
+            }
+         }
+         _running.clear();
+      }
+
+      /**
+       * Determines the hedge delay for a target.
+       *
+       * @param target
+       *    the target called, cannot be <code>null</code>.
+       *
+       * @return
+       *    the delay before sending the request to the next target, in
+       *    milliseconds.
+       */
+      private long getHedgeDelay(TargetDescriptor target) {
+         long delay = _callConfig.getHedgeDelay();
+         int percentile = _callConfig.getHedgePercentile();
+         if (percentile > 0) {
+            delay = Math.max(delay, target.getLatencyPercentile(percentile));
+         }
+         return delay;
+      }
+
+      /**
+       * Task of the hedge executor that waits for the hedge delay of a call
+       * and calls the next target if no other call was started and the call
+       * is not finished yet.
+       *
+       * @version $Revision$ $Date$
+       * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+       *
+       * @since XINS 3.2
+       */
+      private final class HedgeTask implements Runnable {
+
+         /**
+          * The call to hedge. Never <code>null</code>.
+          */
+         private final TargetCall _hedged;
+
+         /**
+          * Creates a new <code>HedgeTask</code>.
+          *
+          * @param hedged
+          *    the call to hedge, cannot be <code>null</code>.
+          */
+         HedgeTask(TargetCall hedged) {
+            _hedged = hedged;
+         }
+
+         public void run() {
+            NDC.inherit(_hedged._diagnosticContext);
+            Deadline.set(_hedged._deadline);
+            try {
+               TargetCall call;
+               synchronized (HedgedCall.this) {
+                  long delay = getHedgeDelay(_hedged._target);
+                  long end = _hedged._start + delay;
+                  long remaining = end - System.currentTimeMillis();
+                  while (!_done && _failOver && _lastCall == _hedged && remaining > 0L) {
+                     HedgedCall.this.wait(remaining);
+                     remaining = end - System.currentTimeMillis();
+                  }
+                  if (_done || !_failOver || _lastCall != _hedged) {
+                     return;
+                  }
+                  Log.log_1314(_hedged._target.getURL(), delay);
+                  call = startNext(true);
+               }
+               if (call != null) {
+                  scheduleHedge(call);
+                  call.run();
+               }
+
+            // The hedge executor is shut down
+            } catch (InterruptedException exception) {
+               Utils.logIgnoredException(exception);
+            } finally {
+               Deadline.clear();
+               NDC.remove();
+            }
+         }
+      }
+
+      /**
+       * Call to one target, executed either by the calling thread or by a
+       * thread of the hedge executor.
+       *
+       * @version $Revision$ $Date$
+       * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+       *
+       * @since XINS 3.2
+       */
+      private final class TargetCall {
+
+         /**
+          * The target to call. Never <code>null</code>.
+          */
+         private final TargetDescriptor _target;
+
+         /**
+          * <code>true</code> if this call is a hedged call.
+          */
+         private final boolean _hedge;
+
+         /**
+          * The time the call was started.
+          */
+         private final long _start = System.currentTimeMillis();
+
+         /**
+          * The diagnostic context of the thread that started the call.
+          */
+         private final Stack _diagnosticContext = NDC.cloneStack();
+
+         /**
+          * The deadline of the thread that started the call.
+          */
+         private final long _deadline = Deadline.get();
+
+         /**
+          * The thread executing the call, which is also the thread that
+          * started it.
+          */
+         private final Thread _thread = Thread.currentThread();
+
+         /**
+          * Indicates whether the call was cancelled. Guarded by the lock of
+          * the hedged call.
+          */
+         private boolean _cancelled;
+
+         /**
+          * The service caller that runs {@link #_task}, or <code>null</code>
+          * if there is no task running. Guarded by the lock of the hedged
+          * call.
+          */
+         private ServiceCaller _taskCaller;
+
+         /**
+          * The task passed to
+          * {@link ServiceCaller#controlTimeOut(Runnable,TargetDescriptor)}
+          * that is running, or <code>null</code> if there is none. Guarded by
+          * the lock of the hedged call.
+          */
+         private Runnable _task;
+
+         /**
+          * Creates a new <code>TargetCall</code>.
+          *
+          * @param target
+          *    the target to call, cannot be <code>null</code>.
+          *
+          * @param hedge
+          *    <code>true</code> if this call is a hedged call.
+          */
+         TargetCall(TargetDescriptor target, boolean hedge) {
+            _target = target;
+            _hedge  = hedge;
+         }
+
+         /**
+          * Calls the target on the current thread and records the end of the
+          * call.
+          */
+         void run() {
+            Object result = null;
+            Throwable exception = null;
+            TargetCall previous = HEDGED_CALL.get();
+            HEDGED_CALL.set(this);
+            try {
+               result = doCallImpl(_request, _callConfig, _target);
+            } catch (Throwable t) {
+               exception = t;
+            } finally {
+               HEDGED_CALL.set(previous);
+            }
+            callEnded(this, result, exception);
+
+            // Clear the interruption used to cancel this call
+            synchronized (HedgedCall.this) {
+               if (_cancelled) {
+                  Thread.interrupted();
+               }
+            }
+         }
+
+         /**
+          * Runs a task of the call, so that it can be aborted if the call is
+          * cancelled.
+          *
+          * @param caller
+          *    the service caller running the task, cannot be
+          *    <code>null</code>.
+          *
+          * @param task
+          *    the task to run, cannot be <code>null</code>.
+          *
+          * @throws TimeOutException
+          *    if the call is already cancelled.
+          */
+         void runTask(ServiceCaller caller, Runnable task) throws TimeOutException {
+            ServiceCaller previousCaller;
+            Runnable previousTask;
+            synchronized (HedgedCall.this) {
+               if (_cancelled) {
+                  throw new TimeOutException();
+               }
+               previousCaller = _taskCaller;
+               previousTask   = _task;
+               _taskCaller    = caller;
+               _task          = task;
+            }
+            try {
+               task.run();
+            } finally {
+               synchronized (HedgedCall.this) {
+                  _taskCaller = previousCaller;
+                  _task       = previousTask;
+               }
+            }
+         }
+
+         /**
+          * Cancels the call by interrupting its thread and aborting its
+          * running task, if any. Should be called with the lock of the
+          * hedged call held, while the call is in progress.
+          */
+         void cancel() {
+            _cancelled = true;
+            if (_task != null) {
+               _taskCaller.abortTask(_task);
+            }
+            _thread.interrupt();
+         }
+      }
+   }
 }
@@ -7,7 +7,9 @@ package org.xins.common.service;
 
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.CRC32;
@@ -34,6 +36,14 @@ import org.xins.common.text.PatternUtils;
  *    <dd>the maximum time for attempting to receive data on a socket.</dd>
  * </dl>
  *
+ * <p>Since XINS 3.2, a target descriptor also keeps statistics about the
+ * calls made to the service: the number of calls in progress and the
+ * exponentially weighted moving average of the call durations. These
+ * statistics are used by the {@link GroupDescriptor#LEAST_LATENCY_TYPE
+ * least-latency} groups. The durations of the last successful calls are
+ * also kept to compute the delay of the hedged calls (see
+ * {@link CallConfig#setHedgeDelay(long,int)}).
+ *
  * @version $Revision: 1.70 $ $Date: 2012/03/03 21:23:44 $
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
  *
@@ -46,6 +56,23 @@ public final class TargetDescriptor extends Descriptor {
     */
    private static int INSTANCE_COUNT;
 
+   /**
+    * The weight of a new call duration in the average latency.
+    */
+   private static final double LATENCY_WEIGHT = 0.3;
+
+   /**
+    * The time after which the average latency of a service that is not
+    * called is divided by <em>e</em>, in milliseconds. This allows a
+    * service that was slow or failing to be called again after a while.
+    */
+   private static final double LATENCY_DECAY_TIME = 10000.0;
+
+   /**
+    * The number of durations of successful calls kept for the percentiles.
+    */
+   private static final int LATENCY_SAMPLES = 128;
+
    /**
     * The default time-out when no time-out is specified.
     */
@@ -134,6 +161,35 @@ public final class TargetDescriptor extends Descriptor {
     */
    private final int _crc;
 
+   /**
+    * The number of calls to the service currently in progress.
+    */
+   private final AtomicInteger _inFlightCount = new AtomicInteger();
+
+   /**
+    * The exponentially weighted moving average of the call durations, in
+    * milliseconds. Concurrent updates may lose a sample, which is acceptable
+    * for an average.
+    */
+   private volatile double _averageLatency;
+
+   /**
+    * The time of the last call that ended, in milliseconds since the
+    * <a href="http://en.wikipedia.org/wiki/Unix_Epoch">UNIX Epoch</a>.
+    */
+   private volatile long _lastCallEnd;
+
+   /**
+    * The durations of the last successful calls, in milliseconds, used as a
+    * circular buffer. Concurrent updates may overwrite a sample.
+    */
+   private final int[] _latencySamples = new int[LATENCY_SAMPLES];
+
+   /**
+    * The number of durations added to {@link #_latencySamples}.
+    */
+   private final AtomicInteger _latencySampleCount = new AtomicInteger();
+
    /**
     * Constructs a new <code>TargetDescriptor</code> for the specified URL.
     *
@@ -335,6 +391,143 @@ public final class TargetDescriptor extends Descriptor {
       return _timeOut;
    }
 
+   /**
+    * Indicates that a call to the service is starting.
+    */
+   void callStarted() {
+      _inFlightCount.incrementAndGet();
+   }
+
+   /**
+    * Indicates that a call to the service has ended. The duration of the call
+    * is added to the average latency. A failed call is counted with a
+    * duration of at least the total time-out, so that the service is avoided
+    * by the least-latency groups.
+    *
+    * @param duration
+    *    the duration of the call, in milliseconds.
+    *
+    * @param succeeded
+    *    <code>true</code> if the call succeeded, <code>false</code> if it
+    *    failed.
+    */
+   void callEnded(long duration, boolean succeeded) {
+      _inFlightCount.decrementAndGet();
+      long now = System.currentTimeMillis();
+      double sample = succeeded ? duration : Math.max(duration, _timeOut > 0 ? _timeOut : DEFAULT_TIMEOUT);
+      double average = getAverageLatency(now);
+      _averageLatency = average + LATENCY_WEIGHT * (sample - average);
+      _lastCallEnd = now;
+      if (succeeded) {
+         int index = _latencySampleCount.getAndIncrement() & (LATENCY_SAMPLES - 1);
+         _latencySamples[index] = (int) Math.min(duration, Integer.MAX_VALUE);
+      }
+   }
+
+   /**
+    * Indicates that a call to the service was abandoned before it ended, for
+    * example because another target answered first.
+    */
+   void callCancelled() {
+      _inFlightCount.decrementAndGet();
+   }
+
+   /**
+    * Returns a percentile of the durations of the last successful calls to
+    * the service.
+    *
+    * @param percentile
+    *    the percentile, between 1 and 100, for example 95 for the duration
+    *    under which 95% of the calls ended.
+    *
+    * @return
+    *    the duration in milliseconds, or -1 if not enough calls were made to
+    *    the service yet.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>percentile &lt; 1 || percentile &gt; 100</code>.
+    *
+    * @since XINS 3.2
+    */
+   public long getLatencyPercentile(int percentile) throws IllegalArgumentException {
+      if (percentile < 1 || percentile > 100) {
+         throw new IllegalArgumentException("percentile (" + percentile + ") should be between 1 and 100.");
+      }
+      // The sample count may overflow after a very long time
+      int count = _latencySampleCount.get();
+      if (count < 0 || count > LATENCY_SAMPLES) {
+         count = LATENCY_SAMPLES;
+      }
+      if (count < LATENCY_SAMPLES / 8) {
+         return -1L;
+      }
+      int[] samples = new int[count];
+      System.arraycopy(_latencySamples, 0, samples, 0, count);
+      Arrays.sort(samples);
+      return samples[(count * percentile - 1) / 100];
+   }
+
+   /**
+    * Returns the number of calls to the service currently in progress.
+    *
+    * @return
+    *    the number of calls in progress, always &gt;= 0.
+    *
+    * @since XINS 3.2
+    */
+   public int getInFlightCount() {
+      return _inFlightCount.get();
+   }
+
+   /**
+    * Returns the average duration of the calls to the service. The average
+    * decreases with the time when the service is not called.
+    *
+    * @return
+    *    the average duration of the calls, in milliseconds, or 0 if the
+    *    service has not been called yet.
+    *
+    * @since XINS 3.2
+    */
+   public double getAverageLatency() {
+      return getAverageLatency(System.currentTimeMillis());
+   }
+
+   /**
+    * Returns the average duration of the calls to the service at the
+    * specified time.
+    *
+    * @param now
+    *    the current time, in milliseconds since the
+    *    <a href="http://en.wikipedia.org/wiki/Unix_Epoch">UNIX Epoch</a>.
+    *
+    * @return
+    *    the average duration of the calls, in milliseconds.
+    */
+   private double getAverageLatency(long now) {
+      double average = _averageLatency;
+      long idleTime = now - _lastCallEnd;
+      if (average == 0.0 || idleTime <= 0L) {
+         return average;
+      }
+      return average * Math.exp(-idleTime / LATENCY_DECAY_TIME);
+   }
+
+   /**
+    * Returns the expected cost of a new call to the service. The cost
+    * increases with the average latency and the number of calls in progress.
+    *
+    * @param now
+    *    the current time, in milliseconds since the
+    *    <a href="http://en.wikipedia.org/wiki/Unix_Epoch">UNIX Epoch</a>.
+    *
+    * @return
+    *    the cost of a new call, always &gt; 0.
+    */
+   double getLoadCost(long now) {
+      return (getAverageLatency(now) + 1.0) * (_inFlightCount.get() + 1);
+   }
+
    /**
     * Returns the connection time-out for a call to the service.
     *
@@ -9,9 +9,11 @@ import static org.jboss.netty.channel.Channels.pipeline;
 
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
 import org.jboss.netty.handler.codec.http.HttpContentCompressor;
 import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
 import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+import org.jboss.netty.handler.execution.ExecutionHandler;
 
 /**
  * Netty handler to invoke servlet.
@@ -22,13 +24,21 @@ import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
 public class DefaultNettyServletPipelineFactory implements ChannelPipelineFactory {
 
    private NettyServletHandler servletHandler;
+
+   private ExecutionHandler executionHandler;
+
+   private int maxContentLength = NettyServletHandler.DEFAULT_MAX_CONTENT_LENGTH;
    
    public ChannelPipeline getPipeline() throws Exception {
       ChannelPipeline pipeline = pipeline();
 
       pipeline.addLast("decoder", new HttpRequestDecoder());
+      pipeline.addLast("aggregator", new HttpChunkAggregator(maxContentLength));
       pipeline.addLast("encoder", new HttpResponseEncoder());
       pipeline.addLast("deflater", new HttpContentCompressor());
+      if (executionHandler != null) {
+         pipeline.addLast("executor", executionHandler);
+      }
       pipeline.addLast("handler", servletHandler);
       return pipeline;
    }
@@ -40,4 +50,29 @@ public class DefaultNettyServletPipelineFactory implements ChannelPipelineFactor
    public void setServletHandler(NettyServletHandler servletHandler) {
       this.servletHandler = servletHandler;
    }
-}
\ No newline at end of file
+
+   /**
+    * Sets the handler executing the servlet outside of the I/O threads.
+    *
+    * @param executionHandler
+    *    the execution handler, or <code>null</code> to execute the servlet
+    *    on the I/O threads.
+    *
+    * @since XINS 3.2
+    */
+   public void setExecutionHandler(ExecutionHandler executionHandler) {
+      this.executionHandler = executionHandler;
+   }
+
+   /**
+    * Sets the maximum size of the body of the requests.
+    *
+    * @param maxContentLength
+    *    the maximum size in bytes of the body of the requests.
+    *
+    * @since XINS 3.2
+    */
+   public void setMaxContentLength(int maxContentLength) {
+      this.maxContentLength = maxContentLength;
+   }
+}
\ No newline at end of file
@@ -0,0 +1,607 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.servlet.container;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Locale;
+
+import org.xins.common.text.ParseException;
+
+/**
+ * Connection of a client to the HTTP server. The connection reads the bytes
+ * sent by the client until a complete request is received and writes the
+ * response. A connection can be used for several requests. The requests
+ * sent before the response of the previous request (pipelining) are kept
+ * and handled one after the other.
+ *
+ * <p>The body of a request is delimited by the <code>Content-Length</code>
+ * header or sent with the chunked transfer encoding. A body larger than the
+ * maximum size given to the constructor is rejected.
+ *
+ * <p>This class is only used by the selector thread of the
+ * {@link HTTPServletHandler}, except for {@link #getRequestHead()} and
+ * {@link #getRequestBody()} which are called by the worker handling the
+ * request.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+final class HTTPConnection {
+
+   /**
+    * The encoding of the request line and the headers.
+    */
+   private static final String HEAD_ENCODING = "ISO-8859-1";
+
+   /**
+    * The maximum size of the request line and the headers.
+    */
+   private static final int MAX_HEAD_SIZE = 65536;
+
+   /**
+    * The initial size of the input buffer.
+    */
+   private static final int INITIAL_BUFFER_SIZE = 8192;
+
+   /**
+    * The interim response sent to the clients that wait before sending the
+    * body of the request.
+    */
+   private static final byte[] CONTINUE_RESPONSE = toBytes("HTTP/1.1 100 Continue\r\n\r\n");
+
+   /**
+    * The channel of the connection. Never <code>null</code>.
+    */
+   private final SocketChannel _channel;
+
+   /**
+    * The selection key of the channel. Never <code>null</code>.
+    */
+   private final SelectionKey _key;
+
+   /**
+    * The maximum size of the body of a request, in bytes.
+    */
+   private final int _maxBodySize;
+
+   /**
+    * The bytes received and not yet handled. The bytes are between the
+    * start of the buffer and its position.
+    */
+   private ByteBuffer _input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+   /**
+    * The response being sent, or <code>null</code> if there is none.
+    */
+   private ByteBuffer _output;
+
+   /**
+    * Whether the connection should be closed once the response is sent.
+    */
+   private boolean _closeAfterResponse;
+
+   /**
+    * Whether a request is being handled or its response being sent.
+    */
+   private boolean _busy;
+
+   /**
+    * The last time bytes were received or sent.
+    */
+   private long _lastActivity = System.currentTimeMillis();
+
+   /**
+    * The request line and headers of the request being received, or
+    * <code>null</code> if they are not received yet.
+    */
+   private String _head;
+
+   /**
+    * The length of the body of the request being received, or
+    * <code>-1</code> if the body is chunked.
+    */
+   private int _contentLength;
+
+   /**
+    * The body of the chunked request being received, or <code>null</code>.
+    */
+   private ByteArrayOutputStream _chunkedBody;
+
+   /**
+    * The request line and headers of the last received request.
+    */
+   private volatile String _requestHead;
+
+   /**
+    * The body of the last received request.
+    */
+   private volatile byte[] _requestBody;
+
+   /**
+    * Creates a new <code>HTTPConnection</code>.
+    *
+    * @param channel
+    *    the channel of the connection, cannot be <code>null</code>.
+    *
+    * @param key
+    *    the selection key of the channel, cannot be <code>null</code>.
+    *
+    * @param maxBodySize
+    *    the maximum size of the body of a request, in bytes. It is reduced
+    *    if needed so that a request always fits in the input buffer.
+    */
+   HTTPConnection(SocketChannel channel, SelectionKey key, int maxBodySize) {
+      _channel     = channel;
+      _key         = key;
+      _maxBodySize = Math.min(maxBodySize, Integer.MAX_VALUE - 2 * MAX_HEAD_SIZE);
+   }
+
+   /**
+    * Reads the bytes available on the channel.
+    *
+    * @return
+    *    <code>true</code> if bytes were read, <code>false</code> if the
+    *    client closed the connection.
+    *
+    * @throws IOException
+    *    if the bytes cannot be read.
+    */
+   boolean read() throws IOException {
+      if (!_input.hasRemaining()) {
+         grow((int) Math.min(_input.capacity() * 2L, Integer.MAX_VALUE - 8));
+      }
+      int read = _channel.read(_input);
+      if (read > 0) {
+         _lastActivity = System.currentTimeMillis();
+      }
+      return read >= 0;
+   }
+
+   /**
+    * Parses the next complete request received. If a complete request is
+    * available, it can be read with {@link #getRequestHead()} and
+    * {@link #getRequestBody()}.
+    *
+    * @return
+    *    <code>true</code> if a complete request was received,
+    *    <code>false</code> if more bytes are needed.
+    *
+    * @throws ParseException
+    *    if the bytes received are not an HTTP request.
+    *
+    * @throws RequestTooLargeException
+    *    if the body of the request is larger than the maximum size.
+    *
+    * @throws IOException
+    *    if the interim response cannot be sent to the client.
+    */
+   boolean parseRequest() throws ParseException, RequestTooLargeException, IOException {
+
+      // Read the request line and the headers
+      if (_head == null && !parseHead()) {
+         return false;
+      }
+
+      // Read the body
+      byte[] body;
+      if (_contentLength >= 0) {
+         if (_input.position() < _contentLength) {
+            return false;
+         }
+         body = new byte[_contentLength];
+         System.arraycopy(_input.array(), 0, body, 0, _contentLength);
+         consume(_contentLength);
+      } else {
+         body = parseChunks();
+         if (body == null) {
+            return false;
+         }
+      }
+
+      _requestHead = _head;
+      _requestBody = body;
+      _head        = null;
+      _chunkedBody = null;
+      return true;
+   }
+
+   /**
+    * Parses the request line and the headers of the request.
+    *
+    * @return
+    *    <code>true</code> if the request line and the headers were
+    *    received, <code>false</code> if more bytes are needed.
+    *
+    * @throws ParseException
+    *    if the bytes received are not an HTTP request.
+    *
+    * @throws RequestTooLargeException
+    *    if the declared length of the body is larger than the maximum size.
+    *
+    * @throws IOException
+    *    if the interim response cannot be sent to the client.
+    */
+   private boolean parseHead() throws ParseException, RequestTooLargeException, IOException {
+      byte[] data = _input.array();
+      int length = _input.position();
+
+      // Ignore the empty lines before the request line
+      int start = 0;
+      while (start + 1 < length && data[start] == '\r' && data[start + 1] == '\n') {
+         start += 2;
+      }
+      if (start > 0) {
+         consume(start);
+         length = _input.position();
+      }
+
+      int end = indexOf(data, 0, length, "\r\n\r\n");
+      if (end < 0) {
+         if (length > MAX_HEAD_SIZE) {
+            throw new ParseException("Request headers too long.");
+         }
+         return false;
+      }
+      String head = new String(data, 0, end, HEAD_ENCODING);
+      consume(end + 4);
+
+      // Determine how the body is delimited
+      String lowerHead = head.toLowerCase(Locale.ENGLISH);
+      String transferEncoding = getHeader(lowerHead, "transfer-encoding");
+      String contentLength    = getHeader(lowerHead, "content-length");
+      if (transferEncoding != null && !"identity".equals(transferEncoding)) {
+         if (!transferEncoding.endsWith("chunked")) {
+            throw new ParseException("Unsupported transfer encoding.");
+         }
+         _contentLength = -1;
+         _chunkedBody = new ByteArrayOutputStream();
+      } else if (contentLength != null) {
+         long declaredLength;
+         try {
+            declaredLength = Long.parseLong(contentLength);
+         } catch (NumberFormatException exception) {
+            throw new ParseException("Incorrect content length.");
+         }
+         if (declaredLength < 0L) {
+            throw new ParseException("Incorrect content length.");
+         } else if (declaredLength > _maxBodySize) {
+            throw new RequestTooLargeException(declaredLength, _maxBodySize);
+         }
+         _contentLength = (int) declaredLength;
+         if (_contentLength > _input.capacity()) {
+            grow(_contentLength);
+         }
+      } else {
+         _contentLength = 0;
+      }
+      _head = head;
+
+      // Tell the client waiting for it to send the body
+      if (_contentLength != 0 && "100-continue".equals(getHeader(lowerHead, "expect")) &&
+            _input.position() == 0) {
+         ByteBuffer continueResponse = ByteBuffer.wrap(CONTINUE_RESPONSE);
+         while (continueResponse.hasRemaining()) {
+            _channel.write(continueResponse);
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Parses the chunks of the body received. The chunks are moved from the
+    * input buffer to the body as soon as they are complete.
+    *
+    * @return
+    *    the body of the request, or <code>null</code> if more bytes are
+    *    needed.
+    *
+    * @throws ParseException
+    *    if the chunks are incorrect.
+    *
+    * @throws RequestTooLargeException
+    *    if the size of the body is larger than the maximum size.
+    *
+    * @throws IOException
+    *    if the chunk size cannot be decoded.
+    */
+   private byte[] parseChunks() throws ParseException, RequestTooLargeException, IOException {
+      while (true) {
+         byte[] data = _input.array();
+         int length = _input.position();
+         int eol = indexOf(data, 0, length, "\r\n");
+         if (eol < 0) {
+            if (length > MAX_HEAD_SIZE) {
+               throw new ParseException("Chunk size line too long.");
+            }
+            return null;
+         }
+
+         // Determine the chunk size, ignoring the chunk extensions
+         String sizeLine = new String(data, 0, eol, HEAD_ENCODING);
+         int extension = sizeLine.indexOf(';');
+         if (extension != -1) {
+            sizeLine = sizeLine.substring(0, extension);
+         }
+         long size;
+         try {
+            size = Long.parseLong(sizeLine.trim(), 16);
+         } catch (NumberFormatException exception) {
+            throw new ParseException("Incorrect chunk size.");
+         }
+         if (size < 0L) {
+            throw new ParseException("Incorrect chunk size.");
+         } else if (_chunkedBody.size() + size > _maxBodySize) {
+            throw new RequestTooLargeException(_chunkedBody.size() + size, _maxBodySize);
+         }
+
+         // The last chunk is followed by the optional trailers
+         if (size == 0L) {
+            int trailerStart = eol + 2;
+            int end;
+            if (length < trailerStart + 2) {
+               return null;
+            } else if (data[trailerStart] == '\r' && data[trailerStart + 1] == '\n') {
+               end = trailerStart + 2;
+            } else {
+               end = indexOf(data, trailerStart, length, "\r\n\r\n");
+               if (end < 0) {
+                  return null;
+               }
+               end += 4;
+            }
+            consume(end);
+            return _chunkedBody.toByteArray();
+         }
+
+         // Wait for the complete chunk, the maximum body size keeps it in an int
+         int chunkEnd = eol + 2 + (int) size;
+         if (chunkEnd + 2 > _input.capacity()) {
+            grow(chunkEnd + 2);
+         }
+         if (length < chunkEnd + 2) {
+            return null;
+         }
+         if (data[chunkEnd] != '\r' || data[chunkEnd + 1] != '\n') {
+            throw new ParseException("Incorrect chunk end.");
+         }
+         _chunkedBody.write(data, eol + 2, (int) size);
+         consume(chunkEnd + 2);
+      }
+   }
+
+   /**
+    * Gets the value of a header.
+    *
+    * @param lowerHead
+    *    the request line and headers in lower case, cannot be
+    *    <code>null</code>.
+    *
+    * @param name
+    *    the name of the header in lower case, cannot be <code>null</code>.
+    *
+    * @return
+    *    the trimmed value of the header, or <code>null</code> if the header
+    *    is not present.
+    */
+   private static String getHeader(String lowerHead, String name) {
+      int index = lowerHead.indexOf("\r\n" + name + ':');
+      if (index < 0) {
+         return null;
+      }
+      int start = index + name.length() + 3;
+      int end = lowerHead.indexOf("\r\n", start);
+      if (end < 0) {
+         end = lowerHead.length();
+      }
+      return lowerHead.substring(start, end).trim();
+   }
+
+   /**
+    * Finds the position of a sequence of ASCII characters in bytes.
+    *
+    * @param data
+    *    the bytes to search in, cannot be <code>null</code>.
+    *
+    * @param from
+    *    the position to start the search.
+    *
+    * @param to
+    *    the position to end the search.
+    *
+    * @param search
+    *    the characters to search for, cannot be <code>null</code>.
+    *
+    * @return
+    *    the position of the characters or <code>-1</code> if not found.
+    */
+   private static int indexOf(byte[] data, int from, int to, String search) {
+      int last = to - search.length();
+      for (int i = from; i <= last; i++) {
+         boolean found = true;
+         for (int j = 0; j < search.length() && found; j++) {
+            found = data[i + j] == search.charAt(j);
+         }
+         if (found) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Removes bytes from the start of the input buffer.
+    *
+    * @param count
+    *    the number of bytes to remove.
+    */
+   private void consume(int count) {
+      byte[] data = _input.array();
+      int remaining = _input.position() - count;
+      System.arraycopy(data, count, data, 0, remaining);
+      _input.position(remaining);
+   }
+
+   /**
+    * Increases the capacity of the input buffer.
+    *
+    * @param capacity
+    *    the minimum capacity.
+    */
+   private void grow(int capacity) {
+      ByteBuffer input = ByteBuffer.allocate(Math.max(capacity, _input.capacity()));
+      _input.flip();
+      input.put(_input);
+      _input = input;
+   }
+
+   /**
+    * Gets the request line and the headers of the last received request.
+    *
+    * @return
+    *    the request line and the header lines separated by CRLF.
+    */
+   String getRequestHead() {
+      return _requestHead;
+   }
+
+   /**
+    * Gets the body of the last received request.
+    *
+    * @return
+    *    the body, can be empty.
+    */
+   byte[] getRequestBody() {
+      return _requestBody;
+   }
+
+   /**
+    * Sets the response to send to the client.
+    *
+    * @param response
+    *    the bytes of the response, cannot be <code>null</code>.
+    *
+    * @param keepAlive
+    *    <code>true</code> if the connection can be used for the next
+    *    request, <code>false</code> if it should be closed after the
+    *    response.
+    */
+   void setResponse(byte[] response, boolean keepAlive) {
+      _output = ByteBuffer.wrap(response);
+      _closeAfterResponse = !keepAlive;
+   }
+
+   /**
+    * Writes the response to the client.
+    *
+    * @return
+    *    <code>true</code> if the complete response is sent,
+    *    <code>false</code> if more bytes should be sent.
+    *
+    * @throws IOException
+    *    if the response cannot be sent.
+    */
+   boolean write() throws IOException {
+      if (_output == null) {
+         return true;
+      }
+      if (_channel.write(_output) > 0) {
+         _lastActivity = System.currentTimeMillis();
+      }
+      if (_output.hasRemaining()) {
+         return false;
+      }
+      _output = null;
+      return true;
+   }
+
+   /**
+    * Indicates whether the connection should be closed once the response is
+    * sent.
+    *
+    * @return
+    *    <code>true</code> if the connection should be closed.
+    */
+   boolean isCloseAfterResponse() {
+      return _closeAfterResponse;
+   }
+
+   /**
+    * Indicates whether a request is being handled.
+    *
+    * @return
+    *    <code>true</code> if a request is being handled or its response is
+    *    being sent.
+    */
+   boolean isBusy() {
+      return _busy;
+   }
+
+   /**
+    * Sets whether a request is being handled.
+    *
+    * @param busy
+    *    <code>true</code> if a request is being handled or its response is
+    *    being sent.
+    */
+   void setBusy(boolean busy) {
+      _busy = busy;
+   }
+
+   /**
+    * Gets the last time bytes were received or sent.
+    *
+    * @return
+    *    the time of the last activity in milliseconds since the UNIX Epoch.
+    */
+   long getLastActivity() {
+      return _lastActivity;
+   }
+
+   /**
+    * Gets the selection key of the channel.
+    *
+    * @return
+    *    the selection key, never <code>null</code>.
+    */
+   SelectionKey getKey() {
+      return _key;
+   }
+
+   /**
+    * Closes the connection.
+    */
+   void close() {
+      _key.cancel();
+      try {
+         _channel.close();
+      } catch (IOException exception) {
+         // ignore
+      }
+   }
+
+   /**
+    * Converts ASCII characters to bytes.
+    *
+    * @param text
+    *    the text to convert, cannot be <code>null</code>.
+    *
+    * @return
+    *    the bytes, never <code>null</code>.
+    */
+   private static byte[] toBytes(String text) {
+      byte[] bytes = new byte[text.length()];
+      for (int i = 0; i < bytes.length; i++) {
+         bytes[i] = (byte) text.charAt(i);
+      }
+      return bytes;
+   }
+}
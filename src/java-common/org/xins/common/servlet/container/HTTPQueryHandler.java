@@ -5,33 +5,31 @@
  */
 package org.xins.common.servlet.container;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.FileNameMap;
-import java.net.Socket;
 import java.net.URLConnection;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.http.impl.EnglishReasonPhraseCatalog;
 
 import org.xins.common.MandatoryArgumentChecker;
-import org.xins.common.Utils;
 import org.xins.common.text.ParseException;
 
 /**
- * HTTP query received to be handled by the servlet.
+ * HTTP query received to be handled by the servlet. The request is read by
+ * the {@link HTTPConnection} and this class determines the servlet or the
+ * web page to call and writes the HTTP response.
  *
  * @version $Revision: 1.12 $ $Date: 2012/03/03 16:35:17 $
  * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
  */
-class HTTPQueryHandler extends Thread {
+class HTTPQueryHandler {
 
    /**
     * The encoding of the request.
@@ -48,155 +46,72 @@ class HTTPQueryHandler extends Thread {
     */
    private static final String CRLF = "\r\n";
 
-   /**
-    * The instance number for this created query.
-    */
-   private static AtomicInteger _instanceNumber = new AtomicInteger();
-
-   /**
-    * The socket of the HTTP query.
-    */
-   private final Socket _client;
-
    /**
     * Mapping between the path and the servlet.
     */
    private final Map _servlets;
 
    /**
-    * Creates a new HTTPQueryHandler to handle the HTTP query sent by the client.
-    *
-    * @param client
-    *    the connection with the client, cannot be <code>null</code>.
+    * Creates a new HTTPQueryHandler to handle the HTTP queries sent by the
+    * clients.
     *
     * @param servlets
     *    the mapping between the path and the servlets, cannot be <code>null</code>.
     *
     * @throws IllegalArgumentException
-    *    if <code>client == null || servlets == null</code>.
+    *    if <code>servlets == null</code>.
     */
-   public HTTPQueryHandler(Socket client, Map servlets) throws IllegalArgumentException {
+   HTTPQueryHandler(Map servlets) throws IllegalArgumentException {
 
       // Check argument
-      MandatoryArgumentChecker.check("client", client, "servlets", servlets);
+      MandatoryArgumentChecker.check("servlets", servlets);
 
-      _client = client;
       _servlets = servlets;
-      _instanceNumber.incrementAndGet();
-      setName("XINS Query handler #" + _instanceNumber.get());
-   }
-
-   public void run() {
-      try {
-         serviceClient(_client);
-      } catch (Exception ex) {
-
-         // If anything goes wrong still continue accepting clients
-         Utils.logIgnoredException(ex);
-      } finally {
-         try {
-            _client.close();
-         } catch (Throwable exception) {
-            // ignore
-         }
-      }
-   }
-
-   /**
-    * This method is invoked when a client connects to the server.
-    *
-    * @param client
-    *    the connection with the client, cannot be <code>null</code>.
-    *
-    * @throws IllegalArgumentException
-    *    if <code>client == null</code>.
-    *
-    * @throws IOException
-    *    if the query is not handled correctly.
-    */
-   public void serviceClient(Socket client)
-   throws IllegalArgumentException, IOException {
-
-      // Check argument
-      MandatoryArgumentChecker.check("client", client);
-
-      InputStream  inbound  = client.getInputStream();
-      OutputStream outbound = client.getOutputStream();
-
-      // Delegate to httpQuery in a way it does not have to bother with
-      // closing the streams
-      try {
-         httpQuery(inbound, outbound);
-
-      // Clean up for httpQuery, if necessary
-      } finally{
-         if (inbound != null) {
-            try {
-               inbound.close();
-            } catch (Throwable exception) {
-               Utils.logIgnoredException(exception);
-            }
-         }
-         if (outbound != null) {
-            try {
-               outbound.close();
-            } catch (Throwable exception) {
-               Utils.logIgnoredException(exception);
-            }
-         }
-      }
    }
 
    /**
-    * This method parses the data sent from the client to get the input
+    * This method parses the request sent by the client to get the input
     * parameters and format the result as a compatible HTTP result.
     * This method will used the servlet associated with the passed virtual
     * path. If no servlet is associated with the virtual path, the servlet with
     * the virtual path "/" is used as default. If there is no servlet then with
     * the virtual path "/" is found then HTTP 404 is returned.
     *
-    * @param in
-    *    the input byte stream that contains the request sent by the client.
+    * @param head
+    *    the request line and the header lines of the request, separated by
+    *    CRLF, cannot be <code>null</code>.
+    *
+    * @param body
+    *    the body of the request, cannot be <code>null</code>.
     *
     * @param out
     *    the output byte stream that must be fed the response towards the
     *    client.
     *
+    * @return
+    *    <code>true</code> if the connection can be used for the next request,
+    *    <code>false</code> if it must be closed after the response.
+    *
     * @throws IOException
     *    if the query is not handled correctly.
     *
     * @since XINS 1.5.0.
     */
-   public void httpQuery(InputStream  in, OutputStream out)
+   boolean httpQuery(String head, byte[] body, OutputStream out)
    throws IOException {
 
-      // Read the input
-      // XXX: Buffer size determines maximum request size
-      char[] buffer = new char[16384];
-      BufferedReader inReader = new BufferedReader(new InputStreamReader(in, REQUEST_ENCODING));
-      int lengthRead = inReader.read(buffer);
-      if (lengthRead < 0) {
-         sendBadRequest(out);
-         return;
-      }
-      String request = new String(buffer, 0, lengthRead);
-      //byte[] requestBytes = IOReader.readFullyAsBytes(in);
-      //String request = new String(requestBytes, 0, requestBytes.length, REQUEST_ENCODING);
-
       // Read the first line
+      String request = head + CRLF;
       int eolIndex = request.indexOf(CRLF);
-      if (eolIndex < 0) {
-         sendBadRequest(out);
-         return;
-      }
 
       // The first line must end with "HTTP/1.0" or "HTTP/1.1"
       String line = request.substring(0, eolIndex);
       request = request.substring(eolIndex + 2);
       if (! (line.endsWith(" HTTP/1.1") || line.endsWith(" HTTP/1.0"))) {
          sendBadRequest(out);
-         return;
+         return false;
       }
+      boolean http11 = line.endsWith("1");
 
       // Cut off the last part
       line = line.substring(0, line.length() - 9);
@@ -205,7 +120,7 @@ class HTTPQueryHandler extends Thread {
       int spaceIndex = line.indexOf(' ');
       if (spaceIndex < 1) {
          sendBadRequest(out);
-         return;
+         return false;
       }
 
       // Determine the method
@@ -215,7 +130,7 @@ class HTTPQueryHandler extends Thread {
       String url = line.substring(spaceIndex + 1);
       if ("".equals(url)) {
          sendBadRequest(out);
-         return;
+         return false;
       } else if ("GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method)) {
          url = url.replace(',', '&');
       }
@@ -237,26 +152,24 @@ class HTTPQueryHandler extends Thread {
                parseHeader(inHeaders, request.substring(0, nextEOL));
             } catch (ParseException exception) {
                sendBadRequest(out);
-               return;
+               return false;
             }
             request = request.substring(nextEOL + 2);
          }
       }
 
-      // Determine the body contents
-      String body = "".equals(request)
-                  ? ""
-                  : request.substring(2);
-
-
-      // Response encoding defaults to request encoding
-      String responseEncoding = REQUEST_ENCODING;
+      // HTTP/1.1 connections are persistent unless the client closes them,
+      // HTTP/1.0 connections only if the client asks for it
+      String connection = getHeader(inHeaders, "Connection");
+      boolean keepAlive = http11
+            ? !"close".equalsIgnoreCase(connection)
+            : "keep-alive".equalsIgnoreCase(connection);
 
       // Handle the case that a web page is requested
       boolean getMethod = method.equals("GET") || method.equals("HEAD");
-      String httpResult;
+      boolean sendBody = !method.equals("HEAD");
       if (getMethod && url.indexOf('?') == -1 && !url.endsWith("/") && !"*".equals(url)) {
-         httpResult = readWebPage(url);
+         sendWebPage(url, out, keepAlive, http11, sendBody);
 
       // No web page requested
       } else {
@@ -264,12 +177,15 @@ class HTTPQueryHandler extends Thread {
          // Determine the content type
          String inContentType = getHeader(inHeaders, "Content-Type");
 
-         // If www-form encoded, then append the body to the query string
+         // If www-form encoded, then append the body to the query string,
+         // otherwise the servlet reads the bytes of the body
+         InputStream bodyStream = null;
          if ((inContentType == null || inContentType.startsWith("application/x-www-form-urlencoded")) &&
-               body.length() > 0) {
+               body.length > 0) {
             // XXX: What if the URL already contains a question mark?
-            url += '?' + body;
-            body = null;
+            url += '?' + new String(body, REQUEST_ENCODING);
+         } else if (body.length > 0) {
+            bodyStream = new ByteArrayInputStream(body);
          }
 
          // Locate the path of the URL
@@ -286,47 +202,69 @@ class HTTPQueryHandler extends Thread {
 
          // If no servlet is found return 404
          if (servlet == null) {
-            sendError(out, "404 Not Found");
-            return;
+            sendError(out, "404 Not Found", keepAlive, http11);
          } else {
 
             // Query the Servlet
-            XINSServletResponse response = servlet.query(method, url, body, inHeaders);
+            XINSServletResponse response = servlet.query(method, url, inHeaders, bodyStream);
 
             // Create the HTTP answer
-            StringBuffer sbHttpResult = new StringBuffer();
+            StringBuilder sbHttpResult = new StringBuilder();
             sbHttpResult.append("HTTP/1.1 " + response.getStatus() + " " +
                   EnglishReasonPhraseCatalog.INSTANCE.getReason(response.getStatus(), Locale.ENGLISH) + CRLF);
             Map<String, String> outHeaders = response.getHeaders();
             for (Map.Entry<String, String> header : outHeaders.entrySet()) {
                String nextHeader = header.getKey();
                String headerValue = header.getValue();
-               if (headerValue != null) {
-                  sbHttpResult.append(nextHeader + ": " + headerValue + "\r\n");
+               if (headerValue != null && !"Content-Length".equalsIgnoreCase(nextHeader) &&
+                     !"Connection".equalsIgnoreCase(nextHeader)) {
+                  sbHttpResult.append(nextHeader + ": " + headerValue + CRLF);
                }
             }
 
-            String result = response.getResult();
-            if (result != null) {
-               responseEncoding = response.getCharacterEncoding();
-               int length = response.getContentLength();
-               if (length < 0) {
-                  length = result.getBytes(responseEncoding).length;
-               }
-               sbHttpResult.append("Content-Length: " + length + "\r\n");
-               sbHttpResult.append("Connection: close\r\n");
-               sbHttpResult.append("\r\n");
-               sbHttpResult.append(result);
+            // The length of a HEAD response is the length of the body that
+            // would be returned, the other responses have the length of the
+            // body sent so that the next request can be read
+            int length = Math.max(0, response.getResultLength());
+            if (!sendBody && response.getContentLength() >= 0) {
+               length = response.getContentLength();
+            }
+            sbHttpResult.append("Content-Length: " + length + CRLF);
+            appendConnection(sbHttpResult, keepAlive, http11);
+            sbHttpResult.append(CRLF);
+
+            byte[] bytes = sbHttpResult.toString().getBytes(REQUEST_ENCODING);
+            out.write(bytes, 0, bytes.length);
+            if (sendBody) {
+               response.writeResult(out);
             }
-            httpResult = sbHttpResult.toString();
          }
       }
-
-      byte[] bytes = httpResult.getBytes(responseEncoding);
-      out.write(bytes, 0, bytes.length);
       out.flush();
+      return keepAlive;
    }
 
+   /**
+    * Appends the <code>Connection</code> header of the response.
+    *
+    * @param response
+    *    the response being created, cannot be <code>null</code>.
+    *
+    * @param keepAlive
+    *    <code>true</code> if the connection is kept open after the response,
+    *    <code>false</code> if it is closed.
+    *
+    * @param http11
+    *    <code>true</code> if the request uses HTTP/1.1, <code>false</code>
+    *    for HTTP/1.0.
+    */
+   private static void appendConnection(StringBuilder response, boolean keepAlive, boolean http11) {
+      if (!keepAlive) {
+         response.append("Connection: close" + CRLF);
+      } else if (!http11) {
+         response.append("Connection: keep-alive" + CRLF);
+      }
+   }
 
    /**
     * Finds the servlet that should handle a request at the specified virtual
@@ -393,19 +331,32 @@ class HTTPQueryHandler extends Thread {
     * @param status
     *    the HTTP error code status.
     *
+    * @param keepAlive
+    *    <code>true</code> if the connection is kept open after the response,
+    *    <code>false</code> if it is closed.
+    *
+    * @param http11
+    *    <code>true</code> if the request uses HTTP/1.1, <code>false</code>
+    *    for HTTP/1.0.
+    *
     * @throws IOException
     *    if the error cannot be sent.
     */
-   private void sendError(OutputStream out, String status)
+   private static void sendError(OutputStream out, String status, boolean keepAlive, boolean http11)
    throws IOException {
-      String httpResult = "HTTP/1.1 " + status + CRLF + CRLF;
-      byte[] bytes = httpResult.getBytes(REQUEST_ENCODING);
+      StringBuilder httpResult = new StringBuilder();
+      httpResult.append("HTTP/1.1 " + status + CRLF);
+      httpResult.append("Content-Length: 0" + CRLF);
+      appendConnection(httpResult, keepAlive, http11);
+      httpResult.append(CRLF);
+      byte[] bytes = httpResult.toString().getBytes(REQUEST_ENCODING);
       out.write(bytes, 0, bytes.length);
       out.flush();
    }
 
    /**
-    * Sends an HTTP bad request back to the client.
+    * Sends an HTTP bad request back to the client. The connection is closed
+    * after the response.
     *
     * @param out
     *    the output stream to contact the client.
@@ -413,9 +364,24 @@ class HTTPQueryHandler extends Thread {
     * @throws IOException
     *    if the error cannot be sent.
     */
-   private void sendBadRequest(OutputStream out)
+   static void sendBadRequest(OutputStream out)
    throws IOException {
-      sendError(out, "400 Bad Request");
+      sendError(out, "400 Bad Request", false, true);
+   }
+
+   /**
+    * Sends an HTTP request entity too large error back to the client. The
+    * connection is closed after the response.
+    *
+    * @param out
+    *    the output stream to contact the client.
+    *
+    * @throws IOException
+    *    if the error cannot be sent.
+    */
+   static void sendRequestTooLarge(OutputStream out)
+   throws IOException {
+      sendError(out, "413 Request Entity Too Large", false, true);
    }
 
    /**
@@ -474,19 +440,31 @@ class HTTPQueryHandler extends Thread {
    }
 
    /**
-    * Reads the content of a web page.
+    * Sends the content of a web page.
     *
     * @param url
     *    the location of the content, cannot be <code>null</code>.
     *
-    * @return
-    *    the HTTP response to return, never <code>null</code>.
+    * @param out
+    *    the output stream to contact the client.
+    *
+    * @param keepAlive
+    *    <code>true</code> if the connection is kept open after the response,
+    *    <code>false</code> if it is closed.
+    *
+    * @param http11
+    *    <code>true</code> if the request uses HTTP/1.1, <code>false</code>
+    *    for HTTP/1.0.
+    *
+    * @param sendBody
+    *    <code>true</code> if the content should be sent, <code>false</code>
+    *    if only the headers should be sent.
     *
     * @throws IOException
     *    if an error occcurs when reading the URL.
     */
-   private String readWebPage(String url) throws IOException {
-      String httpResult;
+   private void sendWebPage(String url, OutputStream out, boolean keepAlive, boolean http11, boolean sendBody)
+   throws IOException {
       if (getClass().getResource(url) != null) {
          InputStream urlInputStream = getClass().getResourceAsStream(url);
          ByteArrayOutputStream contentOutputStream = new ByteArrayOutputStream();
@@ -497,19 +475,21 @@ class HTTPQueryHandler extends Thread {
          }
          contentOutputStream.close();
          urlInputStream.close();
-         String content = contentOutputStream.toString("ISO-8859-1");
 
-         httpResult = "HTTP/1.1 200 OK\r\n";
+         StringBuilder httpResult = new StringBuilder();
+         httpResult.append("HTTP/1.1 200 OK" + CRLF);
          String fileName = url.substring(url.lastIndexOf('/') + 1);
-         httpResult += "Content-Type: " + MIME_TYPES_MAP.getContentTypeFor(fileName) + "\r\n";
-         int length = content.getBytes("ISO-8859-1").length;
-         httpResult += "Content-Length: " + length + "\r\n";
-         httpResult += "Connection: close\r\n";
-         httpResult += "\r\n";
-         httpResult += content;
+         httpResult.append("Content-Type: " + MIME_TYPES_MAP.getContentTypeFor(fileName) + CRLF);
+         httpResult.append("Content-Length: " + contentOutputStream.size() + CRLF);
+         appendConnection(httpResult, keepAlive, http11);
+         httpResult.append(CRLF);
+         byte[] bytes = httpResult.toString().getBytes(REQUEST_ENCODING);
+         out.write(bytes, 0, bytes.length);
+         if (sendBody) {
+            contentOutputStream.writeTo(out);
+         }
       } else {
-         httpResult = "HTTP/1.1 404 Not Found\r\n";
+         sendError(out, "404 Not Found", keepAlive, http11);
       }
-      return httpResult;
    }
 }
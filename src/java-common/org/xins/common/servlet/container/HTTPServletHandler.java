@@ -5,15 +5,28 @@
  */
 package org.xins.common.servlet.container;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletException;
 
@@ -23,10 +36,33 @@ import org.apache.log4j.helpers.NullEnumeration;
 
 import org.xins.common.Library;
 import org.xins.common.Log;
+import org.xins.common.Utils;
+import org.xins.common.text.ParseException;
 
 /**
  * HTTP server used to invoke the XINS servlet.
  *
+ * <p>The connections are handled by one selector thread and the requests
+ * are executed by a pool of worker threads. The connections are persistent
+ * (HTTP/1.1 keep-alive) and the pipelined requests are executed one after
+ * the other. The server can be configured with the following system
+ * properties, read when the server is started:
+ * <ul>
+ * <li>{@value #BACKLOG_PROPERTY}: the maximum number of connections
+ * waiting to be accepted, default is {@value #DEFAULT_BACKLOG}.</li>
+ * <li>{@value #MAX_CONNECTIONS_PROPERTY}: the maximum number of open
+ * connections, default is {@value #DEFAULT_MAX_CONNECTIONS}. The new
+ * connections wait in the backlog when the maximum is reached.</li>
+ * <li>{@value #IDLE_TIME_OUT_PROPERTY}: the time in milliseconds after which
+ * a connection without activity is closed, default is
+ * {@value #DEFAULT_IDLE_TIME_OUT}. 0 means no time-out.</li>
+ * <li>{@value #WORKER_THREADS_PROPERTY}: the number of threads executing
+ * the requests, default is {@value #DEFAULT_WORKER_THREADS}.</li>
+ * <li>{@value #MAX_BODY_SIZE_PROPERTY}: the maximum size in bytes of the
+ * body of a request, default is {@value #DEFAULT_MAX_BODY_SIZE}. A larger
+ * request is answered with <em>413 Request Entity Too Large</em>.</li>
+ * </ul>
+ *
  * @version $Revision: 1.75 $ $Date: 2012/03/15 21:07:39 $
  * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
  * @author <a href="mailto:ernst@ernstdehaan.com">Ernst de Haan</a>
@@ -39,9 +75,126 @@ public class HTTPServletHandler {
    public static final int DEFAULT_PORT_NUMBER = 8080;
 
    /**
-    * The web server.
+    * The name of the system property for the maximum number of connections
+    * waiting to be accepted.
+    *
+    * @since XINS 3.2
+    */
+   public static final String BACKLOG_PROPERTY = "org.xins.common.servlet.container.backlog";
+
+   /**
+    * The default maximum number of connections waiting to be accepted.
+    *
+    * @since XINS 3.2
+    */
+   public static final int DEFAULT_BACKLOG = 128;
+
+   /**
+    * The name of the system property for the maximum number of open
+    * connections.
+    *
+    * @since XINS 3.2
+    */
+   public static final String MAX_CONNECTIONS_PROPERTY = "org.xins.common.servlet.container.maxConnections";
+
+   /**
+    * The default maximum number of open connections.
+    *
+    * @since XINS 3.2
+    */
+   public static final int DEFAULT_MAX_CONNECTIONS = 1000;
+
+   /**
+    * The name of the system property for the time in milliseconds after
+    * which a connection without activity is closed.
+    *
+    * @since XINS 3.2
+    */
+   public static final String IDLE_TIME_OUT_PROPERTY = "org.xins.common.servlet.container.idleTimeOut";
+
+   /**
+    * The default time in milliseconds after which a connection without
+    * activity is closed.
+    *
+    * @since XINS 3.2
+    */
+   public static final int DEFAULT_IDLE_TIME_OUT = 30000;
+
+   /**
+    * The name of the system property for the number of threads executing
+    * the requests.
+    *
+    * @since XINS 3.2
+    */
+   public static final String WORKER_THREADS_PROPERTY = "org.xins.common.servlet.container.workerThreads";
+
+   /**
+    * The default number of threads executing the requests.
+    *
+    * @since XINS 3.2
     */
-   private ServerSocket _serverSocket;
+   public static final int DEFAULT_WORKER_THREADS = 32;
+
+   /**
+    * The name of the system property for the maximum size in bytes of the
+    * body of a request.
+    *
+    * @since XINS 3.2
+    */
+   public static final String MAX_BODY_SIZE_PROPERTY = "org.xins.common.servlet.container.maxBodySize";
+
+   /**
+    * The default maximum size in bytes of the body of a request.
+    *
+    * @since XINS 3.2
+    */
+   public static final int DEFAULT_MAX_BODY_SIZE = 10 * 1024 * 1024;
+
+   /**
+    * The number of query handler threads created.
+    */
+   private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+   /**
+    * The channel accepting the connections.
+    */
+   private ServerSocketChannel _serverChannel;
+
+   /**
+    * The selector of the channels.
+    */
+   private Selector _selector;
+
+   /**
+    * The threads executing the requests.
+    */
+   private ExecutorService _workers;
+
+   /**
+    * The connections whose response is ready to be sent.
+    */
+   private final Queue<HTTPConnection> _responses = new ConcurrentLinkedQueue<HTTPConnection>();
+
+   /**
+    * The maximum number of open connections.
+    */
+   private int _maxConnections;
+
+   /**
+    * The time in milliseconds after which a connection without activity is
+    * closed, 0 for no time-out.
+    */
+   private int _idleTimeOut;
+
+   /**
+    * The maximum size in bytes of the body of a request.
+    */
+   private int _maxBodySize;
+
+   /**
+    * The number of open connections. Only used by the selector thread.
+    */
+   private int _connectionCount;
 
    /**
     * The thread that waits for connections from the client.
@@ -51,7 +204,7 @@ public class HTTPServletHandler {
    /**
     * Flag indicating if the server should wait for other connections or stop.
     */
-   private boolean _running;
+   private volatile boolean _running;
 
    /**
     * Mapping between the path and the servlet.
@@ -266,14 +419,73 @@ public class HTTPServletHandler {
     *    if the web server cannot be started.
     */
    public void startServer(int port, boolean daemon) throws IOException {
-      // Create the server socket
-      _serverSocket = new ServerSocket(port, 5);
+      int backlog = getSetting(BACKLOG_PROPERTY, DEFAULT_BACKLOG, 1);
+      _maxConnections = getSetting(MAX_CONNECTIONS_PROPERTY, DEFAULT_MAX_CONNECTIONS, 1);
+      _idleTimeOut = getSetting(IDLE_TIME_OUT_PROPERTY, DEFAULT_IDLE_TIME_OUT, 0);
+      int workerThreads = getSetting(WORKER_THREADS_PROPERTY, DEFAULT_WORKER_THREADS, 1);
+      _maxBodySize = getSetting(MAX_BODY_SIZE_PROPERTY, DEFAULT_MAX_BODY_SIZE, 0);
+
+      // Create the server channel
+      _selector = Selector.open();
+      _serverChannel = ServerSocketChannel.open();
+      _serverChannel.socket().setReuseAddress(true);
+      _serverChannel.socket().bind(new InetSocketAddress(port), backlog);
+      _serverChannel.configureBlocking(false);
+      _serverChannel.register(_selector, SelectionKey.OP_ACCEPT);
+      _workers = createWorkers(workerThreads, daemon);
       _running = true;
 
       _acceptor = new SocketAcceptor(daemon);
       _acceptor.start();
    }
 
+   /**
+    * Gets a setting of the server from the system properties.
+    *
+    * @param property
+    *    the name of the system property, cannot be <code>null</code>.
+    *
+    * @param defaultValue
+    *    the value if the system property is not set or incorrect.
+    *
+    * @param minimum
+    *    the minimum value of the setting.
+    *
+    * @return
+    *    the value of the setting.
+    */
+   private static int getSetting(String property, int defaultValue, int minimum) {
+      int value = Integer.getInteger(property, defaultValue).intValue();
+      return value < minimum ? defaultValue : value;
+   }
+
+   /**
+    * Creates the pool of threads executing the requests.
+    *
+    * @param threads
+    *    the number of threads.
+    *
+    * @param daemon
+    *    <code>true</code> if the threads should be daemon threads,
+    *    <code>false</code> otherwise.
+    *
+    * @return
+    *    the executor, never <code>null</code>.
+    */
+   private static ExecutorService createWorkers(int threads, final boolean daemon) {
+      ThreadFactory threadFactory = new ThreadFactory() {
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "XINS Query handler #" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(daemon);
+            return thread;
+         }
+      };
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), threadFactory);
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+   }
+
    /**
     * Returns the port the server is accepting connections on.
     *
@@ -289,7 +501,7 @@ public class HTTPServletHandler {
    public int getPort() throws IllegalStateException {
       int port;
       try {
-         port = _serverSocket.getLocalPort();
+         port = _serverChannel.socket().getLocalPort();
       } catch (NullPointerException exception) {
          port = -1;
       }
@@ -310,14 +522,17 @@ public class HTTPServletHandler {
          servlet.close();
       }
       try {
-         _serverSocket.close();
+         _serverChannel.close();
       } catch (IOException ioe) {
          Log.log_1502(ioe);
       }
+      _selector.wakeup();
+      _workers.shutdown();
    }
 
    /**
-    * Thread waiting for connection from the client.
+    * Thread waiting for connection from the client, reading the requests and
+    * sending the responses.
     */
    private class SocketAcceptor extends Thread {
 
@@ -325,7 +540,7 @@ public class HTTPServletHandler {
        * Create the thread.
        *
        * @param daemon
-       *    <code>true</code> if the server should be a daemon thread,$
+       *    <code>true</code> if the server should be a daemon thread,
        *    <code>false</code> otherwise.
        */
       public SocketAcceptor(boolean daemon) {
@@ -337,19 +552,232 @@ public class HTTPServletHandler {
        * Executes the thread.
        */
       public void run() {
-         Log.log_1500(_serverSocket.getLocalPort());
+         Log.log_1500(_serverChannel.socket().getLocalPort());
+         long lastIdleCheck = System.currentTimeMillis();
          try {
             while (_running) {
-               // Wait for a connection
-               Socket clientSocket = _serverSocket.accept();
-               HTTPQueryHandler queryHandler = new HTTPQueryHandler(clientSocket, _servlets);
-               queryHandler.start();
+               _selector.select(1000L);
+
+               // Send the responses computed by the workers
+               HTTPConnection responseConnection;
+               while ((responseConnection = _responses.poll()) != null) {
+                  writeResponse(responseConnection);
+               }
+
+               // Handle the channels ready for I/O
+               Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+               while (keys.hasNext()) {
+                  SelectionKey key = keys.next();
+                  keys.remove();
+                  if (!key.isValid()) {
+                     continue;
+                  } else if (key.isAcceptable()) {
+                     accept(key);
+                  } else {
+                     HTTPConnection connection = (HTTPConnection) key.attachment();
+                     try {
+                        if (key.isReadable()) {
+                           if (connection.read()) {
+                              handleNextRequest(connection);
+                           } else {
+                              closeConnection(connection);
+                           }
+                        } else if (key.isWritable()) {
+                           writeResponse(connection);
+                        }
+                     } catch (IOException exception) {
+                        closeConnection(connection);
+                     } catch (RuntimeException exception) {
+
+                        // Only this connection is affected
+                        Utils.logIgnoredException(exception);
+                        closeConnection(connection);
+                     }
+                  }
+               }
+
+               // Close the idle connections
+               long now = System.currentTimeMillis();
+               if (_idleTimeOut > 0 && now - lastIdleCheck >= 1000L) {
+                  lastIdleCheck = now;
+                  for (SelectionKey key : _selector.keys()) {
+                     HTTPConnection connection = (HTTPConnection) key.attachment();
+                     if (connection != null && !connection.isBusy() &&
+                           now - connection.getLastActivity() >= _idleTimeOut) {
+                        closeConnection(connection);
+                     }
+                  }
+               }
             }
-         } catch (SocketException ie) {
+         } catch (ClosedSelectorException exception) {
             // fall through
          } catch (IOException ioe) {
             Log.log_1501(ioe);
+         } finally {
+            closeAll();
+         }
+      }
+
+      /**
+       * Accepts the new connections, up to the maximum number of connections.
+       *
+       * @param key
+       *    the selection key of the server channel, cannot be
+       *    <code>null</code>.
+       *
+       * @throws IOException
+       *    if the connections cannot be accepted.
+       */
+      private void accept(SelectionKey key) throws IOException {
+         while (_connectionCount < _maxConnections) {
+            SocketChannel channel = _serverChannel.accept();
+            if (channel == null) {
+               return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey channelKey = channel.register(_selector, SelectionKey.OP_READ);
+            channelKey.attach(new HTTPConnection(channel, channelKey, _maxBodySize));
+            _connectionCount++;
+         }
+
+         // Leave the next connections in the backlog
+         key.interestOps(0);
+      }
+
+      /**
+       * Executes the next request received on a connection, if it is
+       * complete.
+       *
+       * @param connection
+       *    the connection, cannot be <code>null</code>.
+       *
+       * @throws IOException
+       *    if an I/O error occurs.
+       */
+      private void handleNextRequest(final HTTPConnection connection) throws IOException {
+         boolean complete;
+         ByteArrayOutputStream errorResponse = new ByteArrayOutputStream();
+         try {
+            complete = connection.parseRequest();
+         } catch (ParseException exception) {
+            HTTPQueryHandler.sendBadRequest(errorResponse);
+            complete = false;
+         } catch (RequestTooLargeException exception) {
+            HTTPQueryHandler.sendRequestTooLarge(errorResponse);
+            complete = false;
          }
+
+         // Reply with the error and close the connection
+         if (errorResponse.size() > 0) {
+            connection.setResponse(errorResponse.toByteArray(), false);
+            connection.setBusy(true);
+            writeResponse(connection);
+            return;
+         }
+
+         // Stop reading until the response is sent
+         if (complete) {
+            connection.setBusy(true);
+            connection.getKey().interestOps(0);
+            _workers.execute(new Runnable() {
+               public void run() {
+                  executeRequest(connection);
+               }
+            });
+         } else {
+            connection.getKey().interestOps(SelectionKey.OP_READ);
+         }
+      }
+
+      /**
+       * Sends the response of a connection and continues with the next
+       * request.
+       *
+       * @param connection
+       *    the connection, cannot be <code>null</code>.
+       */
+      private void writeResponse(HTTPConnection connection) {
+         if (!connection.getKey().isValid()) {
+            return;
+         }
+         try {
+            if (!connection.write()) {
+               connection.getKey().interestOps(SelectionKey.OP_WRITE);
+            } else if (connection.isCloseAfterResponse()) {
+               closeConnection(connection);
+            } else {
+               connection.setBusy(false);
+               handleNextRequest(connection);
+            }
+         } catch (IOException exception) {
+            closeConnection(connection);
+         } catch (RuntimeException exception) {
+            Utils.logIgnoredException(exception);
+            closeConnection(connection);
+         }
+      }
+
+      /**
+       * Closes a connection and accepts new connections again if the
+       * maximum was reached.
+       *
+       * @param connection
+       *    the connection to close, cannot be <code>null</code>.
+       */
+      private void closeConnection(HTTPConnection connection) {
+         if (connection.getKey().isValid()) {
+            connection.close();
+            _connectionCount--;
+            SelectionKey serverKey = _serverChannel.keyFor(_selector);
+            if (serverKey != null && serverKey.isValid()) {
+               serverKey.interestOps(SelectionKey.OP_ACCEPT);
+            }
+         }
+      }
+
+      /**
+       * Closes all the connections and the selector.
+       */
+      private void closeAll() {
+         try {
+            for (SelectionKey key : _selector.keys()) {
+               HTTPConnection connection = (HTTPConnection) key.attachment();
+               if (connection != null) {
+                  connection.close();
+               }
+            }
+            _selector.close();
+         } catch (ClosedSelectorException exception) {
+            // already closed
+         } catch (IOException exception) {
+            Log.log_1502(exception);
+         }
+      }
+   }
+
+   /**
+    * Executes a request received on a connection and gives the response to
+    * the selector thread. This method is called by the worker threads.
+    *
+    * @param connection
+    *    the connection, cannot be <code>null</code>.
+    */
+   private void executeRequest(HTTPConnection connection) {
+      ByteArrayOutputStream response = new ByteArrayOutputStream();
+      boolean keepAlive;
+      try {
+         HTTPQueryHandler queryHandler = new HTTPQueryHandler(_servlets);
+         keepAlive = queryHandler.httpQuery(connection.getRequestHead(), connection.getRequestBody(), response);
+      } catch (Throwable exception) {
+
+         // If anything goes wrong still continue accepting clients
+         Utils.logIgnoredException(exception);
+         response.reset();
+         keepAlive = false;
       }
+      connection.setResponse(response.toByteArray(), keepAlive && _running);
+      _responses.add(connection);
+      _selector.wakeup();
    }
 }
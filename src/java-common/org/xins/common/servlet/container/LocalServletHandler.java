@@ -7,12 +7,15 @@ package org.xins.common.servlet.container;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 
 import org.xins.common.Log;
+import org.znerd.logdoc.LogFacade;
+import org.znerd.util.log.LogLevel;
 
 /**
  * This class allows to invoke a XINS API without using HTTP.
@@ -173,6 +176,62 @@ public class LocalServletHandler {
       Log.log_1504(url);
 
       XINSServletRequest request = new XINSServletRequest(method, url, data, headers);
+      return query(request);
+   }
+
+   /**
+    * Queries the servlet with the specified method, URL, HTTP headers and
+    * content as bytes. The content is read by the servlet and the result
+    * is available as bytes with {@link XINSServletResponse#writeResult(java.io.OutputStream)}.
+    *
+    * @param method
+    *    the request method, cannot be <code>null</code>.
+    *
+    * @param url
+    *    the url query for the request, if <code>null</code> then the /
+    *    path is used as default with no parameters.
+    *
+    * @param headers
+    *    the HTTP headers passed with the query, cannot be <code>null</code>.
+    *    The key and the value of the Map is String. The keys are all in
+    *    uppercase.
+    *
+    * @param body
+    *    the content of the request, <code>null</code> for HTTP GET queries.
+    *
+    * @return
+    *    the servlet response.
+    *
+    * @throws IOException
+    *    If the query is not handled correctly by the servlet.
+    *
+    * @since XINS 3.2
+    */
+   public XINSServletResponse query(String      method,
+                                    String      url,
+                                    Map         headers,
+                                    InputStream body)
+   throws IOException {
+
+      Log.log_1504(url);
+
+      XINSServletRequest request = new XINSServletRequest(method, url, headers, body);
+      return query(request);
+   }
+
+   /**
+    * Queries the servlet with the specified request.
+    *
+    * @param request
+    *    the request, cannot be <code>null</code>.
+    *
+    * @return
+    *    the servlet response.
+    *
+    * @throws IOException
+    *    If the query is not handled correctly by the servlet.
+    */
+   private XINSServletResponse query(XINSServletRequest request) throws IOException {
       XINSServletResponse response = new XINSServletResponse();
       try {
          _apiServlet.service(request, response);
@@ -180,7 +239,11 @@ public class LocalServletHandler {
          Log.log_1505(ex);
          throw new IOException(ex.getMessage());
       }
-      Log.log_1506(response.getResult(), response.getStatus());
+
+      // Only convert the result to a string if it is logged
+      if (LogFacade.shouldLog("org.xins.common", "container", "1506", LogLevel.DEBUG)) {
+         Log.log_1506(response.getResult(), response.getStatus());
+      }
       return response;
    }
 
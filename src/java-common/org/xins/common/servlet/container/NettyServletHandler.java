@@ -10,30 +10,57 @@ import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.*;
 import static org.jboss.netty.handler.codec.http.HttpVersion.*;
 
 import java.io.File;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
-import java.nio.charset.Charset;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
 import org.jboss.netty.util.CharsetUtil;
 
+import org.xins.common.Utils;
+
 /**
  * Netty handler to invoke servlets.
  *
+ * <p>The servlet is not executed by the Netty I/O threads but by a bounded
+ * pool of threads, so that the I/O threads never wait for the servlet. The
+ * requests received on the same connection are executed in order. The
+ * connections are kept open unless the client asks to close them. The
+ * server can be configured with the following system properties:
+ * <ul>
+ * <li>{@value #BOSS_THREADS_PROPERTY}: the number of threads accepting the
+ * connections, default is 1.</li>
+ * <li>{@value #WORKER_THREADS_PROPERTY}: the number of I/O threads, default
+ * is twice the number of processors.</li>
+ * <li>{@value #SERVLET_THREADS_PROPERTY}: the number of threads executing
+ * the servlet, default is {@value #DEFAULT_SERVLET_THREADS}.</li>
+ * <li>{@value #MAX_CONTENT_LENGTH_PROPERTY}: the maximum size of the body
+ * of the requests, default is {@value #DEFAULT_MAX_CONTENT_LENGTH}.</li>
+ * </ul>
+ *
  * This class is partly based on the examples of the Netty project which are
  * released under the Apache License, version 2.0.
  *
@@ -42,8 +69,77 @@ import org.jboss.netty.util.CharsetUtil;
  */
 public class NettyServletHandler extends SimpleChannelUpstreamHandler {
 
+   /**
+    * The name of the system property for the number of threads accepting
+    * the connections.
+    *
+    * @since XINS 3.2
+    */
+   public static final String BOSS_THREADS_PROPERTY = "org.xins.server.netty.bossThreads";
+
+   /**
+    * The name of the system property for the number of I/O threads.
+    *
+    * @since XINS 3.2
+    */
+   public static final String WORKER_THREADS_PROPERTY = "org.xins.server.netty.workerThreads";
+
+   /**
+    * The name of the system property for the number of threads executing
+    * the servlet.
+    *
+    * @since XINS 3.2
+    */
+   public static final String SERVLET_THREADS_PROPERTY = "org.xins.server.netty.servletThreads";
+
+   /**
+    * The default number of threads executing the servlet.
+    *
+    * @since XINS 3.2
+    */
+   public static final int DEFAULT_SERVLET_THREADS = 32;
+
+   /**
+    * The name of the system property for the maximum size of the body of
+    * the requests.
+    *
+    * @since XINS 3.2
+    */
+   public static final String MAX_CONTENT_LENGTH_PROPERTY = "org.xins.server.netty.maxContentLength";
+
+   /**
+    * The default maximum size of the body of the requests.
+    *
+    * @since XINS 3.2
+    */
+   public static final int DEFAULT_MAX_CONTENT_LENGTH = 10485760;
+
+   /**
+    * The maximum size of the requests waiting to be executed by the servlet
+    * threads. Above this size, the connections are not read anymore until
+    * requests are executed.
+    */
+   private static final long MAX_PENDING_MEMORY = 67108864L;
+
    private LocalServletHandler localServletHandler;
 
+   /**
+    * The server, or <code>null</code> if the server is not started.
+    */
+   private ServerBootstrap _server;
+
+   /**
+    * The channel accepting the connections, or <code>null</code> if the
+    * server is not started.
+    */
+   private Channel _serverChannel;
+
+   /**
+    * The handler executing the servlet on the servlet threads, or
+    * <code>null</code> if the server is not started.
+    */
+   private ExecutionHandler _executionHandler;
+
    /**
     * Creates a Netty handler that allow to invoke a Servlet without starting a
     * HTTP server.
@@ -76,32 +172,65 @@ public class NettyServletHandler extends SimpleChannelUpstreamHandler {
       HttpRequest request = (HttpRequest) event.getMessage();
       String method = request.getMethod().getName();
       String url = request.getUri();
-      String data = request.getContent().toString();
-      
+      boolean keepAlive = isKeepAlive(request);
+
       if (url.equals("/favicon.ico")) {
          sendError(context, HttpResponseStatus.NOT_FOUND);
          return;
       }
+
+      // As for HTTPServletHandler, the form parameters are passed in the
+      // query string, the other contents are read by the servlet as bytes
+      InputStream body = null;
+      if (request.getContent().readable()) {
+         String contentType = request.getHeader(CONTENT_TYPE);
+         if (contentType == null || contentType.startsWith("application/x-www-form-urlencoded")) {
+            url += (url.indexOf('?') == -1 ? '?' : '&') + request.getContent().toString(CharsetUtil.ISO_8859_1);
+         } else {
+            body = new ChannelBufferInputStream(request.getContent());
+         }
+      }
+
+      // The servlet request expects the header names in upper case
       Map headers = new LinkedHashMap();
       for (Map.Entry<String, String> header : request.getHeaders()) {
-         headers.put(header.getKey(), header.getValue());
+         headers.put(header.getKey().toUpperCase(Locale.ENGLISH), header.getValue());
       }
-      XINSServletResponse response = localServletHandler.query(method, url, data, headers);
+      XINSServletResponse response = localServletHandler.query(method, url, headers, body);
 
       int statusCode = response.getStatus();
       HttpResponse nettyResponse = new DefaultHttpResponse(HTTP_1_1, HttpResponseStatus.valueOf(statusCode));
-      setContentLength(request, response.getContentLength());
 
       Map<String, String> responseHeaders = response.getHeaders();
       for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
-         nettyResponse.addHeader(header.getKey(), header.getValue());
+         if (header.getValue() != null) {
+            nettyResponse.addHeader(header.getKey(), header.getValue());
+         }
+      }
+      int length = response.getResultLength();
+      if (length > 0 && request.getMethod() != HttpMethod.HEAD) {
+         nettyResponse.setContent(ChannelBuffers.wrappedBuffer(response.getResultBuffer(), 0, length));
+         setContentLength(nettyResponse, length);
+      } else if (request.getMethod() != HttpMethod.HEAD) {
+         setContentLength(nettyResponse, 0);
+      }
+      if (keepAlive) {
+         if (request.getProtocolVersion() == HTTP_1_0) {
+            nettyResponse.setHeader(CONNECTION, Values.KEEP_ALIVE);
+         }
+      } else {
+         nettyResponse.setHeader(CONNECTION, Values.CLOSE);
       }
-      String responseString = response.getResult();
-      if (responseString != null) {
-         Charset encoding = Charset.forName(response.getCharacterEncoding());
-         nettyResponse.setContent(ChannelBuffers.copiedBuffer(responseString, encoding));
-         context.getChannel().write(nettyResponse);
+
+      ChannelFuture future = context.getChannel().write(nettyResponse);
+      if (!keepAlive) {
+         future.addListener(ChannelFutureListener.CLOSE);
       }
+   }
+
+   @Override
+   public void exceptionCaught(ChannelHandlerContext context, ExceptionEvent event) throws Exception {
+      Utils.logIgnoredException(event.getCause());
       context.getChannel().close();
    }
 
@@ -115,19 +244,81 @@ public class NettyServletHandler extends SimpleChannelUpstreamHandler {
    }
 
    public void startServer(int port, String pipelineFactory) throws Exception {
-      ServerBootstrap server = new ServerBootstrap(
+      int bossThreads = getSetting(BOSS_THREADS_PROPERTY, 1);
+      int workerThreads = getSetting(WORKER_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors() * 2);
+      int servletThreads = getSetting(SERVLET_THREADS_PROPERTY, DEFAULT_SERVLET_THREADS);
+      int maxContentLength = getSetting(MAX_CONTENT_LENGTH_PROPERTY, DEFAULT_MAX_CONTENT_LENGTH);
+
+      // The cached thread pools only create the boss and worker threads
+      _server = new ServerBootstrap(
               new NioServerSocketChannelFactory(
-              Executors.newCachedThreadPool(),
-              Executors.newCachedThreadPool()));
+              Executors.newCachedThreadPool(), bossThreads,
+              Executors.newCachedThreadPool(), workerThreads));
+      _executionHandler = new ExecutionHandler(new OrderedMemoryAwareThreadPoolExecutor(
+            servletThreads, 0L, MAX_PENDING_MEMORY, 60L, TimeUnit.SECONDS));
 
       if (pipelineFactory == null) {
          pipelineFactory = "org.xins.common.servlet.container.DefaultNettyServletPipelineFactory";
       }
       DefaultNettyServletPipelineFactory pipelineFactoryClass = (DefaultNettyServletPipelineFactory) Class.forName(pipelineFactory).newInstance();
       pipelineFactoryClass.setServletHandler(this);
+      pipelineFactoryClass.setExecutionHandler(_executionHandler);
+      pipelineFactoryClass.setMaxContentLength(maxContentLength);
 
-      server.setPipelineFactory(pipelineFactoryClass);
+      _server.setPipelineFactory(pipelineFactoryClass);
+      _server.setOption("child.tcpNoDelay", true);
+      _server.setOption("child.keepAlive", true);
 
-      server.bind(new InetSocketAddress(port));
+      _serverChannel = _server.bind(new InetSocketAddress(port));
+   }
+
+   /**
+    * Returns the port the server is accepting connections on.
+    *
+    * @return
+    *    the port of the server, e.g. <code>8080</code>.
+    *
+    * @throws IllegalStateException
+    *    if the server is not started.
+    *
+    * @since XINS 3.2
+    */
+   public int getPort() throws IllegalStateException {
+      if (_serverChannel == null) {
+         throw new IllegalStateException("Server not started.");
+      }
+      return ((InetSocketAddress) _serverChannel.getLocalAddress()).getPort();
+   }
+
+   /**
+    * Stops the server and disposes the servlet.
+    *
+    * @since XINS 3.2
+    */
+   public void close() {
+      if (_serverChannel != null) {
+         _serverChannel.close().awaitUninterruptibly();
+         _server.releaseExternalResources();
+         _executionHandler.releaseExternalResources();
+         _serverChannel = null;
+      }
+      localServletHandler.close();
+   }
+
+   /**
+    * Gets a setting of the server from the system properties.
+    *
+    * @param property
+    *    the name of the system property, cannot be <code>null</code>.
+    *
+    * @param defaultValue
+    *    the value if the system property is not set or lower than 1.
+    *
+    * @return
+    *    the value of the setting.
+    */
+   private static int getSetting(String property, int defaultValue) {
+      int value = Integer.getInteger(property, defaultValue).intValue();
+      return value < 1 ? defaultValue : value;
    }
-}
\ No newline at end of file
+}
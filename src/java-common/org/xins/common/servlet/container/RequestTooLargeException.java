@@ -0,0 +1,31 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.servlet.container;
+
+/**
+ * Exception thrown when the body of a request received by the
+ * {@link HTTPServletHandler} is larger than the maximum allowed.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+final class RequestTooLargeException extends Exception {
+
+   /**
+    * Creates a new <code>RequestTooLargeException</code>.
+    *
+    * @param size
+    *    the size of the body declared by the client, or received so far.
+    *
+    * @param maxSize
+    *    the maximum size of a body.
+    */
+   RequestTooLargeException(long size, int maxSize) {
+      super("Request body of " + size + " bytes exceeds the maximum of " + maxSize + " bytes.");
+   }
+}
@@ -7,7 +7,9 @@ package org.xins.common.servlet.container;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
@@ -66,9 +68,10 @@ public class XINSServletRequest implements HttpServletRequest {
    private final String _url;
 
    /**
-    * The parameters retrieved from the URL.
+    * The parameters retrieved from the URL and from the form content, or
+    * <code>null</code> if the parameters have not been decoded yet.
     */
-   private HashMap _parameters = new HashMap();
+   private HashMap _parameters;
 
    /**
     * The date when the request was created.
@@ -101,10 +104,15 @@ public class XINSServletRequest implements HttpServletRequest {
    private String _contentType;
 
    /**
-    * The content of the HTTP POST.
+    * The content of the HTTP POST as a string, or <code>null</code>.
     */
    private String _postData;
 
+   /**
+    * The content of the HTTP POST as bytes, or <code>null</code>.
+    */
+   private java.io.InputStream _body;
+
    /**
     * The cookies of the request.
     */
@@ -146,7 +154,7 @@ public class XINSServletRequest implements HttpServletRequest {
     *    with comma's. Cannot be <code>null</code>.
     */
    public XINSServletRequest(String url) {
-      this("GET", url, null, null);
+      this("GET", url, (String) null, null);
    }
 
    /**
@@ -182,7 +190,33 @@ public class XINSServletRequest implements HttpServletRequest {
    }
 
    /**
-    * Parses the url to extract the parameters.
+    * Creates a new servlet request with the content as bytes. The content is
+    * only read when the servlet reads it or, for a form content, when the
+    * parameters are requested.
+    *
+    * @param method
+    *    the request method, cannot be <code>null</code>.
+    *
+    * @param url
+    *    the request URL or the list of the parameters (name=value) separated
+    *    with ampersands, cannot be <code>null</code>.
+    *
+    * @param headers
+    *    the HTTP headers of the request. The key and the value of the Map
+    *    is a String. The keys should all be in upper case. Can be <code>null</code>.
+    *
+    * @param body
+    *    the content of the request, can be <code>null</code>.
+    *
+    * @since XINS 3.2
+    */
+   public XINSServletRequest(String method, String url, Map headers, java.io.InputStream body) {
+      this(method, url, null, headers);
+      _body = body;
+   }
+
+   /**
+    * Parses the url to extract the path and the query string.
     *
     * @param url
     *    the request URL or the list of the parameters (name=value) separated
@@ -210,10 +244,52 @@ public class XINSServletRequest implements HttpServletRequest {
          if (startPathPos < url.length()) {
             _pathInfo = url.substring(startPathPos);
          }
-         return;
       }
+   }
 
-      StringTokenizer paramsParser = new StringTokenizer(_queryString, "&");
+   /**
+    * Gets the parameters of the request. The parameters are decoded from the
+    * query string and from the form content the first time this method is
+    * called.
+    *
+    * @return
+    *    the parameters, the value is a String or a list of String if the
+    *    parameter has several values, never <code>null</code>.
+    */
+   private HashMap getParameters() {
+      if (_parameters == null) {
+         _parameters = new HashMap();
+         if (_queryString != null) {
+            parseParameters(_queryString);
+         }
+
+         // The form content is decoded unless the servlet already read it
+         if (_body != null && !_inputStreamUsed && !_readerUsed && "POST".equals(_method) &&
+               _contentType != null && _contentType.startsWith("application/x-www-form-urlencoded")) {
+            try {
+               ByteArrayOutputStream form = new ByteArrayOutputStream();
+               byte[] buffer = new byte[4096];
+               for (int len = _body.read(buffer); len != -1; len = _body.read(buffer)) {
+                  form.write(buffer, 0, len);
+               }
+               parseParameters(form.toString("ISO-8859-1"));
+            } catch (IOException ioe) {
+               // Ignore the form parameters
+            }
+         }
+      }
+      return _parameters;
+   }
+
+   /**
+    * Decodes the parameters of a query string or of a form content.
+    *
+    * @param query
+    *    the list of the parameters (name=value) separated with ampersands,
+    *    cannot be <code>null</code>.
+    */
+   private void parseParameters(String query) {
+      StringTokenizer paramsParser = new StringTokenizer(query, "&");
       while (paramsParser.hasMoreTokens()) {
          String parameter = paramsParser.nextToken();
          int equalPos = parameter.indexOf('=');
@@ -250,7 +326,7 @@ public class XINSServletRequest implements HttpServletRequest {
    }
 
    public String[] getParameterValues(String str) {
-      Object values = _parameters.get(str);
+      Object values = getParameters().get(str);
       if (values == null) {
          return null;
       } else if (values instanceof String) {
@@ -340,11 +416,11 @@ public class XINSServletRequest implements HttpServletRequest {
    }
 
    public Enumeration getParameterNames() {
-      return Collections.enumeration(_parameters.keySet());
+      return Collections.enumeration(getParameters().keySet());
    }
 
    public Map getParameterMap() {
-      return _parameters;
+      return getParameters();
    }
 
    public String getMethod() {
@@ -422,15 +498,22 @@ public class XINSServletRequest implements HttpServletRequest {
          throw new IllegalStateException("The method getReader() has already been called on this request.");
       }
       _inputStreamUsed = true;
+      if (_body != null) {
+         return new InputStream(_body);
+      }
       return new InputStream(_postData);
    }
 
-   public BufferedReader getReader() {
+   public BufferedReader getReader() throws UnsupportedEncodingException {
       if (_inputStreamUsed) {
          throw new IllegalStateException("The method getInputStream() has already been called on this request.");
       }
       _readerUsed = true;
-      return new BufferedReader(new StringReader(_postData));
+      if (_body != null) {
+         String encoding = getCharacterEncoding();
+         return new BufferedReader(new InputStreamReader(_body, encoding == null ? "ISO-8859-1" : encoding));
+      }
+      return new BufferedReader(new StringReader(_postData == null ? "" : _postData));
    }
 
    public String getRemoteAddr() {
@@ -543,7 +626,7 @@ public class XINSServletRequest implements HttpServletRequest {
       private InputStream(String data) {
          String encoding = "ISO-8859-1";
          try {
-            byte[] dataAsByte = data.getBytes(encoding);
+            byte[] dataAsByte = data == null ? new byte[0] : data.getBytes(encoding);
             _stream = new ByteArrayInputStream(dataAsByte);
          } catch (UnsupportedEncodingException exception) {
             throw new RuntimeException("Failed to convert characters to bytes using encoding \"" + encoding + "\".");
@@ -551,9 +634,20 @@ public class XINSServletRequest implements HttpServletRequest {
       }
 
       /**
-       * The data. Is <code>null</code> if there is no data.
+       * Constructs a new <code>InputStream</code> instance reading the
+       * specified stream.
+       *
+       * @param data
+       *    the stream with the data, cannot be <code>null</code>.
+       */
+      private InputStream(java.io.InputStream data) {
+         _stream = data;
+      }
+
+      /**
+       * The stream with the data, never <code>null</code>.
        */
-      private final ByteArrayInputStream _stream;
+      private final java.io.InputStream _stream;
 
       public int read() throws IOException {
          return _stream.read();
@@ -5,8 +5,12 @@
  */
 package org.xins.common.servlet.container;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -49,9 +53,28 @@ public class XINSServletResponse implements HttpServletResponse {
    private String _encoding = "ISO-8859-1";
 
    /**
-    * The writer where to write the result.
+    * The bytes of the result, or <code>null</code> if the servlet did not
+    * write any result.
     */
-   private StringWriter _writer;
+   private ResultBuffer _result;
+
+   /**
+    * The writer where to write the result, or <code>null</code> if the
+    * writer is not used.
+    */
+   private PrintWriter _writer;
+
+   /**
+    * The encoding of the writer, or <code>null</code> if the writer is not
+    * used.
+    */
+   private String _writerEncoding;
+
+   /**
+    * The output stream where to write the result, or <code>null</code> if
+    * the output stream is not used.
+    */
+   private ServletOutputStream _outputStream;
 
    /**
     * The headers.
@@ -198,7 +221,9 @@ public class XINSServletResponse implements HttpServletResponse {
    }
 
    public void flushBuffer() {
-      throw new UnsupportedOperationException();
+      if (_writer != null) {
+         _writer.flush();
+      }
    }
 
    public void addHeader(String str, String str1) {
@@ -206,24 +231,59 @@ public class XINSServletResponse implements HttpServletResponse {
    }
 
    public ServletOutputStream getOutputStream() {
-      throw new UnsupportedOperationException();
+      if (_writer != null) {
+         throw new IllegalStateException("The method getWriter() has already been called on this response.");
+      }
+      if (_outputStream == null) {
+         _result = new ResultBuffer();
+         _outputStream = new ServletOutputStream() {
+            public void write(int b) {
+               _result.write(b);
+            }
+
+            public void write(byte[] b, int off, int len) {
+               _result.write(b, off, len);
+            }
+         };
+      }
+      return _outputStream;
    }
 
-   public PrintWriter getWriter() {
-      _writer = new StringWriter();
-      return new PrintWriter(_writer);
+   public PrintWriter getWriter() throws UnsupportedEncodingException {
+      if (_outputStream != null) {
+         throw new IllegalStateException("The method getOutputStream() has already been called on this response.");
+      }
+      if (_writer == null) {
+         _result = new ResultBuffer();
+         _writer = new PrintWriter(new OutputStreamWriter(_result, _encoding));
+         _writerEncoding = _encoding;
+      }
+      return _writer;
    }
 
+   /**
+    * Indicates whether the response has been committed. The result is kept
+    * in memory until the servlet returns, so it is never committed.
+    *
+    * @return
+    *    <code>false</code>.
+    */
    public boolean isCommitted() {
-      throw new UnsupportedOperationException();
+      return false;
    }
 
    public void reset() {
       throw new UnsupportedOperationException();
    }
 
+   /**
+    * Clears the content written so far, keeping the status and the headers.
+    */
    public void resetBuffer() {
-      throw new UnsupportedOperationException();
+      if (_result != null) {
+         flushBuffer();
+         _result.reset();
+      }
    }
 
    /**
@@ -233,10 +293,82 @@ public class XINSServletResponse implements HttpServletResponse {
     *    the returned message or <code>null</code> if no message is returned.
     */
    public String getResult() {
-      if (_writer == null) {
+      if (_result == null) {
+         return null;
+      }
+      flushBuffer();
+      try {
+         return _result.toString(_writerEncoding == null ? _encoding : _writerEncoding);
+      } catch (UnsupportedEncodingException ueex) {
+         throw new RuntimeException("Failed to convert bytes to characters using encoding \"" + _encoding + "\".");
+      }
+   }
+
+   /**
+    * Gets the length of the returned message from the servlet.
+    *
+    * @return
+    *    the number of bytes of the returned message or <code>-1</code> if
+    *    no message is returned.
+    *
+    * @since XINS 3.2
+    */
+   public int getResultLength() {
+      if (_result == null) {
+         return -1;
+      }
+      flushBuffer();
+      return _result.size();
+   }
+
+   /**
+    * Gets the returned message from the servlet as bytes.
+    *
+    * @return
+    *    the returned message or <code>null</code> if no message is returned.
+    *
+    * @since XINS 3.2
+    */
+   public byte[] getResultBytes() {
+      if (_result == null) {
          return null;
       }
-      return _writer.toString();
+      flushBuffer();
+      return _result.toByteArray();
+   }
+
+   /**
+    * Writes the returned message from the servlet to the specified stream,
+    * without copying it.
+    *
+    * @param out
+    *    the stream where to write the message, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the message cannot be written.
+    *
+    * @since XINS 3.2
+    */
+   public void writeResult(OutputStream out) throws IOException {
+      if (_result != null) {
+         flushBuffer();
+         _result.writeTo(out);
+      }
+   }
+
+   /**
+    * Gets the buffer containing the returned message from the servlet. The
+    * message is in the first {@link #getResultLength()} bytes.
+    *
+    * @return
+    *    the buffer, or <code>null</code> if no message is returned.
+    */
+   byte[] getResultBuffer() {
+      if (_result == null) {
+         return null;
+      }
+      flushBuffer();
+      return _result.getBuffer();
    }
 
    /**
@@ -272,4 +404,27 @@ public class XINSServletResponse implements HttpServletResponse {
    public Map<String, String> getHeaders() {
       return _headers;
    }
+
+   /**
+    * Buffer of the returned message giving access to its internal array.
+    */
+   private static final class ResultBuffer extends ByteArrayOutputStream {
+
+      /**
+       * Constructs a new <code>ResultBuffer</code>.
+       */
+      private ResultBuffer() {
+         super(1024);
+      }
+
+      /**
+       * Gets the internal array of the buffer.
+       *
+       * @return
+       *    the internal array, never <code>null</code>.
+       */
+      private byte[] getBuffer() {
+         return buf;
+      }
+   }
 }
@@ -0,0 +1,434 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import org.xins.common.MandatoryArgumentChecker;
+
+/**
+ * Compact and immutable XML element, intended for the data section of the
+ * XINS requests and results.
+ *
+ * <p>Compared to a DOM {@link Element}, a <code>CompactElement</code> does
+ * not need a {@link Document} to be created and its attributes and children
+ * are stored in arrays. The element and attribute names are interned.
+ *
+ * <p>Instances of this class cannot be created directly, using a constructor.
+ * Instead, use {@link CompactElementBuilder} to build an element, or
+ * {@link #fromDOM(Element)} to convert a DOM element.
+ *
+ * <p>The character content of an element is only taken into account when the
+ * element has no child elements.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+public final class CompactElement {
+
+   /**
+    * Empty array of attributes.
+    */
+   static final String[] NO_ATTRIBUTES = new String[0];
+
+   /**
+    * Empty array of child elements.
+    */
+   static final CompactElement[] NO_CHILDREN = new CompactElement[0];
+
+   /**
+    * The namespace URI of the element, or <code>null</code> if the element
+    * has no namespace.
+    */
+   private final String _namespaceURI;
+
+   /**
+    * The name of the element, interned. Never <code>null</code>.
+    */
+   private final String _name;
+
+   /**
+    * The attributes, the name (interned) at the even indexes and the value
+    * at the odd indexes. Never <code>null</code>.
+    */
+   private final String[] _attributes;
+
+   /**
+    * The child elements. Never <code>null</code>.
+    */
+   private final CompactElement[] _children;
+
+   /**
+    * The character content of this element. Can be <code>null</code>.
+    */
+   private final String _text;
+
+   /**
+    * Lazily computed hash code of this element, 0 if not computed yet.
+    */
+   private int _hashCode;
+
+   /**
+    * Creates a new <code>CompactElement</code>. The arrays are not copied.
+    *
+    * @param namespaceURI
+    *    the namespace URI of the element, can be <code>null</code>.
+    *
+    * @param name
+    *    the interned name of the element, cannot be <code>null</code>.
+    *
+    * @param attributes
+    *    the attribute names and values, cannot be <code>null</code>.
+    *
+    * @param children
+    *    the child elements, cannot be <code>null</code>.
+    *
+    * @param text
+    *    the character content, can be <code>null</code>.
+    */
+   CompactElement(String namespaceURI, String name, String[] attributes, CompactElement[] children, String text) {
+      _namespaceURI = namespaceURI;
+      _name         = name;
+      _attributes   = attributes;
+      _children     = children;
+      _text         = text;
+   }
+
+   /**
+    * Gets the namespace URI of this element.
+    *
+    * @return
+    *    the namespace URI of this element, or <code>null</code> if the
+    *    element has no namespace.
+    */
+   public String getNamespaceURI() {
+      return _namespaceURI;
+   }
+
+   /**
+    * Gets the name of this element.
+    *
+    * @return
+    *    the name of this element, never <code>null</code>.
+    */
+   public String getName() {
+      return _name;
+   }
+
+   /**
+    * Gets the number of attributes of this element.
+    *
+    * @return
+    *    the number of attributes, 0 or greater.
+    */
+   public int getAttributeCount() {
+      return _attributes.length / 2;
+   }
+
+   /**
+    * Gets the name of the attribute at the specified index.
+    *
+    * @param index
+    *    the index of the attribute, between 0 (inclusive) and
+    *    {@link #getAttributeCount()} (exclusive).
+    *
+    * @return
+    *    the name of the attribute, never <code>null</code>.
+    *
+    * @throws IndexOutOfBoundsException
+    *    if the index is out of range.
+    */
+   public String getAttributeName(int index) throws IndexOutOfBoundsException {
+      checkAttributeIndex(index);
+      return _attributes[index * 2];
+   }
+
+   /**
+    * Gets the value of the attribute at the specified index.
+    *
+    * @param index
+    *    the index of the attribute, between 0 (inclusive) and
+    *    {@link #getAttributeCount()} (exclusive).
+    *
+    * @return
+    *    the value of the attribute, never <code>null</code>.
+    *
+    * @throws IndexOutOfBoundsException
+    *    if the index is out of range.
+    */
+   public String getAttributeValue(int index) throws IndexOutOfBoundsException {
+      checkAttributeIndex(index);
+      return _attributes[index * 2 + 1];
+   }
+
+   private void checkAttributeIndex(int index) throws IndexOutOfBoundsException {
+      if (index < 0 || index * 2 >= _attributes.length) {
+         throw new IndexOutOfBoundsException("Attribute index " + index + " is out of range.");
+      }
+   }
+
+   /**
+    * Gets the value of the specified attribute.
+    *
+    * @param name
+    *    the name of the attribute, cannot be <code>null</code>.
+    *
+    * @return
+    *    the value of the attribute or <code>null</code> if the element does
+    *    not have such an attribute.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null</code>.
+    */
+   public String getAttribute(String name) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("name", name);
+      return attributeValue(_attributes, _attributes.length, name);
+   }
+
+   /**
+    * Finds the value of an attribute in an attribute array.
+    *
+    * @param attributes
+    *    the attribute names and values, cannot be <code>null</code>.
+    *
+    * @param length
+    *    the number of used entries in the array.
+    *
+    * @param name
+    *    the name of the attribute, cannot be <code>null</code>.
+    *
+    * @return
+    *    the value or <code>null</code> if the attribute is not found.
+    */
+   static String attributeValue(String[] attributes, int length, String name) {
+      for (int i = 0; i < length; i += 2) {
+         String attributeName = attributes[i];
+         if (attributeName == name || attributeName.equals(name)) {
+            return attributes[i + 1];
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Gets the number of child elements.
+    *
+    * @return
+    *    the number of child elements, 0 or greater.
+    */
+   public int getChildCount() {
+      return _children.length;
+   }
+
+   /**
+    * Gets the child element at the specified index.
+    *
+    * @param index
+    *    the index of the child, between 0 (inclusive) and
+    *    {@link #getChildCount()} (exclusive).
+    *
+    * @return
+    *    the child element, never <code>null</code>.
+    *
+    * @throws IndexOutOfBoundsException
+    *    if the index is out of range.
+    */
+   public CompactElement getChild(int index) throws IndexOutOfBoundsException {
+      return _children[index];
+   }
+
+   /**
+    * Gets all child elements of this element.
+    *
+    * @return
+    *    the unmodifiable list of child elements, never <code>null</code>.
+    */
+   public List<CompactElement> getChildElements() {
+      if (_children.length == 0) {
+         return Collections.emptyList();
+      }
+      return Collections.unmodifiableList(Arrays.asList(_children));
+   }
+
+   /**
+    * Gets the child elements with the specified name.
+    *
+    * @param name
+    *    the name of the child elements, cannot be <code>null</code>.
+    *
+    * @return
+    *    the list of the matching child elements, in the order of the
+    *    document, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null</code>.
+    */
+   public List<CompactElement> getChildElements(String name) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("name", name);
+      List<CompactElement> matches = null;
+      for (CompactElement child : _children) {
+         if (child._name == name || child._name.equals(name)) {
+            if (matches == null) {
+               matches = new ArrayList<CompactElement>(_children.length);
+            }
+            matches.add(child);
+         }
+      }
+      if (matches == null) {
+         return Collections.emptyList();
+      }
+      return matches;
+   }
+
+   /**
+    * Gets the character content of this element.
+    *
+    * @return
+    *    the character content, or <code>null</code> if there is none.
+    */
+   public String getText() {
+      return _text;
+   }
+
+   /**
+    * Creates the DOM equivalent of this element.
+    *
+    * @param document
+    *    the document used to create the DOM nodes, cannot be <code>null</code>.
+    *
+    * @return
+    *    the DOM element, not attached to the document, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>document == null</code>.
+    */
+   public Element toDOM(Document document) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("document", document);
+      Element element;
+      if (_namespaceURI != null) {
+         element = document.createElementNS(_namespaceURI, _name);
+      } else {
+         element = document.createElement(_name);
+      }
+      for (int i = 0; i < _attributes.length; i += 2) {
+         String attributeName = _attributes[i];
+         if (attributeName.equals(XMLConstants.XMLNS_ATTRIBUTE) || attributeName.startsWith("xmlns:")) {
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attributeName, _attributes[i + 1]);
+         } else if (_namespaceURI != null && attributeName.indexOf(':') < 0) {
+            element.setAttributeNS(null, attributeName, _attributes[i + 1]);
+         } else {
+            element.setAttribute(attributeName, _attributes[i + 1]);
+         }
+      }
+      for (CompactElement child : _children) {
+         element.appendChild(child.toDOM(document));
+      }
+      if (_children.length == 0 && _text != null) {
+         element.setTextContent(_text);
+      }
+      return element;
+   }
+
+   /**
+    * Creates a <code>CompactElement</code> from a DOM element.
+    *
+    * @param element
+    *    the DOM element to convert, cannot be <code>null</code>.
+    *
+    * @return
+    *    the compact element, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>element == null</code>.
+    */
+   public static CompactElement fromDOM(Element element) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("element", element);
+
+      NamedNodeMap domAttributes = element.getAttributes();
+      int attributeCount = domAttributes.getLength();
+      String[] attributes = NO_ATTRIBUTES;
+      if (attributeCount > 0) {
+         attributes = new String[attributeCount * 2];
+         for (int i = 0; i < attributeCount; i++) {
+            Node attribute = domAttributes.item(i);
+            attributes[i * 2]     = attribute.getNodeName().intern();
+            attributes[i * 2 + 1] = attribute.getNodeValue();
+         }
+      }
+
+      ElementList domChildren = new ElementList(element);
+      CompactElement[] children = NO_CHILDREN;
+      String text = null;
+      if (domChildren.isEmpty()) {
+         text = element.getTextContent();
+         if (text != null && text.length() == 0) {
+            text = null;
+         }
+      } else {
+         children = new CompactElement[domChildren.size()];
+         int i = 0;
+         for (Element domChild : domChildren) {
+            children[i++] = fromDOM(domChild);
+         }
+      }
+      return new CompactElement(element.getNamespaceURI(), element.getTagName().intern(), attributes, children, text);
+   }
+
+   @Override
+   public int hashCode() {
+      int hashCode = _hashCode;
+      if (hashCode == 0) {
+         hashCode = _name.hashCode();
+         hashCode = 31 * hashCode + (_namespaceURI == null ? 0 : _namespaceURI.hashCode());
+         hashCode = 31 * hashCode + Arrays.hashCode(_attributes);
+         hashCode = 31 * hashCode + Arrays.hashCode(_children);
+         hashCode = 31 * hashCode + (_text == null ? 0 : _text.hashCode());
+         _hashCode = hashCode;
+      }
+      return hashCode;
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      if (obj == this) {
+         return true;
+      } else if (!(obj instanceof CompactElement)) {
+         return false;
+      }
+      CompactElement other = (CompactElement) obj;
+      return _name.equals(other._name)
+          && (_namespaceURI == null ? other._namespaceURI == null : _namespaceURI.equals(other._namespaceURI))
+          && Arrays.equals(_attributes, other._attributes)
+          && Arrays.equals(_children, other._children)
+          && (_text == null ? other._text == null : _text.equals(other._text));
+   }
+
+   /**
+    * Returns the XML representation of this element.
+    * The XML declaration is not included.
+    *
+    * @return
+    *    the XML representation of this element, never <code>null</code>.
+    */
+   @Override
+   public String toString() {
+      return ElementFormatter.format(this);
+   }
+}
@@ -0,0 +1,256 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.common.xml;
+
+import java.util.Arrays;
+
+import org.xins.common.MandatoryArgumentChecker;
+
+/**
+ * Builder for {@link CompactElement} instances.
+ *
+ * <p>The child elements are added as immutable {@link CompactElement}
+ * objects, so adding a child never copies it. Adding a child builder
+ * adds the element as built at the time of the call.
+ *
+ * <p>This class is not thread-safe; it should not be used from different
+ * threads at the same time.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+public final class CompactElementBuilder {
+
+   /**
+    * The namespace URI of the element. Can be <code>null</code>.
+    */
+   private final String _namespaceURI;
+
+   /**
+    * The interned name of the element. Never <code>null</code>.
+    */
+   private final String _name;
+
+   /**
+    * The attribute names and values. Never <code>null</code>.
+    */
+   private String[] _attributes = CompactElement.NO_ATTRIBUTES;
+
+   /**
+    * The number of used entries in <code>_attributes</code>.
+    */
+   private int _attributeLength;
+
+   /**
+    * The child elements. Never <code>null</code>.
+    */
+   private CompactElement[] _children = CompactElement.NO_CHILDREN;
+
+   /**
+    * The number of child elements.
+    */
+   private int _childCount;
+
+   /**
+    * The character content. Can be <code>null</code>.
+    */
+   private String _text;
+
+   /**
+    * The last element built, or <code>null</code> if the builder has been
+    * modified since.
+    */
+   private CompactElement _built;
+
+   /**
+    * Creates a new <code>CompactElementBuilder</code>.
+    *
+    * @param name
+    *    the name of the element, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null</code>.
+    */
+   public CompactElementBuilder(String name) throws IllegalArgumentException {
+      this(null, name);
+   }
+
+   /**
+    * Creates a new <code>CompactElementBuilder</code> for an element with a
+    * namespace.
+    *
+    * @param namespaceURI
+    *    the namespace URI of the element, can be <code>null</code>.
+    *
+    * @param name
+    *    the qualified name of the element, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null</code>.
+    */
+   public CompactElementBuilder(String namespaceURI, String name) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("name", name);
+      _namespaceURI = namespaceURI;
+      _name = name.intern();
+   }
+
+   /**
+    * Sets an attribute. If the attribute is already set, its value is
+    * replaced.
+    *
+    * @param name
+    *    the name of the attribute, cannot be <code>null</code>.
+    *
+    * @param value
+    *    the value of the attribute, or <code>null</code> to remove the
+    *    attribute.
+    *
+    * @return
+    *    this builder, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null</code>.
+    */
+   public CompactElementBuilder setAttribute(String name, String value) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("name", name);
+      _built = null;
+      for (int i = 0; i < _attributeLength; i += 2) {
+         if (_attributes[i].equals(name)) {
+            if (value != null) {
+               _attributes[i + 1] = value;
+            } else {
+               System.arraycopy(_attributes, i + 2, _attributes, i, _attributeLength - i - 2);
+               _attributeLength -= 2;
+               _attributes[_attributeLength] = null;
+               _attributes[_attributeLength + 1] = null;
+            }
+            return this;
+         }
+      }
+      if (value != null) {
+         if (_attributeLength == _attributes.length) {
+            _attributes = Arrays.copyOf(_attributes, Math.max(8, _attributeLength * 2));
+         }
+         _attributes[_attributeLength++] = name.intern();
+         _attributes[_attributeLength++] = value;
+      }
+      return this;
+   }
+
+   /**
+    * Gets the value of an attribute set in this builder.
+    *
+    * @param name
+    *    the name of the attribute, cannot be <code>null</code>.
+    *
+    * @return
+    *    the value of the attribute or <code>null</code> if not set.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>name == null</code>.
+    */
+   public String getAttribute(String name) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("name", name);
+      return CompactElement.attributeValue(_attributes, _attributeLength, name);
+   }
+
+   /**
+    * Sets the character content of the element. The content is ignored if
+    * the element has child elements.
+    *
+    * @param text
+    *    the character content, can be <code>null</code>.
+    *
+    * @return
+    *    this builder, never <code>null</code>.
+    */
+   public CompactElementBuilder setText(String text) {
+      _built = null;
+      _text = text;
+      return this;
+   }
+
+   /**
+    * Gets the character content set in this builder.
+    *
+    * @return
+    *    the character content, can be <code>null</code>.
+    */
+   public String getText() {
+      return _text;
+   }
+
+   /**
+    * Adds a child element.
+    *
+    * @param child
+    *    the child element to add, cannot be <code>null</code>.
+    *
+    * @return
+    *    this builder, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>child == null</code>.
+    */
+   public CompactElementBuilder addChild(CompactElement child) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("child", child);
+      _built = null;
+      if (_childCount == _children.length) {
+         _children = Arrays.copyOf(_children, Math.max(4, _childCount * 2));
+      }
+      _children[_childCount++] = child;
+      return this;
+   }
+
+   /**
+    * Adds the element currently built by another builder as child element.
+    *
+    * @param child
+    *    the builder of the child element to add, cannot be <code>null</code>.
+    *
+    * @return
+    *    this builder, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>child == null</code>.
+    */
+   public CompactElementBuilder addChild(CompactElementBuilder child) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("child", child);
+      return addChild(child.build());
+   }
+
+   /**
+    * Gets the number of child elements added to this builder.
+    *
+    * @return
+    *    the number of child elements, 0 or greater.
+    */
+   public int getChildCount() {
+      return _childCount;
+   }
+
+   /**
+    * Builds the element. Calling this method several times without
+    * modifying the builder returns the same instance.
+    *
+    * @return
+    *    the element, never <code>null</code>.
+    */
+   public CompactElement build() {
+      if (_built == null) {
+         String[] attributes = _attributeLength == 0
+               ? CompactElement.NO_ATTRIBUTES
+               : Arrays.copyOf(_attributes, _attributeLength);
+         CompactElement[] children = _childCount == 0
+               ? CompactElement.NO_CHILDREN
+               : Arrays.copyOf(_children, _childCount);
+         _built = new CompactElement(_namespaceURI, _name, attributes, children, _text);
+      }
+      return _built;
+   }
+}
@@ -2,7 +2,8 @@ package org.xins.common.xml;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.Stack;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -13,6 +14,21 @@ import org.xml.sax.SAXException;
 /**
  * Class used to provide DocumentBuilder objects.
  *
+ * <p>Each thread keeps the last builder it released, so that a thread
+ * parsing several documents reuses the same builder without any
+ * synchronization. The other released builders are kept in a shared
+ * lock-free array allocated once, so that releasing a builder does not
+ * allocate any object.
+ *
+ * <p>A builder obtained with {@link #getBuilder()} should be released only
+ * once using {@link #releaseBuilder(DocumentBuilder)} and should not be used
+ * after it has been released. A builder released again while it is still in
+ * the pool is ignored.
+ *
+ * <p>The usage statistics are only collected after
+ * {@link #setStatisticsEnabled(boolean)} has been called with
+ * <code>true</code>.
+ *
  * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
  *
  * @since XINS 3.0
@@ -21,46 +37,238 @@ public class DocumentBuilderPool {
 
    private final static int MAX_POOL_SIZE = 100;
 
-   private static DocumentBuilderPool INSTANCE = null;
+   private final static DocumentBuilderPool INSTANCE = new DocumentBuilderPool();
+
+   /**
+    * Entity resolver that resolves all entities to empty content.
+    * This class is stateless so one instance is shared by all the builders.
+    */
+   private final static EntityResolver EMPTY_ENTITY_RESOLVER = new EntityResolver() {
+      public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+         return new InputSource(new ByteArrayInputStream(new byte[0]));
+      }
+   };
+
+   /**
+    * The builder released last by the current thread, if any.
+    */
+   private final ThreadLocal<DocumentBuilder> threadBuilder = new ThreadLocal<DocumentBuilder>();
+
+   /**
+    * The released builders shared between threads. A free slot contains
+    * <code>null</code>.
+    */
+   private final AtomicReferenceArray<DocumentBuilder> pool = new AtomicReferenceArray<DocumentBuilder>(MAX_POOL_SIZE);
+
+   /**
+    * Flag indicating whether the usage statistics are collected.
+    */
+   private volatile boolean statisticsEnabled;
+
+   private final AtomicLong borrowCount = new AtomicLong();
 
-   private Stack<DocumentBuilder> builderPool = new Stack<DocumentBuilder>();
+   private final AtomicLong threadHitCount = new AtomicLong();
 
-   private final Object builderLock = new Object();
+   private final AtomicLong poolHitCount = new AtomicLong();
+
+   private final AtomicLong missCount = new AtomicLong();
+
+   private final AtomicLong borrowNanos = new AtomicLong();
 
    private DocumentBuilderPool() {
    }
 
-   public static synchronized DocumentBuilderPool getInstance() {
-      if (INSTANCE == null) {
-         INSTANCE = new DocumentBuilderPool();
-      }
+   public static DocumentBuilderPool getInstance() {
       return INSTANCE;
    }
 
    public DocumentBuilder getBuilder() {
-      DocumentBuilder builder = null;
-      synchronized (builderLock) {
-         if (!builderPool.empty()) {
-            //SoftReference<DocumentBuilder> refBuilder = builderPool.pop();
-            builder = builderPool.pop();
+      if (!statisticsEnabled) {
+         DocumentBuilder builder = threadBuilder.get();
+         if (builder != null) {
+            threadBuilder.set(null);
+            return builder;
          }
+         builder = pop();
+         return builder != null ? builder : createDocumentBuilder();
       }
-      if (builder == null) {
-         builder = createDocumentBuilder();
+      long start = System.nanoTime();
+      DocumentBuilder builder = threadBuilder.get();
+      if (builder != null) {
+         threadBuilder.set(null);
+         threadHitCount.incrementAndGet();
       } else {
-         builder.reset();
-         initDocumentBuilder(builder);
+         builder = pop();
+         if (builder != null) {
+            poolHitCount.incrementAndGet();
+         } else {
+            builder = createDocumentBuilder();
+            missCount.incrementAndGet();
+         }
       }
+      borrowCount.incrementAndGet();
+      borrowNanos.addAndGet(System.nanoTime() - start);
       return builder;
    }
 
    public void releaseBuilder(DocumentBuilder builder) {
-      // no need to synchronized as Stack is synchronized
-      if (!builderPool.contains(builder) && builderPool.size() < MAX_POOL_SIZE) {
-         builderPool.push(builder);
+      if (builder == null) {
+         return;
+      }
+      DocumentBuilder current = threadBuilder.get();
+      if (current == builder || isPooled(builder)) {
+         return;
+      }
+      builder.reset();
+      builder.setEntityResolver(EMPTY_ENTITY_RESOLVER);
+      if (current == null) {
+         threadBuilder.set(builder);
+      } else {
+         push(builder);
       }
    }
 
+   /**
+    * Takes a builder from the shared array.
+    *
+    * @return
+    *    the builder or <code>null</code> if the shared array is empty.
+    */
+   private DocumentBuilder pop() {
+      for (int i = 0; i < MAX_POOL_SIZE; i++) {
+         DocumentBuilder builder = pool.get(i);
+         if (builder != null && pool.compareAndSet(i, builder, null)) {
+            return builder;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Puts a builder in the first free slot of the shared array. The builder
+    * is dropped if the shared array is full.
+    *
+    * @param builder
+    *    the builder to put, cannot be <code>null</code>.
+    */
+   private void push(DocumentBuilder builder) {
+      for (int i = 0; i < MAX_POOL_SIZE; i++) {
+         if (pool.get(i) == null && pool.compareAndSet(i, null, builder)) {
+            return;
+         }
+      }
+   }
+
+   /**
+    * Indicates whether a builder is in the shared array, which is the case
+    * if it is released twice.
+    *
+    * @param builder
+    *    the builder, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the builder is in the shared array,
+    *    <code>false</code> otherwise.
+    */
+   private boolean isPooled(DocumentBuilder builder) {
+      for (int i = 0; i < MAX_POOL_SIZE; i++) {
+         if (pool.get(i) == builder) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Enables or disables the collection of the usage statistics. The
+    * statistics are disabled by default, so that getting a builder does not
+    * update any counter shared between threads.
+    *
+    * @param enabled
+    *    <code>true</code> to collect the statistics, <code>false</code>
+    *    otherwise.
+    *
+    * @since XINS 3.2
+    */
+   public void setStatisticsEnabled(boolean enabled) {
+      statisticsEnabled = enabled;
+   }
+
+   /**
+    * Indicates whether the usage statistics are collected.
+    *
+    * @return
+    *    <code>true</code> if the statistics are collected,
+    *    <code>false</code> otherwise.
+    *
+    * @since XINS 3.2
+    */
+   public boolean isStatisticsEnabled() {
+      return statisticsEnabled;
+   }
+
+   /**
+    * Gets the number of times a builder has been requested while the
+    * statistics were enabled.
+    *
+    * @return
+    *    the number of calls to {@link #getBuilder()}.
+    *
+    * @since XINS 3.2
+    */
+   public long getBorrowCount() {
+      return borrowCount.get();
+   }
+
+   /**
+    * Gets the number of times the builder kept by the calling thread was
+    * reused.
+    *
+    * @return
+    *    the number of builders reused from the thread.
+    *
+    * @since XINS 3.2
+    */
+   public long getThreadHitCount() {
+      return threadHitCount.get();
+   }
+
+   /**
+    * Gets the number of times a builder was reused from the shared array.
+    *
+    * @return
+    *    the number of builders reused from the shared array.
+    *
+    * @since XINS 3.2
+    */
+   public long getPoolHitCount() {
+      return poolHitCount.get();
+   }
+
+   /**
+    * Gets the number of times a new builder had to be created.
+    *
+    * @return
+    *    the number of builders created.
+    *
+    * @since XINS 3.2
+    */
+   public long getMissCount() {
+      return missCount.get();
+   }
+
+   /**
+    * Gets the total time spent in {@link #getBuilder()}.
+    *
+    * @return
+    *    the total time spent getting builders, in nanoseconds.
+    *
+    * @since XINS 3.2
+    */
+   public long getTotalBorrowTime() {
+      return borrowNanos.get();
+   }
+
    /**
     * Creates a DocumentBuilder.
     *
@@ -74,7 +282,7 @@ public class DocumentBuilderPool {
          builderFactory.setNamespaceAware(true);
          builderFactory.setValidating(false);
          DocumentBuilder builder = builderFactory.newDocumentBuilder();
-         initDocumentBuilder(builder);
+         builder.setEntityResolver(EMPTY_ENTITY_RESOLVER);
          return builder;
       } catch (ParserConfigurationException ex) {
          // Without Dom the program should fail
@@ -82,13 +290,4 @@ public class DocumentBuilderPool {
          throw new IllegalStateException(("Failed to create a DOM document builder: " + ex.getMessage()));
       }
    }
-
-   private DocumentBuilder initDocumentBuilder(DocumentBuilder builder) {
-      builder.setEntityResolver(new EntityResolver() {
-         public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
-             return new InputSource(new ByteArrayInputStream(new byte[0]));
-         }
-      });
-      return builder;
-   }
 }
@@ -12,9 +12,11 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
 
 import org.xins.common.MandatoryArgumentChecker;
 
@@ -90,6 +92,107 @@ public class ElementFormatter {
       xmlout.endTag();
    }
 
+   /**
+    * Returns the String representation of the compact element as XML.
+    * The XML declaration is not included.
+    *
+    * @param element
+    *    the element to serialize, cannot be <code>null</code>.
+    *
+    * @return
+    *    the XML representation of the XML or an empty element if an error occured.
+    *
+    * @since XINS 3.2
+    */
+   public static String format(CompactElement element) {
+      MandatoryArgumentChecker.check("element", element);
+      StringWriter output = new StringWriter();
+      try {
+         XMLOutputter xmlout = new XMLOutputter(output, "UTF-8");
+         format(element, xmlout);
+         return output.toString();
+      } catch (IOException iex) {
+         return "<" + element.getName() + "/>";
+      }
+   }
+
+   /**
+    * Serializes the compact element in the XMLOutputter.
+    *
+    * @param element
+    *    the element to serialize, cannot be <code>null</code>.
+    *
+    * @param xmlout
+    *    the XMLOutputer to serialize the element, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the serialization failed.
+    *
+    * @since XINS 3.2
+    */
+   public static void format(CompactElement element, XMLOutputter xmlout) throws IOException {
+      MandatoryArgumentChecker.check("element", element, "xmlout", xmlout);
+      writeCompactElement(element, xmlout);
+   }
+
+   private static void writeCompactElement(CompactElement element, XMLOutputter xmlout) throws IOException {
+      xmlout.startTag(element.getName());
+      int attributeCount = element.getAttributeCount();
+      for (int i = 0; i < attributeCount; i++) {
+         xmlout.attribute(element.getAttributeName(i), element.getAttributeValue(i));
+      }
+      int childCount = element.getChildCount();
+      for (int i = 0; i < childCount; i++) {
+         writeCompactElement(element.getChild(i), xmlout);
+      }
+      String pcdata = element.getText();
+      if (childCount == 0 && pcdata != null && pcdata.length() > 0) {
+         xmlout.pcdata(pcdata);
+      }
+      xmlout.endTag();
+   }
+
+   /**
+    * Sends the compact element as SAX events to the content handler.
+    * The <code>startDocument</code> and <code>endDocument</code> events are
+    * not sent.
+    *
+    * @param element
+    *    the element to send, cannot be <code>null</code>.
+    *
+    * @param handler
+    *    the content handler that receives the events, cannot be <code>null</code>.
+    *
+    * @throws SAXException
+    *    if the content handler throws an exception.
+    *
+    * @since XINS 3.2
+    */
+   public static void format(CompactElement element, ContentHandler handler) throws SAXException {
+      MandatoryArgumentChecker.check("element", element, "handler", handler);
+      sendCompactElement(element, handler, new AttributesImpl());
+   }
+
+   private static void sendCompactElement(CompactElement element, ContentHandler handler, AttributesImpl attributes) throws SAXException {
+      String name = element.getName();
+      attributes.clear();
+      int attributeCount = element.getAttributeCount();
+      for (int i = 0; i < attributeCount; i++) {
+         String attributeName = element.getAttributeName(i);
+         attributes.addAttribute("", attributeName, attributeName, "CDATA", element.getAttributeValue(i));
+      }
+      handler.startElement("", name, name, attributes);
+      int childCount = element.getChildCount();
+      for (int i = 0; i < childCount; i++) {
+         sendCompactElement(element.getChild(i), handler, attributes);
+      }
+      String pcdata = element.getText();
+      if (childCount == 0 && pcdata != null && pcdata.length() > 0) {
+         handler.characters(pcdata.toCharArray(), 0, pcdata.length());
+      }
+      handler.endElement("", name, name);
+   }
+
    /**
     * Creates a DOM element by parsing the given XML.
     *
@@ -115,14 +218,14 @@ public class ElementFormatter {
     *    if for any reason the XML cannot be parsed correctly.
     */
    public static Element parseURI(String uri) throws SAXException {
+      DocumentBuilder builder = DocumentBuilderPool.getInstance().getBuilder();
       try {
-         DocumentBuilder builder = DocumentBuilderPool.getInstance().getBuilder();
          Document document = builder.parse(uri);
-         Element parsedElement = document.getDocumentElement();
-         DocumentBuilderPool.getInstance().releaseBuilder(builder);
-         return parsedElement;
+         return document.getDocumentElement();
       } catch (IOException ex) {
          throw new SAXParseException("IO error occured while parsing " + uri + ": " + ex.getMessage(), null);
+      } finally {
+         DocumentBuilderPool.getInstance().releaseBuilder(builder);
       }
    }
 
@@ -137,16 +240,16 @@ public class ElementFormatter {
     *    if for any reason the XML cannot be parsed correctly.
     */
    public static Element parse(Reader reader) throws SAXException {
+      DocumentBuilder builder = DocumentBuilderPool.getInstance().getBuilder();
       try {
-         DocumentBuilder builder = DocumentBuilderPool.getInstance().getBuilder();
          InputSource source = new InputSource();
          source.setCharacterStream(reader);
          Document document = builder.parse(source);
-         Element parsedElement = document.getDocumentElement();
-         DocumentBuilderPool.getInstance().releaseBuilder(builder);
-         return parsedElement;
+         return document.getDocumentElement();
       } catch (IOException ex) {
          throw new SAXParseException("IO error occured while parsing: " + ex.getMessage(), null);
+      } finally {
+         DocumentBuilderPool.getInstance().releaseBuilder(builder);
       }
    }
 
@@ -162,14 +265,14 @@ public class ElementFormatter {
     *    if for any reason the XML cannot be parsed correctly.
     */
    public static Element parse(InputStream stream) throws SAXException {
+      DocumentBuilder builder = DocumentBuilderPool.getInstance().getBuilder();
       try {
-         DocumentBuilder builder = DocumentBuilderPool.getInstance().getBuilder();
          Document document = builder.parse(stream);
-         Element rootElement = document.getDocumentElement();
-         DocumentBuilderPool.getInstance().releaseBuilder(builder);
-         return rootElement;
+         return document.getDocumentElement();
       } catch (IOException ex) {
          throw new SAXParseException("IO error occured while parsing: " + ex.getMessage(), null);
+      } finally {
+         DocumentBuilderPool.getInstance().releaseBuilder(builder);
       }
    }
 
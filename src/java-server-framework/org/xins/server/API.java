@@ -14,6 +14,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.http.HttpServletResponse;
@@ -129,7 +130,7 @@ public abstract class API extends Manageable {
     * The runtime-time settings. This field is initialized by
     * {@link #init(Map)}. It can be <code>null</code> before that.
     */
-   private Map<String, String> _runtimeSettings;
+   private volatile Map<String, String> _runtimeSettings;
 
    /**
     * Timestamp indicating when this API instance was created.
@@ -164,12 +165,18 @@ public abstract class API extends Manageable {
    /**
     * The API specific access rule list.
     */
-   private AccessRuleList _apiAccessRuleList;
+   private volatile AccessRuleList _apiAccessRuleList;
 
    /**
     * The general access rule list.
     */
-   private AccessRuleList _accessRuleList;
+   private volatile AccessRuleList _accessRuleList;
+
+   /**
+    * The runtime properties used by this API, its manageable objects and its
+    * functions. This field is never <code>null</code>.
+    */
+   private final PropertyUsage _propertyUsage = new PropertyUsage();
 
    /**
     * The API specification.
@@ -301,6 +308,40 @@ public abstract class API extends Manageable {
       return _emptyProperties;
    }
 
+   /**
+    * Creates a new instance of the runtime properties class of this API.
+    * When the runtime properties change, the new instance is initialized
+    * and then passed to {@link #setProperties(RuntimeProperties)}, so that
+    * the calls see either all the previous values or all the new ones.
+    *
+    * <p>This method is overridden by the generated APIImpl class.
+    *
+    * @return
+    *    the new uninitialized instance, or <code>null</code> if the current
+    *    instance should be initialized again instead.
+    *
+    * @since XINS 3.2
+    */
+   protected RuntimeProperties createProperties() {
+      return null;
+   }
+
+   /**
+    * Replaces the runtime properties returned by {@link #getProperties()}.
+    * This method is only called with an initialized instance returned by
+    * {@link #createProperties()}.
+    *
+    * <p>This method is overridden by the generated APIImpl class.
+    *
+    * @param properties
+    *    the new runtime properties, never <code>null</code>.
+    *
+    * @since XINS 3.2
+    */
+   protected void setProperties(RuntimeProperties properties) {
+      throw new UnsupportedOperationException("The runtime properties of the API " + _name + " cannot be replaced.");
+   }
+
    /**
     * Gets the timestamp that indicates when this <code>API</code> instance
     * was created.
@@ -570,6 +611,143 @@ public abstract class API extends Manageable {
       // Store runtime settings
       _runtimeSettings = runtimeSettings;
 
+      // Initialize ACL subsystem
+      initAccessRules(_propertyUsage.track(this, runtimeSettings));
+
+      // Initialize the RuntimeProperties object.
+      RuntimeProperties properties = getProperties();
+      properties.init(_propertyUsage.track(properties, runtimeSettings));
+
+      // Initialize all instances
+      for (Manageable m : _manageableObjects) {
+         initManageable(m, _propertyUsage.track(m, runtimeSettings));
+      }
+
+      // Initialize all functions
+      for (Function f : _functionList) {
+         initFunction(f, _propertyUsage.track(f, runtimeSettings));
+      }
+
+      Log.log_3406(_name);
+   }
+
+   /**
+    * Reinitializes the parts of this API that use changed runtime
+    * properties, except the functions. Unlike {@link #init(Map)}, this API
+    * stays usable during the reinitialization. The access rules and the
+    * {@link RuntimeProperties} are created aside and then replace the
+    * current ones. The manageable objects are reinitialized in place, see
+    * {@link Manageable#reinit(Map)}.
+    *
+    * @param runtimeSettings
+    *    the new runtime configuration settings, cannot be <code>null</code>.
+    *
+    * @param changedKeys
+    *    the names of the runtime properties added, removed or modified since
+    *    the previous initialization, cannot be <code>null</code>.
+    *
+    * @throws MissingRequiredPropertyException
+    *    if a required property is missing.
+    *
+    * @throws InvalidPropertyValueException
+    *    if a property has an invalid value.
+    *
+    * @throws InitializationException
+    *    if the initialization failed for some other reason.
+    */
+   void reinit(Map<String, String> runtimeSettings, Set<String> changedKeys)
+   throws MissingRequiredPropertyException,
+          InvalidPropertyValueException,
+          InitializationException {
+
+      Log.log_3448(_name, changedKeys.toString());
+
+      // Store runtime settings
+      _runtimeSettings = runtimeSettings;
+
+      // Reinitialize the ACL subsystem if needed
+      if (_propertyUsage.isAffected(this, changedKeys)) {
+         initAccessRules(_propertyUsage.track(this, runtimeSettings));
+      } else {
+         _propertyUsage.rebase(this, runtimeSettings);
+      }
+
+      // Reinitialize the RuntimeProperties object if needed
+      RuntimeProperties properties = getProperties();
+      if (_propertyUsage.isAffected(properties, changedKeys)) {
+         RuntimeProperties newProperties = createProperties();
+         if (newProperties == null) {
+            properties.init(_propertyUsage.track(properties, runtimeSettings));
+         } else {
+            newProperties.init(_propertyUsage.track(newProperties, runtimeSettings));
+            setProperties(newProperties);
+            _propertyUsage.forget(properties);
+         }
+      } else {
+         _propertyUsage.rebase(properties, runtimeSettings);
+      }
+
+      // Reinitialize the instances using the changed properties
+      for (Manageable m : _manageableObjects) {
+         if (!m.isUsable() || _propertyUsage.isAffected(m, changedKeys)) {
+            initManageable(m, _propertyUsage.track(m, runtimeSettings));
+         } else {
+            _propertyUsage.rebase(m, runtimeSettings);
+         }
+      }
+   }
+
+   /**
+    * Reinitializes the functions of this API that use changed runtime
+    * properties. The functions stay usable and are reinitialized in place,
+    * see {@link Manageable#reinit(Map)}.
+    *
+    * @param runtimeSettings
+    *    the new runtime configuration settings, cannot be <code>null</code>.
+    *
+    * @param changedKeys
+    *    the names of the runtime properties added, removed or modified since
+    *    the previous initialization, cannot be <code>null</code>.
+    *
+    * @throws MissingRequiredPropertyException
+    *    if a required property is missing.
+    *
+    * @throws InvalidPropertyValueException
+    *    if a property has an invalid value.
+    *
+    * @throws InitializationException
+    *    if the initialization failed for some other reason.
+    */
+   void reinitFunctions(Map<String, String> runtimeSettings, Set<String> changedKeys)
+   throws MissingRequiredPropertyException,
+          InvalidPropertyValueException,
+          InitializationException {
+
+      // Reinitialize the functions using the changed properties
+      for (Function f : _functionList) {
+         if (!f.isUsable() || _propertyUsage.isAffected(f, changedKeys)) {
+            initFunction(f, _propertyUsage.track(f, runtimeSettings));
+         } else {
+            _propertyUsage.rebase(f, runtimeSettings);
+         }
+      }
+
+      Log.log_3406(_name);
+   }
+
+   /**
+    * Initializes the access rule lists. The new lists replace the previous
+    * ones once they are created.
+    *
+    * @param runtimeSettings
+    *    the runtime configuration settings, cannot be <code>null</code>.
+    *
+    * @throws InvalidPropertyValueException
+    *    if a property has an invalid value.
+    */
+   private void initAccessRules(Map<String, String> runtimeSettings)
+   throws InvalidPropertyValueException {
+
       String propName  = ConfigManager.CONFIG_RELOAD_INTERVAL_PROPERTY;
       String propValue = runtimeSettings.get(propName);
       int interval = ConfigManager.DEFAULT_CONFIG_RELOAD_INTERVAL;
@@ -589,103 +767,156 @@ public abstract class API extends Manageable {
          }
       }
 
-      // Initialize ACL subsystem
-
       // First with the API specific access rule list
-      if (_apiAccessRuleList != null) {
-         _apiAccessRuleList.dispose();
-      }
-      _apiAccessRuleList = createAccessRuleList(runtimeSettings, ACL_PROPERTY + '.' + _name, interval);
+      AccessRuleList apiAccessRuleList = createAccessRuleList(runtimeSettings, ACL_PROPERTY + '.' + _name, interval);
 
       // Then read the generic access rule list
-      if (_accessRuleList != null) {
-         _accessRuleList.dispose();
+      AccessRuleList accessRuleList;
+      try {
+         accessRuleList = createAccessRuleList(runtimeSettings, ACL_PROPERTY, interval);
+      } catch (InvalidPropertyValueException exception) {
+         apiAccessRuleList.dispose();
+         throw exception;
       }
-      _accessRuleList = createAccessRuleList(runtimeSettings, ACL_PROPERTY, interval);
 
-      // Initialize the RuntimeProperties object.
-      getProperties().init(runtimeSettings);
-
-      // Initialize all instances
-      int count = _manageableObjects.size();
-      for (int i = 0; i < count; i++) {
-         Manageable m = _manageableObjects.get(i);
-         String className = m.getClass().getName();
-         Log.log_3416(_name, className);
-         try {
-            m.init(runtimeSettings);
-
-         // Missing required property
-         } catch (MissingRequiredPropertyException exception) {
-            Log.log_3418(_name, className, exception.getPropertyName(),
-                         exception.getDetail());
-            throw exception;
+      // Replace the previous lists
+      AccessRuleList oldAPIAccessRuleList = _apiAccessRuleList;
+      AccessRuleList oldAccessRuleList    = _accessRuleList;
+      _apiAccessRuleList = apiAccessRuleList;
+      _accessRuleList    = accessRuleList;
+      if (oldAPIAccessRuleList != null) {
+         oldAPIAccessRuleList.dispose();
+      }
+      if (oldAccessRuleList != null) {
+         oldAccessRuleList.dispose();
+      }
+   }
 
-         // Invalid property value
-         } catch (InvalidPropertyValueException exception) {
-            Log.log_3419(_name,
-                         className,
-                         exception.getPropertyName(),
-                         exception.getPropertyValue(),
-                         exception.getReason());
-            throw exception;
+   /**
+    * Initializes a manageable object of this API. If the object is already
+    * usable, it stays usable during the initialization.
+    *
+    * @param m
+    *    the manageable object, cannot be <code>null</code>.
+    *
+    * @param runtimeSettings
+    *    the runtime configuration settings, cannot be <code>null</code>.
+    *
+    * @throws MissingRequiredPropertyException
+    *    if a required property is missing.
+    *
+    * @throws InvalidPropertyValueException
+    *    if a property has an invalid value.
+    *
+    * @throws InitializationException
+    *    if the initialization failed for some other reason.
+    */
+   private void initManageable(Manageable m, Map<String, String> runtimeSettings)
+   throws MissingRequiredPropertyException,
+          InvalidPropertyValueException,
+          InitializationException {
 
-         // Catch InitializationException and any other exceptions not caught
-         // by previous catch statements
-         } catch (Throwable exception) {
+      String className = m.getClass().getName();
+      Log.log_3416(_name, className);
+      try {
+         if (m.isUsable() && getState() == USABLE) {
+            m.reinit(runtimeSettings);
+         } else {
+            m.init(runtimeSettings);
+         }
 
-            // Log this event
-            Log.log_3420(exception, _name, className);
-            if (exception instanceof InitializationException) {
-               throw (InitializationException) exception;
-            } else {
-               throw new InitializationException(exception);
-            }
+      // Missing required property
+      } catch (MissingRequiredPropertyException exception) {
+         Log.log_3418(_name, className, exception.getPropertyName(),
+                      exception.getDetail());
+         throw exception;
+
+      // Invalid property value
+      } catch (InvalidPropertyValueException exception) {
+         Log.log_3419(_name,
+                      className,
+                      exception.getPropertyName(),
+                      exception.getPropertyValue(),
+                      exception.getReason());
+         throw exception;
+
+      // Catch InitializationException and any other exceptions not caught
+      // by previous catch statements
+      } catch (Throwable exception) {
+
+         // Log this event
+         Log.log_3420(exception, _name, className);
+         if (exception instanceof InitializationException) {
+            throw (InitializationException) exception;
+         } else {
+            throw new InitializationException(exception);
          }
       }
+   }
 
-      // Initialize all functions
-      count = _functionList.size();
-      for (int i = 0; i < count; i++) {
-         Function f = _functionList.get(i);
-         String functionName = f.getName();
-         Log.log_3421(_name, functionName);
-         try {
-            f.init(runtimeSettings);
-
-         // Missing required property
-         } catch (MissingRequiredPropertyException exception) {
-            Log.log_3423(_name, functionName, exception.getPropertyName(),
-                         exception.getDetail());
-            throw exception;
-
-         // Invalid property value
-         } catch (InvalidPropertyValueException exception) {
-            Log.log_3424(_name,
-                         functionName,
-                         exception.getPropertyName(),
-                         exception.getPropertyValue(),
-                         exception.getReason());
-            throw exception;
-
-         // Catch InitializationException and any other exceptions not caught
-         // by previous catch statements
-         } catch (Throwable exception) {
+   /**
+    * Initializes a function of this API. If the function is already usable,
+    * it stays usable during the initialization.
+    *
+    * @param f
+    *    the function, cannot be <code>null</code>.
+    *
+    * @param runtimeSettings
+    *    the runtime configuration settings, cannot be <code>null</code>.
+    *
+    * @throws MissingRequiredPropertyException
+    *    if a required property is missing.
+    *
+    * @throws InvalidPropertyValueException
+    *    if a property has an invalid value.
+    *
+    * @throws InitializationException
+    *    if the initialization failed for some other reason.
+    */
+   private void initFunction(Function f, Map<String, String> runtimeSettings)
+   throws MissingRequiredPropertyException,
+          InvalidPropertyValueException,
+          InitializationException {
 
-            // Log this event
-            Log.log_3425(exception, _name, functionName);
+      String functionName = f.getName();
+      Log.log_3421(_name, functionName);
+      try {
+         if (f.isUsable() && getState() == USABLE) {
+            f.reinit(runtimeSettings);
+         } else {
+            f.init(runtimeSettings);
+         }
 
-            // Throw an InitializationException. If necessary, wrap around the
-            // caught exception
-            if (exception instanceof InitializationException) {
-               throw (InitializationException) exception;
-            } else {
-               throw new InitializationException(exception);
-            }
+      // Missing required property
+      } catch (MissingRequiredPropertyException exception) {
+         Log.log_3423(_name, functionName, exception.getPropertyName(),
+                      exception.getDetail());
+         throw exception;
+
+      // Invalid property value
+      } catch (InvalidPropertyValueException exception) {
+         Log.log_3424(_name,
+                      functionName,
+                      exception.getPropertyName(),
+                      exception.getPropertyValue(),
+                      exception.getReason());
+         throw exception;
+
+      // Catch InitializationException and any other exceptions not caught
+      // by previous catch statements
+      } catch (Throwable exception) {
+
+         // Log this event
+         Log.log_3425(exception, _name, functionName);
+
+         // Throw an InitializationException. If necessary, wrap around the
+         // caught exception
+         if (exception instanceof InitializationException) {
+            throw (InitializationException) exception;
+         } else {
+            throw new InitializationException(exception);
          }
       }
-
-      Log.log_3406(_name);
    }
 
    /**
@@ -28,6 +28,7 @@ import org.apache.log4j.jmx.HierarchyDynamicMBean;
 import org.xins.common.Utils;
 import org.xins.common.collections.MapStringUtils;
 import org.xins.common.net.IPAddressUtils;
+import org.xins.common.service.CallMetrics;
 import org.xins.common.text.DateConverter;
 import org.xins.common.text.TextUtils;
 import org.w3c.dom.Element;
@@ -389,5 +390,8 @@ public final class APIManager implements APIManagerMBean {
       // Add the root logger to the Hierarchy MBean
       Logger rootLogger = Logger.getRootLogger();
       hdm.addLoggerMBean(rootLogger.getName());
+
+      // Register the metrics of the calls made by the API to other services
+      CallMetrics.registerMBean(mBeanServer);
    }
 }
@@ -44,4 +44,13 @@ public interface BackpackConstants {
     * The key used to specify a specific HTTP status code to return.
     */
    String STATUS_CODE = "_statusCode";
+
+   /**
+    * The key used to store the time after which the caller does not wait
+    * for the result anymore. The value is the number of milliseconds since
+    * the UNIX Epoch.
+    *
+    * @since XINS 3.2
+    */
+   String DEADLINE = "_deadline";
 }
@@ -0,0 +1,207 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.xins.common.MandatoryArgumentChecker;
+
+/**
+ * Request containing several function requests sent in one HTTP request,
+ * for example a JSON-RPC 2.0 batch.
+ *
+ * <p>Each function request of the batch is executed by the engine in the
+ * same way as a single request: the interceptors are called, the access
+ * rules are checked and the function is invoked. The result of the batch is
+ * a {@link BatchFunctionResult} containing the result of each function
+ * request, in the same order.
+ *
+ * <p>A request of the batch that could not be converted by the calling
+ * convention can be added with {@link #addRejected(FunctionRequest, FunctionResult)}.
+ * The function is then not called and the given result is returned for it.
+ *
+ * <p>If an executor is set, the function requests of the batch are executed
+ * in parallel using this executor, with at most
+ * {@link #getMaxConcurrency()} requests of the batch executed at the same
+ * time. Otherwise the function requests are executed one after the other.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+public class BatchFunctionRequest extends FunctionRequest {
+
+   /**
+    * The function name of a batch request.
+    */
+   public static final String BATCH_FUNCTION_NAME = "_Batch";
+
+   /**
+    * The function requests of the batch. Never <code>null</code>.
+    */
+   private final List<FunctionRequest> _requests = new ArrayList<FunctionRequest>();
+
+   /**
+    * The results of the rejected requests, <code>null</code> for the
+    * requests to execute. Never <code>null</code>.
+    */
+   private final List<FunctionResult> _rejectedResults = new ArrayList<FunctionResult>();
+
+   /**
+    * The executor used to execute the requests in parallel, or
+    * <code>null</code> if the requests should be executed sequentially.
+    */
+   private Executor _executor;
+
+   /**
+    * The maximum number of requests of this batch executed at the same time.
+    */
+   private int _maxConcurrency = 1;
+
+   /**
+    * Creates a new empty <code>BatchFunctionRequest</code>.
+    *
+    * @param backpack
+    *    the container containing information for the XINS engine or the
+    *    calling convention, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>backpack == null</code>.
+    */
+   public BatchFunctionRequest(Map<String, Object> backpack)
+   throws IllegalArgumentException {
+      super(BATCH_FUNCTION_NAME, null, null, backpack);
+      MandatoryArgumentChecker.check("backpack", backpack);
+   }
+
+   /**
+    * Adds a function request to execute to the batch.
+    *
+    * @param request
+    *    the function request, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>request == null</code>.
+    */
+   public void add(FunctionRequest request) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("request", request);
+      _requests.add(request);
+      _rejectedResults.add(null);
+   }
+
+   /**
+    * Adds a function request that should not be executed to the batch.
+    *
+    * @param request
+    *    the function request, cannot be <code>null</code>.
+    *
+    * @param result
+    *    the result to return for this request, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>request == null || result == null</code>.
+    */
+   public void addRejected(FunctionRequest request, FunctionResult result)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("request", request, "result", result);
+      _requests.add(request);
+      _rejectedResults.add(result);
+   }
+
+   /**
+    * Gets the number of function requests in the batch.
+    *
+    * @return
+    *    the number of function requests.
+    */
+   public int size() {
+      return _requests.size();
+   }
+
+   /**
+    * Gets a function request of the batch.
+    *
+    * @param index
+    *    the position of the request in the batch.
+    *
+    * @return
+    *    the function request, never <code>null</code>.
+    *
+    * @throws IndexOutOfBoundsException
+    *    if <code>index &lt; 0 || index &gt;= size()</code>.
+    */
+   public FunctionRequest get(int index) throws IndexOutOfBoundsException {
+      return _requests.get(index);
+   }
+
+   /**
+    * Gets the result of a rejected function request.
+    *
+    * @param index
+    *    the position of the request in the batch.
+    *
+    * @return
+    *    the result to return for the request or <code>null</code> if the
+    *    request should be executed.
+    *
+    * @throws IndexOutOfBoundsException
+    *    if <code>index &lt; 0 || index &gt;= size()</code>.
+    */
+   public FunctionResult getRejectedResult(int index) throws IndexOutOfBoundsException {
+      return _rejectedResults.get(index);
+   }
+
+   /**
+    * Sets the executor used to execute the requests of the batch in
+    * parallel.
+    *
+    * @param executor
+    *    the executor, or <code>null</code> if the requests should be
+    *    executed sequentially.
+    *
+    * @param maxConcurrency
+    *    the maximum number of requests of this batch executed at the same
+    *    time, must be greater than 0.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>maxConcurrency &lt; 1</code>.
+    */
+   public void setExecutor(Executor executor, int maxConcurrency)
+   throws IllegalArgumentException {
+      if (maxConcurrency < 1) {
+         throw new IllegalArgumentException("maxConcurrency (" + maxConcurrency + ") < 1");
+      }
+      _executor = executor;
+      _maxConcurrency = maxConcurrency;
+   }
+
+   /**
+    * Gets the executor used to execute the requests of the batch in
+    * parallel.
+    *
+    * @return
+    *    the executor, or <code>null</code> if the requests should be
+    *    executed sequentially.
+    */
+   public Executor getExecutor() {
+      return _executor;
+   }
+
+   /**
+    * Gets the maximum number of requests of this batch executed at the same
+    * time.
+    *
+    * @return
+    *    the maximum number of requests executed in parallel, at least 1.
+    */
+   public int getMaxConcurrency() {
+      return _maxConcurrency;
+   }
+}
@@ -0,0 +1,60 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.xins.common.MandatoryArgumentChecker;
+
+/**
+ * Result of a {@link BatchFunctionRequest}. Contains the result of each
+ * function request of the batch, in the same order as the requests.
+ *
+ * <p>The batch result itself is always successful, the errors are reported
+ * in the results of the function requests.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ *
+ * @see BatchFunctionRequest
+ */
+public class BatchFunctionResult extends FunctionResult {
+
+   /**
+    * The results of the function requests. Never <code>null</code>.
+    */
+   private final List<FunctionResult> _results;
+
+   /**
+    * Creates a new <code>BatchFunctionResult</code>.
+    *
+    * @param results
+    *    the results of the function requests of the batch, in the same order
+    *    as the requests, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>results == null</code>.
+    */
+   public BatchFunctionResult(FunctionResult[] results)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("results", results);
+      _results = Collections.unmodifiableList(Arrays.asList(results));
+   }
+
+   /**
+    * Gets the results of the function requests of the batch.
+    *
+    * @return
+    *    the unmodifiable list of results, never <code>null</code>.
+    */
+   public List<FunctionResult> getResults() {
+      return _results;
+   }
+}
@@ -155,4 +155,38 @@ public final class CallContext {
    public Map<String, Object> getBackpack() {
       return _backpack;
    }
+
+   /**
+    * Returns the time after which the caller does not wait for the result
+    * of this call anymore. The XINS service callers used by the function
+    * limit the time-out of their calls to this deadline.
+    *
+    * @return
+    *    the deadline in milliseconds since the UNIX Epoch, or
+    *    <code>-1L</code> if the caller did not specify any time-out.
+    *
+    * @since XINS 3.2
+    */
+   public long getDeadline() {
+      Long deadline = (Long) _backpack.get(BackpackConstants.DEADLINE);
+      return deadline == null ? -1L : deadline.longValue();
+   }
+
+   /**
+    * Returns the time remaining before the deadline of this call.
+    *
+    * @return
+    *    the remaining time in milliseconds, <code>0L</code> if the deadline
+    *    is passed or <code>-1L</code> if the caller did not specify any
+    *    time-out.
+    *
+    * @since XINS 3.2
+    */
+   public long getRemainingTime() {
+      long deadline = getDeadline();
+      if (deadline < 0L) {
+         return -1L;
+      }
+      return Math.max(0L, deadline - System.currentTimeMillis());
+   }
 }
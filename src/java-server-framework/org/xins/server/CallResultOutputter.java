@@ -9,12 +9,24 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.Map;
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
 
 import org.xins.common.MandatoryArgumentChecker;
-import org.w3c.dom.Element;
+import org.xins.common.xml.CompactElement;
 import org.xins.common.xml.ElementFormatter;
 
 import org.znerd.xmlenc.XMLEncoder;
+import org.znerd.xmlenc.XMLOutputter;
 
 /**
  * Converter that can be used by calling conventions to generate responses
@@ -135,13 +147,179 @@ public final class CallResultOutputter {
       }
 
       // Write the data element, if any
-      Element dataElement = result.getDataElement();
+      CompactElement dataElement = result.getCompactDataElement();
       if (dataElement != null) {
-         String dataXML = ElementFormatter.format(dataElement);
-         out.write(dataXML);
+         XMLOutputter xmlout = new XMLOutputter(out, "UTF-8");
+         ElementFormatter.format(dataElement, xmlout);
       }
 
       // End the root element <result>
       out.write(DOCUMENT_SUFFIX);
    }
+
+   /**
+    * Sends the XML for the specified call result as SAX events to the
+    * content handler. The events are the same as the ones of the parsing of
+    * the XML generated by {@link #output(Writer, FunctionResult)}.
+    *
+    * @param handler
+    *    the content handler that receives the events, cannot be <code>null</code>.
+    *
+    * @param result
+    *    the call result to convert to XML, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>handler == null
+    *          || result  == null</code>.
+    *
+    * @throws SAXException
+    *    if the content handler throws an exception.
+    *
+    * @since XINS 3.2
+    */
+   public static void output(ContentHandler handler, FunctionResult result)
+   throws IllegalArgumentException, SAXException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("handler", handler, "result", result);
+
+      handler.startDocument();
+
+      // Start the <result> element
+      AttributesImpl attributes = new AttributesImpl();
+      String code = result.getErrorCode();
+      if (code != null) {
+         attributes.addAttribute("", "errorcode", "errorcode", "CDATA", code);
+      }
+      handler.startElement("", "result", "result", attributes);
+
+      // Send the output parameters, if any
+      Map<String, String> params = result.getParameters();
+      for (String paramName : params.keySet()) {
+         if (paramName != null && paramName.length() > 0) {
+            String v = params.get(paramName);
+            if (v != null && v.length() > 0) {
+               attributes.clear();
+               attributes.addAttribute("", "name", "name", "CDATA", paramName);
+               handler.startElement("", "param", "param", attributes);
+               handler.characters(v.toCharArray(), 0, v.length());
+               handler.endElement("", "param", "param");
+            }
+         }
+      }
+
+      // Send the data element, if any
+      CompactElement dataElement = result.getCompactDataElement();
+      if (dataElement != null) {
+         ElementFormatter.format(dataElement, handler);
+      }
+
+      // End the root element <result>
+      handler.endElement("", "result", "result");
+      handler.endDocument();
+   }
+
+   /**
+    * Creates a source for XSLT transformations that provides the XML for the
+    * specified call result as SAX events, without generating the XML text.
+    *
+    * @param result
+    *    the call result to convert to XML, cannot be <code>null</code>.
+    *
+    * @return
+    *    the source, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>result == null</code>.
+    *
+    * @since XINS 3.2
+    */
+   public static Source createSource(FunctionResult result)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("result", result);
+      return new SAXSource(new CallResultReader(result), new InputSource());
+   }
+
+   /**
+    * <code>XMLReader</code> that sends the SAX events of a call result
+    * instead of parsing an input source.
+    */
+   private static final class CallResultReader implements XMLReader {
+
+      /**
+       * The call result. Never <code>null</code>.
+       */
+      private final FunctionResult _result;
+
+      private ContentHandler _contentHandler;
+
+      private DTDHandler _dtdHandler;
+
+      private EntityResolver _entityResolver;
+
+      private ErrorHandler _errorHandler;
+
+      private CallResultReader(FunctionResult result) {
+         _result = result;
+      }
+
+      public boolean getFeature(String name) {
+         return "http://xml.org/sax/features/namespaces".equals(name);
+      }
+
+      public void setFeature(String name, boolean value) {
+         // The events are the same whatever the features
+      }
+
+      public Object getProperty(String name) {
+         return null;
+      }
+
+      public void setProperty(String name, Object value) {
+         // No lexical or declaration events are sent
+      }
+
+      public void setEntityResolver(EntityResolver resolver) {
+         _entityResolver = resolver;
+      }
+
+      public EntityResolver getEntityResolver() {
+         return _entityResolver;
+      }
+
+      public void setDTDHandler(DTDHandler handler) {
+         _dtdHandler = handler;
+      }
+
+      public DTDHandler getDTDHandler() {
+         return _dtdHandler;
+      }
+
+      public void setContentHandler(ContentHandler handler) {
+         _contentHandler = handler;
+      }
+
+      public ContentHandler getContentHandler() {
+         return _contentHandler;
+      }
+
+      public void setErrorHandler(ErrorHandler handler) {
+         _errorHandler = handler;
+      }
+
+      public ErrorHandler getErrorHandler() {
+         return _errorHandler;
+      }
+
+      public void parse(InputSource input) throws SAXException {
+         if (_contentHandler == null) {
+            throw new SAXException("No content handler set.");
+         }
+         output(_contentHandler, _result);
+      }
+
+      public void parse(String systemId) throws SAXException {
+         parse((InputSource) null);
+      }
+   }
 }
@@ -8,11 +8,11 @@ package org.xins.server;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -163,7 +163,13 @@ class CallingConventionManager extends Manageable {
     * {@link #CREATION_FAILED} if the calling convention object could not be
     * constructed.
     */
-   private final HashMap<String, Object> _conventions;
+   private final Map<String, Object> _conventions;
+
+   /**
+    * The runtime properties used to initialize the calling conventions. This
+    * field is <code>null</code> until this manager is initialized.
+    */
+   private volatile Map<String, String> _runtimeProperties;
 
    /**
     * Creates a <code>CallingConventionManager</code> for the specified API.
@@ -181,7 +187,7 @@ class CallingConventionManager extends Manageable {
       _conventionNames.addAll(CONVENTIONS);
 
       // Create a map to store the conventions in
-      _conventions = new HashMap<String, Object>(12);
+      _conventions = new ConcurrentHashMap<String, Object>(12);
 
    }
 
@@ -502,6 +508,8 @@ class CallingConventionManager extends Manageable {
           InvalidPropertyValueException,
           InitializationException {
 
+      _runtimeProperties = properties;
+
       // Loop through all CallingConvention instances
       for (Map.Entry entry : _conventions.entrySet()) {
 
@@ -645,7 +653,8 @@ class CallingConventionManager extends Manageable {
             o = cc;
             _conventions.put(name, cc);
             bootstrap(name, cc, _api.getBootstrapProperties());
-            init(name, cc, _api.getRuntimeProperties());
+            Map<String, String> runtimeProperties = _runtimeProperties;
+            init(name, cc, runtimeProperties != null ? runtimeProperties : _api.getRuntimeProperties());
          } else {
             o = CREATION_FAILED;
             _conventions.put(name, o);
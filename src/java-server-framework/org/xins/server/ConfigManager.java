@@ -553,15 +553,13 @@ final class ConfigManager {
 
    /**
     * Re-initializes the configuration file listener if there is no file
-    * watcher; otherwise interrupts the file watcher.
+    * watcher; otherwise asks the file watcher to check the file now.
     */
    void reloadPropertiesIfChanged() {
       if (_configFileWatcher == null) {
          _configFileListener.reinit();
       } else {
-         synchronized (_configFileWatcher) {
-            _configFileWatcher.notifyAll();
-         }
+         _configFileWatcher.checkSoon();
       }
    }
 
@@ -800,10 +798,16 @@ final class ConfigManager {
          synchronized (RUNTIME_PROPERTIES_LOCK) {
 
             // Apply the new runtime settings to the logging subsystem
+            StatsMap<String, String> previousProperties = _runtimeProperties;
             readRuntimeProperties();
 
-            // Re-initialize the API
-            reinitialized = _engine.initAPI();
+            // Re-initialize the parts of the API using the changed properties
+            if (previousProperties != null && _runtimeProperties != null) {
+               Set<String> changedKeys = _runtimeProperties.getChangedKeys(previousProperties);
+               reinitialized = _engine.reinitAPI(changedKeys);
+            } else {
+               reinitialized = _engine.initAPI();
+            }
 
             // Update the file watch interval if needed
             updateFileWatcher();
@@ -16,6 +16,12 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -23,21 +29,28 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.log4j.NDC;
+import org.w3c.dom.Element;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import org.xins.client.LocalAPI;
 import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.Utils;
 import org.xins.common.collections.InvalidPropertyValueException;
 import org.xins.common.collections.MissingRequiredPropertyException;
 import org.xins.common.io.IOReader;
 import org.xins.common.manageable.InitializationException;
+import org.xins.common.service.ServiceCaller;
+import org.xins.common.servlet.container.XINSServletRequest;
+import org.xins.common.servlet.container.XINSServletResponse;
 import org.xins.common.spec.APISpec;
 import org.xins.common.spec.EntityNotFoundException;
 import org.xins.common.spec.InvalidSpecificationException;
 import org.xins.common.spec.ParameterSpec;
 import org.xins.common.text.TextUtils;
+import org.xins.common.text.URLEncoding;
 
 /**
  * XINS server engine. The engine is a delegate of the {@link APIServlet} that
@@ -55,6 +68,24 @@ final class Engine {
     */
    private static final String JMX_PROPERTY = "org.xins.server.jmx";
 
+   /**
+    * The HTTP parameter that contains the time in milliseconds the caller
+    * is willing to wait for the result.
+    */
+   private static final String TIME_OUT_PARAMETER = "_timeout";
+
+   /**
+    * The outcome stored for a function of a batch request that did not
+    * finish before the thread of the HTTP request was interrupted.
+    */
+   private static final Object INTERRUPTED_BATCH_FUNCTION = new Object();
+
+   /**
+    * The IP address of the callers running in the same Java Virtual
+    * Machine, as checked by the access rules.
+    */
+   private static final String LOCAL_ADDRESS = "127.0.0.1";
+
    /**
     * The state machine for this engine. Never <code>null</code>.
     */
@@ -87,15 +118,29 @@ final class Engine {
 
    /**
     * The manager for the calling conventions. This field can be and initially
-    * is <code>null</code>. This field is initialized by {@link #bootstrapAPI()}.
+    * is <code>null</code>. This field is initialized by {@link #bootstrapAPI()}
+    * and replaced by {@link #reinitAPI(Set)}.
     */
-   private CallingConventionManager _conventionManager;
+   private volatile CallingConventionManager _conventionManager;
 
    /**
     * The manager for the interceptors. This field can be and initially
     * is <code>null</code>. This field is initialized by {@link #bootstrapAPI()}.
     */
-   private InterceptorManager _interceptorManager;
+   private volatile InterceptorManager _interceptorManager;
+
+   /**
+    * The bootstrap properties, used to bootstrap the calling convention
+    * manager created by {@link #reinitAPI(Set)}. This field is initialized
+    * by {@link #bootstrapAPI()}.
+    */
+   private Map<String, String> _bootstrapProperties;
+
+   /**
+    * The runtime properties read by the calling convention manager and by
+    * the interceptor manager. Never <code>null</code>.
+    */
+   private final PropertyUsage _propertyUsage = new PropertyUsage();
 
    /**
     * The SMD (Simple Method Description) of this API. This value is <code>null</code>
@@ -103,6 +148,12 @@ final class Engine {
     */
    private String _smd;
 
+   /**
+    * The API as registered for the calls from the same Java Virtual Machine.
+    * Never <code>null</code>.
+    */
+   private final LocalEngineAPI _localAPI = new LocalEngineAPI(this);
+
    /**
     * Constructs a new <code>Engine</code> object.
     *
@@ -217,6 +268,7 @@ final class Engine {
       }
 
       // Create the calling convention manager
+      _bootstrapProperties = bootProps;
       _conventionManager = new CallingConventionManager(_api);
 
       // Bootstrap the calling convention manager
@@ -292,13 +344,7 @@ final class Engine {
       Map<String, String> properties = _configManager.getRuntimeProperties();
 
       // Determine at what level should the stack traces be displayed
-      String stackTraceAtMessageLevel = properties.get(ConfigManager.LOG_STACK_TRACE_AT_MESSAGE_LEVEL);
-      if ("true".equals(stackTraceAtMessageLevel)) {
-          org.znerd.logdoc.Library.setStackTraceAtMessageLevel(true);
-      } else if ("false".equals(stackTraceAtMessageLevel)) {
-          org.znerd.logdoc.Library.setStackTraceAtMessageLevel(false);
-      } else if (stackTraceAtMessageLevel != null) {
-         // XXX: Report this error in some way
+      if (!initStackTraceLevel(properties)) {
          _stateMachine.setState(EngineState.API_INITIALIZATION_FAILED);
          return false;
       }
@@ -311,10 +357,10 @@ final class Engine {
          _api.init(properties);
 
          // Initialize the default calling convention for this API
-         _conventionManager.init(properties);
+         _conventionManager.init(_propertyUsage.track(_conventionManager, properties));
 
          // Initialize the interceptors
-         _interceptorManager.init(properties);
+         _interceptorManager.init(_propertyUsage.track(_interceptorManager, properties));
 
          succeeded = true;
 
@@ -340,6 +386,7 @@ final class Engine {
       } finally {
          if (succeeded) {
             _stateMachine.setState(EngineState.READY);
+            LocalAPI.register(_apiName, _localAPI);
          } else {
             _stateMachine.setState(EngineState.API_INITIALIZATION_FAILED);
          }
@@ -348,6 +395,132 @@ final class Engine {
       return succeeded;
    }
 
+   /**
+    * Reinitializes the parts of the API that use runtime properties that
+    * changed. Contrary to {@link #initAPI()}, the API keeps handling the
+    * calls during the reinitialization. If the API is not ready, the whole
+    * API is initialized using {@link #initAPI()}.
+    *
+    * <p>No lock is held by the calls. The access rules, the runtime
+    * properties, the calling conventions and the interceptors are created
+    * and initialized aside and then replace the current ones, so that a call
+    * uses either the previous or the new ones. The manageable objects and
+    * the functions are reinitialized in place, see
+    * {@link org.xins.common.manageable.Manageable#reinit(Map)}.
+    *
+    * @param changedKeys
+    *    the names of the runtime properties added, removed or modified,
+    *    cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the initialization succeeded, otherwise
+    *    <code>false</code>.
+    */
+   boolean reinitAPI(Set<String> changedKeys) {
+
+      if (_stateMachine.getState() != EngineState.READY || !_api.isUsable() || !_configManager.propertiesRead()) {
+         return initAPI();
+      }
+
+      // Determine the locale for logging
+      if (!_configManager.determineLogLocale()) {
+         _stateMachine.setState(EngineState.API_INITIALIZATION_FAILED);
+         return false;
+      }
+
+      // Determine the current runtime properties
+      Map<String, String> properties = _configManager.getRuntimeProperties();
+
+      // Determine at what level should the stack traces be displayed
+      if (!initStackTraceLevel(properties)) {
+         _stateMachine.setState(EngineState.API_INITIALIZATION_FAILED);
+         return false;
+      }
+
+      boolean succeeded = false;
+
+      try {
+
+         // Reinitialize the API
+         _api.reinit(properties, changedKeys);
+
+         // Replace the calling conventions if needed. The previous ones are
+         // not deinitialized as the current calls may still use them.
+         CallingConventionManager conventionManager = _conventionManager;
+         if (_propertyUsage.isAffected(conventionManager, changedKeys)) {
+            CallingConventionManager newConventionManager = new CallingConventionManager(_api);
+            newConventionManager.bootstrap(_bootstrapProperties);
+            newConventionManager.init(_propertyUsage.track(newConventionManager, properties));
+            _conventionManager = newConventionManager;
+            _propertyUsage.forget(conventionManager);
+         } else {
+            _propertyUsage.rebase(conventionManager, properties);
+         }
+
+         // Reinitialize the interceptors if needed, the new interceptors
+         // replace the current ones once they are initialized
+         if (_propertyUsage.isAffected(_interceptorManager, changedKeys)) {
+            _interceptorManager.reinit(_propertyUsage.track(_interceptorManager, properties));
+         } else {
+            _propertyUsage.rebase(_interceptorManager, properties);
+         }
+
+         // Reinitialize the functions if needed
+         _api.reinitFunctions(properties, changedKeys);
+
+         succeeded = true;
+
+      // Missing required property
+      } catch (MissingRequiredPropertyException exception) {
+         Log.log_3411(exception.getPropertyName(), exception.getDetail());
+
+      // Invalid property value
+      } catch (InvalidPropertyValueException exception) {
+         Log.log_3412(exception.getPropertyName(),
+                      exception.getPropertyValue(),
+                      exception.getReason());
+
+      // Initialization of API failed for some other reason
+      } catch (InitializationException exception) {
+         Log.log_3413(exception);
+
+      // Other error
+      } catch (Throwable exception) {
+         Log.log_3414(exception);
+      }
+
+      // The calls are rejected if a component could not be reinitialized
+      if (!succeeded) {
+         LocalAPI.unregister(_apiName, _localAPI);
+         _stateMachine.setState(EngineState.API_INITIALIZATION_FAILED);
+      }
+
+      return succeeded;
+   }
+
+   /**
+    * Determines at what level the stack traces should be logged.
+    *
+    * @param properties
+    *    the runtime properties, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the property is not set or valid,
+    *    <code>false</code> if its value is invalid.
+    */
+   private boolean initStackTraceLevel(Map<String, String> properties) {
+      String stackTraceAtMessageLevel = properties.get(ConfigManager.LOG_STACK_TRACE_AT_MESSAGE_LEVEL);
+      if ("true".equals(stackTraceAtMessageLevel)) {
+          org.znerd.logdoc.Library.setStackTraceAtMessageLevel(true);
+      } else if ("false".equals(stackTraceAtMessageLevel)) {
+          org.znerd.logdoc.Library.setStackTraceAtMessageLevel(false);
+      } else if (stackTraceAtMessageLevel != null) {
+         // XXX: Report this error in some way
+         return false;
+      }
+      return true;
+   }
+
    /**
     * Handles a request to this servlet (wrapper method). If any of the
     * arguments is <code>null</code>, then the behaviour of this method is
@@ -374,9 +547,13 @@ final class Engine {
       try {
          doService(request, response);
 
-      // Catch and log all exceptions
+      // Catch and log all exceptions, an I/O error on a committed response
+      // is propagated so that the connection is aborted
       } catch (Throwable exception) {
          Log.log_3003(exception);
+         if (exception instanceof IOException && response.isCommitted()) {
+            throw (IOException) exception;
+         }
       }
    }
 
@@ -568,9 +745,10 @@ final class Engine {
       // Determine the calling convention; if an existing calling convention
       // is specified in the request, then use that, otherwise use the default
       // calling convention for this engine
+      CallingConventionManager conventionManager = _conventionManager;
       CallingConvention cc = null;
       try {
-         cc = _conventionManager.getCallingConvention(request);
+         cc = conventionManager.getCallingConvention(request);
 
       // Only an InvalidRequestException is expected. If a different kind of
       // exception is received, then that is considered a programming error.
@@ -582,14 +760,14 @@ final class Engine {
             String method = request.getMethod();
             String ccName = request.getParameter(CallingConventionManager.CALLING_CONVENTION_PARAMETER);
             // Check if the method is known by at least one CC (otherwise 501)
-            if (!_conventionManager.getSupportedMethods().contains(method)) {
+            if (!conventionManager.getSupportedMethods().contains(method)) {
                statusCode = HttpServletResponse.SC_NOT_IMPLEMENTED;
                reason = "The HTTP method \"" + method + "\" is not known by any of the usable calling conventions.";
 
             // Check if the method is known for the specified CC (otherwise 405)
             } else if (ccName != null &&
-                  _conventionManager.getCallingConvention2(ccName) != null &&
-                  !Arrays.asList(_conventionManager.getCallingConvention2(ccName).getSupportedMethods(request)).contains(method)) {
+                  conventionManager.getCallingConvention2(ccName) != null &&
+                  !Arrays.asList(conventionManager.getCallingConvention2(ccName).getSupportedMethods(request)).contains(method)) {
                statusCode = HttpServletResponse.SC_METHOD_NOT_ALLOWED;
                reason = "The HTTP method \"" + method + "\" is not allowed for the calling convention \"" + ccName + "\".";
             } else {
@@ -696,11 +874,29 @@ final class Engine {
          xinsRequest = new FunctionRequest("_NoOp", new HashMap<String, String>(), null, backpack);
       }
 
+      // Call the functions of a batch
+      if (result == null && xinsRequest instanceof BatchFunctionRequest) {
+         BatchFunctionRequest batchRequest = (BatchFunctionRequest) xinsRequest;
+         batchRequest.getBackpack().put(BackpackConstants.FUNCTION_NAME, batchRequest.getFunctionName());
+         BatchFunctionResult batchResult = invokeBatch(start, cc, batchRequest, request, response);
+         try {
+            cc.convertResult(batchResult, response, batchRequest.getBackpack());
+         } catch (Throwable exception) {
+            handleConversionFailure(exception, response);
+            return;
+         }
+         for (int i = 0; i < batchRequest.size(); i++) {
+            _interceptorManager.afterCallingConvention(batchRequest.get(i), batchResult.getResults().get(i), response);
+         }
+         return;
+      }
+
       // Call the function
       try {
          xinsRequest.getBackpack().put(BackpackConstants.FUNCTION_NAME, xinsRequest.getFunctionName());
          xinsRequest.getBackpack().put(BackpackConstants.IP, request.getRemoteAddr());
          xinsRequest.getBackpack().put(BackpackConstants.START, start);
+         putDeadline(start, request, xinsRequest.getBackpack());
          if (result == null) {
             xinsRequest = _interceptorManager.beforeFunctionCall(request, xinsRequest);
 
@@ -714,35 +910,7 @@ final class Engine {
       // AccessDeniedException. Other exceptions are considered to indicate
       // a programming error.
       } catch (Throwable exception) {
-
-         int    statusCode;
-         String reason;
-
-         // Access denied
-         if (exception instanceof AccessDeniedException) {
-            statusCode = HttpServletResponse.SC_FORBIDDEN;
-            reason     = "Access is denied.";
-            result     = new FunctionResult(DefaultResultCodes._NOT_ALLOWED.getName());
-
-         // No such function
-         } else if (exception instanceof NoSuchFunctionException) {
-            statusCode = HttpServletResponse.SC_NOT_FOUND;
-            reason     = "The specified function \""
-                       + xinsRequest.getFunctionName()
-                       + "\" is unknown.";
-            result     = new FunctionResult(DefaultResultCodes._FUNCTION_NOT_FOUND.getName());
-
-         // Internal error
-         } else {
-            statusCode = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
-            reason     = "Internal error while processing function call.";
-            result     = new FunctionResult(DefaultResultCodes._INTERNAL_ERROR.getName());
-         }
-
-         // Log
-         handleUnprocessableRequest(request, response, statusCode, reason, exception);
-
-         xinsRequest.getBackpack().put(BackpackConstants.STATUS_CODE, statusCode);
+         result = handleFunctionException(exception, xinsRequest, request, response);
       }
 
       // Shortcut for the _WSDL meta function
@@ -764,13 +932,516 @@ final class Engine {
       // NOTE: If the convertResult method throws an exception, then it
       //       will have been logged within the CallingConvention class already.
       } catch (Throwable exception) {
-         response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+         handleConversionFailure(exception, response);
          return;
       }
 
       _interceptorManager.afterCallingConvention(xinsRequest, result, response);
    }
 
+   /**
+    * Handles the failure to convert a result to an HTTP response. If nothing
+    * has been sent to the client yet, the partial output is discarded and
+    * an HTTP 500 error is returned instead. Otherwise the exception is
+    * propagated so that the servlet container aborts the connection, rather
+    * than completing the response with a truncated result.
+    *
+    * @param exception
+    *    the exception thrown by the calling convention, cannot be
+    *    <code>null</code>.
+    *
+    * @param response
+    *    the servlet response, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the response is already committed, or in case of an I/O error.
+    */
+   private void handleConversionFailure(Throwable exception, HttpServletResponse response)
+   throws IOException {
+      if (response.isCommitted()) {
+         if (exception instanceof IOException) {
+            throw (IOException) exception;
+         }
+         IOException ioe = new IOException(exception.getMessage());
+         ioe.initCause(exception);
+         throw ioe;
+      }
+      response.resetBuffer();
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+   }
+
+   /**
+    * Converts an exception thrown while calling a function to a result. The
+    * HTTP status code is stored in the backpack of the request.
+    *
+    * @param exception
+    *    the exception thrown, cannot be <code>null</code>.
+    *
+    * @param xinsRequest
+    *    the function request, cannot be <code>null</code>.
+    *
+    * @param request
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @param response
+    *    the HTTP response, cannot be <code>null</code>.
+    *
+    * @return
+    *    the result of the function call, never <code>null</code>.
+    *
+    * @throws IOException
+    *    in case of an I/O error.
+    */
+   private FunctionResult handleFunctionException(Throwable           exception,
+                                                  FunctionRequest     xinsRequest,
+                                                  HttpServletRequest  request,
+                                                  HttpServletResponse response)
+   throws IOException {
+
+      int            statusCode;
+      String         reason;
+      FunctionResult result;
+
+      // Access denied
+      if (exception instanceof AccessDeniedException) {
+         statusCode = HttpServletResponse.SC_FORBIDDEN;
+         reason     = "Access is denied.";
+         result     = new FunctionResult(DefaultResultCodes._NOT_ALLOWED.getName());
+
+      // No such function
+      } else if (exception instanceof NoSuchFunctionException) {
+         statusCode = HttpServletResponse.SC_NOT_FOUND;
+         reason     = "The specified function \""
+                    + xinsRequest.getFunctionName()
+                    + "\" is unknown.";
+         result     = new FunctionResult(DefaultResultCodes._FUNCTION_NOT_FOUND.getName());
+
+      // Internal error
+      } else {
+         statusCode = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+         reason     = "Internal error while processing function call.";
+         result     = new FunctionResult(DefaultResultCodes._INTERNAL_ERROR.getName());
+      }
+
+      // Log
+      handleUnprocessableRequest(request, response, statusCode, reason, exception);
+
+      xinsRequest.getBackpack().put(BackpackConstants.STATUS_CODE, statusCode);
+      return result;
+   }
+
+   /**
+    * Stores the deadline of the call in the backpack, if the caller sent the
+    * time it is willing to wait for the result. An invalid time-out is
+    * ignored.
+    *
+    * @param start
+    *    timestamp indicating when the call was received by the framework, in
+    *    milliseconds since the
+    *    <a href="http://en.wikipedia.org/wiki/Unix_Epoch">UNIX Epoch</a>.
+    *
+    * @param request
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @param backpack
+    *    the backpack of the function request, cannot be <code>null</code>.
+    */
+   private static void putDeadline(long                start,
+                                   HttpServletRequest  request,
+                                   Map<String, Object> backpack) {
+      String timeOut = request.getParameter(TIME_OUT_PARAMETER);
+      if (TextUtils.isEmpty(timeOut)) {
+         return;
+      }
+      try {
+         long duration = Long.parseLong(timeOut.trim());
+         if (duration >= 0L) {
+            backpack.put(BackpackConstants.DEADLINE, start + duration);
+         }
+      } catch (NumberFormatException exception) {
+         // Ignore the invalid time-out
+      }
+   }
+
+   /**
+    * Invokes the functions of a batch request. Each function request goes
+    * through the interceptors and the access rules like a single request.
+    * If the batch request has an executor, the functions are executed in
+    * parallel, otherwise one after the other. The interceptors are always
+    * called in the thread of the HTTP request, as the HTTP request and
+    * response are not thread-safe.
+    *
+    * @param start
+    *    timestamp indicating when the call was received by the framework, in
+    *    milliseconds since the
+    *    <a href="http://en.wikipedia.org/wiki/Unix_Epoch">UNIX Epoch</a>.
+    *
+    * @param cc
+    *    the calling convention to use, cannot be <code>null</code>.
+    *
+    * @param batchRequest
+    *    the batch request, cannot be <code>null</code>.
+    *
+    * @param request
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @param response
+    *    the HTTP response, cannot be <code>null</code>.
+    *
+    * @return
+    *    the results of the function requests, never <code>null</code>.
+    */
+   private BatchFunctionResult invokeBatch(long                       start,
+                                           final CallingConvention    cc,
+                                           final BatchFunctionRequest batchRequest,
+                                           final HttpServletRequest   request,
+                                           final HttpServletResponse  response) {
+
+      int size = batchRequest.size();
+      FunctionResult[] results = new FunctionResult[size];
+      for (int i = 0; i < size; i++) {
+         FunctionRequest functionRequest = batchRequest.get(i);
+         functionRequest.getBackpack().put(BackpackConstants.FUNCTION_NAME, functionRequest.getFunctionName());
+         functionRequest.getBackpack().put(BackpackConstants.IP, request.getRemoteAddr());
+         functionRequest.getBackpack().put(BackpackConstants.START, start);
+         putDeadline(start, request, functionRequest.getBackpack());
+         results[i] = batchRequest.getRejectedResult(i);
+      }
+
+      Executor executor = batchRequest.getExecutor();
+      int maxConcurrency = Math.min(batchRequest.getMaxConcurrency(), size);
+      if (executor == null || maxConcurrency < 2) {
+         for (int i = 0; i < size; i++) {
+            if (results[i] == null) {
+               results[i] = invokeBatchFunction(cc, batchRequest.get(i), request, response);
+            }
+         }
+         return new BatchFunctionResult(results);
+      }
+
+      // The workers only execute the functions. Each worker stores the
+      // result or the exception in its slot unless the slot was closed.
+      final FunctionRequest[] interceptedRequests = new FunctionRequest[size];
+      final AtomicReferenceArray<Object> outcomes = new AtomicReferenceArray<Object>(size);
+
+      // Execute at most maxConcurrency functions of the batch at the same time
+      CompletionService<Object> completionService = new ExecutorCompletionService<Object>(executor);
+      final Stack diagnosticContext = NDC.cloneStack();
+      int running = 0;
+      try {
+         for (int i = 0; i < size; i++) {
+            if (results[i] != null) {
+               continue;
+            }
+            try {
+               interceptedRequests[i] = _interceptorManager.beforeFunctionCall(request, batchRequest.get(i));
+            } catch (Throwable exception) {
+               results[i] = handleBatchFunctionException(exception, batchRequest.get(i), request, response);
+               continue;
+            }
+            if (running == maxConcurrency) {
+               completionService.take();
+               running--;
+            }
+            final int index = i;
+            Runnable task = new Runnable() {
+               public void run() {
+                  NDC.inherit(diagnosticContext);
+                  try {
+                     outcomes.compareAndSet(index, null, callBatchFunction(cc, interceptedRequests[index]));
+                  } finally {
+                     NDC.remove();
+                  }
+               }
+            };
+            try {
+               completionService.submit(task, null);
+               running++;
+
+            // The executor is full or shut down, execute the function in this thread
+            } catch (RejectedExecutionException reex) {
+               outcomes.set(index, callBatchFunction(cc, interceptedRequests[index]));
+            }
+         }
+         while (running > 0) {
+            completionService.take();
+            running--;
+         }
+      } catch (InterruptedException iex) {
+         Thread.currentThread().interrupt();
+      }
+
+      for (int i = 0; i < size; i++) {
+         if (results[i] != null) {
+            continue;
+         }
+
+         // Function not started because of an interruption
+         if (interceptedRequests[i] == null) {
+            results[i] = new FunctionResult(DefaultResultCodes._INTERNAL_ERROR.getName());
+            continue;
+         }
+
+         // Close the slot so that a late worker cannot change the outcome
+         Object outcome;
+         if (outcomes.compareAndSet(i, null, INTERRUPTED_BATCH_FUNCTION)) {
+            outcome = new FunctionResult(DefaultResultCodes._INTERNAL_ERROR.getName());
+         } else {
+            outcome = outcomes.get(i);
+         }
+         results[i] = completeBatchFunction(interceptedRequests[i], outcome, request, response);
+      }
+      return new BatchFunctionResult(results);
+   }
+
+   /**
+    * Invokes one function of a batch request.
+    *
+    * @param cc
+    *    the calling convention to use, cannot be <code>null</code>.
+    *
+    * @param xinsRequest
+    *    the function request, cannot be <code>null</code>.
+    *
+    * @param request
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @param response
+    *    the HTTP response, cannot be <code>null</code>.
+    *
+    * @return
+    *    the result of the function, never <code>null</code>.
+    */
+   private FunctionResult invokeBatchFunction(CallingConvention   cc,
+                                              FunctionRequest     xinsRequest,
+                                              HttpServletRequest  request,
+                                              HttpServletResponse response) {
+      FunctionRequest interceptedRequest;
+      try {
+         interceptedRequest = _interceptorManager.beforeFunctionCall(request, xinsRequest);
+      } catch (Throwable exception) {
+         return handleBatchFunctionException(exception, xinsRequest, request, response);
+      }
+      Object outcome = callBatchFunction(cc, interceptedRequest);
+      return completeBatchFunction(interceptedRequest, outcome, request, response);
+   }
+
+   /**
+    * Executes one function of a batch request, without the interceptors.
+    * This method can be called by any thread.
+    *
+    * @param cc
+    *    the calling convention to use, cannot be <code>null</code>.
+    *
+    * @param xinsRequest
+    *    the function request returned by the interceptors, cannot be
+    *    <code>null</code>.
+    *
+    * @return
+    *    the {@link FunctionResult} or the exception thrown by the function,
+    *    never <code>null</code>.
+    */
+   private Object callBatchFunction(CallingConvention cc, FunctionRequest xinsRequest) {
+      try {
+         return _api.handleCall(xinsRequest, cc);
+      } catch (Throwable exception) {
+         return exception;
+      }
+   }
+
+   /**
+    * Passes the outcome of one function of a batch request to the
+    * interceptors. This method is called in the thread of the HTTP request.
+    *
+    * @param xinsRequest
+    *    the function request returned by the interceptors, cannot be
+    *    <code>null</code>.
+    *
+    * @param outcome
+    *    the {@link FunctionResult} or the exception thrown by the function,
+    *    cannot be <code>null</code>.
+    *
+    * @param request
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @param response
+    *    the HTTP response, cannot be <code>null</code>.
+    *
+    * @return
+    *    the result of the function, never <code>null</code>.
+    */
+   private FunctionResult completeBatchFunction(FunctionRequest     xinsRequest,
+                                                Object              outcome,
+                                                HttpServletRequest  request,
+                                                HttpServletResponse response) {
+      try {
+         if (outcome instanceof Throwable) {
+            throw (Throwable) outcome;
+         }
+         return _interceptorManager.afterFunctionCall(xinsRequest, (FunctionResult) outcome, response);
+      } catch (Throwable exception) {
+         return handleBatchFunctionException(exception, xinsRequest, request, response);
+      }
+   }
+
+   /**
+    * Handles an exception thrown by one function of a batch request.
+    *
+    * @param exception
+    *    the exception, cannot be <code>null</code>.
+    *
+    * @param xinsRequest
+    *    the function request, cannot be <code>null</code>.
+    *
+    * @param request
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @param response
+    *    the HTTP response, cannot be <code>null</code>.
+    *
+    * @return
+    *    the error result of the function, never <code>null</code>.
+    */
+   private FunctionResult handleBatchFunctionException(Throwable           exception,
+                                                       FunctionRequest     xinsRequest,
+                                                       HttpServletRequest  request,
+                                                       HttpServletResponse response) {
+      try {
+         return handleFunctionException(exception, xinsRequest, request, response);
+      } catch (IOException ioe) {
+         return new FunctionResult(DefaultResultCodes._INTERNAL_ERROR.getName());
+      }
+   }
+
+   /**
+    * Invokes a function for a caller running in the same Java Virtual
+    * Machine. The call goes through the interceptors and the access rules
+    * as if it was received with the standard calling convention from
+    * <code>127.0.0.1</code>, but the request and the result are not
+    * serialized. The diagnostic context identifier of the caller is passed
+    * in the <code>_context</code> parameter and the diagnostic context of
+    * the calling thread is restored after the call.
+    *
+    * @param functionName
+    *    the name of the function, cannot be <code>null</code>.
+    *
+    * @param parameters
+    *    the input parameters, cannot be <code>null</code>.
+    *
+    * @param dataSection
+    *    the input data section, can be <code>null</code>.
+    *
+    * @param deadline
+    *    the time the caller expects the result before, in milliseconds
+    *    since the UNIX Epoch, or <code>-1L</code> if there is no deadline.
+    *
+    * @return
+    *    the result of the function, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the current state of the engine does not allow function
+    *    invocations.
+    */
+   FunctionResult invokeLocalFunction(String              functionName,
+                                      Map<String, String> parameters,
+                                      Element             dataSection,
+                                      long                deadline)
+   throws IOException {
+
+      long start = System.currentTimeMillis();
+      EngineState state = _stateMachine.getState();
+      if (! state.allowsInvocations()) {
+         throw new IOException("XINS/Java Server Framework engine state \""
+               + state + "\" does not allow incoming requests.");
+      }
+
+      // The context ID interceptor replaces the diagnostic context of the
+      // caller, so it is restored
+      Stack callerContext = NDC.cloneStack();
+      try {
+         return doInvokeLocalFunction(start, functionName, parameters, dataSection, deadline);
+      } finally {
+         NDC.remove();
+         NDC.inherit(callerContext);
+      }
+   }
+
+   /**
+    * Invokes a function for a caller running in the same Java Virtual
+    * Machine (implementation method).
+    *
+    * @param start
+    *    timestamp indicating when the call was received, in milliseconds
+    *    since the UNIX Epoch.
+    *
+    * @param functionName
+    *    the name of the function, cannot be <code>null</code>.
+    *
+    * @param parameters
+    *    the input parameters, cannot be <code>null</code>.
+    *
+    * @param dataSection
+    *    the input data section, can be <code>null</code>.
+    *
+    * @param deadline
+    *    the time the caller expects the result before, in milliseconds
+    *    since the UNIX Epoch, or <code>-1L</code> if there is no deadline.
+    *
+    * @return
+    *    the result of the function, never <code>null</code>.
+    *
+    * @throws IOException
+    *    if the error result cannot be created.
+    */
+   private FunctionResult doInvokeLocalFunction(long                start,
+                                                String              functionName,
+                                                Map<String, String> parameters,
+                                                Element             dataSection,
+                                                long                deadline)
+   throws IOException {
+
+      CallingConvention cc = _conventionManager.getCallingConvention2("_xins-std");
+
+      // The interceptors expect an HTTP request and response
+      String url = "/?_convention=_xins-std&_function=" + functionName;
+      String contextID = NDC.peek();
+      if (!TextUtils.isEmpty(contextID)) {
+         url += "&_context=" + URLEncoding.encode(contextID);
+      }
+      HttpServletRequest request = new XINSServletRequest("POST", url, (String) null, null) {
+         public String getRemoteAddr() {
+            return LOCAL_ADDRESS;
+         }
+
+         public String getRemoteHost() {
+            return "localhost";
+         }
+      };
+      HttpServletResponse response = new XINSServletResponse();
+      _interceptorManager.beginRequest(request);
+
+      Map<String, Object> backpack = new HashMap<String, Object>();
+      backpack.put(BackpackConstants.FUNCTION_NAME, functionName);
+      backpack.put(BackpackConstants.IP, request.getRemoteAddr());
+      backpack.put(BackpackConstants.START, start);
+      if (deadline >= 0L) {
+         backpack.put(BackpackConstants.DEADLINE, deadline);
+      }
+      FunctionRequest xinsRequest = new FunctionRequest(functionName, parameters, dataSection, backpack);
+
+      FunctionResult result;
+      try {
+         xinsRequest = _interceptorManager.beforeFunctionCall(request, xinsRequest);
+         result = _api.handleCall(xinsRequest, cc);
+         result = _interceptorManager.afterFunctionCall(xinsRequest, result, response);
+      } catch (Throwable exception) {
+         result = handleFunctionException(exception, xinsRequest, request, response);
+      }
+      _interceptorManager.afterCallingConvention(xinsRequest, result, response);
+      _interceptorManager.endRequest(request, response);
+      return result;
+   }
+
    /**
     * Handles an <em>OPTIONS</em> request for a specific calling convention
     * or for the resource <code>*</code> if no calling convention is given.
@@ -829,6 +1500,11 @@ final class Engine {
       // Set the state temporarily to DISPOSING
       _stateMachine.setState(EngineState.DISPOSING);
 
+      // The API cannot be called anymore from the same JVM
+      if (_apiName != null) {
+         LocalAPI.unregister(_apiName, _localAPI);
+      }
+
       // Destroy the configuration manager
       if (_configManager != null) {
          try {
@@ -856,6 +1532,9 @@ final class Engine {
          }
       }
 
+      // Stop the threads used for the hedged calls
+      ServiceCaller.shutdownHedgeExecutor();
+
       // Set the state to DISPOSED
       _stateMachine.setState(EngineState.DISPOSED);
 
@@ -30,7 +30,7 @@ public class ErrorCodeStatusMapping {
          return HttpServletResponse.SC_OK;
       } else if (errorCode.equals(_INVALID_REQUEST.getName())) {
          return HttpServletResponse.SC_BAD_REQUEST;
-      } else if (errorCode.equals(_DISABLED_FUNCTION.getName())) {
+      } else if (errorCode.equals(_DISABLED_FUNCTION.getName()) || errorCode.equals(_DEADLINE_EXCEEDED.getName())) {
          return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
       } else if (errorCode.equals(_INVALID_RESPONSE.getName()) || errorCode.equals(_INTERNAL_ERROR.getName())) {
          return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
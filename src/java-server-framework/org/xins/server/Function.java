@@ -6,9 +6,13 @@
 package org.xins.server;
 
 import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletResponse;
+
 import org.xins.common.FormattedParameters;
 import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.manageable.Manageable;
+import org.xins.common.service.Deadline;
 
 /**
  * Base class for function implementation classes.
@@ -184,9 +188,27 @@ public abstract class Function extends Manageable {
          return API.SUCCESSFUL_RESULT;
       }
 
+      // Reject the call if the caller does not wait for the result anymore
+      Long deadline = (Long) functionRequest.getBackpack().get(BackpackConstants.DEADLINE);
+      if (deadline != null) {
+         long delay = System.currentTimeMillis() - deadline.longValue();
+         if (delay >= 0L) {
+            Log.log_3518(functionRequest.getFunctionName(), delay);
+            functionRequest.getBackpack().put(BackpackConstants.STATUS_CODE, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return new FunctionResult(DefaultResultCodes._DEADLINE_EXCEEDED.getName());
+         }
+      }
+
       // Construct a CallContext object
       CallContext context = new CallContext(functionRequest, this, callID);
 
+      // The calls to other APIs made by the function are limited to the
+      // deadline of this call
+      long previousDeadline = Deadline.get();
+      if (deadline != null) {
+         Deadline.set(deadline.longValue());
+      }
+
       FunctionResult result;
       try {
 
@@ -203,6 +225,8 @@ public abstract class Function extends Manageable {
 
       } catch (Throwable exception) {
          result = _api.handleFunctionException(functionRequest, callID, exception);
+      } finally {
+         Deadline.set(previousDeadline);
       }
 
       return result;
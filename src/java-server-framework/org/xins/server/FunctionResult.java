@@ -8,9 +8,13 @@ package org.xins.server;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+import org.xins.common.FormattedParameters;
 import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.collections.MapStringUtils;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.xins.common.xml.CompactElement;
+import org.xins.common.xml.CompactElementBuilder;
 import org.xins.common.xml.DataElementBuilder;
 
 /**
@@ -44,6 +48,20 @@ public class FunctionResult {
     */
    private DataElementBuilder _dataElementBuilder;
 
+   /**
+    * The builder of the compact data element. This field is lazily
+    * initialized, it is <code>null</code> if there is no data element or if
+    * the data element has been converted to DOM.
+    */
+   private CompactElementBuilder _compactDataBuilder;
+
+   /**
+    * The DOM data element converted to a compact element by
+    * {@link #getCompactDataElement()}, or <code>null</code> if it has not
+    * been converted yet or if it may have been modified since.
+    */
+   private CompactElement _convertedDataElement;
+
    /**
     * Creates a new successful <code>FunctionResult</code> instance with no
     * parameters.
@@ -194,9 +212,39 @@ public class FunctionResult {
       MandatoryArgumentChecker.check("element", element);
 
       Element elementToAdd = (Element) getDataElementBuilder().getDocument().importNode(element, true);
+      _convertedDataElement = null;
       _dataElementBuilder.getDataElement().appendChild(elementToAdd);
    }
 
+   /**
+    * Adds a new <code>CompactElement</code> to the data element.
+    * The element is not copied.
+    *
+    * @param element
+    *    the new element to add to the result, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>element == null</code>.
+    *
+    * @since XINS 3.2
+    */
+   protected void add(CompactElement element) throws IllegalArgumentException {
+
+      // Check preconditions
+      MandatoryArgumentChecker.check("element", element);
+
+      if (_dataElementBuilder != null) {
+         _convertedDataElement = null;
+         Element elementToAdd = element.toDOM(_dataElementBuilder.getDocument());
+         _dataElementBuilder.getDataElement().appendChild(elementToAdd);
+      } else {
+         if (_compactDataBuilder == null) {
+            _compactDataBuilder = new CompactElementBuilder("data");
+         }
+         _compactDataBuilder.addChild(element);
+      }
+   }
+
    /**
     * Adds the <code>DataElementBuilder</code> to create a new the data element.
     *
@@ -206,9 +254,23 @@ public class FunctionResult {
     */
    protected DataElementBuilder getDataElementBuilder() {
 
+      // The returned builder may be used to modify the data element
+      _convertedDataElement = null;
+
       // Lazily initialize _dataElementBuilder
       if (_dataElementBuilder == null) {
          _dataElementBuilder = new DataElementBuilder();
+
+         // Move the compact elements already added to the DOM data element
+         if (_compactDataBuilder != null) {
+            Document document = _dataElementBuilder.getDocument();
+            Element dataElement = _dataElementBuilder.getDataElement();
+            CompactElement compactData = _compactDataBuilder.build();
+            for (int i = 0; i < compactData.getChildCount(); i++) {
+               dataElement.appendChild(compactData.getChild(i).toDOM(document));
+            }
+            _compactDataBuilder = null;
+         }
       }
       return _dataElementBuilder;
    }
@@ -216,14 +278,63 @@ public class FunctionResult {
    /**
     * Gets the data element from this result.
     *
+    * <p>If the data section was built with {@link CompactElement}s, it is
+    * converted once to DOM and the returned element is used from then on.
+    *
     * @return
     *    the data element of the result, can be <code>null</code>.
     */
    public Element getDataElement() {
-      if (_dataElementBuilder == null) {
+      if (_dataElementBuilder == null && _compactDataBuilder == null) {
+         return null;
+      } else {
+         return getDataElementBuilder().getDataElement();
+      }
+   }
+
+   /**
+    * Gets the data element from this result as a compact element.
+    * Unlike {@link #getDataElement()}, this method does not create any DOM
+    * object if the data section was built with compact elements.
+    *
+    * <p>If the data section was built with DOM, it is copied to a compact
+    * element the first time and the copy is returned until the data element
+    * is requested again for modification. A DOM element obtained before
+    * should not be modified after this method is called.
+    *
+    * @return
+    *    the data element of the result, can be <code>null</code>.
+    *
+    * @since XINS 3.2
+    */
+   public CompactElement getCompactDataElement() {
+      if (_compactDataBuilder != null) {
+         return _compactDataBuilder.build();
+      } else if (_dataElementBuilder != null) {
+         if (_convertedDataElement == null) {
+            _convertedDataElement = CompactElement.fromDOM(_dataElementBuilder.getDataElement());
+         }
+         return _convertedDataElement;
+      } else {
          return null;
+      }
+   }
+
+   /**
+    * Gets the parameters and the data section of this result, formatted
+    * only when converted to a string. The data section is kept in the form
+    * it was built with, so no conversion is done if it is never formatted.
+    *
+    * @return
+    *    the formatted parameters, never <code>null</code>.
+    */
+   FormattedParameters getFormattedParameters() {
+      if (_compactDataBuilder != null) {
+         return new FormattedParameters(_parameters, _compactDataBuilder.build());
+      } else if (_dataElementBuilder != null) {
+         return new FormattedParameters(_parameters, _dataElementBuilder.getDataElement());
       } else {
-         return _dataElementBuilder.getDataElement();
+         return new FormattedParameters(_parameters);
       }
    }
 
@@ -235,10 +346,12 @@ public class FunctionResult {
          asString += "Successful result; ";
       }
       asString += MapStringUtils.toString(_parameters, "no parameters") + "; ";
-      if (_dataElementBuilder == null) {
-         asString += "no data section";
-      } else {
+      if (_compactDataBuilder != null) {
+         asString += _compactDataBuilder.build().toString();
+      } else if (_dataElementBuilder != null) {
          asString += _dataElementBuilder.toString();
+      } else {
+         asString += "no data section";
       }
       return asString;
    }
@@ -28,7 +28,7 @@ class InterceptorManager extends Manageable {
 
    public final static String INTERCEPTORS_PROPERTY_NAME = "org.xins.server.interceptors";
    
-   private List<Interceptor> interceptors = new ArrayList<Interceptor>();
+   private volatile List<Interceptor> interceptors = new ArrayList<Interceptor>();
    
    private Map<String, String> bootstrapProperties;
    
@@ -54,20 +54,27 @@ class InterceptorManager extends Manageable {
          interceptorsClasses = DEFAULT_INTERCEPTORS + interceptorsClasses;
       }
       
+      // During a reinitialization, new interceptors are created so that the
+      // current ones are not modified while they are used
+      boolean reinitializing = isUsable();
       String[] classNames = interceptorsClasses.split(",");
       List<Interceptor> newInterceptors = new ArrayList<Interceptor>();
       for (String className : classNames) {
          className = className.trim();
          if (!className.equals("")) {
-            Interceptor interceptor = getInterceptor(className);
+            Interceptor interceptor = reinitializing ? createIntercepor(className) : getInterceptor(className);
             newInterceptors.add(interceptor);
          }
       }
-      interceptors = newInterceptors;
       
-      for (Interceptor interceptor : interceptors) {
+      // The interceptors are initialized before replacing the current ones,
+      // as the calls continue to be intercepted during a reinitialization.
+      // The replaced interceptors are not deinitialized as the current calls
+      // may still use them.
+      for (Interceptor interceptor : newInterceptors) {
          interceptor.init(properties);
       }
+      interceptors = newInterceptors;
    }
    
    @Override
@@ -11,6 +11,11 @@ import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -21,8 +26,12 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.XML;
 import org.w3c.dom.Element;
+import org.xins.common.collections.InvalidPropertyValueException;
+import org.xins.common.collections.MissingRequiredPropertyException;
+import org.xins.common.manageable.InitializationException;
 import org.xins.common.spec.EntityNotFoundException;
 import org.xins.common.spec.InvalidSpecificationException;
+import org.xins.common.text.TextUtils;
 import org.xins.common.xml.ElementFormatter;
 import org.xml.sax.SAXException;
 
@@ -30,6 +39,12 @@ import org.xml.sax.SAXException;
  * The JSON-RPC calling convention.
  * Version  <a href='http://www.jsonrpc.org/specification'>2.0</a> is supported.
  *
+ * <p>Batch requests are supported. The calls of a batch are executed one
+ * after the other unless the runtime property
+ * <code>org.xins.server.jsonrpc2.batch.threads</code> is set to a positive
+ * number of threads. In that case the calls are executed in parallel with at
+ * most <code>org.xins.server.jsonrpc2.batch.concurrency</code> calls of the
+ * same batch executed at the same time.
  *
  * @See {@link http://www.simple-is-better.org/json-rpc/jsonrpc20-over-http.html}
  * @since XINS 3.1.
@@ -53,6 +68,45 @@ public class JSONRPC2CallingConvention extends JSONRPCCallingConvention {
     */
    protected static final String JSON_REQUEST_CONTENT_TYPE = "application/jsonrequest";
 
+   /**
+    * The runtime property containing the number of threads used to execute
+    * the calls of the batches in parallel.
+    * If not set or set to 0, the calls are executed sequentially.
+    */
+   public static final String BATCH_THREADS_PROPERTY = "org.xins.server.jsonrpc2.batch.threads";
+
+   /**
+    * The runtime property containing the maximum number of calls of one batch
+    * executed at the same time. Defaults to the number of threads.
+    */
+   public static final String BATCH_CONCURRENCY_PROPERTY = "org.xins.server.jsonrpc2.batch.concurrency";
+
+   /**
+    * The runtime property containing the maximum number of calls in a batch.
+    */
+   public static final String BATCH_MAX_SIZE_PROPERTY = "org.xins.server.jsonrpc2.batch.maxSize";
+
+   /**
+    * The default maximum number of calls in a batch.
+    */
+   public static final int DEFAULT_BATCH_MAX_SIZE = 100;
+
+   /**
+    * The executor used to execute the calls of the batches in parallel, or
+    * <code>null</code> if the calls are executed sequentially.
+    */
+   private ThreadPoolExecutor _batchExecutor;
+
+   /**
+    * The maximum number of calls of one batch executed at the same time.
+    */
+   private int _batchConcurrency = 1;
+
+   /**
+    * The maximum number of calls in a batch.
+    */
+   private int _batchMaxSize = DEFAULT_BATCH_MAX_SIZE;
+
    /**
     * Creates a new <code>JSONRPCCallingConvention</code> instance.
     *
@@ -66,6 +120,80 @@ public class JSONRPC2CallingConvention extends JSONRPCCallingConvention {
       super(api);
    }
 
+   protected void initImpl(Map<String, String> runtimeProperties)
+   throws MissingRequiredPropertyException,
+          InvalidPropertyValueException,
+          InitializationException {
+
+      int threads = getIntProperty(runtimeProperties, BATCH_THREADS_PROPERTY, 0, 0);
+      int concurrency = getIntProperty(runtimeProperties, BATCH_CONCURRENCY_PROPERTY, Math.max(threads, 1), 1);
+      _batchMaxSize = getIntProperty(runtimeProperties, BATCH_MAX_SIZE_PROPERTY, DEFAULT_BATCH_MAX_SIZE, 1);
+
+      // Replace the executor of the previous initialization
+      shutdownBatchExecutor();
+      if (threads > 0) {
+         _batchConcurrency = concurrency;
+         _batchExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+               new LinkedBlockingQueue<Runnable>(threads * 4), new BatchThreadFactory());
+         _batchExecutor.allowCoreThreadTimeOut(true);
+      } else {
+         _batchConcurrency = 1;
+      }
+   }
+
+   protected void deinitImpl() {
+      shutdownBatchExecutor();
+   }
+
+   /**
+    * Stops the threads executing the calls of the batches, if any.
+    */
+   private void shutdownBatchExecutor() {
+      if (_batchExecutor != null) {
+         _batchExecutor.shutdown();
+         _batchExecutor = null;
+      }
+   }
+
+   /**
+    * Gets the value of a numeric runtime property.
+    *
+    * @param runtimeProperties
+    *    the runtime properties, cannot be <code>null</code>.
+    *
+    * @param propertyName
+    *    the name of the property, cannot be <code>null</code>.
+    *
+    * @param defaultValue
+    *    the value to return if the property is not set.
+    *
+    * @param minValue
+    *    the minimum accepted value.
+    *
+    * @return
+    *    the value of the property.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value is not a number or is lower than <code>minValue</code>.
+    */
+   private static int getIntProperty(Map<String, String> runtimeProperties, String propertyName,
+         int defaultValue, int minValue) throws InvalidPropertyValueException {
+      String value = runtimeProperties.get(propertyName);
+      if (TextUtils.isEmpty(value)) {
+         return defaultValue;
+      }
+      try {
+         int intValue = Integer.parseInt(value.trim());
+         if (intValue >= minValue) {
+            return intValue;
+         }
+      } catch (NumberFormatException nfe) {
+         // fall through
+      }
+      throw new InvalidPropertyValueException(propertyName, value,
+            "Expected an integer greater than or equal to " + minValue + ".");
+   }
+
    protected boolean matches(HttpServletRequest httpRequest)
    throws Exception {
 
@@ -141,7 +269,21 @@ public class JSONRPC2CallingConvention extends JSONRPCCallingConvention {
    @Override
    protected FunctionRequest parsePostRequest(HttpServletRequest httpRequest)
    throws InvalidRequestException, FunctionNotSpecifiedException {
-      FunctionRequest functionRequest = super.parsePostRequest(httpRequest);
+      String requestString = readRequestBody(httpRequest);
+      try {
+         if (requestString.trim().startsWith("[")) {
+            return parseBatchRequest(new JSONArray(requestString), httpRequest);
+         }
+         return parseRequestObject(new JSONObject(requestString), httpRequest);
+      } catch (JSONException jsonex) {
+         throw new InvalidRequestException(jsonex.getMessage());
+      }
+   }
+
+   @Override
+   protected FunctionRequest parseRequestObject(JSONObject requestObject, HttpServletRequest httpRequest)
+   throws InvalidRequestException, FunctionNotSpecifiedException {
+      FunctionRequest functionRequest = super.parseRequestObject(requestObject, httpRequest);
       if (!"2.0".equals(functionRequest.getBackpack().get("_jsonrpc"))) {
          throw new InvalidRequestException("jsonrpc input is mandatory and must be 2.0.");
       }
@@ -149,6 +291,66 @@ public class JSONRPC2CallingConvention extends JSONRPCCallingConvention {
       return functionRequest;
    }
 
+   /**
+    * Parses a JSON-RPC 2.0 batch request. The invalid calls of the batch
+    * are not executed but get an error in the response.
+    *
+    * @param requestArray
+    *    the JSON array containing the calls, cannot be <code>null</code>.
+    *
+    * @param httpRequest
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @return
+    *    the batch request, never <code>null</code>.
+    *
+    * @throws InvalidRequestException
+    *    if the batch is empty or contains too many calls.
+    */
+   protected BatchFunctionRequest parseBatchRequest(JSONArray requestArray, HttpServletRequest httpRequest)
+   throws InvalidRequestException {
+      int size = requestArray.length();
+      if (size == 0) {
+         throw new InvalidRequestException("Empty batch request.");
+      } else if (size > _batchMaxSize) {
+         throw new InvalidRequestException("The batch request contains " + size
+               + " calls, the maximum is " + _batchMaxSize + ".");
+      }
+
+      Map<String, Object> batchBackpack = new HashMap<String, Object>();
+      batchBackpack.put("_jsonrpc", "2.0");
+      batchBackpack.put("_accept", httpRequest.getHeader("Accept"));
+      BatchFunctionRequest batchRequest = new BatchFunctionRequest(batchBackpack);
+      batchBackpack.put("_batch", batchRequest);
+      for (int i = 0; i < size; i++) {
+         JSONObject requestObject = requestArray.optJSONObject(i);
+         String errorCode = DefaultResultCodes._INVALID_REQUEST.getName();
+         if (requestObject != null) {
+            try {
+               batchRequest.add(parseRequestObject(requestObject, httpRequest));
+               continue;
+            } catch (FunctionNotSpecifiedException fnsex) {
+               errorCode = DefaultResultCodes._FUNCTION_NOT_FOUND.getName();
+            } catch (InvalidRequestException irex) {
+               // The call is rejected
+            }
+         }
+
+         // An invalid call always gets a response, with a null id if unknown
+         Map<String, Object> backpack = new HashMap<String, Object>();
+         backpack.put(BackpackConstants.SKIP_FUNCTION_CALL, true);
+         backpack.put("_jsonrpc", "2.0");
+         Object id = requestObject == null ? null : requestObject.opt("id");
+         backpack.put("_id", id == null ? JSONObject.NULL : id);
+         FunctionRequest rejectedRequest = new FunctionRequest("_NoOp", null, null, backpack);
+         batchRequest.addRejected(rejectedRequest, new FunctionResult(errorCode));
+      }
+      if (_batchExecutor != null) {
+         batchRequest.setExecutor(_batchExecutor, _batchConcurrency);
+      }
+      return batchRequest;
+   }
+
    @Override
    protected void convertResultImpl(FunctionResult      xinsResult,
                                     HttpServletResponse httpResponse,
@@ -158,6 +360,10 @@ public class JSONRPC2CallingConvention extends JSONRPCCallingConvention {
       // Send the XML output to the stream and flush
       String contentType = (String) backpack.get("_accept");
       httpResponse.setContentType(contentType);
+      if (xinsResult instanceof BatchFunctionResult) {
+         convertBatchResult((BatchFunctionResult) xinsResult, httpResponse, (BatchFunctionRequest) backpack.get("_batch"));
+         return;
+      }
       Object requestId = backpack.get("_id");
       if (requestId == null) {
          httpResponse.setStatus(HttpServletResponse.SC_NO_CONTENT);
@@ -168,26 +374,9 @@ public class JSONRPC2CallingConvention extends JSONRPCCallingConvention {
       int statusCode = getStatusCodeForError(errorCode);
       httpResponse.setStatus(statusCode);
 
-      // Return the service description when asked.
-      String functionName = (String) backpack.get(BackpackConstants.FUNCTION_NAME);
-
       // Transform the XINS result to a JSON object
-      JSONObject returnObject = new JSONObject();
       try {
-         String version = (String) backpack.get("_jsonrpc");
-         returnObject.put("jsonrpc", version);
-         if (errorCode != null) {
-            JSONObject errorObject = new JSONObject();
-            errorObject.put("code", getXmlRpcErrorCode(errorCode));
-            errorObject.put("message", getErrorDescription(functionName, errorCode));
-            JSONObject paramsObject = createResultObject(xinsResult);
-            errorObject.put("data", paramsObject);
-            returnObject.put("error", errorObject);
-         } else {
-            JSONObject paramsObject = createResultObject(xinsResult);
-            returnObject.put("result", paramsObject);
-         }
-         returnObject.put("id", requestId);
+         JSONObject returnObject = createResponseObject(xinsResult, backpack);
 
          // Write the result to the servlet response
          String returnString = returnObject.toString();
@@ -199,6 +388,103 @@ public class JSONRPC2CallingConvention extends JSONRPCCallingConvention {
       out.close();
    }
 
+   /**
+    * Writes the result of a batch request. The notifications, i.e. the calls
+    * without id, do not have any entry in the returned array.
+    *
+    * @param batchResult
+    *    the results of the calls, cannot be <code>null</code>.
+    *
+    * @param httpResponse
+    *    the HTTP response, cannot be <code>null</code>.
+    *
+    * @param batchRequest
+    *    the batch request, cannot be <code>null</code>.
+    *
+    * @throws IOException
+    *    if the result cannot be written.
+    */
+   private void convertBatchResult(BatchFunctionResult batchResult,
+                                   HttpServletResponse httpResponse,
+                                   BatchFunctionRequest batchRequest)
+   throws IOException {
+      JSONArray returnArray = new JSONArray();
+      try {
+         for (int i = 0; i < batchRequest.size(); i++) {
+            Map<String, Object> backpack = batchRequest.get(i).getBackpack();
+            if (backpack.get("_id") != null) {
+               returnArray.put(createResponseObject(batchResult.getResults().get(i), backpack));
+            }
+         }
+      } catch (JSONException jsonex) {
+         throw new IOException(jsonex.getMessage());
+      }
+
+      // Only notifications
+      if (returnArray.length() == 0) {
+         httpResponse.setStatus(HttpServletResponse.SC_NO_CONTENT);
+         return;
+      }
+      httpResponse.setStatus(HttpServletResponse.SC_OK);
+      PrintWriter out = httpResponse.getWriter();
+      out.print(returnArray.toString());
+      out.close();
+   }
+
+   /**
+    * Creates the JSON-RPC 2.0 response object of a call.
+    *
+    * @param xinsResult
+    *    the result of the call, cannot be <code>null</code>.
+    *
+    * @param backpack
+    *    the backpack of the call, cannot be <code>null</code>.
+    *
+    * @return
+    *    the response object, never <code>null</code>.
+    *
+    * @throws JSONException
+    *    if the object cannot be created for any reason.
+    */
+   private JSONObject createResponseObject(FunctionResult xinsResult, Map<String, Object> backpack)
+   throws JSONException {
+      String functionName = (String) backpack.get(BackpackConstants.FUNCTION_NAME);
+      String errorCode = xinsResult.getErrorCode();
+      JSONObject returnObject = new JSONObject();
+      String version = (String) backpack.get("_jsonrpc");
+      returnObject.put("jsonrpc", version);
+      if (errorCode != null) {
+         JSONObject errorObject = new JSONObject();
+         errorObject.put("code", getXmlRpcErrorCode(errorCode));
+         errorObject.put("message", getErrorDescription(functionName, errorCode));
+         JSONObject paramsObject = createResultObject(xinsResult);
+         errorObject.put("data", paramsObject);
+         returnObject.put("error", errorObject);
+      } else {
+         JSONObject paramsObject = createResultObject(xinsResult);
+         returnObject.put("result", paramsObject);
+      }
+      returnObject.put("id", backpack.get("_id"));
+      return returnObject;
+   }
+
+   /**
+    * Thread factory for the threads executing the calls of the batches.
+    */
+   private static final class BatchThreadFactory implements ThreadFactory {
+
+      /**
+       * The number of threads created.
+       */
+      private final AtomicInteger _threadCount = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable) {
+         Thread thread = new Thread(runnable, "XINS JSON-RPC batch " + _threadCount.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      }
+   }
+
    private int getStatusCodeForError(String errorCode) {
       if (errorCode == null) {
          return HttpServletResponse.SC_OK;
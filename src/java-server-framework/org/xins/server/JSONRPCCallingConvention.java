@@ -33,6 +33,7 @@ import org.xins.common.spec.InvalidSpecificationException;
 import org.xins.common.spec.ParameterSpec;
 import org.xins.common.types.Type;
 import org.w3c.dom.Element;
+import org.xins.common.xml.CompactElement;
 import org.xins.common.xml.ElementFormatter;
 import org.xml.sax.SAXException;
 
@@ -270,10 +271,31 @@ public class JSONRPCCallingConvention extends CallingConvention {
     */
    protected FunctionRequest parsePostRequest(HttpServletRequest httpRequest)
    throws InvalidRequestException, FunctionNotSpecifiedException {
-      String functionName;
-      Map<String, String> functionParams = new HashMap<String, String>();
-      Element dataElement = null;
-      Map<String, Object> backpack = new HashMap<String, Object>();
+      String requestString = readRequestBody(httpRequest);
+      try {
+         JSONObject requestObject = new JSONObject(requestString);
+         return parseRequestObject(requestObject, httpRequest);
+      } catch (JSONException jsonex) {
+         throw new InvalidRequestException(jsonex.getMessage());
+      }
+   }
+
+   /**
+    * Reads the body of the HTTP POST request.
+    *
+    * @param httpRequest
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @return
+    *    the body of the request, never <code>null</code>.
+    *
+    * @throws InvalidRequestException
+    *    if the request cannot be read.
+    *
+    * @since XINS 3.2
+    */
+   protected String readRequestBody(HttpServletRequest httpRequest)
+   throws InvalidRequestException {
 
       // Read the message
       // TODO replace with IOReader.readFully()
@@ -288,12 +310,38 @@ public class JSONRPCCallingConvention extends CallingConvention {
       } catch (IOException ioe) {
          throw new InvalidRequestException("I/O Error while reading the request: " + ioe.getMessage());
       }
-      String requestString = requestBuffer.toString();
+      return requestBuffer.toString();
+   }
+
+   /**
+    * Converts a JSON-RPC request object to a XINS request.
+    *
+    * @param requestObject
+    *    the JSON object containing the request, cannot be <code>null</code>.
+    *
+    * @param httpRequest
+    *    the HTTP request, cannot be <code>null</code>.
+    *
+    * @return
+    *    the XINS request object, never <code>null</code>.
+    *
+    * @throws InvalidRequestException
+    *    if the request is considerd to be invalid.
+    *
+    * @throws FunctionNotSpecifiedException
+    *    if the request does not indicate the name of the function to execute.
+    *
+    * @since XINS 3.2
+    */
+   protected FunctionRequest parseRequestObject(JSONObject requestObject, HttpServletRequest httpRequest)
+   throws InvalidRequestException, FunctionNotSpecifiedException {
+      String functionName;
+      Map<String, String> functionParams = new HashMap<String, String>();
+      Element dataElement = null;
+      Map<String, Object> backpack = new HashMap<String, Object>();
 
       // Extract the request from the message
       try {
-         JSONObject requestObject = new JSONObject(requestString);
-
          Object version = requestObject.opt("version");
          if (version != null) {
             backpack.put("_version", version);
@@ -372,14 +420,61 @@ public class JSONRPCCallingConvention extends CallingConvention {
    static JSONObject createResultObject(FunctionResult xinsResult) throws JSONException {
       Properties params = MapStringUtils.toProperties(xinsResult.getParameters());
       JSONObject paramsObject = new JSONObject(params);
-      if (xinsResult.getDataElement() != null) {
-         String dataSection = ElementFormatter.format(xinsResult.getDataElement());
-         JSONObject dataSectionObject = XML.toJSONObject(dataSection);
+      CompactElement dataElement = xinsResult.getCompactDataElement();
+      if (dataElement != null) {
+         JSONObject dataSectionObject = new JSONObject();
+         accumulateElement(dataSectionObject, dataElement);
          paramsObject.accumulate("data", dataSectionObject);
       }
       return paramsObject;
    }
 
+   /**
+    * Adds the JSON representation of an element to a JSON object.
+    * The conversion is the same as the one done by {@link XML#toJSONObject(String)}
+    * but without serializing and parsing the element.
+    *
+    * @param context
+    *    the JSON object to add the element to, cannot be <code>null</code>.
+    *
+    * @param element
+    *    the element to convert, cannot be <code>null</code>.
+    *
+    * @throws JSONException
+    *    if the element cannot be added for any reason.
+    */
+   private static void accumulateElement(JSONObject context, CompactElement element) throws JSONException {
+      JSONObject elementObject = new JSONObject();
+      int attributeCount = element.getAttributeCount();
+      for (int i = 0; i < attributeCount; i++) {
+         elementObject.accumulate(element.getAttributeName(i), element.getAttributeValue(i));
+      }
+      int childCount = element.getChildCount();
+      for (int i = 0; i < childCount; i++) {
+         accumulateElement(elementObject, element.getChild(i));
+      }
+      String text = element.getText();
+      boolean hasText = childCount == 0 && text != null && text.length() > 0;
+      if (hasText) {
+         text = text.trim();
+         if (text.length() > 0) {
+            elementObject.accumulate("content", text);
+         }
+      }
+
+      // As with XML.toJSONObject, an empty element is an empty object and
+      // an element with only white spaces is an empty string
+      if (elementObject.length() == 0 && hasText) {
+         context.accumulate(element.getName(), "");
+      } else if (elementObject.length() == 0) {
+         context.accumulate(element.getName(), elementObject);
+      } else if (elementObject.length() == 1 && elementObject.opt("content") != null) {
+         context.accumulate(element.getName(), elementObject.opt("content"));
+      } else {
+         context.accumulate(element.getName(), elementObject);
+      }
+   }
+
    /**
     * Creates the JSON object containing the description of the API.
     * Specifications are available at http://json-rpc.org/wd/JSON-RPC-1-1-WD-20060807.html
@@ -0,0 +1,45 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.w3c.dom.Element;
+
+import org.xins.client.LocalAPI;
+import org.xins.client.XINSCallResultData;
+
+/**
+ * API called by the clients running in the same Java Virtual Machine with
+ * the <code>local://<em>apiname</em></code> target descriptor.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+final class LocalEngineAPI extends LocalAPI {
+
+   /**
+    * The engine executing the functions. Never <code>null</code>.
+    */
+   private final Engine _engine;
+
+   /**
+    * Creates a new <code>LocalEngineAPI</code>.
+    *
+    * @param engine
+    *    the engine executing the functions, cannot be <code>null</code>.
+    */
+   LocalEngineAPI(Engine engine) {
+      _engine = engine;
+   }
+
+   protected XINSCallResultData call(String functionName, Map<String, String> parameters, Element dataSection, long deadline)
+   throws IOException {
+      FunctionResult result = _engine.invokeLocalFunction(functionName, parameters, dataSection, deadline);
+      return createResult(result.getErrorCode(), result.getParameters(), result.getCompactDataElement());
+   }
+}
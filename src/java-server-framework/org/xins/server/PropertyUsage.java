@@ -0,0 +1,104 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.xins.common.collections.StatsMap;
+
+/**
+ * Keeps track of the runtime properties read by each initialized component,
+ * so that only the components using changed properties are initialized
+ * again when the runtime properties are reloaded.
+ *
+ * <p>A component that is initialized with properties that are not a
+ * {@link StatsMap} is considered as affected by all the changes.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+final class PropertyUsage {
+
+   /**
+    * The view on the runtime properties of each component. Never
+    * <code>null</code>.
+    */
+   private final Map<Object, StatsMap<String, String>> _views = new HashMap<Object, StatsMap<String, String>>();
+
+   /**
+    * Gets the properties to pass to a component to initialize it.
+    *
+    * @param component
+    *    the component to initialize, cannot be <code>null</code>.
+    *
+    * @param properties
+    *    the runtime properties, cannot be <code>null</code>.
+    *
+    * @return
+    *    the properties recording the keys read by the component, never
+    *    <code>null</code>.
+    */
+   synchronized Map<String, String> track(Object component, Map<String, String> properties) {
+      if (properties instanceof StatsMap) {
+         StatsMap<String, String> view = ((StatsMap<String, String>) properties).createView();
+         _views.put(component, view);
+         return view;
+      } else {
+         _views.remove(component);
+         return properties;
+      }
+   }
+
+   /**
+    * Indicates whether a component needs to be initialized again.
+    *
+    * @param component
+    *    the component, cannot be <code>null</code>.
+    *
+    * @param changedKeys
+    *    the keys of the added, removed or modified properties, cannot be
+    *    <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the component read one of the changed properties
+    *    or if it is unknown which properties it read, <code>false</code>
+    *    otherwise.
+    */
+   synchronized boolean isAffected(Object component, Set<String> changedKeys) {
+      StatsMap<String, String> view = _views.get(component);
+      return view == null || view.isAffectedBy(changedKeys);
+   }
+
+   /**
+    * Moves the properties of a component not affected by the changes to the
+    * new runtime properties.
+    *
+    * @param component
+    *    the component, cannot be <code>null</code>.
+    *
+    * @param properties
+    *    the new runtime properties, cannot be <code>null</code>.
+    */
+   synchronized void rebase(Object component, Map<String, String> properties) {
+      StatsMap<String, String> view = _views.get(component);
+      if (view != null && properties instanceof StatsMap) {
+         view.rebase((StatsMap<String, String>) properties);
+      }
+   }
+
+   /**
+    * Forgets the properties read by a component that has been replaced by a
+    * new one.
+    *
+    * @param component
+    *    the replaced component, cannot be <code>null</code>.
+    */
+   synchronized void forget(Object component) {
+      _views.remove(component);
+   }
+}
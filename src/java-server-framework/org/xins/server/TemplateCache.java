@@ -0,0 +1,656 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.server;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xins.common.MandatoryArgumentChecker;
+import org.xins.common.Utils;
+import org.xins.common.collections.InvalidPropertyValueException;
+import org.xins.common.text.TextUtils;
+
+/**
+ * Cache for compiled XSLT templates, shared by the request threads.
+ *
+ * <p>The cache has a maximum number of templates. When the cache is full,
+ * the least recently used template is removed. When several threads request
+ * the same template that is not in the cache yet, the template is compiled
+ * only once and all threads wait for this compilation. Different templates
+ * are compiled in parallel, each thread using its own
+ * <code>TransformerFactory</code>.
+ *
+ * <p>The transformers created from the templates are reused by the same
+ * thread, see {@link #getTransformer(String)}.
+ *
+ * <p>Optionally, the modification date of the templates located on the file
+ * system is checked on each access and a modified template is compiled again.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ *
+ * @since XINS 3.2
+ */
+public final class TemplateCache {
+
+   /**
+    * The name of the runtime property that defines the maximum number of
+    * templates in the cache. By default the cache contains at most
+    * {@link #DEFAULT_MAX_SIZE} templates.
+    */
+   public static final String TEMPLATES_CACHE_SIZE_PROPERTY = "templates.cache.size";
+
+   /**
+    * The name of the runtime property that defines whether the modification
+    * date of the cached templates should be checked. Should be either
+    * <code>"true"</code> or <code>"false"</code>. By default it is not
+    * checked.
+    */
+   public static final String TEMPLATES_CACHE_CHECK_PROPERTY = "templates.cache.check";
+
+   /**
+    * The name of the runtime property that defines whether the templates of
+    * the functions should be compiled during the initialization. Should be
+    * either <code>"true"</code> or <code>"false"</code>. By default the
+    * templates are compiled when used the first time.
+    */
+   public static final String TEMPLATES_CACHE_PRECOMPILE_PROPERTY = "templates.cache.precompile";
+
+   /**
+    * The default maximum number of templates in the cache.
+    */
+   public static final int DEFAULT_MAX_SIZE = 200;
+
+   /**
+    * The factory passed to the constructor, used as model for the factories
+    * of the threads. Never <code>null</code>.
+    */
+   private final TransformerFactory _factory;
+
+   /**
+    * The factory used by each thread to compile the templates, as a
+    * <code>TransformerFactory</code> is not required to be thread-safe.
+    * Never <code>null</code>.
+    */
+   private final ThreadLocal<TransformerFactory> _factories;
+
+   /**
+    * The maximum number of templates in the cache, 0 if the templates are
+    * not cached.
+    */
+   private final int _maxSize;
+
+   /**
+    * Flag indicating whether the modification date of the templates should
+    * be checked.
+    */
+   private final boolean _checkModified;
+
+   /**
+    * The cached templates, the key is the location of the template, in
+    * access order so that the least recently used template comes first.
+    * All accesses are synchronized on this map. Never <code>null</code>.
+    */
+   private final LinkedHashMap<String, CacheEntry> _entries;
+
+   /**
+    * Number of times a template was found in the cache.
+    */
+   private final AtomicLong _hits = new AtomicLong();
+
+   /**
+    * Number of times a template had to be compiled.
+    */
+   private final AtomicLong _misses = new AtomicLong();
+
+   /**
+    * Number of templates removed because the cache was full.
+    */
+   private final AtomicLong _evictions = new AtomicLong();
+
+   /**
+    * Creates a new <code>TemplateCache</code>.
+    *
+    * @param factory
+    *    the factory used to compile the templates, cannot be <code>null</code>.
+    *
+    * @param maxSize
+    *    the maximum number of templates in the cache, or 0 if the templates
+    *    should not be cached.
+    *
+    * @param checkModified
+    *    <code>true</code> if the modification date of the cached templates
+    *    located on the file system should be checked on each access.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>factory == null || maxSize &lt; 0</code>.
+    */
+   public TemplateCache(TransformerFactory factory, int maxSize, boolean checkModified)
+   throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("factory", factory);
+      if (maxSize < 0) {
+         throw new IllegalArgumentException("maxSize (" + maxSize + ") < 0");
+      }
+      _factory       = factory;
+      _factories     = new ThreadLocal<TransformerFactory>();
+      _maxSize       = maxSize;
+      _checkModified = checkModified;
+      _entries       = new LinkedHashMap<String, CacheEntry>(Math.min(maxSize, 89) + 1, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            if (size() > _maxSize) {
+               _evictions.incrementAndGet();
+               Log.log_3445(eldest.getKey());
+               return true;
+            }
+            return false;
+         }
+      };
+   }
+
+   /**
+    * Creates a new <code>TemplateCache</code> configured with the runtime
+    * properties {@link #TEMPLATES_CACHE_SIZE_PROPERTY} and
+    * {@link #TEMPLATES_CACHE_CHECK_PROPERTY}.
+    *
+    * @param factory
+    *    the factory used to compile the templates, cannot be <code>null</code>.
+    *
+    * @param enabled
+    *    <code>true</code> if the templates should be cached.
+    *
+    * @param runtimeProperties
+    *    the runtime properties, cannot be <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>factory == null || runtimeProperties == null</code>.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value of one of the runtime properties is incorrect.
+    */
+   public TemplateCache(TransformerFactory factory, boolean enabled, Map<String, String> runtimeProperties)
+   throws IllegalArgumentException, InvalidPropertyValueException {
+      this(factory, enabled ? getMaxSize(runtimeProperties) : 0,
+            getBooleanProperty(runtimeProperties, TEMPLATES_CACHE_CHECK_PROPERTY));
+   }
+
+   private static int getMaxSize(Map<String, String> runtimeProperties)
+   throws IllegalArgumentException, InvalidPropertyValueException {
+      MandatoryArgumentChecker.check("runtimeProperties", runtimeProperties);
+      String value = runtimeProperties.get(TEMPLATES_CACHE_SIZE_PROPERTY);
+      if (TextUtils.isEmpty(value)) {
+         return DEFAULT_MAX_SIZE;
+      }
+      try {
+         int maxSize = Integer.parseInt(value.trim());
+         if (maxSize > 0) {
+            return maxSize;
+         }
+      } catch (NumberFormatException nfe) {
+         // fall through
+      }
+      throw new InvalidPropertyValueException(TEMPLATES_CACHE_SIZE_PROPERTY,
+            value, "Expected a positive integer.");
+   }
+
+   /**
+    * Gets the value of a boolean runtime property.
+    *
+    * @param runtimeProperties
+    *    the runtime properties, cannot be <code>null</code>.
+    *
+    * @param propertyName
+    *    the name of the property, cannot be <code>null</code>.
+    *
+    * @return
+    *    the value of the property, <code>false</code> if not set.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>runtimeProperties == null</code>.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value is neither <code>"true"</code> nor <code>"false"</code>.
+    */
+   static boolean getBooleanProperty(Map<String, String> runtimeProperties, String propertyName)
+   throws IllegalArgumentException, InvalidPropertyValueException {
+      MandatoryArgumentChecker.check("runtimeProperties", runtimeProperties);
+      String value = runtimeProperties.get(propertyName);
+      if (TextUtils.isEmpty(value) || "false".equals(value.trim())) {
+         return false;
+      } else if ("true".equals(value.trim())) {
+         return true;
+      }
+      throw new InvalidPropertyValueException(propertyName, value,
+            "Expected either \"true\" or \"false\".");
+   }
+
+   /**
+    * Indicates whether the templates should be compiled during the
+    * initialization, as defined by the runtime property
+    * {@link #TEMPLATES_CACHE_PRECOMPILE_PROPERTY}.
+    *
+    * @param runtimeProperties
+    *    the runtime properties, cannot be <code>null</code>.
+    *
+    * @return
+    *    <code>true</code> if the templates should be compiled during the
+    *    initialization, <code>false</code> otherwise.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>runtimeProperties == null</code>.
+    *
+    * @throws InvalidPropertyValueException
+    *    if the value of the property is incorrect.
+    */
+   public static boolean isPrecompileEnabled(Map<String, String> runtimeProperties)
+   throws IllegalArgumentException, InvalidPropertyValueException {
+      return getBooleanProperty(runtimeProperties, TEMPLATES_CACHE_PRECOMPILE_PROPERTY);
+   }
+
+   /**
+    * Gets the compiled template located at the specified location.
+    *
+    * @param location
+    *    the URL of the XSLT style sheet, cannot be <code>null</code>.
+    *
+    * @return
+    *    the compiled template, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>location == null</code>.
+    *
+    * @throws TransformerConfigurationException
+    *    if the style sheet cannot be read or compiled.
+    */
+   public Templates get(String location)
+   throws IllegalArgumentException, TransformerConfigurationException {
+      MandatoryArgumentChecker.check("location", location);
+
+      // Cache disabled
+      if (_maxSize == 0) {
+         _misses.incrementAndGet();
+         return compile(location);
+      }
+
+      return getEntry(location).getTemplates();
+   }
+
+   /**
+    * Gets a transformer for the template located at the specified location.
+    * The transformer is reused by the next calls to this method from the
+    * same thread for the same template, so it should not be kept after the
+    * transformation.
+    *
+    * @param location
+    *    the URL of the XSLT style sheet, cannot be <code>null</code>.
+    *
+    * @return
+    *    the transformer, never <code>null</code>.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>location == null</code>.
+    *
+    * @throws TransformerConfigurationException
+    *    if the style sheet cannot be read or compiled or if the transformer
+    *    cannot be created.
+    */
+   public Transformer getTransformer(String location)
+   throws IllegalArgumentException, TransformerConfigurationException {
+      MandatoryArgumentChecker.check("location", location);
+
+      // Cache disabled
+      if (_maxSize == 0) {
+         _misses.incrementAndGet();
+         return compile(location).newTransformer();
+      }
+
+      return getEntry(location).getTransformer();
+   }
+
+   /**
+    * Gets the cache entry for the specified location, compiling the template
+    * if needed.
+    *
+    * @param location
+    *    the URL of the XSLT style sheet, cannot be <code>null</code>.
+    *
+    * @return
+    *    the cache entry, never <code>null</code>.
+    *
+    * @throws TransformerConfigurationException
+    *    if the style sheet cannot be read or compiled.
+    */
+   private CacheEntry getEntry(String location) throws TransformerConfigurationException {
+      CacheEntry entry;
+      synchronized (_entries) {
+         entry = _entries.get(location);
+      }
+      if (entry != null && _checkModified && entry.isModified()) {
+         Log.log_3447(location);
+         remove(entry);
+         entry = null;
+      }
+
+      if (entry == null) {
+         CacheEntry newEntry = new CacheEntry(location);
+         synchronized (_entries) {
+            entry = _entries.get(location);
+            if (entry == null) {
+               _entries.put(location, newEntry);
+            }
+         }
+
+         // The compilation is done outside of the lock
+         if (entry == null) {
+            _misses.incrementAndGet();
+            newEntry._compilation.run();
+            return newEntry;
+         }
+      }
+      _hits.incrementAndGet();
+      return entry;
+   }
+
+   /**
+    * Removes the specified entry from the cache, unless it was already
+    * replaced.
+    *
+    * @param entry
+    *    the entry to remove, cannot be <code>null</code>.
+    */
+   private void remove(CacheEntry entry) {
+      synchronized (_entries) {
+         if (_entries.get(entry._location) == entry) {
+            _entries.remove(entry._location);
+         }
+      }
+   }
+
+   /**
+    * Compiles the templates located at the specified locations and puts them
+    * in the cache. The templates that cannot be compiled are ignored.
+    *
+    * @param locations
+    *    the URLs of the XSLT style sheets, cannot be <code>null</code>.
+    *
+    * @return
+    *    the number of templates compiled.
+    *
+    * @throws IllegalArgumentException
+    *    if <code>locations == null</code>.
+    */
+   public int precompile(Collection<String> locations) throws IllegalArgumentException {
+      MandatoryArgumentChecker.check("locations", locations);
+      int compiled = 0;
+      for (String location : locations) {
+         try {
+            get(location);
+            compiled++;
+         } catch (TransformerConfigurationException tcex) {
+            Utils.logIgnoredException(tcex);
+         }
+      }
+      return compiled;
+   }
+
+   /**
+    * Removes all templates from the cache.
+    */
+   public void clear() {
+      synchronized (_entries) {
+         _entries.clear();
+      }
+   }
+
+   /**
+    * Gets the number of templates in the cache.
+    *
+    * @return
+    *    the number of cached templates.
+    */
+   public int getSize() {
+      synchronized (_entries) {
+         return _entries.size();
+      }
+   }
+
+   /**
+    * Gets the number of times a requested template was found in the cache.
+    *
+    * @return
+    *    the number of cache hits.
+    */
+   public long getHitCount() {
+      return _hits.get();
+   }
+
+   /**
+    * Gets the number of times a requested template had to be compiled.
+    *
+    * @return
+    *    the number of cache misses.
+    */
+   public long getMissCount() {
+      return _misses.get();
+   }
+
+   /**
+    * Gets the number of templates removed from the cache because the cache
+    * was full.
+    *
+    * @return
+    *    the number of evicted templates.
+    */
+   public long getEvictionCount() {
+      return _evictions.get();
+   }
+
+   /**
+    * Compiles the specified template.
+    *
+    * @param location
+    *    the URL of the XSLT style sheet, cannot be <code>null</code>.
+    *
+    * @return
+    *    the compiled template, never <code>null</code>.
+    *
+    * @throws TransformerConfigurationException
+    *    if the style sheet cannot be read or compiled.
+    */
+   private Templates compile(String location) throws TransformerConfigurationException {
+      Log.log_3443(location);
+      return getFactory().newTemplates(new StreamSource(location));
+   }
+
+   /**
+    * Gets the factory of the current thread. The factory is created the
+    * first time with the same class and the same resolvers as the factory
+    * passed to the constructor.
+    *
+    * @return
+    *    the factory of the current thread, never <code>null</code>.
+    */
+   private TransformerFactory getFactory() {
+      TransformerFactory factory = _factories.get();
+      if (factory == null) {
+         try {
+            factory = _factory.getClass().newInstance();
+         } catch (Exception ex) {
+            Utils.logIgnoredException(ex);
+            factory = TransformerFactory.newInstance();
+         }
+         if (_factory.getURIResolver() != null) {
+            factory.setURIResolver(_factory.getURIResolver());
+         }
+         if (_factory.getErrorListener() != null) {
+            factory.setErrorListener(_factory.getErrorListener());
+         }
+         _factories.set(factory);
+      }
+      return factory;
+   }
+
+   /**
+    * Entry of the cache.
+    */
+   private final class CacheEntry implements Callable<Templates> {
+
+      /**
+       * The location of the style sheet. Never <code>null</code>.
+       */
+      private final String _location;
+
+      /**
+       * The compilation of the template. Never <code>null</code>.
+       */
+      private final FutureTask<Templates> _compilation;
+
+      /**
+       * The file of the style sheet or <code>null</code> if the location is
+       * not a file or if the modification date should not be checked.
+       */
+      private final File _file;
+
+      /**
+       * The modification date of the file when the template was compiled.
+       */
+      private long _lastModified;
+
+      /**
+       * The transformer of the template used by each thread.
+       */
+      private final ThreadLocal<Transformer> _transformers = new ThreadLocal<Transformer>();
+
+      private CacheEntry(String location) {
+         _location = location;
+         _compilation = new FutureTask<Templates>(this);
+         _file = _checkModified ? toFile(location) : null;
+      }
+
+      public Templates call() throws TransformerConfigurationException {
+         if (_file != null) {
+            _lastModified = _file.lastModified();
+         }
+         return compile(_location);
+      }
+
+      /**
+       * Checks whether the file of the style sheet was modified since the
+       * compilation.
+       *
+       * @return
+       *    <code>true</code> if the style sheet was modified,
+       *    <code>false</code> otherwise or if the template is still being
+       *    compiled.
+       */
+      private boolean isModified() {
+         return _file != null && _compilation.isDone() && _file.lastModified() != _lastModified;
+      }
+
+      /**
+       * Gets the compiled template, waiting for the compilation to finish if
+       * needed. If the compilation failed, the entry is removed from the
+       * cache.
+       *
+       * @return
+       *    the compiled template, never <code>null</code>.
+       *
+       * @throws TransformerConfigurationException
+       *    if the style sheet cannot be read or compiled.
+       */
+      private Templates getTemplates() throws TransformerConfigurationException {
+         boolean interrupted = false;
+         try {
+            while (true) {
+               try {
+                  return _compilation.get();
+               } catch (InterruptedException iex) {
+                  interrupted = true;
+               } catch (ExecutionException eex) {
+                  remove(this);
+                  Throwable cause = eex.getCause();
+                  if (cause instanceof TransformerConfigurationException) {
+                     throw (TransformerConfigurationException) cause;
+                  } else if (cause instanceof RuntimeException) {
+                     throw (RuntimeException) cause;
+                  } else if (cause instanceof Error) {
+                     throw (Error) cause;
+                  }
+                  throw new TransformerConfigurationException(cause);
+               }
+            }
+         } finally {
+            if (interrupted) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }
+
+      /**
+       * Gets the transformer of the template for the current thread.
+       *
+       * @return
+       *    the transformer reset to its initial state or with its
+       *    parameters cleared, never <code>null</code>.
+       *
+       * @throws TransformerConfigurationException
+       *    if the style sheet cannot be read or compiled or if the
+       *    transformer cannot be created.
+       */
+      private Transformer getTransformer() throws TransformerConfigurationException {
+         Transformer transformer = _transformers.get();
+         if (transformer == null) {
+            transformer = getTemplates().newTransformer();
+            _transformers.set(transformer);
+         } else {
+            try {
+               transformer.reset();
+
+            // Some XSLT processors (Saxon 6) do not support reset, in which
+            // case only the parameters are cleared
+            } catch (UnsupportedOperationException uoex) {
+               transformer.clearParameters();
+            }
+         }
+         return transformer;
+      }
+   }
+
+   /**
+    * Gets the file corresponding to the location.
+    *
+    * @param location
+    *    the URL of the style sheet, cannot be <code>null</code>.
+    *
+    * @return
+    *    the file or <code>null</code> if the location is not a file URL.
+    */
+   private static File toFile(String location) {
+      if (!location.startsWith("file:")) {
+         return null;
+      }
+      try {
+         return new File(new URI(location));
+      } catch (Exception ex) {
+         Utils.logIgnoredException(ex);
+         return null;
+      }
+   }
+}
@@ -82,7 +82,7 @@ public class TransactionLoggingInterceptor extends Interceptor {
       if (result instanceof NotModifiedResult) {
          outParams = NOT_MODIFIED;
       } else {
-         outParams = new FormattedParameters(result.getParameters(), result.getDataElement());
+         outParams = result.getFormattedParameters();
       }
       String ip = (String) request.getBackpack().get(BackpackConstants.IP);
 
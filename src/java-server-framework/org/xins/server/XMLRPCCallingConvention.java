@@ -20,7 +20,6 @@ import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.w3c.dom.Attr;
 
 import org.xins.common.MandatoryArgumentChecker;
 import org.xins.common.spec.DataSectionElementSpec;
@@ -31,7 +30,7 @@ import org.xins.common.text.ParseException;
 import org.xins.common.text.TextUtils;
 import org.xins.common.types.Type;
 import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
+import org.xins.common.xml.CompactElement;
 import org.xins.common.xml.DataElementBuilder;
 import org.xins.common.xml.ElementList;
 
@@ -447,7 +446,7 @@ public class XMLRPCCallingConvention extends CallingConvention {
          }
 
          // Write the data section if needed
-         Element dataSection = xinsResult.getDataElement();
+         CompactElement dataSection = xinsResult.getCompactDataElement();
          if (dataSection != null) {
 
             Map dataSectionSpec = null;
@@ -469,8 +468,8 @@ public class XMLRPCCallingConvention extends CallingConvention {
             xmlout.startTag("value");
             xmlout.startTag("array");
             xmlout.startTag("data");
-            for (Element child : new ElementList(dataSection)) {
-               writeElement(child, xmlout, dataSectionSpec);
+            for (int i = 0; i < dataSection.getChildCount(); i++) {
+               writeElement(dataSection.getChild(i), xmlout, dataSectionSpec);
             }
             xmlout.endTag(); // data
             xmlout.endTag(); // array
@@ -575,29 +574,29 @@ public class XMLRPCCallingConvention extends CallingConvention {
     * @throws IOException
     *    if an IO error occurs while writing on the output.
     */
-   private void writeElement(Element dataElement, XMLOutputter xmlout, Map dataSectionSpec) throws IOException {
+   private void writeElement(CompactElement dataElement, XMLOutputter xmlout, Map dataSectionSpec) throws IOException {
       xmlout.startTag("value");
       xmlout.startTag("struct");
       xmlout.startTag("member");
       xmlout.startTag("name");
-      xmlout.pcdata(dataElement.getTagName());
+      xmlout.pcdata(dataElement.getName());
       xmlout.endTag(); // name
       xmlout.startTag("value");
-      DataSectionElementSpec elementSpec = (DataSectionElementSpec) dataSectionSpec.get(dataElement.getTagName());
-      ElementList children = new ElementList(dataElement);;
-      if (!children.isEmpty()) {
+      DataSectionElementSpec elementSpec = (DataSectionElementSpec) dataSectionSpec.get(dataElement.getName());
+      int childCount = dataElement.getChildCount();
+      if (childCount > 0) {
          Map childrenSpec = elementSpec.getSubElements();
          xmlout.startTag("array");
          xmlout.startTag("data");
-         for (Element nextChild : children) {
-            writeElement(nextChild, xmlout, childrenSpec);
+         for (int i = 0; i < childCount; i++) {
+            writeElement(dataElement.getChild(i), xmlout, childrenSpec);
          }
          xmlout.endTag(); // data
          xmlout.endTag(); // array
       } else {
          xmlout.startTag("string");
-         if (dataElement.getTextContent() != null) {
-            xmlout.pcdata(dataElement.getTextContent());
+         if (dataElement.getText() != null) {
+            xmlout.pcdata(dataElement.getText());
          }
          xmlout.endTag(); // string
       }
@@ -605,11 +604,9 @@ public class XMLRPCCallingConvention extends CallingConvention {
       xmlout.endTag(); // member
 
       // Write the attributes
-      NamedNodeMap attributesMap = dataElement.getAttributes();
-      for (int i = 0; i < attributesMap.getLength(); i++) {
-         Attr attribute = (Attr) attributesMap.item(i);
-         String attributeName = attribute.getName();
-         String attributeValue = attribute.getValue();
+      for (int i = 0; i < dataElement.getAttributeCount(); i++) {
+         String attributeName = dataElement.getAttributeName(i);
+         String attributeValue = dataElement.getAttributeValue(i);
 
          String attributeTag;
          try {
@@ -8,20 +8,15 @@ package org.xins.server;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.Writer;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
-import javax.xml.transform.Result;
 import javax.xml.transform.Source;
-import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -92,9 +87,10 @@ public class XSLTCallingConvention extends StandardCallingConvention {
    private String _location;
 
    /**
-    * Cache for the XSLT templates. Never <code>null</code>.
+    * Cache for the XSLT templates. This field is initially
+    * <code>null</code> and set during initialization.
     */
-   private Map _templateCache;
+   private TemplateCache _templateCache;
 
    /**
     * Constructs a new <code>XSLTCallingConvention</code> object.
@@ -103,9 +99,6 @@ public class XSLTCallingConvention extends StandardCallingConvention {
 
       // Create the transformer factory
       _factory = TransformerFactory.newInstance();
-
-      // Initialize the template cache
-      _templateCache = new HashMap(89);
    }
 
    protected void initImpl(Map<String, String> runtimeProperties)
@@ -122,6 +115,18 @@ public class XSLTCallingConvention extends StandardCallingConvention {
 
       // Determine whether template location can be passed as parameter
       _templatesPrefix = getXSLTLocation(runtimeProperties, "parameter.prefix");
+
+      // Create the template cache
+      _templateCache = new TemplateCache(_factory, _cacheTemplates, runtimeProperties);
+
+      // Compile the templates of the functions
+      if (_cacheTemplates && _location != null && TemplateCache.isPrecompileEnabled(runtimeProperties)) {
+         List<String> locations = new ArrayList<String>();
+         for (Function function : getAPI().getFunctionList()) {
+            locations.add(_location + function.getName() + ".xslt");
+         }
+         _templateCache.precompile(locations);
+      }
    }
 
    /**
@@ -257,11 +262,6 @@ public class XSLTCallingConvention extends StandardCallingConvention {
          return;
       }
 
-      // Get the XML output similar to the standard calling convention.
-      StringWriter xmlOutput = new StringWriter(1024);
-      CallResultOutputter.output(xmlOutput, xinsResult);
-      xmlOutput.close();
-
       // Get the location of the XSLT file.
       String xsltLocation = null;
       String templatesSuffix = (String) backpack.get(TEMPLATE_PARAMETER);
@@ -283,27 +283,12 @@ public class XSLTCallingConvention extends StandardCallingConvention {
 
       try {
 
-         // Load the template or get it from the cache.
-         Templates templates;
-         if (_cacheTemplates && _templateCache.containsKey(xsltLocation)) {
-            templates = (Templates) _templateCache.get(xsltLocation);
-         } else {
-            Log.log_3443(xsltLocation);
-            templates = _factory.newTemplates(new StreamSource(xsltLocation));
-            if (_cacheTemplates) {
-               _templateCache.put(xsltLocation, templates);
-            }
-         }
-
-         // Proceed to the transformation.
-         Transformer xformer = templates.newTransformer();
-         Source source = new StreamSource(new StringReader(xmlOutput.toString()));
-         Writer buffer = new StringWriter(4096);
-         Result result = new StreamResult(buffer);
-         xformer.transform(source, result);
+         // Get the transformer of the template, the template is compiled if
+         // not in the cache
+         Transformer xformer = _templateCache.getTransformer(xsltLocation);
 
          // Determine the MIME type for the output.
-         String mimeType = getContentType(templates.getOutputProperties());
+         String mimeType = getContentType(xformer.getOutputProperties());
          if (mimeType != null) {
             httpResponse.setContentType(mimeType);
          }
@@ -314,8 +299,13 @@ public class XSLTCallingConvention extends StandardCallingConvention {
          } else {
             httpResponse.setStatus(backpackStatusCode);
          }
+
+         // Proceed to the transformation, the XML of the result is sent to
+         // the transformer as SAX events and the output is written directly
+         // to the response.
          PrintWriter out = httpResponse.getWriter();
-         out.print(buffer.toString());
+         Source source = CallResultOutputter.createSource(xinsResult);
+         xformer.transform(source, new StreamResult(out));
          out.close();
       } catch (Exception exception) {
          if (exception instanceof IOException) {
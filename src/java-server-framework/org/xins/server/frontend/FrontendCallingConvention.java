@@ -31,6 +31,7 @@ import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import org.w3c.dom.Document;
@@ -65,6 +66,7 @@ import org.xins.server.FunctionRequest;
 import org.xins.server.FunctionResult;
 import org.xins.server.InvalidRequestException;
 import org.xins.server.Log;
+import org.xins.server.TemplateCache;
 
 /**
  * XINS Front-end Framework calling convention.
@@ -162,9 +164,10 @@ public class FrontendCallingConvention extends CustomCallingConvention {
    private boolean _cacheTemplates;
 
    /**
-    * Cache for the XSLT templates. Never <code>null</code>.
+    * Cache for the XSLT templates. This field is initially
+    * <code>null</code> and set during initialization.
     */
-   private Map<String, Templates> _templateCache = new HashMap<String, Templates>();
+   private TemplateCache _templateCache;
 
    /**
     * The template used for the Control command.
@@ -249,6 +252,12 @@ public class FrontendCallingConvention extends CustomCallingConvention {
       for (Function function : _api.getFunctionList()) {
          _functionList.add(function.getName());
       }
+
+      // Create the template cache and compile the templates if needed
+      _templateCache = new TemplateCache(_factory, _cacheTemplates, runtimeProperties);
+      if (_cacheTemplates && TemplateCache.isPrecompileEnabled(runtimeProperties)) {
+         _templateCache.precompile(getCommandTemplateLocations());
+      }
    }
 
    /**
@@ -400,14 +409,12 @@ public class FrontendCallingConvention extends CustomCallingConvention {
       }
 
       Element commandResult = null;
-      String commandResultXML = null;
       if (_conditionalRedirectionMap.get(functionName) != null) {
          commandResult = createXMLResult(httpRequest, xinsResult);
-         commandResultXML = serializeResult(commandResult);
       }
 
       // Redirection
-      String redirection = getRedirection(xinsResult, command, functionName, commandResultXML);
+      String redirection = getRedirection(xinsResult, command, functionName, commandResult);
       if (redirection != null) {
          if ("source".equals(mode)) {
             redirection += "&mode=source";
@@ -418,14 +425,13 @@ public class FrontendCallingConvention extends CustomCallingConvention {
 
       if (commandResult == null) {
          commandResult = createXMLResult(httpRequest, xinsResult);
-         commandResultXML = serializeResult(commandResult);
       }
 
       if ("source".equalsIgnoreCase(mode)) {
-         PrintWriter out = httpResponse.getWriter();
          httpResponse.setContentType(XML_CONTENT_TYPE);
          httpResponse.setStatus(HttpServletResponse.SC_OK);
-         out.print(commandResultXML);
+         PrintWriter out = httpResponse.getWriter();
+         out.print(serializeResult(commandResult));
          out.close();
       } else if (command != null) {
          /*if (command.endsWith("Show") || command.endsWith("Okay")) {
@@ -433,24 +439,22 @@ public class FrontendCallingConvention extends CustomCallingConvention {
          }*/
          String xsltLocation = _baseXSLTDir + command + ".xslt";
          try {
-            Templates template = null;
+            Transformer xformer = null;
             if ("Control".equals(command) && _templateControl == null) {
                try {
                   StringReader controlXSLT = new StringReader(ControlResult.getControlTemplate());
                   _templateControl = _factory.newTemplates(new StreamSource(controlXSLT));
-                  template = _templateControl;
+                  xformer = _templateControl.newTransformer();
                } catch (TransformerConfigurationException tcex) {
                   Log.log_3701(tcex, "control");
                }
             } else if ("Control".equals(command)) {
-               template = _templateControl;
+               xformer = _templateControl.newTransformer();
             } else {
-               template = getTemplate(xsltLocation);
+               xformer = getTransformer(xsltLocation);
             }
             Log.log_3704(command);
-            String resultHTML = translate(commandResultXML, template);
-            String contentType = getContentType(template.getOutputProperties());
-            PrintWriter out = httpResponse.getWriter();
+            String contentType = getContentType(xformer.getOutputProperties());
             httpResponse.setContentType(contentType);
             Integer backpackStatusCode = (Integer) backpack.get(BackpackConstants.STATUS_CODE);
             if (backpackStatusCode == null) {
@@ -458,7 +462,10 @@ public class FrontendCallingConvention extends CustomCallingConvention {
             } else {
                httpResponse.setStatus(backpackStatusCode);
             }
-            out.print(resultHTML);
+
+            // The output of the transformation is written directly to the response
+            PrintWriter out = httpResponse.getWriter();
+            transform(commandResult, xformer, out);
             out.close();
          } catch (TransformerConfigurationException tcex) {
             showError(tcex, httpResponse, httpRequest);
@@ -721,24 +728,36 @@ public class FrontendCallingConvention extends CustomCallingConvention {
     * @throws Exception
     *    if the transformation fails.
     */
-   private String translate(String xmlInput, Templates template) throws Exception {
-      try {
-
-         // Use the template to create a transformer
-         Transformer xformer = template.newTransformer();
-
-         // Prepare the input and output files
-         Source source = new StreamSource(new StringReader(xmlInput));
+   private String translate(Element xmlInput, Templates template) throws Exception {
+      Writer buffer = new StringWriter(256);
+      transform(xmlInput, template.newTransformer(), buffer);
+      return buffer.toString();
+   }
 
-         // Store the result in a StringWriter before sending it.
-         Writer buffer = new StringWriter(8192);
+   /**
+    * Transforms the input using the specified transformer.
+    *
+    * @param xmlInput
+    *    the XML input that should be transformed, never <code>null</code>.
+    *
+    * @param xformer
+    *    the transformer that should be used to transform the input XML, never <code>null</code>.
+    *
+    * @param output
+    *    the writer where the result of the transformation is written, never <code>null</code>.
+    *
+    * @throws Exception
+    *    if the transformation fails.
+    */
+   private void transform(Element xmlInput, Transformer xformer, Writer output) throws Exception {
+      try {
 
-         Result result = new StreamResult(buffer);
+         // The DOM document is used directly as input, without serializing it
+         Source source = new DOMSource(xmlInput.getOwnerDocument());
+         Result result = new StreamResult(output);
 
-         // Apply the xsl file to the source file and write the result to the output file
+         // Apply the xsl file to the source file and write the result to the output
          xformer.transform(source, result);
-
-         return buffer.toString();
       } catch (TransformerConfigurationException tcex) {
 
          // An error occurred in the XSL file
@@ -777,23 +796,56 @@ public class FrontendCallingConvention extends CustomCallingConvention {
     */
    private Templates getTemplate(String xsltUrl) throws Exception {
 
-      // Use the factory to create a template containing the xsl file
       // Load the template or get it from the cache.
-      Templates template;
-      if (_cacheTemplates && _templateCache.containsKey(xsltUrl)) {
-         template = _templateCache.get(xsltUrl);
-      } else {
-         try {
-            template = _factory.newTemplates(new StreamSource(xsltUrl));
-            if (_cacheTemplates) {
-               _templateCache.put(xsltUrl, template);
-            }
-         } catch (TransformerConfigurationException tcex) {
-            Log.log_3701(tcex, xsltUrl);
-            throw tcex;
+      try {
+         return _templateCache.get(xsltUrl);
+      } catch (TransformerConfigurationException tcex) {
+         Log.log_3701(tcex, xsltUrl);
+         throw tcex;
+      }
+   }
+
+   /**
+    * Gets the transformer for the given XSLT. The transformer is reused by
+    * the current thread for the next requests with the same XSLT.
+    *
+    * @param xsltUrl
+    *    the URL of the XSLT file that should be used to transform the result,
+    *    never <code>null</code>.
+    *
+    * @return
+    *    the transformer, never <code>null</code>.
+    *
+    * @throws Exception
+    *    if the URL is not found or the XSLT cannot be read correctly.
+    */
+   private Transformer getTransformer(String xsltUrl) throws Exception {
+      try {
+         return _templateCache.getTransformer(xsltUrl);
+      } catch (TransformerConfigurationException tcex) {
+         Log.log_3701(tcex, xsltUrl);
+         throw tcex;
+      }
+   }
+
+   /**
+    * Gets the locations of the XSLT of the commands, that are the functions
+    * of the API and the virtual functions without redirection.
+    *
+    * @return
+    *    the URL of the XSLT of the commands, never <code>null</code>.
+    */
+   private List<String> getCommandTemplateLocations() {
+      List<String> locations = new ArrayList<String>();
+      for (Function function : _api.getFunctionList()) {
+         locations.add(_baseXSLTDir + function.getName() + ".xslt");
+      }
+      for (Map.Entry<String, String> virtualFunction : _redirectionMap.entrySet()) {
+         if (virtualFunction.getValue().equals("-")) {
+            locations.add(_baseXSLTDir + virtualFunction.getKey() + ".xslt");
          }
       }
-      return template;
+      return locations;
    }
 
    /**
@@ -866,33 +918,10 @@ public class FrontendCallingConvention extends CustomCallingConvention {
          _templateCache.clear();
       } else if ("RefreshCommandTemplateCache".equals(action)) {
          _templateCache.clear();
-         String xsltLocation;
-         Iterator itRealFunctions = _api.getFunctionList().iterator();
-         while (itRealFunctions.hasNext()) {
-            Function nextFunction = (Function) itRealFunctions.next();
-            String nextCommand = nextFunction.getName();
-            xsltLocation = _baseXSLTDir + nextCommand + ".xslt";
-
-            try {
-               Templates template = _factory.newTemplates(new StreamSource(xsltLocation));
-               _templateCache.put(xsltLocation, template);
-            } catch (TransformerConfigurationException tcex) {
-               // Ignore as if the functionName include the action, it won't match a XSLT file
-            }
-         }
-         Iterator itVirtualFunctions = _redirectionMap.entrySet().iterator();
-         while (itVirtualFunctions.hasNext()) {
-            Map.Entry nextFunction = (Map.Entry) itVirtualFunctions.next();
-            xsltLocation = _baseXSLTDir + nextFunction.getKey() + ".xslt";
-            if (nextFunction.getValue().equals("-")) {
-               try {
-                  Templates template = _factory.newTemplates(new StreamSource(xsltLocation));
-                  _templateCache.put(xsltLocation, template);
-               } catch (TransformerConfigurationException tcex) {
-                  // Ignore as if the functionName include the action, it won't match a XSLT file
-               }
-            }
-         }
+
+         // The XSLT that cannot be compiled are ignored as if the function
+         // name includes the action, it won't match a XSLT file
+         _templateCache.precompile(getCommandTemplateLocations());
       }
       return new ControlResult(_api, _session, _redirectionMap);
    }
@@ -910,7 +939,7 @@ public class FrontendCallingConvention extends CustomCallingConvention {
     * @param functionName
     *    the name of the function, cannot be <code>null</code>.
     *
-    * @param xmlResult
+    * @param commandResult
     *    the result of the call in case of a conditional redirection, can be <code>null</code>.
     *
     * @return
@@ -918,7 +947,7 @@ public class FrontendCallingConvention extends CustomCallingConvention {
     *    if the command should not be redirected.
     */
    private String getRedirection(FunctionResult xinsResult, String command,
-         String functionName, String xmlResult) {
+         String functionName, Element commandResult) {
       String redirection = xinsResult.getParameter("redirect");
       if (_session.shouldLogIn() || (redirection == null && "NotLoggedIn".equals(xinsResult.getErrorCode()))) {
          redirection = _loginPage + "&targetcommand=" + command;
@@ -927,7 +956,7 @@ public class FrontendCallingConvention extends CustomCallingConvention {
       if (redirection == null && xinsResult.getErrorCode() == null && _conditionalRedirectionMap.get(functionName) != null) {
          Templates conditionTemplate = _conditionalRedirectionMap.get(functionName);
          try {
-            redirection = translate(xmlResult, conditionTemplate);
+            redirection = translate(commandResult, conditionTemplate);
          } catch (Exception ex) {
 
             // continue;
@@ -1060,7 +1089,10 @@ public class FrontendCallingConvention extends CustomCallingConvention {
    }
 
    /**
-    * Displays the transformation error.
+    * Displays the transformation error. The error page replaces what has
+    * been written of the result so far. If part of the result has already
+    * been sent to the client, no error page is written and an
+    * {@link IOException} is thrown, so that the connection is aborted.
     *
     * @param transformException
     *    The exception that occured during the transformation, cannot be <code>null</code>.
@@ -1072,10 +1104,17 @@ public class FrontendCallingConvention extends CustomCallingConvention {
     *    the request of the user, cannot be <code>null</code>.
     *
     * @throws IOException
-    *    if this transformation also fails for any reason.
+    *    if the response is already committed or if this transformation also
+    *    fails for any reason.
     */
    private void showError(Exception transformException, HttpServletResponse httpResponse,
          HttpServletRequest httpRequest) throws IOException {
+      if (httpResponse.isCommitted()) {
+         IOException ioe = new IOException("Cannot show the error page as part of the result has already been sent.");
+         ioe.initCause(transformException);
+         throw ioe;
+      }
+      httpResponse.resetBuffer();
       try {
          FunctionResult errorResult = new ErrorResult(transformException, httpRequest);
          if (_templateError == null) {
@@ -1091,12 +1130,11 @@ public class FrontendCallingConvention extends CustomCallingConvention {
             }
          }
          Element commandResult = createXMLResult(httpRequest, errorResult);
-         String commandResultXML = serializeResult(commandResult);
-         String resultHTML = translate(commandResultXML, _templateError);
+         String resultHTML = translate(commandResult, _templateError);
          String contentType = getContentType(_templateError.getOutputProperties());
-         PrintWriter out = httpResponse.getWriter();
          httpResponse.setContentType(contentType);
          httpResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+         PrintWriter out = httpResponse.getWriter();
          out.print(resultHTML);
          out.close();
       } catch (Exception ex) {
@@ -38,7 +38,10 @@ public class AllTests extends TestSuite {
       TestSuite suite = new TestSuite();
       suite.addTestSuite(AllInOneTests.class);
       suite.addTestSuite(DateConverterTests.class);
+      suite.addTestSuite(DocumentBuilderPoolTests.class);
+      suite.addTestSuite(ExpiryFolderTests.class);
       suite.addTestSuite(MandatoryArgumentCheckerTests.class);
+      suite.addTestSuite(ServletContainerTests.class);
       return suite;
    }
 }
@@ -0,0 +1,120 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.perftests;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.xml.DocumentBuilderPool;
+import org.xins.common.xml.ElementFormatter;
+
+/**
+ * Performance tests for class <code>DocumentBuilderPool</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class DocumentBuilderPoolTests extends TestCase {
+
+   private static final int ROUNDS = 1000000;
+
+   private static final String XML = "<data><product id=\"1\" price=\"12\"/><product id=\"2\"/></data>";
+
+   /**
+    * Constructs a new <code>DocumentBuilderPoolTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public DocumentBuilderPoolTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(DocumentBuilderPoolTests.class);
+   }
+
+   public void testBorrowSingleThread() throws Exception {
+      runBorrowThreads(1, ROUNDS);
+   }
+
+   public void testBorrow4Threads() throws Exception {
+      runBorrowThreads(4, ROUNDS / 4);
+   }
+
+   public void testBorrow16Threads() throws Exception {
+      runBorrowThreads(16, ROUNDS / 16);
+   }
+
+   public void testBorrowNested16Threads() throws Exception {
+      runThreads(16, new Runnable() {
+         public void run() {
+            DocumentBuilderPool pool = DocumentBuilderPool.getInstance();
+            for (int i = 0; i < ROUNDS / 16; i++) {
+               DocumentBuilder builder = pool.getBuilder();
+               DocumentBuilder builder2 = pool.getBuilder();
+               pool.releaseBuilder(builder2);
+               pool.releaseBuilder(builder);
+            }
+         }
+      });
+   }
+
+   public void testParse16Threads() throws Exception {
+      runThreads(16, new Runnable() {
+         public void run() {
+            try {
+               for (int i = 0; i < ROUNDS / 160; i++) {
+                  ElementFormatter.parse(XML);
+               }
+            } catch (Exception ex) {
+               throw new RuntimeException(ex);
+            }
+         }
+      });
+   }
+
+   private void runBorrowThreads(int threadCount, final int rounds) throws Exception {
+      runThreads(threadCount, new Runnable() {
+         public void run() {
+            DocumentBuilderPool pool = DocumentBuilderPool.getInstance();
+            for (int i = 0; i < rounds; i++) {
+               pool.releaseBuilder(pool.getBuilder());
+            }
+         }
+      });
+   }
+
+   private void runThreads(int threadCount, Runnable task) throws Exception {
+      DocumentBuilderPool pool = DocumentBuilderPool.getInstance();
+      pool.setStatisticsEnabled(true);
+      long borrows = pool.getBorrowCount();
+      long misses = pool.getMissCount();
+      long borrowTime = pool.getTotalBorrowTime();
+      Thread[] threads = new Thread[threadCount];
+      for (int i = 0; i < threadCount; i++) {
+         threads[i] = new Thread(task);
+         threads[i].start();
+      }
+      for (int i = 0; i < threadCount; i++) {
+         threads[i].join();
+      }
+      borrows = pool.getBorrowCount() - borrows;
+      System.out.println(getName() + ": " + borrows + " borrows, "
+            + (pool.getMissCount() - misses) + " misses, "
+            + ((pool.getTotalBorrowTime() - borrowTime) / Math.max(1L, borrows)) + " ns average borrow time.");
+   }
+}
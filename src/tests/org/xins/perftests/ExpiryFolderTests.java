@@ -0,0 +1,135 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.perftests;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.collections.expiry.EvictionPolicy;
+import org.xins.common.collections.expiry.ExpiryFolder;
+import org.xins.common.collections.expiry.ExpiryListener;
+import org.xins.common.collections.expiry.ExpiryStrategy;
+
+/**
+ * Performance tests for class <code>ExpiryFolder</code>. Each thread
+ * performs a mix of 80% <code>get</code>, 15% <code>put</code> and 5%
+ * <code>remove</code> on a set of keys while the entries that are not
+ * accessed expire.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class ExpiryFolderTests extends TestCase {
+
+   private static final int ROUNDS = 2000000;
+
+   private static final int KEY_COUNT = 100000;
+
+   private static final int TIME_OUT = 200;
+
+   private static final int PRECISION = 10;
+
+   /**
+    * Constructs a new <code>ExpiryFolderTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public ExpiryFolderTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(ExpiryFolderTests.class);
+   }
+
+   public void testMixedSingleThread() throws Exception {
+      runThreads(1);
+   }
+
+   public void testMixed4Threads() throws Exception {
+      runThreads(4);
+   }
+
+   public void testMixed16Threads() throws Exception {
+      runThreads(16);
+   }
+
+   public void testMixed64Threads() throws Exception {
+      runThreads(64);
+   }
+
+   public void testMixedLRU16Threads() throws Exception {
+      runThreads(16, KEY_COUNT / 10, EvictionPolicy.LRU);
+   }
+
+   public void testMixedTinyLFU16Threads() throws Exception {
+      runThreads(16, KEY_COUNT / 10, EvictionPolicy.TINY_LFU);
+   }
+
+   private void runThreads(int threadCount) throws Exception {
+      runThreads(threadCount, 0, EvictionPolicy.LRU);
+   }
+
+   private void runThreads(int threadCount, int maxEntries, EvictionPolicy policy) throws Exception {
+      ExpiryStrategy strategy = new ExpiryStrategy(TIME_OUT, PRECISION);
+      try {
+         final ExpiryFolder<Integer, String> folder = new ExpiryFolder<Integer, String>(getName(), strategy, maxEntries, policy);
+         final AtomicLong expiredCount = new AtomicLong();
+         folder.addListener(new ExpiryListener<Integer, String>() {
+            public void expired(ExpiryFolder<Integer, String> source, Map<Integer, String> expired) {
+               expiredCount.addAndGet(expired.size());
+            }
+         });
+         final int rounds = ROUNDS / threadCount;
+         Thread[] threads = new Thread[threadCount];
+         for (int i = 0; i < threadCount; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread() {
+               public void run() {
+                  for (int j = 0; j < rounds; j++) {
+                     Integer key = random.nextInt(KEY_COUNT);
+                     int operation = random.nextInt(100);
+                     if (operation < 80) {
+                        folder.get(key);
+                     } else if (operation < 95) {
+                        folder.put(key, "value");
+                     } else {
+                        folder.remove(key);
+                     }
+                  }
+               }
+            };
+         }
+         long start = System.nanoTime();
+         for (int i = 0; i < threadCount; i++) {
+            threads[i].start();
+         }
+         for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+         }
+         long duration = System.nanoTime() - start;
+         long operations = (long) rounds * threadCount;
+         System.out.println(getName() + ": " + (operations * 1000000000L / Math.max(1L, duration))
+               + " operations per second, " + expiredCount.get() + " expired entries, "
+               + folder.getEvictionCount() + " evicted entries, " + folder.size() + " entries left.");
+      } finally {
+         strategy.stop();
+      }
+   }
+}
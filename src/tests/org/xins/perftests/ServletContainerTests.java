@@ -0,0 +1,143 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.perftests;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.service.TargetDescriptor;
+import org.xins.common.servlet.container.HTTPServletHandler;
+import org.xins.common.servlet.container.NettyServletHandler;
+
+import com.mycompany.allinone.capi.CAPI;
+
+/**
+ * Compares the throughput of the HTTP servlet containers included in XINS.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class ServletContainerTests extends TestCase {
+
+   /**
+    * The number of threads calling the server at the same time.
+    */
+   private static final int CLIENTS = 16;
+
+   /**
+    * The number of calls performed by each thread.
+    */
+   private static final int CALLS = 500;
+
+   /**
+    * The war file of the allinone API.
+    */
+   private File _warFile;
+
+   /**
+    * Constructs a new <code>ServletContainerTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public ServletContainerTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(ServletContainerTests.class);
+   }
+
+   protected void setUp() {
+      File xinsProps = new File(System.getProperty("user.dir"), "src/tests/xins.properties");
+      System.setProperty("org.xins.server.config", xinsProps.getAbsolutePath());
+      String warLocation = "src/tests/build/webapps/allinone/allinone.war".replace('/', File.separatorChar);
+      _warFile = new File(System.getProperty("user.dir"), warLocation);
+   }
+
+   /**
+    * Tests the throughput of the <code>HTTPServletHandler</code>.
+    */
+   public void testHTTPServletHandler() throws Exception {
+      HTTPServletHandler server = new HTTPServletHandler(_warFile, 0, true);
+      try {
+         callServer("HTTPServletHandler", server.getPort());
+      } finally {
+         server.close();
+      }
+   }
+
+   /**
+    * Tests the throughput of the <code>NettyServletHandler</code>.
+    */
+   public void testNettyServletHandler() throws Exception {
+      NettyServletHandler server = new NettyServletHandler(_warFile);
+      server.startServer(0, null);
+      try {
+         callServer("NettyServletHandler", server.getPort());
+      } finally {
+         server.close();
+      }
+   }
+
+   /**
+    * Calls the Echo function of the server from several threads and prints
+    * the number of calls per second.
+    *
+    * @param serverName
+    *    the name of the server, cannot be <code>null</code>.
+    *
+    * @param port
+    *    the port of the server.
+    */
+   private void callServer(String serverName, int port) throws Exception {
+      final CAPI allInOne = new CAPI(new TargetDescriptor("http://127.0.0.1:" + port + "/allinone/"));
+
+      // Warm up
+      for (int i = 0; i < 100; i++) {
+         allInOne.callEcho("warm up");
+      }
+
+      final AtomicInteger failures = new AtomicInteger();
+      Thread[] clients = new Thread[CLIENTS];
+      for (int i = 0; i < CLIENTS; i++) {
+         clients[i] = new Thread() {
+            public void run() {
+               for (int j = 0; j < CALLS; j++) {
+                  try {
+                     if (!"hello".equals(allInOne.callEcho("hello").getOut())) {
+                        failures.incrementAndGet();
+                     }
+                  } catch (Exception ex) {
+                     failures.incrementAndGet();
+                  }
+               }
+            }
+         };
+      }
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < CLIENTS; i++) {
+         clients[i].start();
+      }
+      for (int i = 0; i < CLIENTS; i++) {
+         clients[i].join();
+      }
+      long duration = Math.max(1L, System.currentTimeMillis() - start);
+      System.out.println(serverName + ": " + (CLIENTS * CALLS * 1000L / duration) + " calls/s");
+      assertEquals(0, failures.get());
+   }
+}
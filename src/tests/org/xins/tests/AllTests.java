@@ -116,6 +116,7 @@ public class AllTests extends TestSuite {
       suite.addTestSuite(org.xins.tests.common.collections.PropertyReaderUtilsTests.class);
       suite.addTestSuite(org.xins.tests.common.collections.ProtectedListTests.class);
       suite.addTestSuite(org.xins.tests.common.collections.ProtectedPropertyReaderTests.class);
+      suite.addTestSuite(org.xins.tests.common.collections.StatsMapTests.class);
       suite.addTestSuite(org.xins.tests.common.collections.StatsPropertyReaderTests.class);
       suite.addTestSuite(org.xins.tests.common.collections.UniquePropertiesTests.class);
 
@@ -124,6 +125,10 @@ public class AllTests extends TestSuite {
 
       suite.addTestSuite(org.xins.tests.common.http.HTTPCallConfigTests.class);
       suite.addTestSuite(org.xins.tests.common.http.HTTPServiceCallerTests.class);
+      suite.addTestSuite(org.xins.tests.common.http.DNSCacheTests.class);
+
+      suite.addTestSuite(org.xins.tests.common.io.FileWatcherTests.class);
+      suite.addTestSuite(org.xins.tests.common.io.OffHeapStoreTests.class);
 
       suite.addTestSuite(org.xins.tests.common.manageable.InitializationExceptionTests.class);
       suite.addTestSuite(org.xins.tests.common.manageable.ManageableTests.class);
@@ -141,11 +146,15 @@ public class AllTests extends TestSuite {
       suite.addTestSuite(org.xins.tests.common.service.DescriptorBuilderTests.class);
       suite.addTestSuite(org.xins.tests.common.service.TargetDescriptorTests.class);
       suite.addTestSuite(org.xins.tests.common.service.GroupDescriptorTests.class);
+      suite.addTestSuite(org.xins.tests.common.service.CircuitBreakerTests.class);
+      suite.addTestSuite(org.xins.tests.common.service.ServiceCallerTests.class);
       suite.addTestSuite(org.xins.tests.common.service.UnsupportedProtocolExceptionTests.class);
 
       suite.addTestSuite(org.xins.tests.common.servlet.ServletRequestPropertyReaderTests.class);
       suite.addTestSuite(org.xins.tests.common.servlet.container.HTTPServletHandlerTests.class);
+      suite.addTestSuite(org.xins.tests.common.servlet.container.NettyServletHandlerTests.class);
       suite.addTestSuite(org.xins.tests.common.servlet.container.XINSServletRequestTests.class);
+      suite.addTestSuite(org.xins.tests.common.servlet.container.XINSServletResponseTests.class);
 
       suite.addTestSuite(org.xins.tests.common.text.DateConverterTests.class);
       suite.addTestSuite(org.xins.tests.common.text.FastStringBufferTest.class);
@@ -174,7 +183,9 @@ public class AllTests extends TestSuite {
       suite.addTestSuite(org.xins.tests.common.types.standard.ListTests.class);
       suite.addTestSuite(org.xins.tests.common.types.standard.SetTests.class);
 
+      suite.addTestSuite(org.xins.tests.common.xml.CompactElementTests.class);
       suite.addTestSuite(org.xins.tests.common.xml.DataElementBuilderTests.class);
+      suite.addTestSuite(org.xins.tests.common.xml.DocumentBuilderPoolTests.class);
       suite.addTestSuite(org.xins.tests.common.xml.ElementTests.class);
       suite.addTestSuite(org.xins.tests.common.xml.ElementBuilderTests.class);
       suite.addTestSuite(org.xins.tests.common.xml.ElementFormatterTests.class);
@@ -191,8 +202,10 @@ public class AllTests extends TestSuite {
       suite.addTestSuite(org.xins.tests.client.UnacceptableResultXINSCallExceptionTests.class);
       suite.addTestSuite(org.xins.tests.client.XINSCallConfigTests.class);
       suite.addTestSuite(org.xins.tests.client.XINSCallRequestTests.class);
+      suite.addTestSuite(org.xins.tests.client.XINSCallResultCacheTests.class);
       suite.addTestSuite(org.xins.tests.client.XINSCallResultParserTests.class);
       suite.addTestSuite(org.xins.tests.client.XINSServiceCallerTests.class);
+      suite.addTestSuite(org.xins.tests.client.LocalAPITests.class);
 
       suite.addTestSuite(org.xins.tests.client.async.CallCAPIThreadTests.class);
       suite.addTestSuite(org.xins.tests.client.async.AsynchronousCallTests.class);
@@ -201,6 +214,7 @@ public class AllTests extends TestSuite {
       suite.addTestSuite(org.xins.tests.server.AccessRuleTests.class);
       suite.addTestSuite(org.xins.tests.server.APITests.class);
       suite.addTestSuite(org.xins.tests.server.APIServletTests.class);
+      suite.addTestSuite(org.xins.tests.server.CallResultOutputterTests.class);
       suite.addTestSuite(org.xins.tests.server.CallingConventionTests.class);
       suite.addTestSuite(org.xins.tests.server.FunctionResultTests.class);
       suite.addTestSuite(org.xins.tests.server.IPFilterTests.class);
@@ -208,9 +222,11 @@ public class AllTests extends TestSuite {
       suite.addTestSuite(org.xins.tests.server.JSONRPCCallingConventionTests.class);
       suite.addTestSuite(org.xins.tests.server.JSONRPC2CallingConventionTests.class);
       suite.addTestSuite(org.xins.tests.server.MetaFunctionsTests.class);
+      suite.addTestSuite(org.xins.tests.server.RuntimePropertiesReloadTests.class);
       suite.addTestSuite(org.xins.tests.server.StandardCallingConventionTests.class);
       suite.addTestSuite(org.xins.tests.server.SOAPCallingConventionTests.class);
       suite.addTestSuite(org.xins.tests.server.SOAPMapCallingConventionTests.class);
+      suite.addTestSuite(org.xins.tests.server.TemplateCacheTests.class);
       suite.addTestSuite(org.xins.tests.server.XMLCallingConventionTests.class);
       suite.addTestSuite(org.xins.tests.server.XMLRPCCallingConventionTests.class);
       suite.addTestSuite(org.xins.tests.server.XSLTCallingConventionTests.class);
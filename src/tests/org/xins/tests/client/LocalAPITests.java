@@ -0,0 +1,182 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.client;
+
+import java.io.File;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.log4j.NDC;
+import org.w3c.dom.Element;
+
+import org.xins.client.UnacceptableErrorCodeXINSCallException;
+import org.xins.client.UnsuccessfulXINSCallException;
+import org.xins.client.XINSCallRequest;
+import org.xins.client.XINSServiceCaller;
+import org.xins.common.service.ConnectionRefusedCallException;
+import org.xins.common.service.TargetDescriptor;
+import org.xins.common.servlet.container.LocalServletConfig;
+import org.xins.common.xml.DataElementBuilder;
+import org.xins.common.xml.ElementList;
+import org.xins.server.APIServlet;
+
+import com.mycompany.allinone.capi.CAPI;
+
+/**
+ * Tests the calls to an API running in the same Java Virtual Machine using
+ * the <code>local</code> protocol.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class LocalAPITests extends TestCase {
+
+   /**
+    * The allinone API loaded with the class loader of the tests.
+    */
+   private APIServlet _servlet;
+
+   /**
+    * The location of the runtime properties before the test.
+    */
+   private String _previousConfig;
+
+   /**
+    * The <code>CAPI</code> object used to call the API.
+    */
+   private CAPI _capi;
+
+   /**
+    * Constructs a new <code>LocalAPITests</code> test suite with the
+    * specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public LocalAPITests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(LocalAPITests.class);
+   }
+
+   protected void setUp() throws Exception {
+      File xinsProps = new File(System.getProperty("user.dir"), "src/tests/xins.properties");
+      _previousConfig = System.setProperty("org.xins.server.config", xinsProps.getAbsolutePath());
+      String warLocation = "src/tests/build/webapps/allinone/allinone.war".replace('/', File.separatorChar);
+      File warFile = new File(System.getProperty("user.dir"), warLocation);
+      _servlet = new APIServlet();
+      _servlet.init(new LocalServletConfig(warFile));
+      _capi = new CAPI(new TargetDescriptor("local://allinone", 20000));
+   }
+
+   /**
+    * Tests a successful call.
+    */
+   public void testEcho() throws Exception {
+      assertEquals("hello", _capi.callEcho("hello").getOut());
+   }
+
+   /**
+    * Tests that the diagnostic context of the caller is kept after the call.
+    */
+   public void testDiagnosticContext() throws Exception {
+      NDC.push("caller-context");
+      try {
+         assertEquals("hello", _capi.callEcho("hello").getOut());
+         assertEquals(1, NDC.getDepth());
+         assertEquals("caller-context", NDC.peek());
+      } finally {
+         NDC.remove();
+      }
+
+      // Without diagnostic context
+      assertEquals("hello", _capi.callEcho("hello").getOut());
+      assertEquals(0, NDC.getDepth());
+   }
+
+   /**
+    * Tests a call returning a functional error code with output parameters.
+    */
+   public void testResultCode() throws Exception {
+      String value = "local" + System.nanoTime();
+      assertEquals(value + " added.", _capi.callResultCode(false, value).getOutputText());
+      try {
+         _capi.callResultCode(false, value);
+         fail("The second call with the same parameter should return an AlreadySet error code.");
+      } catch (UnsuccessfulXINSCallException exception) {
+         assertEquals("AlreadySet", exception.getErrorCode());
+         assertEquals("1", exception.getParameter("count"));
+      }
+   }
+
+   /**
+    * Tests a call with an input and an output data section.
+    */
+   public void testDataSection() throws Exception {
+      DataElementBuilder dataBuilder = new DataElementBuilder();
+      Element address = dataBuilder.createElement("address");
+      address.setAttribute("company", "McDo");
+      address.setAttribute("postcode", "1234");
+      Element dataSection = dataBuilder.getDataElement();
+      dataSection.appendChild(address);
+
+      Element element = _capi.callDataSection3("hello", dataSection).dataElement();
+      ElementList packets = new ElementList(element);
+      assertEquals(3, packets.size());
+      Element envelope = (Element) packets.get(0);
+      assertEquals("envelope", envelope.getTagName());
+      assertEquals("1234", envelope.getAttribute("destination"));
+   }
+
+   /**
+    * Tests calls to an unknown function and to an unknown API.
+    */
+   public void testUnknownTarget() throws Exception {
+      XINSServiceCaller caller = new XINSServiceCaller(new TargetDescriptor("local://allinone"));
+      try {
+         caller.call(new XINSCallRequest("Unknown"));
+         fail("Calling an unknown function should fail.");
+      } catch (UnacceptableErrorCodeXINSCallException exception) {
+         assertEquals("_FunctionNotFound", exception.getErrorCode());
+      }
+
+      CAPI unknownAPI = new CAPI(new TargetDescriptor("local://unknown"));
+      try {
+         unknownAPI.callEcho("hello");
+         fail("Calling an unregistered API should fail.");
+      } catch (ConnectionRefusedCallException exception) {
+         // as expected
+      }
+
+      // The API cannot be called anymore once disposed
+      _servlet.destroy();
+      try {
+         _capi.callEcho("hello");
+         fail("Calling a disposed API should fail.");
+      } catch (ConnectionRefusedCallException exception) {
+         // as expected
+      }
+   }
+
+   protected void tearDown() {
+      _servlet.destroy();
+      if (_previousConfig == null) {
+         System.clearProperty("org.xins.server.config");
+      } else {
+         System.setProperty("org.xins.server.config", _previousConfig);
+      }
+   }
+}
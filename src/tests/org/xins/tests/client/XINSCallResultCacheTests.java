@@ -0,0 +1,253 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.client;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.w3c.dom.Element;
+
+import org.xins.client.XINSCallRequest;
+import org.xins.client.XINSCallResult;
+import org.xins.client.XINSCallResultCache;
+import org.xins.client.XINSCallResultData;
+import org.xins.client.XINSServiceCaller;
+import org.xins.common.collections.InvalidPropertyValueException;
+import org.xins.common.service.CallConfig;
+import org.xins.common.service.CallRequest;
+import org.xins.common.service.TargetDescriptor;
+import org.xins.common.xml.ElementFormatter;
+
+import org.xins.tests.AllTests;
+
+/**
+ * Tests for class <code>XINSCallResultCache</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class XINSCallResultCacheTests extends TestCase {
+
+   /**
+    * Constructs a new <code>XINSCallResultCacheTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public XINSCallResultCacheTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(XINSCallResultCacheTests.class);
+   }
+
+   /**
+    * Tests the arguments and the properties of the cache.
+    */
+   public void testSettings() throws Exception {
+      try {
+         new XINSCallResultCache(0);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      XINSCallResultCache cache = new XINSCallResultCache(10);
+      try {
+         cache.setTimeToLive("Echo", -1L);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      assertEquals(0.0, cache.getHitRate(), 0.0);
+
+      Map<String, String> properties = new HashMap<String, String>();
+      assertFalse(XINSCallResultCache.isConfigured(properties, "capis.allinone"));
+      properties.put("capis.allinone.cache.size", "abc");
+      assertTrue(XINSCallResultCache.isConfigured(properties, "capis.allinone"));
+      try {
+         new XINSCallResultCache(properties, "capis.allinone");
+         fail("Expected InvalidPropertyValueException.");
+      } catch (InvalidPropertyValueException ex) {
+         // as expected
+      }
+      properties.put("capis.allinone.cache.size", "2");
+      properties.put("capis.allinone.cache.ttl.Echo", "-5");
+      try {
+         new XINSCallResultCache(properties, "capis.allinone");
+         fail("Expected InvalidPropertyValueException.");
+      } catch (InvalidPropertyValueException ex) {
+         // as expected
+      }
+   }
+
+   /**
+    * Tests the cache hits, the eviction and the key of the requests.
+    */
+   public void testCacheHits() throws Exception {
+      Map<String, String> properties = new HashMap<String, String>();
+      properties.put("capis.test.cache.size", "2");
+      properties.put("capis.test.cache.ttl", "60000");
+      properties.put("capis.test.cache.ttl.NoCache", "0");
+      XINSCallResultCache cache = new XINSCallResultCache(properties, "capis.test");
+      StubServiceCaller caller = new StubServiceCaller();
+      caller.setResultCache(cache);
+      assertSame(cache, caller.getResultCache());
+
+      XINSCallResult result = caller.call(request("Echo", "a", "1", "b", "2"));
+      assertSame(result, caller.call(request("Echo", "b", "2", "a", "1")));
+      assertEquals(1, caller._calls);
+      assertEquals(1L, cache.getHitCount());
+      assertEquals(1L, cache.getMissCount());
+      assertEquals(0.5, cache.getHitRate(), 0.0);
+
+      // Different parameters or data section
+      assertNotSame(result, caller.call(request("Echo", "a", "2", "b", "1")));
+      XINSCallRequest withData = request("Echo", "a", "1", "b", "2");
+      withData.setDataSection(ElementFormatter.parse("<data><item /></data>"));
+      assertNotSame(result, caller.call(withData));
+      assertEquals(3, caller._calls);
+      assertEquals(2, cache.getSize());
+      assertEquals(1L, cache.getEvictionCount());
+
+      // Functions not cached
+      caller.call(request("NoCache"));
+      caller.call(request("NoCache"));
+      assertEquals(5, caller._calls);
+
+      // Unsuccessful results are not cached
+      caller._errorCode = "_InvalidRequest";
+      assertEquals("_InvalidRequest", caller.call(request("Error")).getErrorCode());
+      assertEquals("_InvalidRequest", caller.call(request("Error")).getErrorCode());
+      assertEquals(7, caller._calls);
+
+      cache.invalidate("Echo");
+      assertEquals(0, cache.getSize());
+      caller._errorCode = null;
+      caller.call(request("Echo", "a", "1", "b", "2"));
+      assertEquals(8, caller._calls);
+   }
+
+   /**
+    * Tests that an expired result is returned again if the API returns a
+    * not modified result.
+    */
+   public void testRevalidation() throws Exception {
+      XINSCallResultCache cache = new XINSCallResultCache(10);
+      cache.setTimeToLive("Echo", 50L);
+      StubServiceCaller caller = new StubServiceCaller();
+      caller.setResultCache(cache);
+
+      XINSCallResult result = caller.call(request("Echo"));
+      Thread.sleep(100L);
+      caller._notModified = true;
+      assertSame(result, caller.call(request("Echo")));
+      assertEquals(2, caller._calls);
+      assertEquals(1L, cache.getRevalidationCount());
+
+      // The result is cached again
+      assertSame(result, caller.call(request("Echo")));
+      assertEquals(2, caller._calls);
+
+      // Without cached result, the not modified result is returned
+      assertTrue(caller.call(request("Other")).isNotModified());
+   }
+
+   /**
+    * Tests the cache hint sent by the server.
+    */
+   public void testServerCacheHint() throws Exception {
+      XINSServiceCaller caller = new XINSServiceCaller(new TargetDescriptor(AllTests.url()));
+      XINSCallResultCache cache = new XINSCallResultCache(10);
+      caller.setResultCache(cache);
+
+      // The function FastData has cache="60" in its specification
+      XINSCallResult result = caller.call(request("FastData", "productId", "123456789"));
+      assertEquals("This is a table", result.getParameter("productDescription"));
+      assertSame(result, caller.call(request("FastData", "productId", "123456789")));
+      assertEquals(1L, cache.getHitCount());
+
+      // The functions without cache hint are not cached
+      caller.call(request("Echo", "in", "hello"));
+      caller.call(request("Echo", "in", "hello"));
+      assertEquals(1L, cache.getHitCount());
+      assertEquals(1, cache.getSize());
+
+      // The time-to-live of the function has precedence
+      cache.clear();
+      cache.setTimeToLive("FastData", 0L);
+      caller.call(request("FastData", "productId", "123456789"));
+      caller.call(request("FastData", "productId", "123456789"));
+      assertEquals(0, cache.getSize());
+   }
+
+   private static XINSCallRequest request(String functionName, String... parameters) {
+      Map<String, String> map = new HashMap<String, String>();
+      for (int i = 0; i < parameters.length; i += 2) {
+         map.put(parameters[i], parameters[i + 1]);
+      }
+      return new XINSCallRequest(functionName, map);
+   }
+
+   /**
+    * Service caller that does not call any API.
+    */
+   private static class StubServiceCaller extends XINSServiceCaller {
+
+      /**
+       * The number of calls.
+       */
+      private int _calls;
+
+      /**
+       * Whether a not modified result should be returned.
+       */
+      private boolean _notModified;
+
+      /**
+       * The error code to return, or <code>null</code>.
+       */
+      private String _errorCode;
+
+      StubServiceCaller() throws Exception {
+         super(new TargetDescriptor("http://stub.example.com/"));
+      }
+
+      public Object doCallImpl(CallRequest request, CallConfig callConfig, TargetDescriptor target) {
+         _calls++;
+         if (_notModified) {
+            return null;
+         }
+         final String errorCode = _errorCode;
+         final Map<String, String> parameters = new HashMap<String, String>();
+         parameters.put("call", String.valueOf(_calls));
+         return new XINSCallResultData() {
+            public String getErrorCode() {
+               return errorCode;
+            }
+
+            public Map<String, String> getParameters() {
+               return parameters;
+            }
+
+            public Element getDataElement() {
+               return null;
+            }
+         };
+      }
+   }
+}
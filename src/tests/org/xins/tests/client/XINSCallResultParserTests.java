@@ -5,6 +5,7 @@
  */
 package org.xins.tests.client;
 
+import java.io.ByteArrayInputStream;
 import java.util.Map;
 
 import junit.framework.Test;
@@ -68,7 +69,7 @@ public class XINSCallResultParserTests extends TestCase {
 
       // Passing null: Should fail
       try {
-         parser.parse(null);
+         parser.parse((byte[]) null);
          fail("Passing <null> to XINSCallResultParser.parse(byte[]) should throw an IllegalArgumentException.");
       } catch (IllegalArgumentException ex) {
          // as expected
@@ -472,6 +473,74 @@ public class XINSCallResultParserTests extends TestCase {
       // TODO: Add more
    }
 
+   /**
+    * Tests the behaviour of <code>XINSCallResultParser</code>, method
+    * <code>parse(InputStream)</code>, with regard to the data section.
+    *
+    * @throws Exception
+    *    if an unexpected exception is thrown.
+    */
+   public void testParseXINSCallResultStream() throws Exception {
+
+      XINSCallResultParser parser = new XINSCallResultParser();
+
+      // Prepare the string to parse
+      final String ENCODING = "UTF-8";
+      String xml;
+      XINSCallResultData result;
+
+      // Passing null: Should fail
+      try {
+         parser.parse((java.io.InputStream) null);
+         fail("Passing <null> to XINSCallResultParser.parse(InputStream) should throw an IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+
+      // Data section with text, CDATA and namespaces
+      xml = "<result errorcode='Err'><param name='a'>1<![CDATA[&2]]></param>" +
+            "<data xmlns:p='http://somenamespace/'><p:item key='x'>text &amp; more</p:item><empty/></data></result>";
+      ByteArrayInputStream stream = new ByteArrayInputStream(xml.getBytes(ENCODING));
+      result = parser.parse(stream);
+      assertEquals("Err", result.getErrorCode());
+      assertEquals("1&2", result.getParameters().get("a"));
+      Element dataElement = result.getDataElement();
+      assertSame(dataElement, result.getDataElement());
+      assertEquals("data", dataElement.getTagName());
+      assertEquals("http://somenamespace/", dataElement.getAttribute("xmlns:p"));
+      ElementList children = new ElementList(dataElement);
+      assertEquals(2, children.size());
+      Element item = children.get(0);
+      assertEquals("p:item", item.getTagName());
+      assertEquals("x", item.getAttribute("key"));
+      assertEquals("text & more", item.getTextContent());
+      assertEquals("", children.get(1).getTextContent());
+
+      // No data section
+      result = parser.parse(new ByteArrayInputStream("<result><param name='a'>1</param></result>".getBytes(ENCODING)));
+      assertNull(result.getDataElement());
+
+      // Large data section
+      StringBuffer large = new StringBuffer("<result><data>");
+      for (int i = 0; i < 10000; i++) {
+         large.append("<row id='" + i + "'><value>" + i + "</value></row>");
+      }
+      large.append("</data></result>");
+      result = parser.parse(new ByteArrayInputStream(large.toString().getBytes(ENCODING)));
+      children = new ElementList(result.getDataElement(), "row");
+      assertEquals(10000, children.size());
+      assertEquals("9999", children.get(9999).getAttribute("id"));
+      assertEquals("9999", children.get(9999).getTextContent());
+
+      // Incomplete XML
+      try {
+         parser.parse(new ByteArrayInputStream("<result><data><a>".getBytes(ENCODING)));
+         fail("Incomplete XML should cause XINSCallResultParser.parse(InputStream) to throw a ParseException.");
+      } catch (ParseException ex) {
+         // as expected
+      }
+   }
+
    /**
     * Tests the behaviour of <code>XINSCallResultParser</code> when it is used
     * for parsing multiple times.
@@ -6,8 +6,17 @@
 package org.xins.tests.client;
 
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -17,8 +26,13 @@ import org.xins.client.XINSCallRequest;
 import org.xins.client.XINSCallResult;
 
 import org.xins.client.XINSServiceCaller;
+import org.xins.common.http.HTTPCallRequest;
+import org.xins.common.http.HTTPCallResult;
 import org.xins.common.http.HTTPMethod;
+import org.xins.common.http.HTTPServiceCaller;
+import org.xins.common.service.Deadline;
 import org.xins.common.service.TargetDescriptor;
+import org.xins.common.service.TotalTimeOutCallException;
 import org.xins.common.service.UnsupportedProtocolException;
 
 import org.xins.tests.AllTests;
@@ -131,4 +145,227 @@ public class XINSServiceCallerTests extends TestCase {
       request2.setXINSCallConfig(config);
       caller.call(request2);
    }
+
+   /**
+    * Tests the propagation of the deadline of the call to the API.
+    */
+   public void testDeadline() throws Throwable {
+      Map<String, String> parameters = new HashMap<String, String>();
+      parameters.put("in", "hello");
+      XINSCallRequest request = new XINSCallRequest("Echo", parameters);
+      XINSServiceCaller caller = new XINSServiceCaller(new TargetDescriptor(AllTests.url(), 20000));
+
+      // The remaining time is sent to the API
+      Deadline.set(System.currentTimeMillis() + 10000L);
+      try {
+         assertEquals("hello", caller.call(request).getParameter("out"));
+      } finally {
+         Deadline.clear();
+      }
+
+      // The API is not called if the deadline is passed
+      Deadline.set(System.currentTimeMillis() - 1000L);
+      try {
+         caller.call(request);
+         fail("Expected TotalTimeOutCallException.");
+      } catch (TotalTimeOutCallException exception) {
+         // as expected
+      } finally {
+         Deadline.clear();
+      }
+      assertEquals(-1L, Deadline.getRemainingTime());
+
+      // The API rejects the calls that the caller does not wait for anymore
+      Map<String, String> httpParameters = new HashMap<String, String>();
+      httpParameters.put("_convention", "_xins-std");
+      httpParameters.put("_function", "Echo");
+      httpParameters.put("in", "hello");
+      httpParameters.put("_timeout", "0");
+      HTTPServiceCaller httpCaller = new HTTPServiceCaller(new TargetDescriptor(AllTests.url()));
+      HTTPCallResult result = httpCaller.call(new HTTPCallRequest(httpParameters));
+      assertEquals(503, result.getStatusCode());
+      assertTrue(result.getString(), result.getString().indexOf("_DeadlineExceeded") != -1);
+   }
+
+   /**
+    * Tests that the identical calls made at the same time share the same
+    * call to the API.
+    */
+   public void testCoalescing() throws Throwable {
+      final ServerSocket serverSocket = new ServerSocket(0);
+      final AtomicInteger connectionCount = new AtomicInteger();
+      Thread server = new Thread("Slow XINS API") {
+         public void run() {
+            try {
+               while (true) {
+                  Socket socket = serverSocket.accept();
+                  connectionCount.incrementAndGet();
+                  respondSlowly(socket);
+               }
+            } catch (Exception exception) {
+               // The server socket is closed
+            }
+         }
+      };
+      server.start();
+      ExecutorService executor = Executors.newFixedThreadPool(5);
+      try {
+         String url = "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+         final XINSServiceCaller caller = new XINSServiceCaller(new TargetDescriptor(url, 20000));
+         final XINSCallConfig config = new XINSCallConfig();
+         config.setCoalescing("Echo", true);
+         assertTrue(config.isCoalescing("Echo"));
+         assertFalse(config.isCoalescing("SimpleTypes"));
+         final Map<String, String> parameters = new HashMap<String, String>();
+         parameters.put("in", "hello");
+         Callable<XINSCallResult> call = new Callable<XINSCallResult>() {
+            public XINSCallResult call() throws Exception {
+               return caller.call(new XINSCallRequest("Echo", parameters), config);
+            }
+         };
+         Future<XINSCallResult>[] results = new Future[5];
+         for (int i = 0; i < results.length; i++) {
+            results[i] = executor.submit(call);
+         }
+         XINSCallResult first = results[0].get();
+         assertEquals("hello", first.getParameter("out"));
+         for (int i = 1; i < results.length; i++) {
+            assertSame(first, results[i].get());
+         }
+         assertEquals(1, connectionCount.get());
+         assertEquals(4L, caller.getCoalescedCallCount());
+
+         // The calls are not shared once the call is finished
+         caller.call(new XINSCallRequest("Echo", parameters), config);
+         assertEquals(2, connectionCount.get());
+
+         // The calls are not shared if not enabled for the function
+         config.setCoalescing("Echo", false);
+         for (int i = 0; i < results.length; i++) {
+            results[i] = executor.submit(call);
+         }
+         for (int i = 0; i < results.length; i++) {
+            results[i].get();
+         }
+         assertEquals(7, connectionCount.get());
+         assertEquals(4L, caller.getCoalescedCallCount());
+      } finally {
+         executor.shutdown();
+         serverSocket.close();
+      }
+   }
+
+   /**
+    * Tests that a call waiting for an identical call respects its deadline
+    * and that the calls with another configuration are not shared.
+    */
+   public void testCoalescingLimits() throws Throwable {
+      final ServerSocket serverSocket = new ServerSocket(0);
+      final AtomicInteger connectionCount = new AtomicInteger();
+      Thread server = new Thread("Slow XINS API") {
+         public void run() {
+            try {
+               while (true) {
+                  final Socket socket = serverSocket.accept();
+                  connectionCount.incrementAndGet();
+                  new Thread("Slow XINS API connection") {
+                     public void run() {
+                        try {
+                           respondSlowly(socket);
+                        } catch (Exception exception) {
+                           // The connection is closed
+                        }
+                     }
+                  }.start();
+               }
+            } catch (Exception exception) {
+               // The server socket is closed
+            }
+         }
+      };
+      server.start();
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+         String url = "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+         final XINSServiceCaller caller = new XINSServiceCaller(new TargetDescriptor(url, 20000));
+         final XINSCallConfig config = new XINSCallConfig();
+         config.setCoalescing("Echo", true);
+         final Map<String, String> parameters = new HashMap<String, String>();
+         parameters.put("in", "hello");
+         Future<XINSCallResult> first = executor.submit(new Callable<XINSCallResult>() {
+            public XINSCallResult call() throws Exception {
+               return caller.call(new XINSCallRequest("Echo", parameters), config);
+            }
+         });
+         Thread.sleep(100L);
+
+         // The waiting call ends at its deadline
+         long start = System.currentTimeMillis();
+         Deadline.set(start + 100L);
+         try {
+            caller.call(new XINSCallRequest("Echo", parameters), config);
+            fail("Expected TotalTimeOutCallException.");
+         } catch (TotalTimeOutCallException exception) {
+            assertTrue(System.currentTimeMillis() - start < 350L);
+         } finally {
+            Deadline.clear();
+         }
+         assertEquals(1L, caller.getCoalescedCallCount());
+
+         // A call with another configuration is not shared
+         final XINSCallConfig getConfig = new XINSCallConfig();
+         getConfig.setCoalescing("Echo", true);
+         getConfig.setHTTPMethod(HTTPMethod.GET);
+         Future<XINSCallResult> second = executor.submit(new Callable<XINSCallResult>() {
+            public XINSCallResult call() throws Exception {
+               return caller.call(new XINSCallRequest("Echo", parameters), getConfig);
+            }
+         });
+         assertEquals("hello", first.get().getParameter("out"));
+         assertNotSame(first.get(), second.get());
+         assertEquals(2, connectionCount.get());
+         assertEquals(1L, caller.getCoalescedCallCount());
+      } finally {
+         executor.shutdown();
+         serverSocket.close();
+      }
+   }
+
+   /**
+    * Reads an HTTP request and returns the result of the Echo function
+    * after a delay.
+    *
+    * @param socket
+    *    the socket of the connection, cannot be <code>null</code>.
+    */
+   private static void respondSlowly(Socket socket) throws Exception {
+      try {
+         InputStream in = socket.getInputStream();
+         StringBuilder headers = new StringBuilder();
+         while (headers.indexOf("\r\n\r\n") == -1) {
+            int c = in.read();
+            if (c == -1) {
+               return;
+            }
+            headers.append((char) c);
+         }
+         String lowerHeaders = headers.toString().toLowerCase();
+         int lengthIndex = lowerHeaders.indexOf("content-length:");
+         if (lengthIndex != -1) {
+            int length = Integer.parseInt(lowerHeaders.substring(lengthIndex + 15, lowerHeaders.indexOf("\r\n", lengthIndex)).trim());
+            for (int i = 0; i < length; i++) {
+               in.read();
+            }
+         }
+         Thread.sleep(500L);
+         byte[] body = "<result><param name=\"out\">hello</param></result>".getBytes("UTF-8");
+         OutputStream out = socket.getOutputStream();
+         out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/xml; charset=UTF-8\r\nContent-Length: "
+               + body.length + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+         out.write(body);
+         out.flush();
+      } finally {
+         socket.close();
+      }
+   }
 }
@@ -7,6 +7,16 @@ package org.xins.tests.client.async;
 
 import com.mycompany.allinone.capi.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -15,6 +25,7 @@ import org.xins.client.InvalidRequestException;
 import org.xins.client.UnacceptableRequestException;
 import org.xins.client.async.AsynchronousCall;
 import org.xins.client.async.CallCAPIThread;
+import org.xins.client.async.CallEvent;
 import org.xins.client.async.CallFailedEvent;
 import org.xins.client.async.CallListener;
 import org.xins.client.async.CallSucceededEvent;
@@ -91,6 +102,142 @@ public class AsynchronousCallTests extends TestCase {
       }
    }
 
+   /**
+    * Tests the calls in parallel with the results gathered.
+    */
+   public void testCallAll() throws Throwable {
+      TargetDescriptor target = new TargetDescriptor(AllTests.url(), 5000, 1000, 4000);
+      CAPI capi = new CAPI(target);
+      List<RuntimePropsRequest> requests = new ArrayList<RuntimePropsRequest>();
+      for (int i = 0; i < 5; i++) {
+         RuntimePropsRequest request = new RuntimePropsRequest();
+         if (i != 3) {
+            request.setPrice(100);
+         }
+         requests.add(request);
+      }
+      Executor directExecutor = new Executor() {
+         public void execute(Runnable command) {
+            command.run();
+         }
+      };
+      AsynchronousCall capiCall = new AsynchronousCall(AsynchronousCall.createExecutor(2, 10), directExecutor);
+      CountingCallListener listener = new CountingCallListener();
+      capiCall.addCallListener(listener);
+      List<CallEvent> events = capiCall.callAll(capi, requests, 20000L);
+      assertEquals(5, events.size());
+      for (int i = 0; i < 5; i++) {
+         CallEvent event = events.get(i);
+         assertSame(requests.get(i), event.getRequest());
+         if (i == 3) {
+            assertTrue(((CallFailedEvent) event).getException() instanceof UnacceptableRequestException);
+         } else {
+            assertEquals("Euros", ((RuntimePropsResult) ((CallSucceededEvent) event).getResult()).getCurrency());
+         }
+      }
+      assertEquals(4, listener._succeeded.get());
+      assertEquals(1, listener._failed.get());
+
+      // The result of a single call can be waited for
+      Future<CallEvent> future = capiCall.submit(capi, requests.get(0));
+      assertTrue(future.get() instanceof CallSucceededEvent);
+   }
+
+   /**
+    * Tests that the calls not finished within the time-out are cancelled.
+    */
+   public void testCallAllTimeOut() throws Throwable {
+      TargetDescriptor target = new TargetDescriptor(AllTests.url(), 5000, 1000, 4000);
+      CAPI capi = new CAPI(target);
+      RuntimePropsRequest request = new RuntimePropsRequest();
+      request.setPrice(100);
+
+      // Executor that never executes the calls
+      final List<Runnable> pending = new ArrayList<Runnable>();
+      Executor holdingExecutor = new Executor() {
+         public void execute(Runnable command) {
+            pending.add(command);
+         }
+      };
+      AsynchronousCall capiCall = new AsynchronousCall(holdingExecutor, holdingExecutor);
+      CountingCallListener listener = new CountingCallListener();
+      capiCall.addCallListener(listener);
+      List<RuntimePropsRequest> requests = new ArrayList<RuntimePropsRequest>();
+      requests.add(request);
+      List<CallEvent> events = capiCall.callAll(capi, requests, 100L);
+      assertEquals(1, events.size());
+      assertTrue(((CallFailedEvent) events.get(0)).getException() instanceof TimeoutException);
+      assertTrue(((Future) pending.get(0)).isCancelled());
+
+      // A cancelled call is neither executed nor notified
+      pending.get(0).run();
+      assertEquals(1, pending.size());
+      assertEquals(0, listener._failed.get() + listener._succeeded.get());
+   }
+
+   /**
+    * Tests the bounded call executor.
+    */
+   public void testBoundedExecutor() throws Throwable {
+      try {
+         AsynchronousCall.createExecutor(0, 10);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      ExecutorService executor = AsynchronousCall.createExecutor(1, 1);
+      final CountDownLatch latch = new CountDownLatch(1);
+      Runnable blocking = new Runnable() {
+         public void run() {
+            try {
+               latch.await();
+            } catch (InterruptedException iex) {
+               // Stop
+            }
+         }
+      };
+      executor.execute(blocking);
+      executor.execute(blocking);
+
+      // The thread and the queue are full, the task is rejected
+      try {
+         executor.execute(blocking);
+         fail("Expected RejectedExecutionException.");
+      } catch (RejectedExecutionException ex) {
+         // as expected
+      }
+
+      // A rejected call fails immediately and the listeners are notified
+      TargetDescriptor target = new TargetDescriptor(AllTests.url(), 5000, 1000, 4000);
+      Executor directExecutor = new Executor() {
+         public void execute(Runnable command) {
+            command.run();
+         }
+      };
+      AsynchronousCall capiCall = new AsynchronousCall(executor, directExecutor);
+      CountingCallListener listener = new CountingCallListener();
+      capiCall.addCallListener(listener);
+      Future<CallEvent> future = capiCall.submit(new CAPI(target), new RuntimePropsRequest());
+      assertTrue(future.isDone());
+      assertTrue(((CallFailedEvent) future.get()).getException() instanceof RejectedExecutionException);
+      assertEquals(1, listener._failed.get());
+      latch.countDown();
+      executor.shutdown();
+   }
+
+   private static class CountingCallListener implements CallListener {
+      private final AtomicInteger _succeeded = new AtomicInteger();
+      private final AtomicInteger _failed = new AtomicInteger();
+
+      public void callSucceeded(CallSucceededEvent event) {
+         _succeeded.incrementAndGet();
+      }
+
+      public void callFailed(CallFailedEvent event) {
+         _failed.incrementAndGet();
+      }
+   }
+
    private class SuccessfulCallListener implements CallListener {
       public void callSucceeded(CallSucceededEvent event) {
          try {
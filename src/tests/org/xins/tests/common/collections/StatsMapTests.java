@@ -0,0 +1,135 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.collections;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.collections.StatsMap;
+
+/**
+ * Tests for class <code>StatsMap</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class StatsMapTests extends TestCase {
+
+   /**
+    * Constructs a new <code>StatsMapTests</code> test suite with the
+    * specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public StatsMapTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(StatsMapTests.class);
+   }
+
+   /**
+    * Tests the unused properties.
+    */
+   public void testUnused() {
+      StatsMap<String, String> map = new StatsMap<String, String>(createMap("a", "1", "b", "2", "c", "3"));
+      assertEquals(3, map.getUnused().size());
+      assertEquals("1", map.get("a"));
+      assertNull(map.get("z"));
+      assertEquals(2, map.getUnused().size());
+
+      // The properties read through a view are also used in the map
+      map.createView().get("b");
+      assertEquals(Collections.singleton("c"), map.getUnused().keySet());
+   }
+
+   /**
+    * Tests the detection of the changed properties.
+    */
+   public void testChangedKeys() {
+      StatsMap<String, String> previous = new StatsMap<String, String>(createMap("a", "1", "b", "2", "c", "3"));
+      StatsMap<String, String> current = new StatsMap<String, String>(createMap("a", "1", "b", "4", "d", "5"));
+      Set<String> expected = new HashSet<String>(Arrays.asList(new String[] { "b", "c", "d" }));
+      assertEquals(expected, current.getChangedKeys(previous));
+      assertTrue(current.getChangedKeys(current).isEmpty());
+
+      // Comparing does not use the properties
+      assertEquals(3, current.getUnused().size());
+   }
+
+   /**
+    * Tests whether a view is affected by changed properties.
+    */
+   public void testViews() {
+      StatsMap<String, String> map = new StatsMap<String, String>(createMap("a", "1", "b", "2"));
+      StatsMap<String, String> view1 = map.createView();
+      StatsMap<String, String> view2 = map.createView();
+      view1.get("a");
+      view1.containsKey("z");
+      view2.get("b");
+
+      assertTrue(view1.isAffectedBy(Collections.singleton("a")));
+      assertTrue(view1.isAffectedBy(Collections.singleton("z")));
+      assertFalse(view1.isAffectedBy(Collections.singleton("b")));
+      assertFalse(view2.isAffectedBy(Collections.singleton("a")));
+
+      // A view that iterated the properties is affected by all changes
+      for (String key : view2.keySet()) {
+         assertNotNull(key);
+      }
+      assertTrue(view2.isAffectedBy(Collections.singleton("c")));
+   }
+
+   /**
+    * Tests moving a view to new properties.
+    */
+   public void testRebase() {
+      StatsMap<String, String> previous = new StatsMap<String, String>(createMap("a", "1", "b", "2"));
+      StatsMap<String, String> view = previous.createView();
+      assertEquals("1", view.get("a"));
+
+      StatsMap<String, String> current = new StatsMap<String, String>(createMap("a", "1", "b", "3"));
+      assertFalse(view.isAffectedBy(current.getChangedKeys(previous)));
+      view.rebase(current);
+      assertEquals(Collections.singleton("b"), current.getUnused().keySet());
+      assertEquals("3", view.get("b"));
+      assertTrue(current.getUnused().isEmpty());
+      assertTrue(view.isAffectedBy(Collections.singleton("b")));
+   }
+
+   /**
+    * Creates a map.
+    *
+    * @param keysAndValues
+    *    the keys followed by their values, cannot be <code>null</code>.
+    *
+    * @return
+    *    the map, never <code>null</code>.
+    */
+   private static Map<String, String> createMap(String... keysAndValues) {
+      Map<String, String> map = new HashMap<String, String>();
+      for (int i = 0; i < keysAndValues.length; i += 2) {
+         map.put(keysAndValues[i], keysAndValues[i + 1]);
+      }
+      return map;
+   }
+}
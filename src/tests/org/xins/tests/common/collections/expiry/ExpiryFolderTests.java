@@ -6,17 +6,23 @@
 package org.xins.tests.common.collections.expiry;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import org.xins.common.collections.expiry.EvictionListener;
+import org.xins.common.collections.expiry.EvictionPolicy;
 import org.xins.common.collections.expiry.ExpiryFolder;
 import org.xins.common.collections.expiry.ExpiryListener;
 import org.xins.common.collections.expiry.ExpiryStrategy;
+import org.xins.common.collections.expiry.Weigher;
 
 /**
  * Tests for class <code>ExpiryFolder</code>.
@@ -156,6 +162,239 @@ public class ExpiryFolderTests extends TestCase {
       }
    }
 
+   /**
+    * Tests that the removed entries are not reported as expired and that
+    * the lifetime of the entries is extended by <code>get</code> but not by
+    * <code>find</code>.
+    */
+   public void testRemoveAndTouch() throws Exception {
+      ExpiryStrategy strategy = new ExpiryStrategy(DURATION, PRECISION);
+      try {
+         ExpiryFolder<String, String> folder = new ExpiryFolder<String, String>(NAME, strategy);
+         final Map<String, String> expired = Collections.synchronizedMap(new HashMap<String, String>());
+         folder.addListener(new ExpiryListener<String, String>() {
+            public void expired(ExpiryFolder<String, String> source, Map<String, String> entries) {
+               expired.putAll(entries);
+            }
+         });
+         folder.put("removed", "1");
+         folder.put("replaced", "1");
+         folder.put("replaced", "2");
+         folder.put("touched", "1");
+         folder.put("found", "1");
+         assertEquals("1", folder.remove("removed"));
+         assertEquals(3, folder.size());
+
+         // Extend the lifetime of one entry during twice the time-out
+         long end = System.currentTimeMillis() + DURATION * 2L;
+         while (System.currentTimeMillis() < end) {
+            assertEquals("1", folder.get("touched"));
+            Thread.sleep(PRECISION / 2);
+         }
+         assertEquals("1", folder.find("touched"));
+         assertNull(folder.find("found"));
+         assertNull(folder.get("replaced"));
+
+         // The expired entries are reported once with their last value
+         assertFalse(expired.containsKey("removed"));
+         assertFalse(expired.containsKey("touched"));
+         assertEquals("2", expired.get("replaced"));
+         assertEquals("1", expired.get("found"));
+      } finally {
+         strategy.stop();
+      }
+   }
+
+   /**
+    * Tests that the folder stays consistent when several threads modify it.
+    */
+   public void testConcurrentAccess() throws Exception {
+      ExpiryStrategy strategy = new ExpiryStrategy(60000, 10);
+      try {
+         final ExpiryFolder<Integer, Integer> folder = new ExpiryFolder<Integer, Integer>(NAME, strategy);
+         final AtomicInteger errors = new AtomicInteger();
+         Thread[] threads = new Thread[8];
+         for (int i = 0; i < threads.length; i++) {
+            final int offset = i * 1000;
+            threads[i] = new Thread() {
+               public void run() {
+                  for (int j = 0; j < 1000; j++) {
+                     Integer key = offset + j;
+                     folder.put(key, key);
+                     if (!key.equals(folder.get(key))) {
+                        errors.incrementAndGet();
+                     }
+                     if (j % 2 == 0 && !key.equals(folder.remove(key))) {
+                        errors.incrementAndGet();
+                     }
+                  }
+               }
+            };
+            threads[i].start();
+         }
+         for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+         }
+         assertEquals(0, errors.get());
+         assertEquals(threads.length * 500, folder.size());
+         assertNull(folder.find(2));
+         assertEquals(Integer.valueOf(3), folder.find(3));
+      } finally {
+         strategy.stop();
+      }
+   }
+
+   /**
+    * Tests that the ticks of all the strategies are executed by one daemon
+    * thread and that the tick lag is measured.
+    */
+   public void testSharedScheduler() throws Exception {
+      ExpiryStrategy strategy1 = new ExpiryStrategy(100, 10);
+      ExpiryStrategy strategy2 = new ExpiryStrategy(200, 20);
+      try {
+         final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+         ExpiryListener<String, String> listener = new ExpiryListener<String, String>() {
+            public void expired(ExpiryFolder<String, String> folder, Map<String, String> expired) {
+               threads.add(Thread.currentThread());
+            }
+         };
+         ExpiryFolder<String, String> folder1 = new ExpiryFolder<String, String>("Folder1", strategy1);
+         ExpiryFolder<String, String> folder2 = new ExpiryFolder<String, String>("Folder2", strategy2);
+         folder1.addListener(listener);
+         folder2.addListener(listener);
+         folder1.put("key", "value");
+         folder2.put("key", "value");
+         long end = System.currentTimeMillis() + 5000L;
+         while (threads.size() < 2 && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+         }
+         assertEquals(2, threads.size());
+         assertSame(threads.get(0), threads.get(1));
+         assertTrue("The expiry thread must be a daemon thread.", threads.get(0).isDaemon());
+         assertNotSame(Thread.currentThread(), threads.get(0));
+         assertTrue(strategy1.getTickCount() >= 10);
+         assertTrue(strategy2.getTickCount() >= 5);
+         assertTrue(strategy1.getMaxTickLag() >= strategy1.getLastTickLag());
+      } finally {
+         strategy1.stop();
+         strategy2.stop();
+      }
+      strategy1.close();
+   }
+
+   /**
+    * Tests the eviction of the least recently used entries when the maximum
+    * number of entries is reached.
+    */
+   public void testMaxEntriesLRU() throws Exception {
+      ExpiryStrategy strategy = new ExpiryStrategy(60000, 1000);
+      try {
+         ExpiryFolder<String, String> folder = new ExpiryFolder<String, String>(NAME, strategy, 100, EvictionPolicy.LRU);
+         final Map<String, String> evicted = new HashMap<String, String>();
+         final List<Map<String, String>> expired = new ArrayList<Map<String, String>>();
+         folder.addListener(new EvictionListener<String, String>() {
+            public void expired(ExpiryFolder<String, String> source, Map<String, String> entries) {
+               expired.add(entries);
+            }
+            public void evicted(ExpiryFolder<String, String> source, Map<String, String> entries) {
+               evicted.putAll(entries);
+            }
+         });
+         final List<Map<String, String>> expiredOnly = new ArrayList<Map<String, String>>();
+         folder.addListener(new ExpiryListener<String, String>() {
+            public void expired(ExpiryFolder<String, String> source, Map<String, String> entries) {
+               expiredOnly.add(entries);
+            }
+         });
+         for (int i = 0; i < 100; i++) {
+            folder.put("key" + i, "value" + i);
+         }
+         for (int i = 0; i < 10; i++) {
+            assertEquals("value" + i, folder.get("key" + i));
+         }
+         assertEquals(0L, folder.getEvictionCount());
+         for (int i = 100; i < 110; i++) {
+            folder.put("key" + i, "value" + i);
+         }
+         assertEquals(100, folder.size());
+         assertEquals(10L, folder.getEvictionCount());
+         assertEquals(10, evicted.size());
+         for (int i = 0; i < 10; i++) {
+            assertEquals("value" + i, folder.find("key" + i));
+            assertNull(folder.find("key" + (i + 10)));
+            assertEquals("value" + (i + 10), evicted.get("key" + (i + 10)));
+         }
+         assertTrue("Evicted entries must not be reported as expired.", expired.isEmpty());
+         assertTrue("Evicted entries must not be reported as expired.", expiredOnly.isEmpty());
+      } finally {
+         strategy.stop();
+      }
+   }
+
+   /**
+    * Tests the eviction of the entries when the maximum weight is reached.
+    */
+   public void testMaxWeight() throws Exception {
+      ExpiryStrategy strategy = new ExpiryStrategy(60000, 1000);
+      try {
+         Weigher<String, String> weigher = new Weigher<String, String>() {
+            public long weigh(String key, String value) {
+               return value.length();
+            }
+         };
+         ExpiryFolder<String, String> folder = new ExpiryFolder<String, String>(NAME, strategy, 0, 1000L, weigher, EvictionPolicy.LRU);
+         for (int i = 0; i < 1000; i++) {
+            folder.put("key" + i, "0123456789");
+            assertTrue("Weight " + folder.getWeight() + " exceeds the maximum.", folder.getWeight() <= 1000L);
+         }
+         assertTrue(folder.getEvictionCount() >= 900L);
+         assertEquals("0123456789", folder.find("key999"));
+         assertEquals(folder.size() * 10L, folder.getWeight());
+
+         try {
+            new ExpiryFolder<String, String>(NAME, strategy, 0, 1000L, null, EvictionPolicy.LRU);
+            fail("Expected IllegalArgumentException as the weigher is missing.");
+         } catch (IllegalArgumentException exception) {
+            // as expected
+         }
+      } finally {
+         strategy.stop();
+      }
+   }
+
+   /**
+    * Tests that the frequently used entries are not evicted by a scan of
+    * keys used only once.
+    */
+   public void testTinyLFU() throws Exception {
+      ExpiryStrategy strategy = new ExpiryStrategy(60000, 1000);
+      try {
+         ExpiryFolder<String, String> folder = new ExpiryFolder<String, String>(NAME, strategy, 200, EvictionPolicy.TINY_LFU);
+         for (int i = 0; i < 100; i++) {
+            folder.put("hot" + i, "value");
+         }
+         for (int j = 0; j < 5; j++) {
+            for (int i = 0; i < 100; i++) {
+               assertEquals("value", folder.get("hot" + i));
+            }
+         }
+         for (int i = 0; i < 1000; i++) {
+            folder.put("cold" + i, "value");
+         }
+         assertTrue(folder.size() <= 200);
+         assertTrue(folder.getEvictionCount() >= 900L);
+         int hotCount = 0;
+         for (int i = 0; i < 100; i++) {
+            if (folder.find("hot" + i) != null) {
+               hotCount++;
+            }
+         }
+         assertTrue("Only " + hotCount + " frequently used entries left.", hotCount >= 95);
+      } finally {
+         strategy.stop();
+      }
+   }
+
    public void doTestExpiryFolder(ExpiryStrategy strategy)
    throws Exception {
 
@@ -0,0 +1,119 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.http;
+
+import java.net.InetAddress;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.http.DNSCache;
+
+/**
+ * Tests for class <code>DNSCache</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class DNSCacheTests extends TestCase {
+
+   /**
+    * Constructs a new <code>DNSCacheTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public DNSCacheTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(DNSCacheTests.class);
+   }
+
+   /**
+    * Tests the arguments of the cache.
+    */
+   public void testSettings() throws Exception {
+      try {
+         new DNSCache(-1L);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      DNSCache cache = new DNSCache(1000L);
+      try {
+         cache.resolve(null);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      assertEquals(DNSCache.DEFAULT_TIME_TO_LIVE, DNSCache.getDefault().getTimeToLive());
+   }
+
+   /**
+    * Tests that the addresses are cached per host.
+    */
+   public void testCache() throws Exception {
+      DNSCache cache = new DNSCache(60000L);
+      InetAddress[] addresses = cache.resolve("127.0.0.1");
+      assertEquals(1, addresses.length);
+      assertEquals("127.0.0.1", addresses[0].getHostAddress());
+      assertEquals(1L, cache.getMissCount());
+
+      // The returned arrays can be modified
+      addresses[0] = null;
+      assertNotNull(cache.resolve("127.0.0.1")[0]);
+      assertEquals(1L, cache.getHitCount());
+
+      cache.resolve("localhost");
+      cache.resolve("LOCALHOST");
+      assertEquals(2, cache.getSize());
+      assertEquals(2L, cache.getMissCount());
+      assertEquals(2L, cache.getHitCount());
+
+      cache.invalidate("localhost");
+      assertEquals(1, cache.getSize());
+      cache.clear();
+      assertEquals(0, cache.getSize());
+
+      // A time-to-live of 0 disables the cache
+      cache.setTimeToLive(0L);
+      cache.resolve("localhost");
+      assertEquals(0, cache.getSize());
+   }
+
+   /**
+    * Tests that the expired addresses are returned and resolved again in
+    * the background.
+    */
+   public void testRefresh() throws Exception {
+      DNSCache cache = new DNSCache(200L);
+      cache.resolve("localhost");
+      Thread.sleep(250L);
+      assertNotNull(cache.resolve("localhost"));
+      assertEquals(1L, cache.getMissCount());
+      assertEquals(1L, cache.getHitCount());
+      long end = System.currentTimeMillis() + 5000L;
+      while (cache.getRefreshCount() == 0L && System.currentTimeMillis() < end) {
+         Thread.sleep(20L);
+      }
+      assertEquals(1L, cache.getRefreshCount());
+
+      // Addresses not used for twice the time-to-live are resolved again
+      Thread.sleep(450L);
+      cache.resolve("localhost");
+      assertEquals(2L, cache.getMissCount());
+   }
+}
@@ -14,11 +14,14 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import org.xins.common.http.HTTPCallConfig;
 import org.xins.common.http.HTTPCallRequest;
 import org.xins.common.http.HTTPCallResult;
 import org.xins.common.http.HTTPMethod;
 import org.xins.common.http.HTTPServiceCaller;
 
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+
 import org.xins.common.service.CallException;
 import org.xins.common.service.ConnectionRefusedCallException;
 import org.xins.common.service.Descriptor;
@@ -27,6 +30,8 @@ import org.xins.common.service.SocketTimeOutCallException;
 import org.xins.common.service.TargetDescriptor;
 import org.xins.common.service.UnsupportedProtocolException;
 
+import org.xins.tests.AllTests;
+
 /**
  * Tests for class <code>HTTPServiceCallerTests</code>.
  *
@@ -288,4 +293,41 @@ public class HTTPServiceCallerTests extends TestCase {
       // First exception message must contain second one
       assertTrue("Expected first exception message to contain second one. First one is: \"" + em1 + "\" and second one is \"" + em2 + '"', em1.indexOf(em2) >= 0);
    }
+
+   /**
+    * Tests the connections opened in advance to the targets.
+    */
+   public void testWarmUp() throws Exception {
+      HTTPCallConfig config = new HTTPCallConfig();
+      PoolingClientConnectionManager pool = (PoolingClientConnectionManager) config.getHttpClient().getConnectionManager();
+      TargetDescriptor target = new TargetDescriptor(AllTests.url(), TOTAL_TO, CONN_TO, SOCKET_TO);
+      assertEquals(2, HTTPServiceCaller.openConnections(config, target, 2));
+      assertEquals(2, pool.getTotalStats().getAvailable());
+
+      // The calls use the opened connections, which are kept open by the
+      // test server
+      HTTPServiceCaller caller = new HTTPServiceCaller(target, config);
+      Map<String, String> parameters = new HashMap<String, String>();
+      parameters.put("_function", "_GetVersion");
+      HTTPCallRequest request = new HTTPCallRequest(parameters);
+      assertEquals(200, caller.call(request).getStatusCode());
+      assertEquals(2, pool.getTotalStats().getAvailable());
+      assertEquals(0, HTTPServiceCaller.openConnections(config, target, 2));
+      assertEquals(2, pool.getTotalStats().getAvailable());
+
+      // The connections are opened in the background when the descriptor is set
+      caller.setWarmUpConnections(3);
+      assertEquals(3, caller.getWarmUpConnections());
+      long end = System.currentTimeMillis() + 5000L;
+      while (pool.getTotalStats().getAvailable() < 3 && System.currentTimeMillis() < end) {
+         Thread.sleep(50L);
+      }
+      assertEquals(3, pool.getTotalStats().getAvailable());
+      try {
+         caller.setWarmUpConnections(-1);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+   }
 }
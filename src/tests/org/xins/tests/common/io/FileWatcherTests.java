@@ -0,0 +1,195 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.io;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.io.FileWatcher;
+
+/**
+ * Tests for class <code>FileWatcher</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class FileWatcherTests extends TestCase {
+
+   /**
+    * The watched file.
+    */
+   private File _file;
+
+   /**
+    * Constructs a new <code>FileWatcherTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public FileWatcherTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(FileWatcherTests.class);
+   }
+
+   protected void setUp() throws Exception {
+      _file = File.createTempFile("filewatcher", ".properties");
+      write(_file, "a=1");
+   }
+
+   /**
+    * Tests that a modified file is detected without waiting for the
+    * interval.
+    */
+   public void testModification() throws Exception {
+      Listener listener = new Listener();
+      FileWatcher watcher = new FileWatcher(_file.getPath(), 3600, listener);
+      watcher.start();
+      try {
+         write(_file, "a=2");
+         _file.setLastModified(_file.lastModified() + 2000L);
+         assertTrue("Modification not detected.", listener._modified.await(10, TimeUnit.SECONDS));
+      } finally {
+         watcher.end();
+      }
+   }
+
+   /**
+    * Tests that the files of all the watchers are checked in the same
+    * thread.
+    */
+   public void testSharedThread() throws Exception {
+      Listener listener1 = new Listener();
+      Listener listener2 = new Listener();
+      FileWatcher watcher1 = new FileWatcher(_file.getPath(), 3600, listener1);
+      FileWatcher watcher2 = new FileWatcher(_file.getPath(), 3600, listener2);
+      watcher1.start();
+      watcher2.start();
+      try {
+         watcher1.checkSoon();
+         watcher2.checkSoon();
+         assertTrue(listener1._notModified.await(10, TimeUnit.SECONDS));
+         assertTrue(listener2._notModified.await(10, TimeUnit.SECONDS));
+         assertNotNull(listener1._thread);
+         assertSame(listener1._thread, listener2._thread);
+         assertNotSame(Thread.currentThread(), listener1._thread);
+      } finally {
+         watcher1.end();
+         watcher2.end();
+      }
+   }
+
+   /**
+    * Tests that a deleted file is reported.
+    */
+   public void testDeletion() throws Exception {
+      Listener listener = new Listener();
+      FileWatcher watcher = new FileWatcher(_file.getPath(), 3600, listener);
+      watcher.start();
+      try {
+         assertTrue(_file.delete());
+         assertTrue("Deletion not detected.", listener._notFound.await(10, TimeUnit.SECONDS));
+      } finally {
+         watcher.end();
+      }
+   }
+
+   /**
+    * Tests the states of the watcher.
+    */
+   public void testStates() throws Exception {
+      FileWatcher watcher = new FileWatcher(_file.getPath(), new Listener());
+      try {
+         watcher.start();
+         fail("The interval must be set before starting the watcher.");
+      } catch (IllegalStateException exception) {
+         // as expected
+      }
+      watcher.setInterval(1);
+      watcher.start();
+      try {
+         watcher.start();
+         fail("The watcher is already started.");
+      } catch (IllegalStateException exception) {
+         // as expected
+      }
+      watcher.end();
+      try {
+         watcher.end();
+         fail("The watcher is already stopped.");
+      } catch (IllegalStateException exception) {
+         // as expected
+      }
+   }
+
+   protected void tearDown() {
+      _file.delete();
+   }
+
+   /**
+    * Writes a file.
+    *
+    * @param file
+    *    the file, cannot be <code>null</code>.
+    *
+    * @param content
+    *    the content of the file, cannot be <code>null</code>.
+    */
+   private static void write(File file, String content) throws IOException {
+      FileWriter writer = new FileWriter(file);
+      try {
+         writer.write(content);
+      } finally {
+         writer.close();
+      }
+   }
+
+   /**
+    * Listener recording the notifications.
+    */
+   private static class Listener implements FileWatcher.Listener {
+
+      private final CountDownLatch _modified = new CountDownLatch(1);
+      private final CountDownLatch _notModified = new CountDownLatch(1);
+      private final CountDownLatch _notFound = new CountDownLatch(1);
+      private volatile Thread _thread;
+
+      public void fileNotFound() {
+         _notFound.countDown();
+      }
+
+      public void fileFound() {
+      }
+
+      public void securityException(SecurityException exception) {
+      }
+
+      public void fileModified() {
+         _modified.countDown();
+      }
+
+      public void fileNotModified() {
+         _thread = Thread.currentThread();
+         _notModified.countDown();
+      }
+   }
+}
@@ -0,0 +1,191 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.collections.expiry.EvictionPolicy;
+import org.xins.common.collections.expiry.ExpiryFolder;
+import org.xins.common.collections.expiry.ExpiryStrategy;
+import org.xins.common.io.OffHeapStore;
+
+/**
+ * Tests for class <code>OffHeapStore</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class OffHeapStoreTests extends TestCase {
+
+   /**
+    * Constructs a new <code>OffHeapStoreTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public OffHeapStoreTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(OffHeapStoreTests.class);
+   }
+
+   /**
+    * Tests that the stored bytes are written back unchanged.
+    */
+   public void testStoreAndWrite() throws Exception {
+      OffHeapStore store = new OffHeapStore(64 * 1024, 2);
+      byte[] bytes = bytes(20000, 7);
+      OffHeapStore.Block block = store.store(bytes);
+      assertNotNull(block);
+      assertEquals(20000, block.getLength());
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertTrue(block.writeTo(out));
+      assertTrue(Arrays.equals(bytes, out.toByteArray()));
+      assertTrue(Arrays.equals(bytes, block.toByteArray()));
+      assertEquals(1, store.getBlockCount());
+      assertEquals(20000L, store.getStoredBytes());
+      assertEquals(20032L, store.getUsedBytes());
+      assertEquals(1, store.getSlabCount());
+
+      OffHeapStore.Block part = store.store(bytes, 100, 10);
+      assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 100, 110), part.toByteArray()));
+
+      block.free();
+      assertTrue(block.isFreed());
+      assertFalse(block.writeTo(new ByteArrayOutputStream()));
+      assertNull(block.toByteArray());
+      assertEquals(1, store.getBlockCount());
+      assertEquals(10L, store.getStoredBytes());
+      block.free();
+      part.free();
+      assertEquals(0L, store.getUsedBytes());
+   }
+
+   /**
+    * Tests the allocation failures, the merge of the free space and the
+    * fragmentation.
+    */
+   public void testAllocation() throws Exception {
+      OffHeapStore store = new OffHeapStore(1024, 2);
+      assertNull("A value larger than a slab cannot be stored.", store.store(new byte[1025]));
+      List<OffHeapStore.Block> blocks = new ArrayList<OffHeapStore.Block>();
+      for (int i = 0; i < 32; i++) {
+         OffHeapStore.Block block = store.store(bytes(64, i));
+         assertNotNull(block);
+         blocks.add(block);
+      }
+      assertEquals(1.0, store.getOccupancy(), 0.0001);
+      assertNull(store.store(new byte[1]));
+      assertEquals(2L, store.getAllocationFailures());
+
+      // Free one block out of two: the free space is fragmented
+      for (int i = 0; i < 32; i += 2) {
+         blocks.get(i).free();
+      }
+      assertEquals(0.5, store.getOccupancy(), 0.0001);
+      assertEquals(1.0 - 128.0 / 1024.0, store.getFragmentation(), 0.0001);
+      assertNull(store.store(new byte[128]));
+      OffHeapStore.Block small = store.store(new byte[64]);
+      assertNotNull(small);
+      small.free();
+
+      // Free all the blocks: the free space is merged
+      for (int i = 1; i < 32; i += 2) {
+         blocks.get(i).free();
+      }
+      assertEquals(0.0, store.getFragmentation(), 0.0001);
+      assertNotNull(store.store(new byte[960]));
+      assertEquals(2, store.getSlabCount());
+   }
+
+   /**
+    * Tests that a block freed while it is read is only released after the
+    * read.
+    */
+   public void testFreeDuringRead() throws Exception {
+      OffHeapStore store = new OffHeapStore(1024, 1);
+      final OffHeapStore.Block block = store.store(bytes(1000, 3));
+      final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+      OutputStream out = new OutputStream() {
+         public void write(int b) throws IOException {
+            copy.write(b);
+         }
+         public void write(byte[] bytes, int offset, int length) throws IOException {
+            block.free();
+            copy.write(bytes, offset, length);
+         }
+      };
+      assertTrue(block.writeTo(out));
+      assertTrue(Arrays.equals(bytes(1000, 3), copy.toByteArray()));
+      assertEquals(0, store.getBlockCount());
+      assertEquals(0L, store.getUsedBytes());
+   }
+
+   /**
+    * Tests the store as the storage of the values of an expiry folder.
+    */
+   public void testExpiryFolder() throws Exception {
+      OffHeapStore store = new OffHeapStore(64 * 1024, 1);
+      ExpiryStrategy strategy = new ExpiryStrategy(60000, 1000);
+      try {
+         ExpiryFolder<String, OffHeapStore.Block> folder = new ExpiryFolder<String, OffHeapStore.Block>(
+               "OffHeap", strategy, 0, store.getCapacity() / 2, OffHeapStore.WEIGHER, EvictionPolicy.LRU);
+         folder.addListener(store.<String>createListener());
+         for (int i = 0; i < 200; i++) {
+            OffHeapStore.Block block = store.store(bytes(1000, i));
+            assertNotNull("No space left for entry " + i + '.', block);
+            folder.put("key" + i, block);
+         }
+         assertTrue(folder.getEvictionCount() >= 168L);
+         assertTrue(store.getUsedBytes() <= store.getCapacity() / 2);
+         assertEquals(folder.getWeight(), store.getUsedBytes());
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         assertTrue(folder.get("key199").writeTo(out));
+         assertTrue(Arrays.equals(bytes(1000, 199), out.toByteArray()));
+      } finally {
+         strategy.stop();
+         store.close();
+      }
+   }
+
+   /**
+    * Creates test bytes.
+    *
+    * @param length
+    *    the number of bytes.
+    *
+    * @param seed
+    *    the value of the first byte.
+    *
+    * @return
+    *    the bytes, never <code>null</code>.
+    */
+   private static byte[] bytes(int length, int seed) {
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+         bytes[i] = (byte) (seed + i);
+      }
+      return bytes;
+   }
+}
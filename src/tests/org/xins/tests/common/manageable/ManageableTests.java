@@ -5,11 +5,14 @@
  */
 package org.xins.tests.common.manageable;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Map;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import org.xins.common.collections.expiry.ExpiryStrategy;
 import org.xins.common.manageable.*;
 
 /**
@@ -117,10 +120,78 @@ public class ManageableTests extends TestCase {
       }
    }
 
+   /**
+    * Tests that a <code>Manageable</code> stays usable while it is
+    * reinitialized.
+    */
+   public void testReinit() throws Exception {
+      TestManageable m = new TestManageable();
+      m.bootstrap(null);
+      try {
+         m.reinit(null);
+         fail("Expected Manageable.reinit to throw IllegalStateException if the state is not USABLE.");
+      } catch (IllegalStateException exception) {
+         // as expected
+      }
+
+      m.init(null);
+      m._checkUsable = true;
+      m.reinit(null);
+      assertTrue("The state must remain USABLE during the reinitialization.", m._usableDuringInit);
+      assertEquals("After reinitialization Manageable state must be USABLE.", m.USABLE, m.getState());
+
+      m._failInit = true;
+      try {
+         m.reinit(null);
+         fail("Expected Manageable.reinit to throw InitializationException if initImpl throws an Error.");
+      } catch (InitializationException exception) {
+         // as expected
+      }
+      assertEquals("After Manageable.reinit failed, state must be BOOTSTRAPPED.", m.BOOTSTRAPPED, m.getState());
+   }
+
+   /**
+    * Tests that the resources registered with <code>closeOnDeinit</code> are
+    * closed when the <code>Manageable</code> is deinitialized.
+    */
+   public void testCloseOnDeinit() throws Exception {
+      TestManageable m = new TestManageable();
+      m._createStrategy = true;
+      m.bootstrap(null);
+      m.init(null);
+      ExpiryStrategy strategy = m._strategy;
+      assertNotNull(strategy);
+      m.deinit();
+      try {
+         strategy.stop();
+         fail("Expected the ExpiryStrategy to be stopped by Manageable.deinit.");
+      } catch (IllegalStateException exception) {
+         // as expected
+      }
+
+      // A failing resource does not prevent the other ones to be closed
+      m.bootstrap(null);
+      m.init(null);
+      strategy = m._strategy;
+      m.closeFailing();
+      m.deinit();
+      assertEquals(m.UNUSABLE, m.getState());
+      try {
+         strategy.stop();
+         fail("Expected the ExpiryStrategy to be stopped by Manageable.deinit.");
+      } catch (IllegalStateException exception) {
+         // as expected
+      }
+   }
+
    private static final class TestManageable extends Manageable {
 
       private boolean _failBootstrap;
       private boolean _failInit;
+      private boolean _checkUsable;
+      private boolean _usableDuringInit;
+      private boolean _createStrategy;
+      private ExpiryStrategy _strategy;
 
       protected void bootstrapImpl(Map<String, String> properties) {
          if (_failBootstrap) {
@@ -134,6 +205,20 @@ public class ManageableTests extends TestCase {
             _failInit = false;
             throw new Error();
          }
+         if (_checkUsable) {
+            _usableDuringInit = isUsable();
+         }
+         if (_createStrategy) {
+            _strategy = closeOnDeinit(new ExpiryStrategy(1000L, 100L));
+         }
+      }
+
+      private void closeFailing() {
+         closeOnDeinit(new Closeable() {
+            public void close() throws IOException {
+               throw new IOException("Expected failure.");
+            }
+         });
       }
    }
 }
@@ -0,0 +1,290 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.collections.InvalidPropertyValueException;
+import org.xins.common.service.CallConfig;
+import org.xins.common.service.CallException;
+import org.xins.common.service.CallRequest;
+import org.xins.common.service.CallResult;
+import org.xins.common.service.CircuitBreaker;
+import org.xins.common.service.CircuitOpenCallException;
+import org.xins.common.service.Descriptor;
+import org.xins.common.service.GroupDescriptor;
+import org.xins.common.service.ServiceCaller;
+import org.xins.common.service.TargetDescriptor;
+
+/**
+ * Tests for class <code>CircuitBreaker</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class CircuitBreakerTests extends TestCase {
+
+   /**
+    * Constructs a new <code>CircuitBreakerTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public CircuitBreakerTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(CircuitBreakerTests.class);
+   }
+
+   /**
+    * Tests the arguments of the settings.
+    */
+   public void testSettings() throws Exception {
+      CircuitBreaker breaker = new CircuitBreaker();
+      assertEquals(0.5, breaker.getFailureRateThreshold(), 0.0);
+      assertEquals(0L, breaker.getSlowCallDuration());
+      try {
+         breaker.setFailureRateThreshold(0.0);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      try {
+         breaker.setWindow(5, 6);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      try {
+         breaker.setOpenDuration(-1L, 1);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      try {
+         breaker.getState(null);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      assertEquals("half-open", CircuitBreaker.HALF_OPEN.toString());
+   }
+
+   /**
+    * Tests the creation of a circuit breaker from runtime properties.
+    */
+   public void testProperties() throws Exception {
+      Map<String, String> properties = new HashMap<String, String>();
+      assertFalse(CircuitBreaker.isConfigured(properties, "capis.test"));
+      properties.put("capis.test.circuit-breaker.failure-rate", "0.25");
+      properties.put("capis.test.circuit-breaker.slow-call.duration", "3000");
+      properties.put("capis.test.circuit-breaker.window", "5");
+      assertTrue(CircuitBreaker.isConfigured(properties, "capis.test"));
+      assertFalse(CircuitBreaker.isConfigured(properties, "capis.other"));
+
+      CircuitBreaker breaker = new CircuitBreaker(properties, "capis.test");
+      assertEquals(0.25, breaker.getFailureRateThreshold(), 0.0);
+      assertEquals(3000L, breaker.getSlowCallDuration());
+      assertEquals(1.0, breaker.getSlowCallRateThreshold(), 0.0);
+
+      properties.put("capis.test.circuit-breaker.minimum-calls", "6");
+      try {
+         new CircuitBreaker(properties, "capis.test");
+         fail("Expected InvalidPropertyValueException.");
+      } catch (InvalidPropertyValueException ex) {
+         // as expected
+      }
+      properties.put("capis.test.circuit-breaker.minimum-calls", "5");
+      properties.put("capis.test.circuit-breaker.failure-rate", "2");
+      try {
+         new CircuitBreaker(properties, "capis.test");
+         fail("Expected InvalidPropertyValueException.");
+      } catch (InvalidPropertyValueException ex) {
+         // as expected
+      }
+   }
+
+   /**
+    * Tests that a failing target is skipped once its circuit is open and
+    * called again after the open duration.
+    */
+   public void testOpenAndClose() throws Exception {
+      TargetDescriptor bad = new TargetDescriptor("http://bad.example.com/");
+      TargetDescriptor good = new TargetDescriptor("http://good.example.com/");
+      GroupDescriptor group = new GroupDescriptor(GroupDescriptor.ORDERED_TYPE, new Descriptor[] { bad, good });
+      CircuitBreaker breaker = new CircuitBreaker();
+      breaker.setWindow(4, 2);
+      breaker.setOpenDuration(100L, 1);
+      FailingServiceCaller caller = new FailingServiceCaller(group, bad);
+      caller.setCircuitBreaker(breaker);
+      assertSame(breaker, caller.getCircuitBreaker());
+
+      // Open the circuit
+      caller.call();
+      assertSame(CircuitBreaker.CLOSED, breaker.getState(bad));
+      caller.call();
+      assertSame(CircuitBreaker.OPEN, breaker.getState(bad));
+      assertSame(CircuitBreaker.CLOSED, breaker.getState(good));
+      assertEquals(1L, breaker.getOpenCount());
+      assertEquals(2, caller._failedCalls);
+
+      // The failing target is not called anymore
+      for (int i = 0; i < 5; i++) {
+         CallResult result = caller.call();
+         assertSame(good, result.getSucceededTarget());
+         List<CallException> exceptions = result.getExceptions();
+         assertEquals(1, exceptions.size());
+         assertTrue(exceptions.get(0) instanceof CircuitOpenCallException);
+      }
+      assertEquals(2, caller._failedCalls);
+      assertEquals(5L, breaker.getRejectedCount());
+
+      // A failing probe opens the circuit again
+      Thread.sleep(150L);
+      caller.call();
+      assertEquals(3, caller._failedCalls);
+      assertSame(CircuitBreaker.OPEN, breaker.getState(bad));
+      assertEquals(2L, breaker.getOpenCount());
+
+      // A successful probe closes the circuit
+      caller._failingTarget = null;
+      Thread.sleep(150L);
+      CallResult result = caller.call();
+      assertSame(bad, result.getSucceededTarget());
+      assertSame(CircuitBreaker.CLOSED, breaker.getState(bad));
+   }
+
+   /**
+    * Tests that the call fails without calling the target if all circuits
+    * are open.
+    */
+   public void testAllCircuitsOpen() throws Exception {
+      TargetDescriptor bad = new TargetDescriptor("http://bad.example.com/");
+      CircuitBreaker breaker = new CircuitBreaker();
+      breaker.setWindow(2, 2);
+      FailingServiceCaller caller = new FailingServiceCaller(bad, bad);
+      caller.setCircuitBreaker(breaker);
+      for (int i = 0; i < 2; i++) {
+         try {
+            caller.call();
+            fail("Expected CallException.");
+         } catch (CallException ex) {
+            assertFalse(ex instanceof CircuitOpenCallException);
+         }
+      }
+      try {
+         caller.call();
+         fail("Expected CircuitOpenCallException.");
+      } catch (CircuitOpenCallException ex) {
+         assertSame(bad, ex.getTarget());
+      }
+      assertEquals(2, caller._failedCalls);
+
+      // Without circuit breaker the target is called again
+      caller.setCircuitBreaker(null);
+      try {
+         caller.call();
+         fail("Expected CallException.");
+      } catch (CallException ex) {
+         assertFalse(ex instanceof CircuitOpenCallException);
+      }
+      assertEquals(3, caller._failedCalls);
+
+      breaker.reset();
+      assertSame(CircuitBreaker.CLOSED, breaker.getState(bad));
+   }
+
+   /**
+    * Tests that the slow calls open the circuit.
+    */
+   public void testSlowCalls() throws Exception {
+      TargetDescriptor slow = new TargetDescriptor("http://slow.example.com/");
+      CircuitBreaker breaker = new CircuitBreaker();
+      breaker.setWindow(2, 2);
+      breaker.setSlowCallThreshold(20L, 1.0);
+      FailingServiceCaller caller = new FailingServiceCaller(slow, null);
+      caller._sleep = 30L;
+      caller.setCircuitBreaker(breaker);
+      caller.call();
+      caller.call();
+      assertSame(CircuitBreaker.OPEN, breaker.getState(slow));
+   }
+
+   /**
+    * Service caller for which the calls to one target always fail.
+    */
+   private static class FailingServiceCaller extends ServiceCaller {
+
+      /**
+       * The target that fails, or <code>null</code> if no target fails.
+       */
+      private TargetDescriptor _failingTarget;
+
+      /**
+       * The number of calls made to the failing target.
+       */
+      private int _failedCalls;
+
+      /**
+       * The duration of each call, in milliseconds.
+       */
+      private long _sleep;
+
+      FailingServiceCaller(Descriptor descriptor, TargetDescriptor failingTarget) throws Exception {
+         super(descriptor, null);
+         _failingTarget = failingTarget;
+      }
+
+      protected CallConfig getDefaultCallConfig() {
+         CallConfig config = new CallConfig();
+         config.setFailOverAllowed(true);
+         return config;
+      }
+
+      public Object doCallImpl(CallRequest request, CallConfig callConfig, TargetDescriptor target) {
+         if (_sleep > 0L) {
+            try {
+               Thread.sleep(_sleep);
+            } catch (InterruptedException iex) {
+               // The call will be shorter
+            }
+         }
+         if (target == _failingTarget) {
+            _failedCalls++;
+            throw new IllegalStateException("Target down.");
+         }
+         return "ok";
+      }
+
+      protected CallResult createCallResult(CallRequest request, TargetDescriptor succeededTarget,
+            long duration, List<CallException> exceptions, Object result) {
+         return new CallResult(request, succeededTarget, duration, exceptions) {};
+      }
+
+      CallResult call() throws CallException {
+         return doCall(new CallRequest() {
+            public String describe() {
+               return "test request";
+            }
+         }, null);
+      }
+   }
+}
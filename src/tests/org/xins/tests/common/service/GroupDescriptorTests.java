@@ -5,12 +5,25 @@
  */
 package org.xins.tests.common.service;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import org.xins.common.service.CallConfig;
+import org.xins.common.service.CallException;
+import org.xins.common.service.CallRequest;
+import org.xins.common.service.CallResult;
 import org.xins.common.service.Descriptor;
+import org.xins.common.service.DescriptorBuilder;
 import org.xins.common.service.GroupDescriptor;
+import org.xins.common.service.ServiceCaller;
 import org.xins.common.service.TargetDescriptor;
 
 /**
@@ -124,4 +137,120 @@ public class GroupDescriptorTests extends TestCase {
       assertEquals(true,     gd.isGroup());
       assertEquals(TYP_ORDR, gd.getType());
    }
+
+   /**
+    * Tests that the iterators return all the targets of large and nested
+    * groups exactly once.
+    */
+   public void testIterateAllTargets() throws Exception {
+      Descriptor[] targets = new Descriptor[70];
+      for (int i = 0; i < targets.length; i++) {
+         targets[i] = new TargetDescriptor("http://host" + i + ".example.com/");
+      }
+      Descriptor[] nested = new Descriptor[] {
+         new GroupDescriptor(GroupDescriptor.ORDERED_TYPE, new Descriptor[] {
+            new TargetDescriptor("http://nested1.example.com/"),
+            new TargetDescriptor("http://nested2.example.com/")
+         }),
+         new TargetDescriptor("http://single.example.com/")
+      };
+      GroupDescriptor.Type[] types = new GroupDescriptor.Type[] {
+         GroupDescriptor.RANDOM_TYPE, GroupDescriptor.ORDERED_TYPE, GroupDescriptor.LEAST_LATENCY_TYPE
+      };
+      for (int i = 0; i < types.length; i++) {
+         assertAllTargets(new GroupDescriptor(types[i], targets));
+         assertAllTargets(new GroupDescriptor(types[i], nested));
+      }
+   }
+
+   /**
+    * Checks that the iterator of a group returns each target once.
+    *
+    * @param group
+    *    the group to iterate, cannot be <code>null</code>.
+    */
+   private void assertAllTargets(GroupDescriptor group) {
+      Set<TargetDescriptor> found = new HashSet<TargetDescriptor>();
+      Iterator<TargetDescriptor> iterator = group.iterator();
+      while (iterator.hasNext()) {
+         assertTrue(found.add(iterator.next()));
+      }
+      assertEquals(group.getTargetCount(), found.size());
+   }
+
+   /**
+    * Tests the <em>least-latency</em> group type.
+    */
+   public void testLeastLatency() throws Exception {
+      assertSame(GroupDescriptor.LEAST_LATENCY_TYPE, GroupDescriptor.getType("least-latency"));
+      Map<String, String> properties = new HashMap<String, String>();
+      properties.put("search", "group, least-latency, good, bad");
+      properties.put("search.good", "service, http://good.example.com/, 5000");
+      properties.put("search.bad", "service, http://bad.example.com/, 5000");
+      GroupDescriptor group = (GroupDescriptor) DescriptorBuilder.build(properties, "search");
+      assertSame(GroupDescriptor.LEAST_LATENCY_TYPE, group.getType());
+      TargetDescriptor good = (TargetDescriptor) group.getMembers()[0];
+      TargetDescriptor bad = (TargetDescriptor) group.getMembers()[1];
+
+      // The calls should drain away from the failing target
+      FailingServiceCaller caller = new FailingServiceCaller(group, bad);
+      for (int i = 0; i < 20; i++) {
+         caller.call();
+      }
+      assertTrue("Failing target called " + caller._failedCalls + " times.", caller._failedCalls <= 1);
+      assertEquals(0, good.getInFlightCount());
+      assertEquals(0, bad.getInFlightCount());
+      if (caller._failedCalls == 1) {
+         assertTrue(bad.getAverageLatency() > good.getAverageLatency());
+         assertSame(good, group.iterator().next());
+      }
+   }
+
+   /**
+    * Service caller for which the calls to one target always fail.
+    */
+   private static class FailingServiceCaller extends ServiceCaller {
+
+      /**
+       * The target that fails.
+       */
+      private final TargetDescriptor _failingTarget;
+
+      /**
+       * The number of calls made to the failing target.
+       */
+      private int _failedCalls;
+
+      FailingServiceCaller(Descriptor descriptor, TargetDescriptor failingTarget) throws Exception {
+         super(descriptor, null);
+         _failingTarget = failingTarget;
+      }
+
+      protected CallConfig getDefaultCallConfig() {
+         CallConfig config = new CallConfig();
+         config.setFailOverAllowed(true);
+         return config;
+      }
+
+      public Object doCallImpl(CallRequest request, CallConfig callConfig, TargetDescriptor target) {
+         if (target == _failingTarget) {
+            _failedCalls++;
+            throw new IllegalStateException("Target down.");
+         }
+         return "ok";
+      }
+
+      protected CallResult createCallResult(CallRequest request, TargetDescriptor succeededTarget,
+            long duration, List<CallException> exceptions, Object result) {
+         return new CallResult(request, succeededTarget, duration, exceptions) {};
+      }
+
+      CallResult call() throws CallException {
+         return doCall(new CallRequest() {
+            public String describe() {
+               return "test request";
+            }
+         }, null);
+      }
+   }
 }
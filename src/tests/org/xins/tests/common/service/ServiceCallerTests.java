@@ -0,0 +1,348 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.service.CallConfig;
+import org.xins.common.service.CallException;
+import org.xins.common.service.CallMetrics;
+import org.xins.common.service.CallRequest;
+import org.xins.common.service.CallResult;
+import org.xins.common.service.Deadline;
+import org.xins.common.service.Descriptor;
+import org.xins.common.service.GroupDescriptor;
+import org.xins.common.service.ServiceCaller;
+import org.xins.common.service.TargetDescriptor;
+
+/**
+ * Tests for class <code>ServiceCaller</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class ServiceCallerTests extends TestCase {
+
+   /**
+    * The slow target.
+    */
+   private TargetDescriptor _slow;
+
+   /**
+    * The fast target.
+    */
+   private TargetDescriptor _fast;
+
+   /**
+    * Constructs a new <code>ServiceCallerTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public ServiceCallerTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(ServiceCallerTests.class);
+   }
+
+   protected void setUp() throws Exception {
+      _slow = new TargetDescriptor("http://slow.example.com/");
+      _fast = new TargetDescriptor("http://fast.example.com/");
+   }
+
+   /**
+    * Tests the arguments of the hedge settings.
+    */
+   public void testHedgeSettings() throws Exception {
+      CallConfig config = new TestCallConfig();
+      assertEquals(0L, config.getHedgeDelay());
+      config.setHedgeDelay(20L, 95);
+      assertEquals(20L, config.getHedgeDelay());
+      assertEquals(95, config.getHedgePercentile());
+      try {
+         config.setHedgeDelay(-1L, 0);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      try {
+         config.setHedgeDelay(20L, 101);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      try {
+         _slow.getLatencyPercentile(0);
+         fail("Expected IllegalArgumentException.");
+      } catch (IllegalArgumentException ex) {
+         // as expected
+      }
+      assertEquals(-1L, _slow.getLatencyPercentile(95));
+   }
+
+   /**
+    * Tests that a slow target is hedged by the next target.
+    */
+   public void testHedgedCall() throws Exception {
+      TestServiceCaller caller = new TestServiceCaller(new GroupDescriptor(GroupDescriptor.ORDERED_TYPE, new Descriptor[] { _slow, _fast }));
+      caller._delays.put(_slow, 2000L);
+      CallConfig config = new TestCallConfig();
+      config.setHedgeDelay(50L, 95);
+
+      CallResult result = caller.call(config);
+      assertSame(_fast, result.getSucceededTarget());
+      assertNull(result.getExceptions());
+      assertTrue("Duration: " + result.getDuration(), result.getDuration() < 1000L);
+      assertEquals(1L, caller.getHedgeCount());
+      assertEquals(1L, caller.getHedgeWonCount());
+
+      // Only the hedged call is executed on another thread
+      synchronized (caller) {
+         assertSame(Thread.currentThread(), caller._threads.get(_slow));
+         assertNotSame(Thread.currentThread(), caller._threads.get(_fast));
+      }
+      assertFalse(Thread.currentThread().isInterrupted());
+
+      // The slow call is cancelled
+      synchronized (caller) {
+         long end = System.currentTimeMillis() + 1000L;
+         while (!caller._interrupted.contains(_slow) && System.currentTimeMillis() < end) {
+            caller.wait(100L);
+         }
+      }
+      assertTrue(caller._interrupted.contains(_slow));
+      assertEquals(0, _slow.getInFlightCount());
+      assertEquals(0, _fast.getInFlightCount());
+   }
+
+   /**
+    * Tests that no hedged call is sent if the target answers within the
+    * hedge delay.
+    */
+   public void testHedgeNotNeeded() throws Exception {
+      TestServiceCaller caller = new TestServiceCaller(new GroupDescriptor(GroupDescriptor.ORDERED_TYPE, new Descriptor[] { _fast, _slow }));
+      CallConfig config = new TestCallConfig();
+      config.setHedgeDelay(500L, 0);
+      for (int i = 0; i < 3; i++) {
+         assertSame(_fast, caller.call(config).getSucceededTarget());
+      }
+      assertEquals(0L, caller.getHedgeCount());
+      assertEquals(3, caller.getCallCount(_fast));
+      assertEquals(0, caller.getCallCount(_slow));
+   }
+
+   /**
+    * Tests the fail-over and the exceptions of hedged calls.
+    */
+   public void testHedgedFailOver() throws Exception {
+      TestServiceCaller caller = new TestServiceCaller(new GroupDescriptor(GroupDescriptor.ORDERED_TYPE, new Descriptor[] { _slow, _fast }));
+      CallConfig config = new TestCallConfig();
+      config.setFailOverAllowed(true);
+      config.setHedgeDelay(500L, 0);
+
+      // A failed call fails over to the next target without waiting
+      caller._failing.add(_slow);
+      CallResult result = caller.call(config);
+      assertSame(_fast, result.getSucceededTarget());
+      assertEquals(1, result.getExceptions().size());
+      assertSame(_slow, result.getExceptions().get(0).getTarget());
+      assertEquals(0L, caller.getHedgeCount());
+
+      // The first exception is thrown if all targets fail
+      caller._failing.add(_fast);
+      try {
+         caller.call(config);
+         fail("Expected CallException.");
+      } catch (CallException ex) {
+         assertSame(_slow, ex.getTarget());
+         assertSame(_fast, ex.getNext().getTarget());
+      }
+
+      // No fail-over if it is not allowed
+      config.setFailOverAllowed(false);
+      try {
+         caller.call(config);
+         fail("Expected CallException.");
+      } catch (CallException ex) {
+         assertSame(_slow, ex.getTarget());
+         assertNull(ex.getNext());
+      }
+      assertEquals(2, caller.getCallCount(_fast));
+   }
+
+   /**
+    * Tests the time-out limited by the deadline of the current thread.
+    */
+   public void testDeadline() throws Exception {
+      assertEquals(-1L, Deadline.get());
+      assertEquals(-1L, Deadline.getRemainingTime());
+      assertEquals(0, Deadline.limit(0));
+      assertEquals(500, Deadline.limit(500));
+      try {
+         Deadline.set(System.currentTimeMillis() + 1000L);
+         assertTrue(Deadline.getRemainingTime() > 0L && Deadline.getRemainingTime() <= 1000L);
+         assertEquals(500, Deadline.limit(500));
+         int limited = Deadline.limit(5000);
+         assertTrue("Limited time-out: " + limited, limited > 0 && limited <= 1000);
+         limited = Deadline.limit(0);
+         assertTrue("Limited time-out: " + limited, limited > 0 && limited <= 1000);
+
+         Deadline.set(System.currentTimeMillis() - 1L);
+         assertEquals(0L, Deadline.getRemainingTime());
+         assertEquals(-1, Deadline.limit(500));
+      } finally {
+         Deadline.clear();
+      }
+      assertEquals(-1L, Deadline.get());
+   }
+
+   /**
+    * Tests the metrics recorded for the calls.
+    */
+   public void testCallMetrics() throws Exception {
+      TestServiceCaller caller = new TestServiceCaller(new GroupDescriptor(GroupDescriptor.ORDERED_TYPE, new Descriptor[] { _slow, _fast }));
+      CallMetrics metrics = new CallMetrics();
+      caller.setCallMetrics(metrics);
+      assertSame(metrics, caller.getCallMetrics());
+      CallConfig config = new TestCallConfig();
+      config.setFailOverAllowed(true);
+
+      caller._failing.add(_slow);
+      caller._delays.put(_fast, 30L);
+      caller.call(config);
+      caller.call(config);
+
+      assertEquals(2, metrics.getMetrics().size());
+      CallMetrics.Metric slowMetric = metrics.getMetric(null, _slow.getURL());
+      assertEquals(2L, slowMetric.getCallCount());
+      assertEquals(2L, slowMetric.getFailureCount());
+      assertEquals(2L, slowMetric.getFailOverCount());
+      assertEquals(Long.valueOf(2L), slowMetric.getErrorCounts().get("IllegalStateException"));
+
+      CallMetrics.Metric fastMetric = metrics.getMetric(null, _fast.getURL());
+      assertEquals(2L, fastMetric.getCallCount());
+      assertEquals(0L, fastMetric.getFailureCount());
+      assertEquals(0L, fastMetric.getFailOverCount());
+      assertTrue(fastMetric.getErrorCounts().isEmpty());
+      assertTrue("Max duration: " + fastMetric.getMaxDuration(), fastMetric.getMaxDuration() >= 30L);
+      assertEquals(fastMetric.getMaxDuration(), fastMetric.getPercentile(100));
+      assertTrue(fastMetric.getPercentile(50) >= 20L);
+      long[] histogram = fastMetric.getHistogram();
+      assertEquals(CallMetrics.getBucketLimits().length + 1, histogram.length);
+
+      assertEquals(2, metrics.getStatistics().size());
+      metrics.reset();
+      assertTrue(metrics.getMetrics().isEmpty());
+
+      // The calls are not recorded without metrics
+      caller.setCallMetrics(null);
+      caller.call(config);
+      assertTrue(metrics.getMetrics().isEmpty());
+   }
+
+   /**
+    * Call configuration for the tests.
+    */
+   private static class TestCallConfig extends CallConfig {
+   }
+
+   /**
+    * Service caller with configurable slow and failing targets.
+    */
+   private static class TestServiceCaller extends ServiceCaller {
+
+      /**
+       * The duration of the calls to the targets.
+       */
+      private final Map<TargetDescriptor, Long> _delays = new HashMap<TargetDescriptor, Long>();
+
+      /**
+       * The targets that fail.
+       */
+      private final Set<TargetDescriptor> _failing = new HashSet<TargetDescriptor>();
+
+      /**
+       * The targets whose calls were interrupted.
+       */
+      private final Set<TargetDescriptor> _interrupted = new HashSet<TargetDescriptor>();
+
+      /**
+       * The number of calls to the targets.
+       */
+      private final Map<TargetDescriptor, Integer> _callCounts = new HashMap<TargetDescriptor, Integer>();
+
+      /**
+       * The thread of the last call to each target.
+       */
+      private final Map<TargetDescriptor, Thread> _threads = new HashMap<TargetDescriptor, Thread>();
+
+      TestServiceCaller(Descriptor descriptor) throws Exception {
+         super(descriptor, null);
+      }
+
+      protected CallConfig getDefaultCallConfig() {
+         return new TestCallConfig();
+      }
+
+      public Object doCallImpl(CallRequest request, CallConfig callConfig, TargetDescriptor target) {
+         synchronized (this) {
+            _callCounts.put(target, getCallCount(target) + 1);
+            _threads.put(target, Thread.currentThread());
+         }
+         Long delay = _delays.get(target);
+         if (delay != null) {
+            try {
+               Thread.sleep(delay.longValue());
+            } catch (InterruptedException iex) {
+               synchronized (this) {
+                  _interrupted.add(target);
+                  notifyAll();
+               }
+               throw new IllegalStateException("Call interrupted.");
+            }
+         }
+         if (_failing.contains(target)) {
+            throw new IllegalStateException("Target down.");
+         }
+         return "ok";
+      }
+
+      synchronized int getCallCount(TargetDescriptor target) {
+         Integer count = _callCounts.get(target);
+         return count == null ? 0 : count.intValue();
+      }
+
+      protected CallResult createCallResult(CallRequest request, TargetDescriptor succeededTarget,
+            long duration, List<CallException> exceptions, Object result) {
+         return new CallResult(request, succeededTarget, duration, exceptions) {};
+      }
+
+      CallResult call(CallConfig callConfig) throws CallException {
+         return doCall(new CallRequest() {
+            public String describe() {
+               return "test request";
+            }
+         }, callConfig);
+      }
+   }
+}
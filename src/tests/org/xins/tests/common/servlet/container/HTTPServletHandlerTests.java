@@ -6,12 +6,14 @@
 package org.xins.tests.common.servlet.container;
 
 import java.io.*;
+import java.net.Socket;
 import java.util.*;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import org.xins.common.servlet.container.HTTPServletHandler;
 import org.xins.tests.AllTests;
 import org.xins.tests.server.HTTPCaller;
 import org.xins.tests.server.HTTPCallerResult;
@@ -155,4 +157,210 @@ public class HTTPServletHandlerTests extends TestCase {
       // Status should be 200 OK
       assertEquals("Expected 200 OK in response to HTTP/1.0 GET request.", "200 OK", result.getStatus());
    }
+
+   /**
+    * Tests that several requests can be sent on the same connection, one
+    * after the other or pipelined.
+    */
+   public void testPersistentConnection() throws Exception {
+      Socket socket = new Socket(AllTests.host(), AllTests.port());
+      try {
+         socket.setSoTimeout(10000);
+         OutputStream out = socket.getOutputStream();
+         InputStream in = socket.getInputStream();
+         String request = "GET /?_convention=_xins-std&_function=Echo&in=hello HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+         // Sequential requests
+         for (int i = 0; i < 2; i++) {
+            out.write(request.getBytes("ISO-8859-1"));
+            out.flush();
+            String response = readResponse(in);
+            assertTrue(response, response.startsWith("HTTP/1.1 200 "));
+            assertTrue(response, response.indexOf("hello") != -1);
+         }
+
+         // Pipelined requests
+         out.write((request + request.replace("hello", "world")).getBytes("ISO-8859-1"));
+         out.flush();
+         assertTrue(readResponse(in).indexOf("hello") != -1);
+         assertTrue(readResponse(in).indexOf("world") != -1);
+
+         // The connection is closed when the client asks for it
+         out.write(request.replace("Host: localhost", "Host: localhost\r\nConnection: close").getBytes("ISO-8859-1"));
+         out.flush();
+         String response = readResponse(in);
+         assertTrue(response, response.toLowerCase().indexOf("connection: close") != -1);
+         assertEquals(-1, in.read());
+      } finally {
+         socket.close();
+      }
+   }
+
+   /**
+    * Tests the requests with a large body and with a chunked body.
+    */
+   public void testRequestBody() throws Exception {
+      StringBuilder value = new StringBuilder();
+      for (int i = 0; i < 10000; i++) {
+         value.append("abcdefghi" + (i % 10));
+      }
+      String body = "_convention=_xins-std&_function=Echo&in=" + value;
+      Socket socket = new Socket(AllTests.host(), AllTests.port());
+      try {
+         socket.setSoTimeout(10000);
+         OutputStream out = socket.getOutputStream();
+         InputStream in = socket.getInputStream();
+
+         // Body with a content length
+         String request = "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-www-form-urlencoded\r\n" +
+               "Content-Length: " + body.length() + "\r\n\r\n" + body;
+         out.write(request.getBytes("ISO-8859-1"));
+         out.flush();
+         String response = readResponse(in);
+         assertTrue(response.substring(0, 20), response.startsWith("HTTP/1.1 200 "));
+         assertTrue(response.indexOf(value.toString()) != -1);
+
+         // Chunked body
+         StringBuilder chunkedRequest = new StringBuilder();
+         chunkedRequest.append("POST / HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-www-form-urlencoded\r\n");
+         chunkedRequest.append("Transfer-Encoding: chunked\r\n\r\n");
+         for (int i = 0; i < body.length(); i += 30000) {
+            String chunk = body.substring(i, Math.min(body.length(), i + 30000));
+            chunkedRequest.append(Integer.toHexString(chunk.length()) + "\r\n" + chunk + "\r\n");
+         }
+         chunkedRequest.append("0\r\n\r\n");
+         out.write(chunkedRequest.toString().getBytes("ISO-8859-1"));
+         out.flush();
+         response = readResponse(in);
+         assertTrue(response.substring(0, 20), response.startsWith("HTTP/1.1 200 "));
+         assertTrue(response.indexOf(value.toString()) != -1);
+
+         // Incorrect requests are rejected
+         out.write("POST / HTTP/1.1\r\nContent-Length: abc\r\n\r\n".getBytes("ISO-8859-1"));
+         out.flush();
+         response = readResponse(in);
+         assertTrue(response, response.startsWith("HTTP/1.1 400 "));
+         assertEquals(-1, in.read());
+      } finally {
+         socket.close();
+      }
+   }
+
+   /**
+    * Tests that the idle connections are closed and that the connections
+    * above the maximum wait to be accepted.
+    */
+   public void testConnectionLimits() throws Exception {
+      System.setProperty(HTTPServletHandler.IDLE_TIME_OUT_PROPERTY, "500");
+      System.setProperty(HTTPServletHandler.MAX_CONNECTIONS_PROPERTY, "1");
+      HTTPServletHandler server;
+      try {
+         server = new HTTPServletHandler(0, true);
+      } finally {
+         System.clearProperty(HTTPServletHandler.IDLE_TIME_OUT_PROPERTY);
+         System.clearProperty(HTTPServletHandler.MAX_CONNECTIONS_PROPERTY);
+      }
+      String request = "GET /test?a=b HTTP/1.1\r\nHost: localhost\r\n\r\n";
+      Socket first = new Socket("127.0.0.1", server.getPort());
+      Socket second = new Socket("127.0.0.1", server.getPort());
+      try {
+         first.setSoTimeout(5000);
+         second.setSoTimeout(5000);
+
+         // No servlet in this server
+         first.getOutputStream().write(request.getBytes("ISO-8859-1"));
+         assertTrue(readResponse(first.getInputStream()).startsWith("HTTP/1.1 404 "));
+
+         // The second connection is handled once the first one is closed
+         long start = System.currentTimeMillis();
+         second.getOutputStream().write(request.getBytes("ISO-8859-1"));
+         assertTrue(readResponse(second.getInputStream()).startsWith("HTTP/1.1 404 "));
+         assertEquals(-1, first.getInputStream().read());
+         assertTrue(System.currentTimeMillis() - start >= 200L);
+      } finally {
+         first.close();
+         second.close();
+         server.close();
+      }
+   }
+
+   /**
+    * Tests that the requests with a body larger than the maximum are
+    * rejected without stopping the server.
+    */
+   public void testRequestBodyLimits() throws Exception {
+      System.setProperty(HTTPServletHandler.MAX_BODY_SIZE_PROPERTY, "1000");
+      HTTPServletHandler server;
+      try {
+         server = new HTTPServletHandler(0, true);
+      } finally {
+         System.clearProperty(HTTPServletHandler.MAX_BODY_SIZE_PROPERTY);
+      }
+      String[] requests = {
+         "POST /test HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1001\r\n\r\n",
+         "POST /test HTTP/1.1\r\nHost: localhost\r\nContent-Length: 4294967296\r\n\r\n",
+         "POST /test HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n7ffffffe\r\nabc",
+         "POST /test HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n1f4\r\n" +
+               new String(new char[500]).replace('\0', 'a') + "\r\n1f5\r\nabc"
+      };
+      try {
+         for (int i = 0; i < requests.length; i++) {
+            Socket socket = new Socket("127.0.0.1", server.getPort());
+            try {
+               socket.setSoTimeout(5000);
+               socket.getOutputStream().write(requests[i].getBytes("ISO-8859-1"));
+               String response = readResponse(socket.getInputStream());
+               assertTrue(response, response.startsWith("HTTP/1.1 413 "));
+               assertEquals(-1, socket.getInputStream().read());
+            } finally {
+               socket.close();
+            }
+         }
+
+         // The server still accepts the requests
+         Socket socket = new Socket("127.0.0.1", server.getPort());
+         try {
+            socket.setSoTimeout(5000);
+            String request = "POST /test HTTP/1.1\r\nHost: localhost\r\nContent-Length: 3\r\n\r\nabc";
+            socket.getOutputStream().write(request.getBytes("ISO-8859-1"));
+            assertTrue(readResponse(socket.getInputStream()).startsWith("HTTP/1.1 404 "));
+         } finally {
+            socket.close();
+         }
+      } finally {
+         server.close();
+      }
+   }
+
+   /**
+    * Reads an HTTP response.
+    *
+    * @param in
+    *    the input stream of the connection, cannot be <code>null</code>.
+    *
+    * @return
+    *    the response, never <code>null</code>.
+    */
+   private static String readResponse(InputStream in) throws IOException {
+      ByteArrayOutputStream response = new ByteArrayOutputStream();
+      String head = "";
+      while (!head.endsWith("\r\n\r\n")) {
+         int c = in.read();
+         if (c == -1) {
+            throw new EOFException("Connection closed: " + head);
+         }
+         response.write(c);
+         head += (char) c;
+      }
+      int lengthIndex = head.toLowerCase().indexOf("content-length:");
+      int length = Integer.parseInt(head.substring(lengthIndex + 15, head.indexOf("\r\n", lengthIndex)).trim());
+      for (int i = 0; i < length; i++) {
+         int c = in.read();
+         if (c == -1) {
+            throw new EOFException("Connection closed.");
+         }
+         response.write(c);
+      }
+      return response.toString("ISO-8859-1");
+   }
 }
@@ -0,0 +1,211 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.servlet.container;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.servlet.container.NettyServletHandler;
+
+/**
+ * Tests for class <code>NettyServletHandler</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class NettyServletHandlerTests extends TestCase {
+
+   /**
+    * The Netty server running the allinone API.
+    */
+   private NettyServletHandler _server;
+
+   /**
+    * The location of the runtime properties before the test.
+    */
+   private String _previousConfig;
+
+   /**
+    * Constructs a new <code>NettyServletHandlerTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public NettyServletHandlerTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(NettyServletHandlerTests.class);
+   }
+
+   /**
+    * Starts the Netty server on a free port.
+    */
+   protected void setUp() throws Exception {
+      File xinsProps = new File(System.getProperty("user.dir"), "src/tests/xins.properties");
+      _previousConfig = System.setProperty("org.xins.server.config", xinsProps.getAbsolutePath());
+      String warLocation = "src/tests/build/webapps/allinone/allinone.war".replace('/', File.separatorChar);
+      File warFile = new File(System.getProperty("user.dir"), warLocation);
+      _server = new NettyServletHandler(warFile);
+      _server.startServer(0, null);
+   }
+
+   /**
+    * Tests that several requests can be sent on the same connection.
+    */
+   public void testPersistentConnection() throws Exception {
+      Socket socket = new Socket("127.0.0.1", _server.getPort());
+      try {
+         socket.setSoTimeout(10000);
+         OutputStream out = socket.getOutputStream();
+         InputStream in = socket.getInputStream();
+         for (int i = 0; i < 3; i++) {
+            String request = "GET /?_convention=_xins-std&_function=Echo&in=hello" + i + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+            out.write(request.getBytes("US-ASCII"));
+            out.flush();
+            String response = readResponse(in);
+            assertTrue(response, response.startsWith("HTTP/1.1 200"));
+            assertTrue(response, response.indexOf("hello" + i) != -1);
+         }
+
+         // The server closes the connection when asked
+         String request = "GET /?_convention=_xins-std&_function=Echo HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+         out.write(request.getBytes("US-ASCII"));
+         out.flush();
+         String response = readResponse(in);
+         assertTrue(response, response.startsWith("HTTP/1.1 200"));
+         assertEquals(-1, in.read());
+      } finally {
+         socket.close();
+      }
+   }
+
+   /**
+    * Tests that the body of a POST request is passed to the servlet.
+    */
+   public void testRequestBody() throws Exception {
+      Socket socket = new Socket("127.0.0.1", _server.getPort());
+      try {
+         socket.setSoTimeout(10000);
+         OutputStream out = socket.getOutputStream();
+         InputStream in = socket.getInputStream();
+         StringBuffer input = new StringBuffer();
+         for (int i = 0; i < 2000; i++) {
+            input.append("posted");
+         }
+         String body = "_convention=_xins-std&_function=Echo&in=" + input;
+         String request = "POST / HTTP/1.1\r\nHost: localhost\r\n" +
+               "Content-Type: application/x-www-form-urlencoded; charset=UTF-8\r\n" +
+               "Content-Length: " + body.length() + "\r\n\r\n" + body;
+         out.write(request.getBytes("US-ASCII"));
+         out.flush();
+         String response = readResponse(in);
+         assertTrue(response, response.startsWith("HTTP/1.1 200"));
+         assertTrue(response, response.indexOf(input.toString()) != -1);
+
+         // A chunked body
+         String chunked = "POST / HTTP/1.1\r\nHost: localhost\r\n" +
+               "Content-Type: application/x-www-form-urlencoded\r\n" +
+               "Transfer-Encoding: chunked\r\n\r\n" +
+               Integer.toHexString(body.length()) + "\r\n" + body + "\r\n0\r\n\r\n";
+         out.write(chunked.getBytes("US-ASCII"));
+         out.flush();
+         response = readResponse(in);
+         assertTrue(response, response.startsWith("HTTP/1.1 200"));
+         assertTrue(response, response.indexOf(input.toString()) != -1);
+      } finally {
+         socket.close();
+      }
+   }
+
+   /**
+    * Tests that a content which is not a form is passed as bytes to the
+    * servlet.
+    */
+   public void testEncodedBody() throws Exception {
+      Socket socket = new Socket("127.0.0.1", _server.getPort());
+      try {
+         socket.setSoTimeout(10000);
+         OutputStream out = socket.getOutputStream();
+         InputStream in = socket.getInputStream();
+         byte[] body = "{ \"jsonrpc\" : \"2.0\", \"method\" : \"Echo\", \"params\" : { \"in\" : \"caf\u00e9\" }, \"id\": 1 }".getBytes("UTF-8");
+         String head = "POST /?_convention=_xins-jsonrpc2 HTTP/1.1\r\nHost: localhost\r\n" +
+               "Content-Type: application/json; charset=UTF-8\r\nAccept: application/json\r\n" +
+               "Content-Length: " + body.length + "\r\n\r\n";
+         out.write(head.getBytes("US-ASCII"));
+         out.write(body);
+         out.flush();
+         String response = readResponse(in);
+         assertTrue(response, response.startsWith("HTTP/1.1 200"));
+
+         // The result has no charset so it is sent in ISO-8859-1
+         assertTrue(response, response.indexOf("caf\u00e9") != -1);
+      } finally {
+         socket.close();
+      }
+   }
+
+   /**
+    * Stops the Netty server.
+    */
+   protected void tearDown() {
+      _server.close();
+      if (_previousConfig == null) {
+         System.clearProperty("org.xins.server.config");
+      } else {
+         System.setProperty("org.xins.server.config", _previousConfig);
+      }
+   }
+
+   /**
+    * Reads an HTTP response.
+    *
+    * @param in
+    *    the input stream of the connection, cannot be <code>null</code>.
+    *
+    * @return
+    *    the response, never <code>null</code>.
+    */
+   private static String readResponse(InputStream in) throws IOException {
+      ByteArrayOutputStream response = new ByteArrayOutputStream();
+      String head = "";
+      while (!head.endsWith("\r\n\r\n")) {
+         int c = in.read();
+         if (c == -1) {
+            throw new EOFException("Connection closed: " + head);
+         }
+         response.write(c);
+         head += (char) c;
+      }
+      int lengthIndex = head.toLowerCase().indexOf("content-length:");
+      int length = Integer.parseInt(head.substring(lengthIndex + 15, head.indexOf("\r\n", lengthIndex)).trim());
+      for (int i = 0; i < length; i++) {
+         int c = in.read();
+         if (c == -1) {
+            throw new EOFException("Connection closed.");
+         }
+         response.write(c);
+      }
+      return response.toString("ISO-8859-1");
+   }
+}
@@ -5,9 +5,12 @@
  */
 package org.xins.tests.common.servlet.container;
 
+import java.io.ByteArrayInputStream;
 import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 import junit.framework.Test;
@@ -85,4 +88,44 @@ public class XINSServletRequestTests extends TestCase {
       String[] test2Values = request.getParameterValues("test2");
       assertNull("Values found for an unset parameter.", test2Values);
    }
+
+   /**
+    * Tests that the content given as bytes is decoded with the encoding of
+    * the request.
+    */
+   public void testBody() throws Exception {
+      Map headers = new HashMap();
+      headers.put("CONTENT-TYPE", "application/json; charset=UTF-8");
+      byte[] body = "{\"in\":\"caf\u00e9\"}".getBytes("UTF-8");
+      XINSServletRequest request = new XINSServletRequest("POST", AllTests.url() + "?a=b", headers, new ByteArrayInputStream(body));
+      assertEquals("b", request.getParameter("a"));
+      assertEquals("{\"in\":\"caf\u00e9\"}", request.getReader().readLine());
+      try {
+         request.getInputStream();
+         fail("Expected IllegalStateException.");
+      } catch (IllegalStateException ex) {
+         // as expected
+      }
+
+      request = new XINSServletRequest("POST", AllTests.url(), headers, new ByteArrayInputStream(body));
+      assertEquals(body.length, request.getInputStream().read(new byte[100]));
+   }
+
+   /**
+    * Tests that the parameters of a form content are decoded when requested.
+    */
+   public void testFormContent() throws Exception {
+      Map headers = new HashMap();
+      headers.put("CONTENT-TYPE", "application/x-www-form-urlencoded");
+      byte[] body = "test1=bla&test2=hello+world".getBytes("US-ASCII");
+      XINSServletRequest request = new XINSServletRequest("POST", AllTests.url() + "?test1=bla2", headers, new ByteArrayInputStream(body));
+      assertEquals(2, request.getParameterValues("test1").length);
+      assertEquals("hello world", request.getParameter("test2"));
+      assertEquals(-1, request.getInputStream().read());
+
+      // The servlet reading the content gets the bytes and no parameters
+      request = new XINSServletRequest("POST", AllTests.url(), headers, new ByteArrayInputStream(body));
+      assertEquals(body.length, request.getInputStream().read(new byte[100]));
+      assertNull(request.getParameter("test2"));
+   }
 }
@@ -0,0 +1,106 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.servlet.container;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.servlet.container.XINSServletResponse;
+
+/**
+ * Tests for class <code>XINSServletResponse</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class XINSServletResponseTests extends TestCase {
+
+   /**
+    * Constructs a new <code>XINSServletResponseTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public XINSServletResponseTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(XINSServletResponseTests.class);
+   }
+
+   /**
+    * Tests that the result written with the writer is encoded with the
+    * encoding of the response.
+    */
+   public void testWriter() throws Exception {
+      XINSServletResponse response = new XINSServletResponse();
+      assertNull(response.getResult());
+      assertEquals(-1, response.getResultLength());
+      response.setContentType("text/plain; charset=UTF-8");
+      PrintWriter writer = response.getWriter();
+      writer.write("caf\u00e9");
+      assertSame(writer, response.getWriter());
+      assertEquals("caf\u00e9", response.getResult());
+      assertEquals(5, response.getResultLength());
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      response.writeResult(out);
+      assertEquals("caf\u00e9", out.toString("UTF-8"));
+      try {
+         response.getOutputStream();
+         fail("Expected IllegalStateException.");
+      } catch (IllegalStateException ex) {
+         // as expected
+      }
+   }
+
+   /**
+    * Tests that the result written with the output stream is kept as bytes.
+    */
+   public void testOutputStream() throws Exception {
+      XINSServletResponse response = new XINSServletResponse();
+      byte[] content = { 1, 2, 3, (byte) 0xFF };
+      response.getOutputStream().write(content);
+      assertEquals(4, response.getResultLength());
+      assertTrue(Arrays.equals(content, response.getResultBytes()));
+      try {
+         response.getWriter();
+         fail("Expected IllegalStateException.");
+      } catch (IllegalStateException ex) {
+         // as expected
+      }
+   }
+
+   /**
+    * Tests that resetting the buffer discards the content written so far.
+    */
+   public void testResetBuffer() throws Exception {
+      XINSServletResponse response = new XINSServletResponse();
+      response.setContentType("text/html; charset=UTF-8");
+      response.setStatus(200);
+      PrintWriter writer = response.getWriter();
+      writer.write("<html><body>caf\u00e9");
+      assertFalse(response.isCommitted());
+      response.resetBuffer();
+      assertEquals(0, response.getResultLength());
+      writer.write("error");
+      assertEquals("error", response.getResult());
+      assertEquals(200, response.getStatus());
+      assertEquals("text/html; charset=UTF-8", response.getContentType());
+   }
+}
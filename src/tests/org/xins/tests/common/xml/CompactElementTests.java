@@ -0,0 +1,154 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.xml;
+
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.w3c.dom.Element;
+
+import org.xins.common.xml.CompactElement;
+import org.xins.common.xml.CompactElementBuilder;
+import org.xins.common.xml.ElementFormatter;
+import org.xins.common.xml.ElementList;
+
+/**
+ * Tests for classes <code>CompactElement</code> and
+ * <code>CompactElementBuilder</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class CompactElementTests extends TestCase {
+
+   /**
+    * Constructs a new <code>CompactElementTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public CompactElementTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(CompactElementTests.class);
+   }
+
+   /**
+    * Tests the <code>CompactElementBuilder</code> class.
+    */
+   public void testCompactElementBuilder() throws Exception {
+      CompactElementBuilder builder = new CompactElementBuilder("person");
+      builder.setAttribute("name", "John");
+      builder.setAttribute("age", "30");
+      builder.setAttribute("name", "Mary");
+      builder.addChild(new CompactElementBuilder("address").setText("Main street"));
+      builder.addChild(new CompactElementBuilder("phone").setAttribute("type", "home"));
+      builder.addChild(new CompactElementBuilder("phone").setAttribute("type", "work"));
+
+      CompactElement person = builder.build();
+      assertSame(person, builder.build());
+      assertEquals("person", person.getName());
+      assertEquals(2, person.getAttributeCount());
+      assertEquals("name", person.getAttributeName(0));
+      assertEquals("Mary", person.getAttributeValue(0));
+      assertEquals("30", person.getAttribute("age"));
+      assertNull(person.getAttribute("unknown"));
+      assertEquals(3, person.getChildCount());
+      assertEquals("Main street", person.getChild(0).getText());
+      assertEquals(2, person.getChildElements("phone").size());
+      assertEquals(0, person.getChildElements("fax").size());
+
+      // Removing an attribute
+      builder.setAttribute("age", null);
+      CompactElement person2 = builder.build();
+      assertNotSame(person, person2);
+      assertEquals(1, person2.getAttributeCount());
+      assertEquals(2, person.getAttributeCount());
+
+      try {
+         person.getChildElements().add(person2);
+         fail("The list of child elements should be unmodifiable.");
+      } catch (UnsupportedOperationException uoe) {
+         // as expected
+      }
+   }
+
+   /**
+    * Tests the serialization of a <code>CompactElement</code>.
+    */
+   public void testFormat() throws Exception {
+      CompactElementBuilder builder = new CompactElementBuilder("data");
+      builder.addChild(new CompactElementBuilder("product").setAttribute("name", "<&>").setText("3 > 2"));
+      builder.addChild(new CompactElementBuilder("empty"));
+      String xml = ElementFormatter.format(builder.build());
+      assertEquals("<data><product name=\"&lt;&amp;&gt;\">3 &gt; 2</product><empty/></data>", xml);
+      assertEquals(xml, builder.build().toString());
+   }
+
+   /**
+    * Tests the conversions between <code>CompactElement</code> and DOM.
+    */
+   public void testDOMConversion() throws Exception {
+      String xml = "<data><product id=\"1\" price=\"12\"><name>Chair</name></product><product id=\"2\"/></data>";
+      Element domElement = ElementFormatter.parse(xml);
+      CompactElement compact = CompactElement.fromDOM(domElement);
+      assertEquals("data", compact.getName());
+      List<CompactElement> products = compact.getChildElements("product");
+      assertEquals(2, products.size());
+      assertEquals("12", products.get(0).getAttribute("price"));
+      assertEquals("Chair", products.get(0).getChild(0).getText());
+      assertNull(products.get(1).getText());
+
+      Element converted = compact.toDOM(domElement.getOwnerDocument());
+      assertEquals("data", converted.getTagName());
+      ElementList convertedProducts = new ElementList(converted, "product");
+      assertEquals(2, convertedProducts.size());
+      assertEquals("12", convertedProducts.get(0).getAttribute("price"));
+      assertEquals("Chair", convertedProducts.get(0).getTextContent());
+
+      assertEquals(compact, CompactElement.fromDOM(converted));
+      assertEquals(compact.hashCode(), CompactElement.fromDOM(converted).hashCode());
+   }
+
+   /**
+    * Tests that the namespace of the elements is kept in the conversions
+    * between <code>CompactElement</code> and DOM.
+    */
+   public void testNamespaceConversion() throws Exception {
+      String xml = "<ns:data xmlns:ns=\"urn:test\" id=\"1\"><ns:product/><product/></ns:data>";
+      Element domElement = ElementFormatter.parse(xml);
+      CompactElement compact = CompactElement.fromDOM(domElement);
+      assertEquals("urn:test", compact.getNamespaceURI());
+      assertEquals("ns:data", compact.getName());
+      assertEquals("urn:test", compact.getChild(0).getNamespaceURI());
+      assertNull(compact.getChild(1).getNamespaceURI());
+
+      Element converted = compact.toDOM(domElement.getOwnerDocument());
+      assertEquals("urn:test", converted.getNamespaceURI());
+      assertEquals("data", converted.getLocalName());
+      assertEquals("ns", converted.getPrefix());
+      assertEquals("1", converted.getAttributeNS(null, "id"));
+      Element product = (Element) converted.getFirstChild();
+      assertEquals("urn:test", product.getNamespaceURI());
+      assertEquals("product", product.getLocalName());
+      assertEquals(compact, CompactElement.fromDOM(converted));
+
+      CompactElement built = new CompactElementBuilder("urn:test", "ns:product").build();
+      assertEquals(compact.getChild(0), built);
+      assertFalse(built.equals(new CompactElementBuilder("ns:product").build()));
+   }
+}
@@ -0,0 +1,156 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.common.xml;
+
+import java.io.StringReader;
+import javax.xml.parsers.DocumentBuilder;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import org.xins.common.xml.DocumentBuilderPool;
+
+/**
+ * Tests for class <code>DocumentBuilderPool</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class DocumentBuilderPoolTests extends TestCase {
+
+   /**
+    * Constructs a new <code>DocumentBuilderPoolTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public DocumentBuilderPoolTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(DocumentBuilderPoolTests.class);
+   }
+
+   /**
+    * Tests that a released builder is reused by the same thread.
+    */
+   public void testReuse() throws Exception {
+      DocumentBuilderPool pool = DocumentBuilderPool.getInstance();
+      assertSame(pool, DocumentBuilderPool.getInstance());
+      pool.setStatisticsEnabled(true);
+
+      DocumentBuilder builder1 = pool.getBuilder();
+      DocumentBuilder builder2 = pool.getBuilder();
+      assertNotSame(builder1, builder2);
+      pool.releaseBuilder(builder1);
+      pool.releaseBuilder(builder2);
+
+      // Releasing twice should not make the builder available twice
+      pool.releaseBuilder(builder1);
+
+      long threadHits = pool.getThreadHitCount();
+      long borrows = pool.getBorrowCount();
+      DocumentBuilder builder3 = pool.getBuilder();
+      DocumentBuilder builder4 = pool.getBuilder();
+      assertNotSame(builder3, builder4);
+      assertSame(builder1, builder3);
+      assertEquals(threadHits + 1, pool.getThreadHitCount());
+      assertEquals(borrows + 2, pool.getBorrowCount());
+      assertTrue(pool.getTotalBorrowTime() > 0L);
+      pool.releaseBuilder(builder3);
+      pool.releaseBuilder(builder4);
+      pool.setStatisticsEnabled(false);
+   }
+
+   /**
+    * Tests that a builder released twice while it is in the shared stack is
+    * not made available twice.
+    */
+   public void testDoubleRelease() throws Exception {
+      DocumentBuilderPool pool = DocumentBuilderPool.getInstance();
+      DocumentBuilder builder1 = pool.getBuilder();
+      DocumentBuilder builder2 = pool.getBuilder();
+      pool.releaseBuilder(builder1);
+      pool.releaseBuilder(builder2);
+
+      // builder1 comes from the thread, builder2 is still in the shared stack
+      assertSame(builder1, pool.getBuilder());
+      pool.releaseBuilder(builder2);
+
+      DocumentBuilder builder3 = pool.getBuilder();
+      DocumentBuilder builder4 = pool.getBuilder();
+      assertNotSame(builder3, builder4);
+      pool.releaseBuilder(builder1);
+      pool.releaseBuilder(builder3);
+      pool.releaseBuilder(builder4);
+   }
+
+   /**
+    * Tests that the external entities are not resolved after the builder has
+    * been reused.
+    */
+   public void testEntityResolver() throws Exception {
+      String xml = "<!DOCTYPE data SYSTEM \"http://nonexistent.xins.org/data.dtd\"><data><product id=\"1\"/></data>";
+      DocumentBuilderPool pool = DocumentBuilderPool.getInstance();
+      for (int i = 0; i < 3; i++) {
+         DocumentBuilder builder = pool.getBuilder();
+         try {
+            Element data = builder.parse(new InputSource(new StringReader(xml))).getDocumentElement();
+            assertEquals("data", data.getTagName());
+         } finally {
+            pool.releaseBuilder(builder);
+         }
+      }
+   }
+
+   /**
+    * Tests the pool used by several threads.
+    */
+   public void testConcurrentUse() throws Exception {
+      final DocumentBuilderPool pool = DocumentBuilderPool.getInstance();
+      final Throwable[] failure = new Throwable[1];
+      Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++) {
+         threads[i] = new Thread() {
+            public void run() {
+               try {
+                  for (int j = 0; j < 200; j++) {
+                     DocumentBuilder builder = pool.getBuilder();
+                     DocumentBuilder builder2 = pool.getBuilder();
+                     builder.parse(new InputSource(new StringReader("<a><b/></a>")));
+                     builder2.newDocument();
+                     pool.releaseBuilder(builder2);
+                     pool.releaseBuilder(builder);
+                  }
+               } catch (Throwable ex) {
+                  synchronized (failure) {
+                     failure[0] = ex;
+                  }
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (int i = 0; i < threads.length; i++) {
+         threads[i].join();
+      }
+      if (failure[0] != null) {
+         throw new Exception("Concurrent use of the pool failed.", failure[0]);
+      }
+      assertTrue(pool.getMissCount() <= pool.getBorrowCount());
+   }
+}
@@ -0,0 +1,101 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.server;
+
+import java.io.StringWriter;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.xins.common.xml.CompactElement;
+import org.xins.common.xml.CompactElementBuilder;
+import org.xins.common.xml.ElementFormatter;
+import org.xins.server.CallResultOutputter;
+import org.xins.server.FunctionResult;
+
+/**
+ * Tests for the <code>CallResultOutputter</code> class.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class CallResultOutputterTests extends TestCase {
+
+   /**
+    * Constructs a new <code>CallResultOutputterTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public CallResultOutputterTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(CallResultOutputterTests.class);
+   }
+
+   /**
+    * Tests that the SAX source of a result produces the same XML as the
+    * serialized result.
+    */
+   public void testCreateSource() throws Exception {
+      DataResult result = new DataResult();
+      result.param("text", "Hello <World> & \u20AC");
+      result.add(new CompactElementBuilder("product").setAttribute("id", "1").setText("Chair").build());
+      result.add(new CompactElementBuilder("product").setAttribute("id", "2").build());
+
+      StringWriter serialized = new StringWriter();
+      CallResultOutputter.output(serialized, result);
+      Element expected = ElementFormatter.parse(serialized.toString());
+
+      DOMResult domResult = new DOMResult();
+      TransformerFactory.newInstance().newTransformer().transform(CallResultOutputter.createSource(result), domResult);
+      Element actual = ((Document) domResult.getNode()).getDocumentElement();
+
+      assertEquals(ElementFormatter.format(expected), ElementFormatter.format(actual));
+      assertEquals("result", actual.getTagName());
+      assertEquals(2, actual.getChildNodes().getLength());
+   }
+
+   /**
+    * Tests the SAX source of an unsuccessful result.
+    */
+   public void testCreateSourceErrorCode() throws Exception {
+      FunctionResult result = new FunctionResult("NoVowel");
+      DOMResult domResult = new DOMResult();
+      TransformerFactory.newInstance().newTransformer().transform(CallResultOutputter.createSource(result), domResult);
+      Element actual = ((Document) domResult.getNode()).getDocumentElement();
+      assertEquals("NoVowel", actual.getAttribute("errorcode"));
+      assertEquals(0, actual.getChildNodes().getLength());
+   }
+
+   /**
+    * Function result that exposes the protected methods.
+    */
+   private static class DataResult extends FunctionResult {
+
+      public void param(String name, String value) {
+         super.param(name, value);
+      }
+
+      public void add(CompactElement element) {
+         super.add(element);
+      }
+   }
+}
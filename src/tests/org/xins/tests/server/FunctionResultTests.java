@@ -11,6 +11,11 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import org.w3c.dom.Element;
+
+import org.xins.common.xml.CompactElement;
+import org.xins.common.xml.CompactElementBuilder;
+import org.xins.common.xml.ElementList;
 import org.xins.server.FunctionResult;
 
 /**
@@ -149,4 +154,47 @@ public class FunctionResultTests extends TestCase {
       assertEquals(null,      fr.getParameter(""));
       assertEquals(null,      fr.getParameter("a"));
    }
+
+   /**
+    * Tests the data section of a <code>FunctionResult</code> built with
+    * compact elements.
+    */
+   public void testCompactDataElement() throws Throwable {
+      CompactResult fr = new CompactResult();
+      assertNull(fr.getCompactDataElement());
+      assertNull(fr.getDataElement());
+
+      fr.add(new CompactElementBuilder("product").setAttribute("id", "1").build());
+      fr.add(new CompactElementBuilder("product").setAttribute("id", "2").build());
+      CompactElement compactData = fr.getCompactDataElement();
+      assertEquals("data", compactData.getName());
+      assertEquals(2, compactData.getChildCount());
+      assertSame(compactData, fr.getCompactDataElement());
+
+      // Switch to DOM, the compact elements already added should be kept
+      Element dataElement = fr.getDataElement();
+      assertEquals(2, new ElementList(dataElement, "product").size());
+      fr.add(new CompactElementBuilder("product").setAttribute("id", "3").build());
+      assertSame(dataElement, fr.getDataElement());
+      ElementList products = new ElementList(dataElement, "product");
+      assertEquals(3, products.size());
+      assertEquals("3", products.get(2).getAttribute("id"));
+      CompactElement convertedData = fr.getCompactDataElement();
+      assertEquals(3, convertedData.getChildCount());
+
+      // The DOM data element is converted once until it is modified
+      assertSame(convertedData, fr.getCompactDataElement());
+      fr.add(new CompactElementBuilder("product").setAttribute("id", "4").build());
+      assertEquals(4, fr.getCompactDataElement().getChildCount());
+   }
+
+   /**
+    * Function result that exposes the protected <code>add</code> method.
+    */
+   private static class CompactResult extends FunctionResult {
+
+      public void add(CompactElement element) {
+         super.add(element);
+      }
+   }
 }
@@ -9,6 +9,7 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import org.xins.common.text.HexConverter;
@@ -61,6 +62,67 @@ public class JSONRPC2CallingConventionTests extends TestCase {
       assertEquals("test-jsonrpc2", out);
    }
 
+   /**
+    * Tests a JSON-RPC 2.0 batch request containing calls, a notification and
+    * invalid calls.
+    */
+   public void testJSONRPC2Batch() throws Throwable {
+      String destination = AllTests.url() + "allinone/?_convention=_xins-jsonrpc2";
+      StringBuffer input = new StringBuffer("[");
+      for (int i = 1; i <= 6; i++) {
+         input.append("{ \"jsonrpc\" : \"2.0\", \"method\" : \"Echo\", \"params\" : { \"in\" : \"batch-" + i + "\" }, \"id\": " + i + " }, ");
+      }
+      input.append("{ \"jsonrpc\" : \"2.0\", \"method\" : \"Echo\", \"params\" : { \"in\" : \"notification\" } }, ");
+      input.append("1, ");
+      input.append("{ \"jsonrpc\" : \"1.0\", \"method\" : \"Echo\", \"params\" : { \"in\" : \"old\" }, \"id\": 9 } ]");
+      String jsonResult = CallingConventionTests.postData(destination, input.toString(), "application/json", 200);
+      JSONArray responses = new JSONArray(jsonResult);
+
+      // The notification has no response
+      assertEquals(8, responses.length());
+      for (int i = 0; i < 6; i++) {
+         JSONObject response = responses.getJSONObject(i);
+         assertEquals("2.0", response.getString("jsonrpc"));
+         assertEquals(i + 1, response.getInt("id"));
+         assertEquals("batch-" + (i + 1), response.getJSONObject("result").getString("out"));
+      }
+
+      // The invalid calls
+      JSONObject notAnObject = responses.getJSONObject(6);
+      assertTrue(notAnObject.isNull("id"));
+      assertEquals(-32600, notAnObject.getJSONObject("error").getInt("code"));
+      JSONObject wrongVersion = responses.getJSONObject(7);
+      assertEquals(9, wrongVersion.getInt("id"));
+      assertEquals(-32600, wrongVersion.getJSONObject("error").getInt("code"));
+   }
+
+   /**
+    * Tests that the errors of a call in a batch request are returned in the
+    * response of the call.
+    */
+   public void testJSONRPC2BatchWithError() throws Throwable {
+      String randomLong = HexConverter.toHexString(CallingConventionTests.RANDOM.nextLong());
+      String randomFive = randomLong.substring(0, 5);
+      String destination = AllTests.url() + "allinone/?_convention=_xins-jsonrpc2";
+      String call = "{ \"jsonrpc\" : \"2.0\", \"method\"  : \"ResultCode\", \"params\"  : { \"useDefault\" : false, \"inputText\" : \"" + randomFive + "\" }, \"id\": ";
+      String input = "[ " + call + "\"first\" } ]";
+      String jsonResult = CallingConventionTests.postData(destination, input, "application/json", 200);
+      JSONObject first = new JSONArray(jsonResult).getJSONObject(0);
+      assertEquals("first", first.getString("id"));
+      assertEquals(randomFive + " added.", first.getJSONObject("result").getString("outputText"));
+
+      input = "[ " + call + "\"second\" }, { \"jsonrpc\" : \"2.0\", \"method\" : \"Unknown\", \"id\": \"third\" } ]";
+      jsonResult = CallingConventionTests.postData(destination, input, "application/json", 200);
+      JSONArray responses = new JSONArray(jsonResult);
+      assertEquals(2, responses.length());
+      JSONObject second = responses.getJSONObject(0);
+      assertEquals("second", second.getString("id"));
+      assertEquals("The parameter has already been given.", second.getJSONObject("error").getString("message"));
+      JSONObject third = responses.getJSONObject(1);
+      assertEquals("third", third.getString("id"));
+      assertNotNull(third.getJSONObject("error"));
+   }
+
    /**
     * Test the JSON calling convention using the 2.0 specifications.
     */
@@ -0,0 +1,206 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.server;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.spi.LoggingEvent;
+
+import org.xins.client.UnacceptableErrorCodeXINSCallException;
+import org.xins.client.UnsuccessfulXINSCallException;
+import org.xins.client.XINSCallRequest;
+import org.xins.client.XINSServiceCaller;
+import org.xins.common.service.TargetDescriptor;
+import org.xins.common.servlet.container.LocalServletConfig;
+import org.xins.server.APIServlet;
+
+import com.mycompany.allinone.capi.CAPI;
+
+/**
+ * Tests the reload of the runtime properties while the API is running.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class RuntimePropertiesReloadTests extends TestCase {
+
+   /**
+    * The runtime properties used by the tests.
+    */
+   private static final String PROPERTIES = "allinone.rate=0.206\n"
+         + "currency=Euros\n"
+         + "capis.checkLinks1=service, http://127.0.0.1:7/, 8000, 8000, 8000\n"
+         + "capis.checkLinks2=service, http://127.0.0.1:7/, 8000, 8000, 8000\n"
+         + "capis.checkLinks3=service, http://127.0.0.1:7/, 8000, 8000, 8000\n"
+         + "capis.checkLinks4=service, http://127.0.0.1:7/, 8000, 8000, 8000\n"
+         + "capis.checkLinks5=service, http://127.0.0.1:7/, 8000, 8000, 8000\n"
+         + "org.xins.server.config.reload=60\n"
+         + "org.xins.server.acl=allow 0.0.0.0/0 *\n"
+         + "log4j.rootLogger=WARN, console\n"
+         + "log4j.appender.console=org.apache.log4j.ConsoleAppender\n"
+         + "log4j.appender.console.layout=org.apache.log4j.PatternLayout\n"
+         + "log4j.logger.org.xins.server.lifespan.init=DEBUG, messages\n"
+         + "log4j.additivity.org.xins.server.lifespan.init=false\n"
+         + "log4j.appender.messages=" + MessageAppender.class.getName() + "\n";
+
+   /**
+    * The runtime properties file.
+    */
+   private File _configFile;
+
+   /**
+    * The location of the runtime properties before the test.
+    */
+   private String _previousConfig;
+
+   /**
+    * The allinone API loaded with the class loader of the tests.
+    */
+   private APIServlet _servlet;
+
+   /**
+    * The <code>CAPI</code> object used to call the API.
+    */
+   private CAPI _capi;
+
+   /**
+    * Constructs a new <code>RuntimePropertiesReloadTests</code> test suite
+    * with the specified name. The name will be passed to the
+    * superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public RuntimePropertiesReloadTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(RuntimePropertiesReloadTests.class);
+   }
+
+   protected void setUp() throws Exception {
+      _configFile = File.createTempFile("xins", ".properties");
+      write(_configFile, PROPERTIES);
+      _previousConfig = System.setProperty("org.xins.server.config", _configFile.getAbsolutePath());
+      String warLocation = "src/tests/build/webapps/allinone/allinone.war".replace('/', File.separatorChar);
+      File warFile = new File(System.getProperty("user.dir"), warLocation);
+      _servlet = new APIServlet();
+      _servlet.init(new LocalServletConfig(warFile));
+      _capi = new CAPI(new TargetDescriptor("local://allinone", 20000));
+   }
+
+   /**
+    * Tests that a change of the access rules is applied without
+    * reinitializing the components that do not use the changed properties.
+    */
+   public void testAccessRulesChange() throws Exception {
+      assertNull(callEcho());
+
+      // Deny the access to the Echo function
+      MessageAppender.MESSAGES.clear();
+      write(_configFile, PROPERTIES + "org.xins.server.acl.allinone=deny 0.0.0.0/0 Echo\n");
+      _configFile.setLastModified(_configFile.lastModified() + 2000L);
+      XINSServiceCaller caller = new XINSServiceCaller(new TargetDescriptor("local://allinone"));
+      caller.call(new XINSCallRequest("_ReloadProperties"));
+      String errorCode = null;
+      for (int i = 0; i < 100 && errorCode == null; i++) {
+         Thread.sleep(100L);
+         errorCode = callEcho();
+      }
+      assertEquals("_NotAllowed", errorCode);
+
+      // Only the access rules were reinitialized
+      assertTrue(MessageAppender.MESSAGES.contains("3448"));
+      assertFalse("The API should not be fully reinitialized.", MessageAppender.MESSAGES.contains("3405"));
+      assertFalse("The functions should not be reinitialized.", MessageAppender.MESSAGES.contains("3421"));
+      assertFalse("The shared instance should not be reinitialized.", MessageAppender.MESSAGES.contains("3416"));
+   }
+
+   /**
+    * Calls the <em>Echo</em> function.
+    *
+    * @return
+    *    the error code returned, or <code>null</code> if the call succeeded.
+    */
+   private String callEcho() throws Exception {
+      try {
+         _capi.callEcho("hello");
+         return null;
+      } catch (UnacceptableErrorCodeXINSCallException exception) {
+         return exception.getErrorCode();
+      } catch (UnsuccessfulXINSCallException exception) {
+         return exception.getErrorCode();
+      }
+   }
+
+   protected void tearDown() {
+      _servlet.destroy();
+      if (_previousConfig == null) {
+         System.clearProperty("org.xins.server.config");
+      } else {
+         System.setProperty("org.xins.server.config", _previousConfig);
+      }
+      _configFile.delete();
+   }
+
+   /**
+    * Appender keeping the identifiers of the initialization log messages.
+    */
+   public static class MessageAppender extends AppenderSkeleton {
+
+      /**
+       * The identifiers of the logged messages.
+       */
+      static final List<String> MESSAGES = Collections.synchronizedList(new ArrayList<String>());
+
+      protected void append(LoggingEvent event) {
+         String loggerName = event.getLoggerName();
+         MESSAGES.add(loggerName.substring(loggerName.lastIndexOf('.') + 1));
+      }
+
+      public boolean requiresLayout() {
+         return false;
+      }
+
+      public void close() {
+      }
+   }
+
+   /**
+    * Writes a file.
+    *
+    * @param file
+    *    the file, cannot be <code>null</code>.
+    *
+    * @param content
+    *    the content of the file, cannot be <code>null</code>.
+    */
+   private static void write(File file, String content) throws IOException {
+      FileWriter writer = new FileWriter(file);
+      try {
+         writer.write(content);
+      } finally {
+         writer.close();
+      }
+   }
+}
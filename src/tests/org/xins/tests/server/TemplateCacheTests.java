@@ -0,0 +1,256 @@
+/*
+ * $Id$
+ *
+ * See the COPYRIGHT file for redistribution and use restrictions.
+ */
+package org.xins.tests.server;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xins.common.collections.InvalidPropertyValueException;
+import org.xins.server.TemplateCache;
+
+/**
+ * Tests for class <code>TemplateCache</code>.
+ *
+ * @version $Revision$ $Date$
+ * @author <a href="mailto:anthony.goubard@japplis.com">Anthony Goubard</a>
+ */
+public class TemplateCacheTests extends TestCase {
+
+   /**
+    * The directory containing the XSLT files created for the tests.
+    */
+   private File _xsltDir;
+
+   /**
+    * Constructs a new <code>TemplateCacheTests</code> test suite with
+    * the specified name. The name will be passed to the superconstructor.
+    *
+    * @param name
+    *    the name for this test suite.
+    */
+   public TemplateCacheTests(String name) {
+      super(name);
+   }
+
+   /**
+    * Returns a test suite with all test cases defined by this class.
+    *
+    * @return
+    *    the test suite, never <code>null</code>.
+    */
+   public static Test suite() {
+      return new TestSuite(TemplateCacheTests.class);
+   }
+
+   protected void setUp() throws Exception {
+      _xsltDir = File.createTempFile("xins-templates", "");
+      _xsltDir.delete();
+      _xsltDir.mkdirs();
+   }
+
+   protected void tearDown() throws Exception {
+      File[] files = _xsltDir.listFiles();
+      for (int i = 0; i < files.length; i++) {
+         files[i].delete();
+      }
+      _xsltDir.delete();
+   }
+
+   /**
+    * Creates an XSLT file.
+    *
+    * @param name
+    *    the name of the file.
+    *
+    * @param text
+    *    the text output by the XSLT.
+    *
+    * @return
+    *    the URL of the file created.
+    */
+   private String createXSLT(String name, String text) throws Exception {
+      File xsltFile = new File(_xsltDir, name);
+      FileWriter writer = new FileWriter(xsltFile);
+      writer.write("<?xml version=\"1.0\"?>\n" +
+            "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">\n" +
+            "<xsl:output method=\"text\" />\n" +
+            "<xsl:template match=\"/\">" + text + "</xsl:template>\n" +
+            "</xsl:stylesheet>\n");
+      writer.close();
+      return xsltFile.toURI().toString();
+   }
+
+   /**
+    * Tests the cache hits, misses and the LRU eviction.
+    */
+   public void testHitsAndEviction() throws Exception {
+      String xslt1 = createXSLT("one.xslt", "1");
+      String xslt2 = createXSLT("two.xslt", "2");
+      String xslt3 = createXSLT("three.xslt", "3");
+      TemplateCache cache = new TemplateCache(TransformerFactory.newInstance(), 2, false);
+
+      Templates templates1 = cache.get(xslt1);
+      assertSame(templates1, cache.get(xslt1));
+      assertEquals(1L, cache.getMissCount());
+      assertEquals(1L, cache.getHitCount());
+
+      cache.get(xslt2);
+      cache.get(xslt1);
+      cache.get(xslt3);
+      assertEquals(2, cache.getSize());
+      assertEquals(1L, cache.getEvictionCount());
+
+      // xslt2 was the least recently used
+      assertSame(templates1, cache.get(xslt1));
+      long misses = cache.getMissCount();
+      cache.get(xslt2);
+      assertEquals(misses + 1, cache.getMissCount());
+
+      cache.clear();
+      assertEquals(0, cache.getSize());
+   }
+
+   /**
+    * Tests that concurrent requests for the same template compile it only
+    * once.
+    */
+   public void testSingleCompilation() throws Exception {
+      final String xslt = createXSLT("concurrent.xslt", "concurrent");
+      final TemplateCache cache = new TemplateCache(TransformerFactory.newInstance(), 10, false);
+      final List<Templates> results = new ArrayList<Templates>();
+      Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++) {
+         threads[i] = new Thread() {
+            public void run() {
+               try {
+                  Templates templates = cache.get(xslt);
+                  synchronized (results) {
+                     results.add(templates);
+                  }
+               } catch (TransformerConfigurationException tcex) {
+                  // The number of results will be incorrect
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (int i = 0; i < threads.length; i++) {
+         threads[i].join();
+      }
+      assertEquals(threads.length, results.size());
+      assertEquals(1L, cache.getMissCount());
+      for (Templates templates : results) {
+         assertSame(results.get(0), templates);
+      }
+   }
+
+   /**
+    * Tests that a modified template is compiled again if the modification
+    * check is enabled.
+    */
+   public void testModifiedTemplate() throws Exception {
+      String xslt = createXSLT("modified.xslt", "before");
+      TemplateCache cache = new TemplateCache(TransformerFactory.newInstance(), 10, true);
+      Templates before = cache.get(xslt);
+      assertSame(before, cache.get(xslt));
+
+      File xsltFile = new File(_xsltDir, "modified.xslt");
+      createXSLT("modified.xslt", "after");
+      xsltFile.setLastModified(xsltFile.lastModified() + 10000L);
+      assertNotSame(before, cache.get(xslt));
+      assertEquals(2L, cache.getMissCount());
+   }
+
+   /**
+    * Tests that a template that cannot be compiled is not cached.
+    */
+   public void testIncorrectTemplate() throws Exception {
+      String xslt = new File(_xsltDir, "nonexistent.xslt").toURI().toString();
+      TemplateCache cache = new TemplateCache(TransformerFactory.newInstance(), 10, false);
+      for (int i = 0; i < 2; i++) {
+         try {
+            cache.get(xslt);
+            fail("TransformerConfigurationException expected.");
+         } catch (TransformerConfigurationException tcex) {
+            // as expected
+         }
+      }
+      assertEquals(2L, cache.getMissCount());
+      assertEquals(0, cache.getSize());
+
+      List<String> locations = new ArrayList<String>();
+      locations.add(xslt);
+      locations.add(createXSLT("existent.xslt", "ok"));
+      assertEquals(1, cache.precompile(locations));
+      assertEquals(1, cache.getSize());
+   }
+
+   /**
+    * Tests the creation of the cache from the runtime properties.
+    */
+   public void testRuntimeProperties() throws Exception {
+      String xslt = createXSLT("disabled.xslt", "disabled");
+      Map<String, String> properties = new HashMap<String, String>();
+      TemplateCache disabledCache = new TemplateCache(TransformerFactory.newInstance(), false, properties);
+      assertNotSame(disabledCache.get(xslt), disabledCache.get(xslt));
+      assertEquals(0, disabledCache.getSize());
+      assertFalse(TemplateCache.isPrecompileEnabled(properties));
+
+      properties.put(TemplateCache.TEMPLATES_CACHE_SIZE_PROPERTY, "abc");
+      try {
+         new TemplateCache(TransformerFactory.newInstance(), true, properties);
+         fail("InvalidPropertyValueException expected.");
+      } catch (InvalidPropertyValueException ipve) {
+         // as expected
+      }
+      properties.put(TemplateCache.TEMPLATES_CACHE_SIZE_PROPERTY, "5");
+      properties.put(TemplateCache.TEMPLATES_CACHE_PRECOMPILE_PROPERTY, "true");
+      assertTrue(TemplateCache.isPrecompileEnabled(properties));
+      TemplateCache cache = new TemplateCache(TransformerFactory.newInstance(), true, properties);
+      assertSame(cache.get(xslt), cache.get(xslt));
+   }
+
+   /**
+    * Tests that the transformers are reused by the same thread.
+    */
+   public void testTransformerReuse() throws Exception {
+      final String xslt = createXSLT("reuse.xslt", "reuse");
+      final TemplateCache cache = new TemplateCache(TransformerFactory.newInstance(), 10, false);
+      Transformer transformer = cache.getTransformer(xslt);
+      transformer.setParameter("test", "value");
+      assertSame(transformer, cache.getTransformer(xslt));
+      assertNull("The transformer should be reset.", transformer.getParameter("test"));
+
+      final Transformer[] otherThreadTransformer = new Transformer[1];
+      Thread otherThread = new Thread() {
+         public void run() {
+            try {
+               otherThreadTransformer[0] = cache.getTransformer(xslt);
+            } catch (TransformerConfigurationException tcex) {
+               // The transformer will be null
+            }
+         }
+      };
+      otherThread.start();
+      otherThread.join();
+      assertNotNull(otherThreadTransformer[0]);
+      assertNotSame(transformer, otherThreadTransformer[0]);
+      assertEquals(1L, cache.getMissCount());
+   }
+}